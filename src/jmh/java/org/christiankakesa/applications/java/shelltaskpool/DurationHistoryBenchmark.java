@@ -0,0 +1,64 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro benchmarks of the history queries on an indexed history of 100000 command lines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DurationHistoryBenchmark {
+    private static final int COMMAND_LINES = 100000;
+
+    private File file;
+    private DurationHistory history;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("benchmark", ".history");
+        DurationHistory h = new DurationHistory(file);
+        for (int i = 0; i < COMMAND_LINES; ++i) {
+            for (int run = 0; run < 4; ++run) {
+                h.record("/usr/local/bin/export.sh --partition " + i, 0L, i + run, 0, 1024L);
+            }
+        }
+        h.close();
+        history = new DurationHistory(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        history.close();
+        file.delete();
+        new File(file.getPath() + DurationHistory.INDEX_SUFFIX).delete();
+    }
+
+    @Benchmark
+    public long expectedDuration() {
+        return history.expectedDuration("/usr/local/bin/export.sh --partition 4242");
+    }
+
+    @Benchmark
+    public long p95() {
+        return history.getStats("/usr/local/bin/export.sh --partition 4242").getP95();
+    }
+}
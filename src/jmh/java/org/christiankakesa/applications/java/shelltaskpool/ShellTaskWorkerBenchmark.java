@@ -0,0 +1,117 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of shell-task-pool around a process doing nothing (<code>/bin/true</code>): command parsing, process
+ * spawn, output draining and job event. Results are in jobs per second, run with <code>-prof gc</code> for the
+ * allocations per job. Jobs run in batches of their own, the batch records are logged out of the measure.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShellTaskWorkerBenchmark {
+    /**
+     * Number of jobs submitted to the pool per invocation.
+     */
+    private static final int JOBS_PER_BATCH = 64;
+
+    private static final String TRUE_COMMAND = "/bin/true";
+
+    private Batch batch;
+
+    /**
+     * Pool of the <code>pool</code> benchmark, started for each iteration.
+     */
+    @State(Scope.Benchmark)
+    public static class PoolState {
+        /**
+         * Values of <b>corepoolsize</b>.
+         */
+        @Param({"1", "2", "4", "8"})
+        public int corePoolSize;
+
+        private Batch batch;
+        private MyThreadPoolExecutor mtpe;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            batch = ShellTaskWorkerBenchmark.newBatch();
+            mtpe = new MyThreadPoolExecutor(batch, corePoolSize, corePoolSize);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws InterruptedException {
+            mtpe.shutdown();
+            mtpe.awaitTermination(1, TimeUnit.MINUTES);
+            // End the writer thread of the iteration
+            batch.getJobEventLog().close();
+        }
+    }
+
+    /**
+     * Build a batch sharing the services of the global batch, with its job events discarded.
+     *
+     * @return Batch.
+     */
+    private static Batch newBatch() {
+        final Batch batch = Batch.getInstance().newBatch(Util.buildUUID(), "benchmark", 0L);
+        // Measure the event log formatting, not the console
+        batch.setJobEventLog(new JobEventLog(OutputStream.nullOutputStream(), JobEventLog.Format.PIPE,
+                JobEventLog.DEFAULT_CAPACITY));
+        return batch;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        batch = ShellTaskWorkerBenchmark.newBatch();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        batch.getJobEventLog().close();
+    }
+
+    /**
+     * One job run by the calling thread through ShellTaskWorker.run.
+     */
+    @Benchmark
+    public void worker() {
+        new ShellTaskWorker(batch, TRUE_COMMAND).run();
+    }
+
+    /**
+     * A batch of jobs run by MyThreadPoolExecutor with <code>corePoolSize</code> workers, the executor of the
+     * iteration is reused.
+     *
+     * @param state Pool configuration.
+     * @throws InterruptedException if interrupted while waiting for the end of the batch.
+     */
+    @Benchmark
+    @OperationsPerInvocation(JOBS_PER_BATCH)
+    public void pool(final PoolState state) throws InterruptedException {
+        for (int i = 0; i < JOBS_PER_BATCH; ++i) {
+            state.mtpe.addTask(new ShellTaskWorker(state.batch, TRUE_COMMAND));
+        }
+        state.batch.awaitJobs();
+    }
+}
@@ -0,0 +1,55 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro benchmarks of the per job helpers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilBenchmark {
+    public String commandLine = "/usr/local/bin/export.sh --table 'my table' \"-x 2011/05/05\" -m 1024";
+    public Date start = new Date(1354294165000L);
+    public Date end = new Date(1354294465042L);
+
+    /**
+     * Parse of a command line already parsed: a hit of the command line cache.
+     */
+    @Benchmark
+    public String[] parseCommandLineToStringArray() {
+        return Util.parseCommandLineToStringArray(commandLine);
+    }
+
+    /**
+     * Parse of a new command line, without the command line cache.
+     */
+    @Benchmark
+    public String[] tokenizeCommandLine() {
+        return Util.tokenizeCommandLine(commandLine);
+    }
+
+    @Benchmark
+    public String buildLogFilename() {
+        return JobExecution.buildLogFilename("batch", 42, commandLine, "/tmp");
+    }
+
+    @Benchmark
+    public String buildDurationFromDates() {
+        return Util.buildDurationFromDates(start, end);
+    }
+}
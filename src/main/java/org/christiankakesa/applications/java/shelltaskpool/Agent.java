@@ -0,0 +1,180 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+
+/**
+ * Agent running the jobs of a coordinator in its own executor, see {@link AgentProtocol}.
+ * <p>
+ * The agent announces its workers to the coordinator, runs each leased job like a local job and sends back the
+ * result. Job resources, timeouts and output logs are handled by the agent with its own parameters; the batch status,
+ * retries, history, journal and events are handled by the coordinator.
+ * </p>
+ */
+final class Agent {
+    private static final Logger LOG = Logger.getLogger(Agent.class);
+
+    private final InetSocketAddress coordinator;
+    private final Batch batch;
+    private final MyThreadPoolExecutor executor;
+    private final int workers;
+    /**
+     * Shared secret of the coordinator, may be null.
+     */
+    private final byte[] secret;
+    private Writer out;
+    private volatile boolean connected;
+
+    /**
+     * Agent constructor.
+     *
+     * @param coordinator Address of the coordinator.
+     * @param batch       Batch of the agent, giving the parameters of the jobs.
+     * @param executor    Executor of the jobs.
+     * @param workers     Number of jobs run at the same time.
+     * @param secret      Shared secret of the coordinator, may be null.
+     */
+    Agent(final InetSocketAddress coordinator, final Batch batch, final MyThreadPoolExecutor executor,
+          final int workers, final byte[] secret) {
+        this.coordinator = coordinator;
+        this.batch = batch;
+        this.executor = executor;
+        this.workers = workers;
+        this.secret = secret;
+    }
+
+    /**
+     * Run the jobs of the coordinator until it says goodbye or it is lost. The jobs still running are not waited for.
+     *
+     * @throws IOException if the coordinator can't be reached.
+     */
+    void run() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(coordinator, (int) AgentProtocol.LEASE_TIMEOUT_MILLIS);
+            socket.setSoTimeout((int) AgentProtocol.LEASE_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            final BufferedReader in = AgentProtocol.reader(socket);
+            out = AgentProtocol.writer(socket);
+            final String challenge = in.readLine();
+            if (challenge == null || !challenge.startsWith(AgentProtocol.CHALLENGE + " ")) {
+                throw new IOException("No challenge from the coordinator: " + challenge);
+            }
+            connected = true;
+            this.send(AgentProtocol.HELLO + " " + Agent.name() + " " + workers + " " + AgentProtocol.proof(secret,
+                    challenge.substring(AgentProtocol.CHALLENGE.length() + 1)));
+            this.send(AgentProtocol.READY + " " + workers);
+            LOG.info("Agent connected to the coordinator " + coordinator.getHostString() + ":"
+                    + coordinator.getPort() + " with " + workers + " workers");
+            final Thread heartbeat = ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-agent-heartbeat-", true)
+                    .newThread(this::heartbeatLoop);
+            heartbeat.start();
+            try {
+                String line;
+                while ((line = in.readLine()) != null && !AgentProtocol.BYE.equals(line)) {
+                    if (line.startsWith(AgentProtocol.JOB)) {
+                        this.runJob(line);
+                    } else if (!AgentProtocol.PING.equals(line)) {
+                        LOG.warn("Unknown message of the coordinator: " + line);
+                    }
+                }
+                if (line == null) {
+                    LOG.error("Coordinator lost, its jobs are run by the other agents");
+                }
+            } catch (SocketTimeoutException e) {
+                LOG.error("Coordinator silent for " + AgentProtocol.LEASE_TIMEOUT_MILLIS + " ms, disconnected");
+            } finally {
+                connected = false;
+                heartbeat.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Name of the agent: host name and process id.
+     *
+     * @return Agent name without space.
+     */
+    static String name() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return host.replace(' ', '_') + "-" + ProcessHandle.current().pid();
+    }
+
+    private void heartbeatLoop() {
+        try {
+            while (connected) {
+                Thread.sleep(AgentProtocol.HEARTBEAT_MILLIS);
+                this.send(AgentProtocol.PING);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.debug("Heartbeat not sent", e);
+        }
+    }
+
+    private void send(final String message) throws IOException {
+        synchronized (this) {
+            AgentProtocol.send(out, message);
+        }
+    }
+
+    /**
+     * Submit a leased job to the executor.
+     *
+     * @param message JOB message.
+     */
+    private void runJob(final String message) {
+        final String[] fields = message.split(" ", 5);
+        final int jobId;
+        final JobSpec spec;
+        try {
+            jobId = Integer.parseInt(fields[1]);
+            spec = new JobSpec(fields[4], null, Collections.<String>emptyList(), Collections.<String>emptyList(),
+                    ResourceLimits.parse(fields[3]), Long.parseLong(fields[2]), RetryPolicy.NONE,
+                    JobGroup.NONE, ResourceHints.NONE);
+        } catch (RuntimeException e) {
+            LOG.error("Malformed job of the coordinator: " + message, e);
+            return;
+        }
+        LOG.debug("JobId: " + jobId + " leased by the coordinator: " + spec.getCommandLine());
+        executor.addTask(new ShellTaskWorker(batch, spec, -1, 0L, job -> this.ended(jobId, job)));
+    }
+
+    /**
+     * Send the result of a job to the coordinator, the worker of the job is idle again.
+     *
+     * @param jobId Job id in the coordinator.
+     * @param job   Ended job.
+     */
+    private void ended(final int jobId, final JobExecution job) {
+        final JobExecution.JobStatus status = job.getStatus();
+        final boolean ran = status == JobExecution.JobStatus.COMPLETED || status == JobExecution.JobStatus.FAILED
+                || status == JobExecution.JobStatus.TIMED_OUT;
+        // A job not run by the agent (process not started, agent deadline) fails with the exit code -42
+        final AgentProtocol.Result result = new AgentProtocol.Result(jobId, job.getExitCode(),
+                status == JobExecution.JobStatus.TIMED_OUT, ran ? job.getEndTime() - job.getStartTime() : 0L,
+                job.getOutputBytes(), job.getResourceUsage());
+        try {
+            synchronized (this) {
+                AgentProtocol.send(out, AgentProtocol.done(result));
+                AgentProtocol.send(out, AgentProtocol.READY + " 1");
+            }
+        } catch (IOException e) {
+            LOG.error("JobId: " + jobId + " result not sent, the coordinator runs the job again", e);
+        }
+    }
+}
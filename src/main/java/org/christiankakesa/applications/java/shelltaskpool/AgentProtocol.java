@@ -0,0 +1,280 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Line protocol between the coordinator and its agents, over TCP. Messages are UTF-8 lines of space separated
+ * fields, the command line of a job is the last field of its line.
+ * <pre>
+ * coordinator -&gt; agent       : CHALLENGE &lt;nonce&gt;
+ * agent       -&gt; coordinator : HELLO &lt;agent name&gt; &lt;workers&gt; &lt;proof&gt;
+ * agent       -&gt; coordinator : READY &lt;number of idle workers&gt;
+ * coordinator -&gt; agent       : JOB &lt;job id&gt; &lt;timeout millis&gt; &lt;limits&gt; &lt;command line&gt;
+ * agent       -&gt; coordinator : DONE &lt;job id&gt; &lt;exit code&gt; &lt;timed out 0|1&gt; &lt;duration millis&gt; &lt;output bytes&gt;
+ *                              &lt;cpu millis&gt; &lt;peak memory bytes&gt; &lt;io bytes&gt;
+ * both                       : PING
+ * coordinator -&gt; agent       : BYE
+ * </pre>
+ * Each side sends a PING every {@value #HEARTBEAT_MILLIS} ms without other message, a peer silent for
+ * {@value #LEASE_TIMEOUT_MILLIS} ms is dead.
+ * <p>
+ * Agents prove that they know the shared secret of the coordinator: the proof is the HMAC-SHA256 of the random nonce
+ * of the coordinator with the secret, <code>-</code> without secret. The secret is read from the
+ * {@value #SECRET_ENV} environment variable, or from the file named by {@value #SECRET_FILE_ENV}. The secret is never
+ * sent, but the messages are not encrypted.
+ * </p>
+ */
+final class AgentProtocol {
+    static final String CHALLENGE = "CHALLENGE";
+    static final String HELLO = "HELLO";
+    static final String READY = "READY";
+    static final String JOB = "JOB";
+    static final String DONE = "DONE";
+    static final String PING = "PING";
+    static final String BYE = "BYE";
+
+    /**
+     * Interval of the heartbeats.
+     */
+    static final long HEARTBEAT_MILLIS = 1000L;
+    /**
+     * Silence after which a peer is dead and the jobs leased to an agent are leased again.
+     */
+    static final long LEASE_TIMEOUT_MILLIS = 10000L;
+    /**
+     * Environment variable of the shared secret.
+     */
+    static final String SECRET_ENV = "SHELL_TASK_POOL_SECRET";
+    /**
+     * Environment variable of the path of the file holding the shared secret.
+     */
+    static final String SECRET_FILE_ENV = "SHELL_TASK_POOL_SECRET_FILE";
+    /**
+     * Proof of an agent without secret.
+     */
+    static final String NO_PROOF = "-";
+
+    private static final String HMAC = "HmacSHA256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Result of a job run by an agent.
+     */
+    static final class Result {
+        final int jobId;
+        final int exitCode;
+        final boolean timedOut;
+        final long durationMillis;
+        final long outputBytes;
+        final ResourceUsage usage;
+
+        Result(final int jobId, final int exitCode, final boolean timedOut, final long durationMillis,
+               final long outputBytes, final ResourceUsage usage) {
+            this.jobId = jobId;
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.durationMillis = durationMillis;
+            this.outputBytes = outputBytes;
+            this.usage = usage;
+        }
+    }
+
+    private AgentProtocol() {
+    }
+
+    /**
+     * Read the shared secret from the environment.
+     *
+     * @return Secret or null if none is set.
+     * @throws IOException if the secret file can't be read or the secret is empty.
+     */
+    static byte[] loadSecret() throws IOException {
+        return AgentProtocol.loadSecret(System.getenv(SECRET_ENV), System.getenv(SECRET_FILE_ENV));
+    }
+
+    /**
+     * Read the shared secret.
+     *
+     * @param secret     Secret, may be null.
+     * @param secretFile Path of the file holding the secret, used without secret, may be null.
+     * @return Secret without its surrounding white spaces, null if none is set.
+     * @throws IOException if the secret file can't be read or the secret is empty.
+     */
+    static byte[] loadSecret(final String secret, final String secretFile) throws IOException {
+        final String value;
+        if (secret != null) {
+            value = secret;
+        } else if (secretFile != null) {
+            value = new String(Files.readAllBytes(Paths.get(secretFile)), StandardCharsets.UTF_8);
+        } else {
+            return null;
+        }
+        if (value.trim().length() == 0) {
+            throw new IOException("Empty shared secret");
+        }
+        return value.trim().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Test if an address only accepts local connections.
+     *
+     * @param address Listening address.
+     * @return true for a loopback address.
+     */
+    static boolean isLoopback(final InetSocketAddress address) {
+        return address.getAddress() != null && address.getAddress().isLoopbackAddress();
+    }
+
+    /**
+     * Build the nonce of a connection.
+     *
+     * @return Random nonce.
+     */
+    static String newChallenge() {
+        final byte[] nonce = new byte[16];
+        RANDOM.nextBytes(nonce);
+        return AgentProtocol.hex(nonce);
+    }
+
+    /**
+     * Prove the knowledge of the secret.
+     *
+     * @param secret    Shared secret, may be null.
+     * @param challenge Nonce of the coordinator.
+     * @return Proof sent in the HELLO message.
+     */
+    static String proof(final byte[] secret, final String challenge) {
+        if (secret == null) {
+            return NO_PROOF;
+        }
+        try {
+            final Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(secret, HMAC));
+            return AgentProtocol.hex(mac.doFinal(challenge.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(HMAC + " not available", e);
+        }
+    }
+
+    /**
+     * Check the proof of an agent, in constant time.
+     *
+     * @param secret    Shared secret, null to accept any agent.
+     * @param challenge Nonce sent to the agent.
+     * @param proof     Proof of the agent.
+     * @return true if the agent knows the secret.
+     */
+    static boolean verify(final byte[] secret, final String challenge, final String proof) {
+        return secret == null || MessageDigest.isEqual(
+                AgentProtocol.proof(secret, challenge).getBytes(StandardCharsets.US_ASCII),
+                proof.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String hex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Open the reader of a connection.
+     *
+     * @param socket Connected socket.
+     * @return Line reader.
+     * @throws IOException if the socket is closed.
+     */
+    static BufferedReader reader(final Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Open the writer of a connection.
+     *
+     * @param socket Connected socket.
+     * @return Writer, flushed after each message.
+     * @throws IOException if the socket is closed.
+     */
+    static Writer writer(final Socket socket) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send a message.
+     *
+     * @param out     Connection writer, the caller holds its lock.
+     * @param message Message line.
+     * @throws IOException if the connection is closed.
+     */
+    static void send(final Writer out, final String message) throws IOException {
+        out.write(message);
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * Format a JOB message.
+     *
+     * @param jobId         Job id in the coordinator.
+     * @param timeoutMillis Timeout of the job, 0 for no timeout.
+     * @param limits        Resource limits of the job.
+     * @param commandLine   Command line.
+     * @return Message line.
+     */
+    static String job(final int jobId, final long timeoutMillis, final ResourceLimits limits,
+                      final String commandLine) {
+        return JOB + " " + jobId + " " + timeoutMillis + " " + limits + " " + commandLine;
+    }
+
+    /**
+     * Format a DONE message.
+     *
+     * @param result Job result.
+     * @return Message line.
+     */
+    static String done(final Result result) {
+        return DONE + " " + result.jobId + " " + result.exitCode + " " + (result.timedOut ? 1 : 0) + " "
+                + result.durationMillis + " " + result.outputBytes + " " + result.usage.getCpuMillis() + " "
+                + result.usage.getPeakMemoryBytes() + " " + result.usage.getIoBytes();
+    }
+
+    /**
+     * Parse a DONE message.
+     *
+     * @param message Message line.
+     * @return Job result.
+     * @throws IllegalArgumentException if the message is malformed.
+     */
+    static Result parseDone(final String message) {
+        final String[] fields = message.split(" ");
+        if (fields.length != 9 || !DONE.equals(fields[0])) {
+            throw new IllegalArgumentException("Malformed message: " + message);
+        }
+        try {
+            return new Result(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), "1".equals(fields[3]),
+                    Long.parseLong(fields[4]), Long.parseLong(fields[5]), new ResourceUsage(Long.parseLong(fields[6]),
+                    Long.parseLong(fields[7]), Long.parseLong(fields[8])));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed message: " + message, e);
+        }
+    }
+}
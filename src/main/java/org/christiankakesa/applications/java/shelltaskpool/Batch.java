@@ -1,21 +1,30 @@
 package org.christiankakesa.applications.java.shelltaskpool;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Store all information about Batch.
+ * Store all information about a Batch.
+ * <p>
+ * A batch is the context of its jobs: the jobs, executor and scheduler of a batch get it from the job or the worker
+ * instead of a global, so several batches can run in the same process. The batch of the command line is
+ * {@link #getInstance()}; the daemon batches are created from it with {@link #newBatch(String, String, long)}.
+ * </p>
  *
  * @author Christian Kakesa (christian.kakesa@gmail.com)
  */
-public enum Batch {
+public final class Batch {
     /**
-     * Unique instance of batch statically construct.
+     * Batch of the command line.
      */
-    INSTANCE;
+    private static final Batch INSTANCE = new Batch();
 
     /**
      * Maximum number of jobs.
@@ -33,19 +42,39 @@ public enum Batch {
     static final char JOB_SEPARATOR = ';';
 
     /**
-     * Jobs store array list.
+     * Jobs file name used to read jobs from the standard input.
      */
-    static final List<String> JOBS_STORE = new ArrayList<String>(MAX_JOBS);
+    static final String STDIN_JOBS_FILE = "-";
+
+    /**
+     * Default number of bytes of job output kept at the beginning and at the end in debug mode.
+     */
+    static final int DEFAULT_CAPTURE_SIZE = 4096;
+
+    /**
+     * Name of the batches without name.
+     */
+    static final String DEFAULT_NAME = "NO BATCH NAME";
+
+    /**
+     * Jobs of the batch.
+     */
+    private final List<JobSpec> jobs = new ArrayList<JobSpec>();
+
+    /**
+     * Jobs submitted and not ended yet, a failed job may come back from the retry queue until it ends.
+     */
+    private int jobsInFlight;
 
     /**
      * The batch name.
      */
-    private String name = "NO BATCH NAME";
+    private String name = DEFAULT_NAME;
 
     /**
      * The batch id.
      */
-    private final String id = Util.buildUUID();
+    private String id = Util.buildUUID();
 
     /**
      * Start date of the batch.
@@ -82,6 +111,101 @@ public enum Batch {
      */
     private int numberOfWorkers = Util.defaultCorePoolSize();
 
+    /**
+     * Stream jobs file to the workers instead of storing it in the jobs of the batch
+     */
+    private boolean streaming;
+
+    /**
+     * Complete jobs asynchronously, workers only spawn the processes
+     */
+    private boolean async;
+
+    /**
+     * Number of bytes of job output kept at the beginning and at the end in debug mode
+     */
+    private int captureSize = DEFAULT_CAPTURE_SIZE;
+
+    /**
+     * Kind of threads running the jobs
+     */
+    private ExecutorType executorType = ExecutorType.PLATFORM;
+
+    /**
+     * Threads draining the job outputs, of the executor type, created on first use
+     */
+    private ExecutorService pumps;
+
+    /**
+     * Supervisor of the processes completed asynchronously, null when jobs are completed by the workers
+     */
+    private ProcessSupervisor processSupervisor;
+
+    /**
+     * Asynchronous log of the job events, created on first use
+     */
+    private volatile JobEventLog jobEventLog;
+
+    /**
+     * Expected durations of the jobs, null when jobs run in file order
+     */
+    private DurationHistory durationHistory;
+
+    /**
+     * Journal of the job state transitions, null when the batch can't be resumed
+     */
+    private JobJournal jobJournal;
+
+    /**
+     * Cache of the job results, null when jobs always run
+     */
+    private ResultCache resultCache;
+
+    /**
+     * Resource limits and accounting of the jobs, null when the job resources are not measured
+     */
+    private JobResources jobResources;
+
+    /**
+     * Timeout of the jobs without their own timeout in milliseconds, 0 for no timeout
+     */
+    private long jobTimeoutMillis;
+
+    /**
+     * Date after which running jobs are killed and no job starts in milliseconds (Unix timestamp), 0 for no deadline
+     */
+    private long deadline;
+
+    /**
+     * Watchdog of the job timeouts, created on first use
+     */
+    private Watchdog watchdog;
+
+    /**
+     * Retry policy of the jobs, merged with the retry policy of each job
+     */
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+
+    /**
+     * Failed jobs waiting for their retry, null without batch executor
+     */
+    private volatile RetryQueue retryQueue;
+
+    /**
+     * Live metrics of the batch, null when the metrics are not exported
+     */
+    private Metrics metrics;
+
+    /**
+     * Latency breakdown of the jobs by phase, null when the phases are not timed
+     */
+    private PhaseTimer phaseTimer;
+
+    /**
+     * Coordinator of the agents running the jobs, null when the jobs run locally
+     */
+    private Coordinator coordinator;
+
     /**
      * Get the name of the batch.
      *
@@ -92,7 +216,7 @@ public enum Batch {
     }
 
     /**
-     * Set the batch name. If empty or null, Batch.DEFAULT_BATCH_NAME is set.
+     * Set the batch name. If empty or null, the name is not changed.
      *
      * @param name Batch name
      */
@@ -111,6 +235,15 @@ public enum Batch {
         return id;
     }
 
+    /**
+     * Set the batch id, to resume a batch.
+     *
+     * @param id Id of the batch to resume.
+     */
+    void setId(final String id) {
+        this.id = id;
+    }
+
     /**
      * Get the date of batch start.
      *
@@ -164,31 +297,43 @@ public enum Batch {
         NONE, STARTED, RUNNING, FAILED, COMPLETED_WITH_ERROR, COMPLETED
     }
 
+    /**
+     * Counters and status of the batch. Counters are lock free: success and failure counts are striped adders,
+     * job ids come from an atomic sequence.
+     */
     public static class BatchStatus {
         /**
          * Number of job success.
          */
-        private volatile int successJob;
+        private final LongAdder successJob = new LongAdder();
         /**
-         * Synchronized monitor for successJob.
+         * Number of job failed.
          */
-        private final Object successJobMonitor = new Object();
+        private final LongAdder failedJob = new LongAdder();
         /**
-         * Number of job failed.
+         * Number of job skipped because a job they depend on did not complete.
+         */
+        private final LongAdder skippedJob = new LongAdder();
+        /**
+         * Number of job killed after their timeout.
+         */
+        private final LongAdder timedOutJob = new LongAdder();
+        /**
+         * Number of total job, also the sequence of job ids.
          */
-        private volatile int failedJob;
+        private final AtomicInteger totalJob = new AtomicInteger();
         /**
-         * Synchronized monitor for failedJob.
+         * Number of bytes written by the jobs.
          */
-        private final Object failedJobMonitor = new Object();
+        private final LongAdder outputBytes = new LongAdder();
         /**
-         * Number of total job.
+         * Number of jobs completed from the result cache.
          */
-        private volatile int totalJob;
+        private final LongAdder cacheHits = new LongAdder();
         /**
-         * Synchronized monitor for totalJob.
+         * Number of cached jobs run because their result is not in the cache.
          */
-        private final Object totalJobMonitor = new Object();
+        private final LongAdder cacheMisses = new LongAdder();
         /**
          * Status of the batch.
          */
@@ -206,18 +351,14 @@ public enum Batch {
          * @return Number of successful job.
          */
         public int getSuccessJob() {
-            // No synchronization needed, successJob is volatile, not cached.
-            return successJob;
+            return successJob.intValue();
         }
 
         /**
          * Increment <code>successJob</code> by 1.
          */
         public void incrementSuccessJob() {
-            // Synchronized because Add operator is not thread safe.
-            synchronized (successJobMonitor) {
-                ++(this.successJob);
-            }
+            successJob.increment();
         }
 
         /**
@@ -226,18 +367,55 @@ public enum Batch {
          * @return Number of failed job.
          */
         public int getFailedJob() {
-            // No synchronization needed, failedJob is volatile, not cached.
-            return failedJob;
+            return failedJob.intValue();
         }
 
         /**
          * Increment <code>failedJob</code> by 1.
          */
         public void incrementFailedJob() {
-            // Synchronized because Add operator is not thread safe.
-            synchronized (failedJobMonitor) {
-                ++(this.failedJob);
-            }
+            failedJob.increment();
+        }
+
+        /**
+         * Return the number of skipped job.
+         *
+         * @return Number of skipped job.
+         */
+        public int getSkippedJob() {
+            return skippedJob.intValue();
+        }
+
+        /**
+         * Increment <code>skippedJob</code> by 1.
+         */
+        public void incrementSkippedJob() {
+            skippedJob.increment();
+        }
+
+        /**
+         * Return the number of timed out job.
+         *
+         * @return Number of timed out job.
+         */
+        public int getTimedOutJob() {
+            return timedOutJob.intValue();
+        }
+
+        /**
+         * Increment <code>timedOutJob</code> by 1.
+         */
+        public void incrementTimedOutJob() {
+            timedOutJob.increment();
+        }
+
+        /**
+         * Return the number of ended jobs, whatever their status. A retried job counts once.
+         *
+         * @return Number of ended job.
+         */
+        public int getEndedJob() {
+            return this.getSuccessJob() + this.getFailedJob() + this.getSkippedJob() + this.getTimedOutJob();
         }
 
         /**
@@ -264,28 +442,92 @@ public enum Batch {
          * @return Number of total job.
          */
         public int getTotalJob() {
-            // No synchronization needed, totalJob is volatile, not cached.
-            return totalJob;
+            return totalJob.get();
         }
 
         /**
          * Increment <code>totalJob</code> by 1.
          */
         public void incrementTotalJob() {
-            // Synchronized because Add operator is not thread safe.
-            synchronized (totalJobMonitor) {
-                ++(this.totalJob);
-            }
+            totalJob.incrementAndGet();
+        }
+
+        /**
+         * Return the number of bytes written by the jobs.
+         *
+         * @return Number of bytes written by the jobs.
+         */
+        public long getOutputBytes() {
+            return outputBytes.sum();
         }
 
         /**
-         * Increment and return the number of total jobs.
+         * Add bytes written by a job to <code>outputBytes</code>.
+         *
+         * @param bytes Number of bytes written by a job.
+         */
+        public void addOutputBytes(final long bytes) {
+            outputBytes.add(bytes);
+        }
+
+        /**
+         * Return the number of jobs completed from the result cache.
+         *
+         * @return Number of cache hits.
+         */
+        public long getCacheHits() {
+            return cacheHits.sum();
+        }
+
+        /**
+         * Increment <code>cacheHits</code> by 1.
+         */
+        public void incrementCacheHits() {
+            cacheHits.increment();
+        }
+
+        /**
+         * Return the number of cached jobs not found in the result cache.
+         *
+         * @return Number of cache misses.
+         */
+        public long getCacheMisses() {
+            return cacheMisses.sum();
+        }
+
+        /**
+         * Increment <code>cacheMisses</code> by 1.
+         */
+        public void incrementCacheMisses() {
+            cacheMisses.increment();
+        }
+
+        /**
+         * Increment and return the number of total jobs. The returned value is unique and used as job id.
          *
          * @return total jobs number.
          */
         public int incrementAndGetTotalJOb() {
-            this.incrementTotalJob();
-            return this.totalJob;
+            return totalJob.incrementAndGet();
+        }
+
+        /**
+         * Take a snapshot of the counters for reporting.
+         * <p>
+         * Ended job counters are read before <code>totalJob</code>, a job being counted in total before it ends, so
+         * <code>successJob + failedJob + skippedJob + timedOutJob &lt;= totalJob</code> always holds in the snapshot.
+         * </p>
+         *
+         * @return Snapshot of the counters.
+         */
+        public Snapshot snapshot() {
+            final Status s = this.status;
+            final long timedOut = timedOutJob.sum();
+            final long skipped = skippedJob.sum();
+            final long failed = failedJob.sum();
+            final long success = successJob.sum();
+            final long bytes = outputBytes.sum();
+            return new Snapshot(success, failed, skipped, timedOut, totalJob.get(), bytes, s);
         }
 
         /**
@@ -295,11 +537,13 @@ public enum Batch {
          * and <code>successJob</code>.
          */
         void doEndStatus() {
+            final Snapshot snapshot = this.snapshot();
             final Status endStatus;
-            if (this.failedJob == 0 && this.successJob >= 1) {
+            final long notCompleted = snapshot.getFailedJob() + snapshot.getSkippedJob() + snapshot.getTimedOutJob();
+            if (notCompleted == 0 && snapshot.getSuccessJob() >= 1) {
                 // Batch completed success full (at least one job has started)
                 endStatus = Status.COMPLETED;
-            } else if (this.failedJob > 0 && this.successJob >= 1) {
+            } else if (notCompleted > 0 && snapshot.getSuccessJob() >= 1) {
                 // Batch completed (at least one job finished successfully) but
                 // there are failed jobs
                 endStatus = Status.COMPLETED_WITH_ERROR;
@@ -312,6 +556,67 @@ public enum Batch {
         }
     }
 
+    /**
+     * Immutable view of the batch counters at a point in time.
+     */
+    public static final class Snapshot {
+        private final long successJob;
+        private final long failedJob;
+        private final long skippedJob;
+        private final long timedOutJob;
+        private final long totalJob;
+        private final long outputBytes;
+        private final Status status;
+
+        Snapshot(final long successJob, final long failedJob, final long skippedJob, final long timedOutJob,
+                 final long totalJob, final long outputBytes, final Status status) {
+            this.successJob = successJob;
+            this.failedJob = failedJob;
+            this.skippedJob = skippedJob;
+            this.timedOutJob = timedOutJob;
+            this.totalJob = totalJob;
+            this.outputBytes = outputBytes;
+            this.status = status;
+        }
+
+        public long getSuccessJob() {
+            return successJob;
+        }
+
+        public long getFailedJob() {
+            return failedJob;
+        }
+
+        public long getSkippedJob() {
+            return skippedJob;
+        }
+
+        public long getTimedOutJob() {
+            return timedOutJob;
+        }
+
+        public long getTotalJob() {
+            return totalJob;
+        }
+
+        /**
+         * Number of jobs not ended yet (pending or running).
+         *
+         * @return Number of unfinished jobs.
+         */
+        public long getUnfinishedJob() {
+            return totalJob - successJob - failedJob - skippedJob - timedOutJob;
+        }
+
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+    }
+
     /**
      * Get the unique batch instance.
      *
@@ -322,6 +627,49 @@ public enum Batch {
         return Batch.INSTANCE;
     }
 
+    /**
+     * Batch constructor, use {@link #getInstance()} or {@link #newBatch(String, String, long)}.
+     */
+    Batch() {
+    }
+
+    /**
+     * Get the jobs of the batch, not used in streaming mode.
+     *
+     * @return Modifiable list of jobs.
+     */
+    List<JobSpec> getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Record the submission of a job of the batch.
+     */
+    synchronized void jobSubmitted() {
+        ++jobsInFlight;
+    }
+
+    /**
+     * Record the end of a submitted job, after its last run.
+     */
+    synchronized void jobEnded() {
+        if (--jobsInFlight == 0) {
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Wait for the end of all the submitted jobs of the batch, retries included. The executor must not be shut down
+     * before, a retry would be rejected.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    synchronized void awaitJobs() throws InterruptedException {
+        while (jobsInFlight > 0) {
+            this.wait();
+        }
+    }
+
     /**
      * Get the batch jobs file.
      *
@@ -407,4 +755,383 @@ public enum Batch {
     public void setNumberOfWorkers(int workers) {
         this.numberOfWorkers = workers;
     }
+
+    /**
+     * Is the jobs file streamed to the workers.
+     *
+     * @return true if the jobs file is streamed.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Set the jobs file streaming mode.
+     *
+     * @param streaming Stream the jobs file to the workers if true.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Are jobs completed asynchronously.
+     *
+     * @return true if workers only spawn the processes.
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Set the asynchronous completion mode.
+     *
+     * @param async Workers only spawn the processes if true.
+     */
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    /**
+     * Get the number of bytes of job output kept at the beginning and at the end in debug mode.
+     *
+     * @return Capture size in bytes.
+     */
+    public int getCaptureSize() {
+        return captureSize;
+    }
+
+    /**
+     * Set the number of bytes of job output kept at the beginning and at the end in debug mode.
+     *
+     * @param captureSize Capture size in bytes.
+     */
+    public void setCaptureSize(int captureSize) {
+        this.captureSize = captureSize;
+    }
+
+    /**
+     * Get the kind of threads running the jobs.
+     *
+     * @return Executor type.
+     */
+    public ExecutorType getExecutorType() {
+        return executorType;
+    }
+
+    /**
+     * Set the kind of threads running the jobs.
+     *
+     * @param executorType Executor type.
+     */
+    public void setExecutorType(final ExecutorType executorType) {
+        this.executorType = executorType;
+    }
+
+    /**
+     * Get the threads draining the job outputs, of the executor type of the batch, started on first use.
+     *
+     * @return Pump threads.
+     */
+    synchronized ExecutorService getPumps() {
+        if (pumps == null) {
+            pumps = OutputPump.newPumps(executorType);
+        }
+        return pumps;
+    }
+
+    /**
+     * Get the supervisor of the processes completed asynchronously.
+     *
+     * @return Process supervisor or null when jobs are completed by the workers.
+     */
+    ProcessSupervisor getProcessSupervisor() {
+        return processSupervisor;
+    }
+
+    /**
+     * Set the supervisor of the processes completed asynchronously.
+     *
+     * @param processSupervisor Process supervisor or null to complete jobs in the workers.
+     */
+    void setProcessSupervisor(final ProcessSupervisor processSupervisor) {
+        this.processSupervisor = processSupervisor;
+    }
+
+    /**
+     * Get the asynchronous log of the job events. A log writing in pipe format to the <code>STDOUT</code> logger is
+     * created if none is set.
+     *
+     * @return Job event log.
+     */
+    JobEventLog getJobEventLog() {
+        JobEventLog log = this.jobEventLog;
+        if (log == null) {
+            synchronized (this) {
+                log = this.jobEventLog;
+                if (log == null) {
+                    log = new JobEventLog(Logger.getLogger("STDOUT"), JobEventLog.Format.PIPE,
+                            JobEventLog.DEFAULT_CAPACITY);
+                    this.jobEventLog = log;
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Set the asynchronous log of the job events.
+     *
+     * @param jobEventLog Job event log.
+     */
+    void setJobEventLog(final JobEventLog jobEventLog) {
+        this.jobEventLog = jobEventLog;
+    }
+
+    /**
+     * Get the expected durations of the jobs.
+     *
+     * @return Duration history or null when jobs run in file order.
+     */
+    DurationHistory getDurationHistory() {
+        return durationHistory;
+    }
+
+    /**
+     * Set the expected durations of the jobs.
+     *
+     * @param durationHistory Duration history or null to run jobs in file order.
+     */
+    void setDurationHistory(final DurationHistory durationHistory) {
+        this.durationHistory = durationHistory;
+    }
+
+    /**
+     * Get the journal of the job state transitions.
+     *
+     * @return Job journal or null when the batch can't be resumed.
+     */
+    JobJournal getJobJournal() {
+        return jobJournal;
+    }
+
+    /**
+     * Set the journal of the job state transitions.
+     *
+     * @param jobJournal Job journal or null.
+     */
+    void setJobJournal(final JobJournal jobJournal) {
+        this.jobJournal = jobJournal;
+    }
+
+    /**
+     * Get the cache of the job results.
+     *
+     * @return Result cache or null when jobs always run.
+     */
+    ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Set the cache of the job results.
+     *
+     * @param resultCache Result cache or null.
+     */
+    void setResultCache(final ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Get the resource limits and accounting of the jobs.
+     *
+     * @return Job resources or null when the job resources are not measured.
+     */
+    JobResources getJobResources() {
+        return jobResources;
+    }
+
+    /**
+     * Set the resource limits and accounting of the jobs.
+     *
+     * @param jobResources Job resources or null.
+     */
+    void setJobResources(final JobResources jobResources) {
+        this.jobResources = jobResources;
+    }
+
+    /**
+     * Get the timeout of the jobs without their own timeout.
+     *
+     * @return Timeout in milliseconds, 0 for no timeout.
+     */
+    long getJobTimeoutMillis() {
+        return jobTimeoutMillis;
+    }
+
+    /**
+     * Set the timeout of the jobs without their own timeout.
+     *
+     * @param jobTimeoutMillis Timeout in milliseconds, 0 for no timeout.
+     */
+    void setJobTimeoutMillis(final long jobTimeoutMillis) {
+        this.jobTimeoutMillis = jobTimeoutMillis;
+    }
+
+    /**
+     * Get the deadline of the batch.
+     *
+     * @return Deadline in milliseconds (Unix timestamp), 0 for no deadline.
+     */
+    long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Set the deadline of the batch: running jobs are killed and no job starts after it.
+     *
+     * @param deadline Deadline in milliseconds (Unix timestamp), 0 for no deadline.
+     */
+    void setDeadline(final long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Get the watchdog of the job timeouts, started on first use.
+     *
+     * @return Watchdog.
+     */
+    synchronized Watchdog getWatchdog() {
+        if (watchdog == null) {
+            watchdog = new Watchdog();
+        }
+        return watchdog;
+    }
+
+    /**
+     * Get the retry policy of the jobs.
+     *
+     * @return Retry policy.
+     */
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set the retry policy of the jobs, merged with the retry policy of each job.
+     *
+     * @param retryPolicy Retry policy.
+     */
+    void setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Get the failed jobs waiting for their retry.
+     *
+     * @return Retry queue or null when failed jobs are not retried.
+     */
+    RetryQueue getRetryQueue() {
+        return retryQueue;
+    }
+
+    /**
+     * Set the failed jobs waiting for their retry.
+     *
+     * @param retryQueue Retry queue or null.
+     */
+    void setRetryQueue(final RetryQueue retryQueue) {
+        this.retryQueue = retryQueue;
+    }
+
+    /**
+     * Get the live metrics of the batch.
+     *
+     * @return Metrics or null when the metrics are not exported.
+     */
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the live metrics of the batch.
+     *
+     * @param metrics Metrics or null.
+     */
+    void setMetrics(final Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the latency breakdown of the jobs by phase.
+     *
+     * @return Phase timer or null when the phases are not timed.
+     */
+    PhaseTimer getPhaseTimer() {
+        return phaseTimer;
+    }
+
+    /**
+     * Set the latency breakdown of the jobs by phase.
+     *
+     * @param phaseTimer Phase timer or null.
+     */
+    void setPhaseTimer(final PhaseTimer phaseTimer) {
+        this.phaseTimer = phaseTimer;
+    }
+
+    /**
+     * Get the coordinator of the agents running the jobs.
+     *
+     * @return Coordinator or null when the jobs run locally.
+     */
+    Coordinator getCoordinator() {
+        return coordinator;
+    }
+
+    /**
+     * Set the coordinator of the agents running the jobs.
+     *
+     * @param coordinator Coordinator or null.
+     */
+    void setCoordinator(final Coordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Create a batch run in the same process with the parameters and the shared services of this batch: workers,
+     * executor type, output pumps, event log, history, cache, job resources, watchdog, retries, metrics and
+     * coordinator. The new batch has its own id, name, counters, jobs, deadline and phase timer, and no journal.
+     *
+     * @param id             Id of the new batch.
+     * @param name           Name of the new batch, null for the default name.
+     * @param deadlineMillis Deadline of the new batch in milliseconds (Unix timestamp), 0 for no deadline.
+     * @return New batch.
+     */
+    Batch newBatch(final String id, final String name, final long deadlineMillis) {
+        final Batch batch = new Batch();
+        batch.id = id;
+        batch.setName(name);
+        batch.parameters = this.parameters;
+        batch.logDirectory = this.logDirectory;
+        batch.numberOfWorkers = this.numberOfWorkers;
+        batch.async = this.async;
+        batch.captureSize = this.captureSize;
+        batch.executorType = this.executorType;
+        batch.pumps = this.getPumps();
+        batch.processSupervisor = this.processSupervisor;
+        batch.jobEventLog = this.getJobEventLog();
+        batch.durationHistory = this.durationHistory;
+        batch.resultCache = this.resultCache;
+        batch.jobResources = this.jobResources;
+        batch.jobTimeoutMillis = this.jobTimeoutMillis;
+        batch.deadline = deadlineMillis;
+        batch.watchdog = this.getWatchdog();
+        batch.retryPolicy = this.retryPolicy;
+        batch.retryQueue = this.retryQueue;
+        batch.metrics = this.metrics;
+        batch.phaseTimer = this.phaseTimer == null ? null : new PhaseTimer();
+        batch.coordinator = this.coordinator;
+        return batch;
+    }
 }
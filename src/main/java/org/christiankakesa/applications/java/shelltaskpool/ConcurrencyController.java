@@ -0,0 +1,389 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive number of concurrent jobs, driven by the load of the host.
+ * <p>
+ * Every {@value #PERIOD_MILLIS} ms the controller samples the host: runnable processes, CPU busy, iowait and steal
+ * ratios (<code>/proc/stat</code>), load average (<code>/proc/loadavg</code>) and available memory
+ * (<code>/proc/meminfo</code>). The number of concurrent jobs follows an AIMD law: it is cut by a quarter when the host
+ * is overloaded (runnable processes per core, CPU steal or available memory beyond their limits) and grows by one
+ * while the CPU is below the target utilization and jobs are waiting for a worker.
+ * </p>
+ * <p>
+ * The runnable processes are counted at the sample time, unlike the load average they don't count the processes
+ * waiting for I/O and don't lag behind a decrease. The load average is only used without <code>/proc/stat</code>, then
+ * a load caused by I/O (iowait above {@value #MAX_IOWAIT}) does not cut the concurrency. After a decrease the
+ * concurrency holds during the averaging window of the load signal, the time for the running jobs to end.
+ * </p>
+ */
+final class ConcurrencyController {
+    private static final Logger LOG = Logger.getLogger(ConcurrencyController.class);
+
+    /**
+     * Sampling period.
+     */
+    static final long PERIOD_MILLIS = 2000L;
+    /**
+     * Default maximum number of concurrent jobs per core.
+     */
+    static final int DEFAULT_MAX_WORKERS_PER_CORE = 4;
+    /**
+     * CPU busy ratio below which more jobs are started.
+     */
+    static final double TARGET_UTILIZATION = 0.9;
+    /**
+     * Runnable processes or load average per core above which the host is overloaded.
+     */
+    static final double MAX_LOAD_PER_CORE = 1.5;
+    /**
+     * CPU iowait ratio above which the load average is caused by I/O, not by the CPU.
+     */
+    static final double MAX_IOWAIT = 0.2;
+    /**
+     * CPU steal ratio above which the host is overloaded.
+     */
+    static final double MAX_STEAL = 0.1;
+    /**
+     * Available memory ratio below which the host is overloaded.
+     */
+    static final double MIN_AVAILABLE_MEMORY = 0.1;
+    /**
+     * Multiplicative decrease factor.
+     */
+    static final double DECREASE_FACTOR = 0.75;
+    /**
+     * Number of samples without change after a decrease driven by the runnable processes.
+     */
+    static final int COOLDOWN_SAMPLES = 5;
+    /**
+     * Number of samples without change after a decrease driven by the one minute load average.
+     */
+    static final int LOAD_AVERAGE_COOLDOWN_SAMPLES = (int) (60000L / PERIOD_MILLIS);
+
+    private static final Path LOADAVG = Paths.get("/proc/loadavg");
+    private static final Path STAT = Paths.get("/proc/stat");
+    private static final Path MEMINFO = Paths.get("/proc/meminfo");
+
+    /**
+     * Number of concurrent jobs under control.
+     */
+    interface Pool {
+        int getSize();
+
+        void setSize(int size);
+
+        /**
+         * Test if jobs are waiting because all the slots are busy.
+         *
+         * @return true if more concurrency would start more jobs.
+         */
+        boolean isSaturated();
+    }
+
+    /**
+     * Load of the host.
+     */
+    static final class Sample {
+        private final double loadPerCore;
+        /**
+         * Runnable processes per core, -1 when unknown.
+         */
+        private final double runnablePerCore;
+        private final double cpuBusy;
+        private final double iowait;
+        private final double steal;
+        private final double availableMemory;
+
+        Sample(final double loadPerCore, final double runnablePerCore, final double cpuBusy, final double iowait,
+               final double steal, final double availableMemory) {
+            this.loadPerCore = loadPerCore;
+            this.runnablePerCore = runnablePerCore;
+            this.cpuBusy = cpuBusy;
+            this.iowait = iowait;
+            this.steal = steal;
+            this.availableMemory = availableMemory;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "load/core:%.2f|runnable/core:%.2f|cpu_busy:%.2f|iowait:%.2f|steal:%.2f|mem_available:%.2f",
+                    loadPerCore, runnablePerCore, cpuBusy, iowait, steal, availableMemory);
+        }
+    }
+
+    private final Pool pool;
+    private final int minSize;
+    private final int maxSize;
+    private final int cores = Util.defaultCorePoolSize();
+    /**
+     * CPU times of the previous sample: total, idle, iowait, steal.
+     */
+    private long[] previousCpuTimes;
+    /**
+     * Number of samples left before the next change.
+     */
+    private int cooldown;
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+            ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-controller-", true));
+
+    /**
+     * ConcurrencyController constructor.
+     *
+     * @param pool    Number of concurrent jobs to control.
+     * @param minSize Minimum number of concurrent jobs.
+     * @param maxSize Maximum number of concurrent jobs.
+     */
+    ConcurrencyController(final Pool pool, final int minSize, final int maxSize) {
+        this.pool = pool;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Control the concurrency of the batch executor.
+     *
+     * @param executor Batch executor.
+     * @return Pool of the executor worker threads.
+     */
+    static Pool executorPool(final MyThreadPoolExecutor executor) {
+        return new Pool() {
+            public int getSize() {
+                return executor.getCorePoolSize();
+            }
+
+            public void setSize(final int size) {
+                // The core pool size can't be greater than the maximum pool size
+                if (size > executor.getMaximumPoolSize()) {
+                    executor.setMaximumPoolSize(size);
+                    executor.setCorePoolSize(size);
+                } else {
+                    executor.setCorePoolSize(size);
+                    executor.setMaximumPoolSize(size);
+                }
+            }
+
+            public boolean isSaturated() {
+                return executor.getActiveCount() >= executor.getCorePoolSize() && !executor.getQueue().isEmpty();
+            }
+        };
+    }
+
+    /**
+     * Control the number of running processes in asynchronous mode.
+     *
+     * @param supervisor Supervisor of the asynchronous processes.
+     * @return Pool of the process slots.
+     */
+    static Pool supervisorPool(final ProcessSupervisor supervisor) {
+        return new Pool() {
+            public int getSize() {
+                return supervisor.getMaxProcesses();
+            }
+
+            public void setSize(final int size) {
+                supervisor.setMaxProcesses(size);
+            }
+
+            public boolean isSaturated() {
+                return supervisor.getRunningProcesses() >= supervisor.getMaxProcesses();
+            }
+        };
+    }
+
+    /**
+     * Start sampling the host.
+     */
+    void start() {
+        // First CPU times, the CPU ratios of the first sample are computed from them
+        this.sample();
+        sampler.scheduleWithFixedDelay(() -> {
+            try {
+                final Sample sample = this.sample();
+                if (sample != null) {
+                    this.adjust(sample);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Concurrency control failed", e);
+            }
+        }, PERIOD_MILLIS, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sampling the host, the concurrency does not change anymore.
+     */
+    void stop() {
+        sampler.shutdownNow();
+        try {
+            sampler.awaitTermination(PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Apply the AIMD law to the pool.
+     *
+     * @param sample Load of the host.
+     * @return New size of the pool.
+     */
+    int adjust(final Sample sample) {
+        final int size = pool.getSize();
+        int newSize = size;
+        String reason = null;
+        if (cooldown > 0) {
+            --cooldown;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Concurrency " + size + " held: " + sample);
+            }
+            return size;
+        }
+        if (sample.availableMemory < MIN_AVAILABLE_MEMORY) {
+            reason = "low memory";
+        } else if (sample.runnablePerCore >= 0 ? sample.runnablePerCore > MAX_LOAD_PER_CORE
+                : sample.loadPerCore > MAX_LOAD_PER_CORE && sample.iowait <= MAX_IOWAIT) {
+            reason = "high load";
+        } else if (sample.steal > MAX_STEAL) {
+            reason = "high steal";
+        }
+        if (reason != null) {
+            newSize = Math.max(minSize, (int) (size * DECREASE_FACTOR));
+            // Wait for the running jobs to end and for the load signal to show it
+            cooldown = sample.runnablePerCore >= 0 ? COOLDOWN_SAMPLES : LOAD_AVERAGE_COOLDOWN_SAMPLES;
+        } else if (sample.cpuBusy < TARGET_UTILIZATION && pool.isSaturated()) {
+            reason = "cpu available";
+            newSize = Math.min(maxSize, size + 1);
+        }
+        if (newSize != size) {
+            LOG.info("Concurrency " + size + " -> " + newSize + " (" + reason + "): " + sample);
+            pool.setSize(newSize);
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("Concurrency " + size + ": " + sample);
+        }
+        return newSize;
+    }
+
+    /**
+     * Sample the load of the host.
+     *
+     * @return Load of the host or null if it can't be read.
+     */
+    private Sample sample() {
+        double load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        double runnable = -1.0;
+        double cpuBusy = 0.0;
+        double iowait = 0.0;
+        double steal = 0.0;
+        double availableMemory = 1.0;
+        try {
+            load = ConcurrencyController.parseLoadAverage(ConcurrencyController.read(LOADAVG));
+            final String stat = ConcurrencyController.read(STAT);
+            final long[] cpuTimes = ConcurrencyController.parseCpuTimes(stat);
+            if (previousCpuTimes != null && cpuTimes[0] > previousCpuTimes[0]) {
+                final double total = cpuTimes[0] - previousCpuTimes[0];
+                cpuBusy = 1.0 - (cpuTimes[1] - previousCpuTimes[1] + cpuTimes[2] - previousCpuTimes[2]) / total;
+                iowait = (cpuTimes[2] - previousCpuTimes[2]) / total;
+                steal = (cpuTimes[3] - previousCpuTimes[3]) / total;
+            }
+            previousCpuTimes = cpuTimes;
+            // The sampler thread is running
+            runnable = Math.max(0, ConcurrencyController.parseProcsRunning(stat) - 1);
+            availableMemory = ConcurrencyController.parseAvailableMemory(ConcurrencyController.read(MEMINFO));
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Can't read the host load from /proc", e);
+        }
+        if (load < 0) {
+            return null;
+        }
+        return new Sample(load / cores, runnable < 0 ? -1.0 : runnable / cores, cpuBusy, iowait, steal,
+                availableMemory);
+    }
+
+    private static String read(final Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Parse the one minute load average of <code>/proc/loadavg</code>.
+     *
+     * @param loadavg Content of <code>/proc/loadavg</code>.
+     * @return Load average.
+     */
+    static double parseLoadAverage(final String loadavg) {
+        return Double.parseDouble(loadavg.trim().split("\\s+")[0]);
+    }
+
+    /**
+     * Parse the aggregated CPU times of <code>/proc/stat</code>.
+     *
+     * @param stat Content of <code>/proc/stat</code>.
+     * @return CPU times in ticks: total, idle, iowait, steal.
+     */
+    static long[] parseCpuTimes(final String stat) {
+        final int end = stat.indexOf('\n');
+        final String[] fields = (end < 0 ? stat : stat.substring(0, end)).trim().split("\\s+");
+        if (!"cpu".equals(fields[0])) {
+            throw new IllegalArgumentException("No cpu line: " + fields[0]);
+        }
+        // cpu user nice system idle iowait irq softirq steal [guest guest_nice], guest is counted in user
+        long total = 0;
+        for (int i = 1; i < fields.length && i <= 8; ++i) {
+            total += Long.parseLong(fields[i]);
+        }
+        final long steal = fields.length > 8 ? Long.parseLong(fields[8]) : 0L;
+        return new long[]{total, Long.parseLong(fields[4]), Long.parseLong(fields[5]), steal};
+    }
+
+    /**
+     * Parse the number of runnable processes of <code>/proc/stat</code>.
+     *
+     * @param stat Content of <code>/proc/stat</code>.
+     * @return Number of processes running or waiting for a CPU.
+     */
+    static int parseProcsRunning(final String stat) {
+        for (String line : stat.split("\n")) {
+            if (line.startsWith("procs_running ")) {
+                return Integer.parseInt(line.substring("procs_running ".length()).trim());
+            }
+        }
+        throw new IllegalArgumentException("No procs_running");
+    }
+
+    /**
+     * Parse the available memory ratio of <code>/proc/meminfo</code>.
+     *
+     * @param meminfo Content of <code>/proc/meminfo</code>.
+     * @return MemAvailable / MemTotal.
+     */
+    static double parseAvailableMemory(final String meminfo) {
+        long total = -1;
+        long available = -1;
+        for (String line : meminfo.split("\n")) {
+            if (line.startsWith("MemTotal:")) {
+                total = ConcurrencyController.parseKilobytes(line);
+            } else if (line.startsWith("MemAvailable:")) {
+                available = ConcurrencyController.parseKilobytes(line);
+            }
+        }
+        if (total <= 0 || available < 0) {
+            throw new IllegalArgumentException("No MemTotal or MemAvailable");
+        }
+        return (double) available / total;
+    }
+
+    private static long parseKilobytes(final String line) {
+        return Long.parseLong(line.substring(line.indexOf(':') + 1).trim().split("\\s+")[0]);
+    }
+}
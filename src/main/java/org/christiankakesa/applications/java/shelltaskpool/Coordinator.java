@@ -0,0 +1,295 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinator of a batch run by agents on other hosts, see {@link AgentProtocol}.
+ * <p>
+ * The coordinator owns the batch: jobs are scheduled as usual, but instead of spawning their process they wait in
+ * the queue of the coordinator. Each agent announces its idle workers and gets a lease on as many jobs; an agent only
+ * gets new jobs when it has an idle worker, so fast agents take more jobs than slow ones. The result of a job sent by
+ * its agent completes the job in the coordinator: status, retries, history, journal and events are handled here.
+ * </p>
+ * <p>
+ * Leases are kept alive by the heartbeats of the agent. When an agent disconnects or is silent for
+ * {@value AgentProtocol#LEASE_TIMEOUT_MILLIS} ms, its leases expire and its jobs go back to the head of the queue, to
+ * be run again by another agent.
+ * </p>
+ * <p>
+ * Agents are accepted only with the proof of the shared secret. Without secret, the coordinator only listens on the
+ * loopback interface, for agents reaching it through a tunnel.
+ * </p>
+ */
+final class Coordinator {
+    private static final Logger LOG = Logger.getLogger(Coordinator.class);
+
+    private final ServerSocket server;
+    /**
+     * Shared secret of the agents, null to accept any agent.
+     */
+    private final byte[] secret;
+    private final BlockingDeque<JobExecution> pending = new LinkedBlockingDeque<JobExecution>();
+    private final Set<AgentConnection> agents = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Coordinator constructor, agents are accepted from now on.
+     *
+     * @param address Listening address, port 0 for any free port.
+     * @param secret  Shared secret of the agents, null to accept any agent.
+     * @throws IOException if the coordinator can't listen on the address.
+     * @throws IllegalArgumentException if the address is not a loopback address and there is no secret.
+     */
+    Coordinator(final InetSocketAddress address, final byte[] secret) throws IOException {
+        if (secret == null && !AgentProtocol.isLoopback(address)) {
+            throw new IllegalArgumentException("A shared secret is needed to accept agents on "
+                    + address.getHostString() + ", set " + AgentProtocol.SECRET_ENV + " or "
+                    + AgentProtocol.SECRET_FILE_ENV);
+        }
+        this.secret = secret;
+        this.server = new ServerSocket();
+        this.server.setReuseAddress(true);
+        this.server.bind(address);
+        ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-coordinator-", true).newThread(this::acceptLoop)
+                .start();
+        LOG.info("Coordinator waiting for agents on " + address.getHostString() + ":" + this.getPort());
+    }
+
+    /**
+     * Get the listening port.
+     *
+     * @return Port.
+     */
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Queue a job for the agents.
+     *
+     * @param job Job, completed when its agent sends the result.
+     */
+    void submit(final JobExecution job) {
+        pending.add(job);
+    }
+
+    /**
+     * Number of jobs waiting for an agent.
+     *
+     * @return Number of jobs.
+     */
+    int getPendingJobs() {
+        return pending.size();
+    }
+
+    /**
+     * Say goodbye to the agents and stop accepting new ones, once the batch ended.
+     */
+    void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            LOG.warn("Can't close the coordinator socket", e);
+        }
+        for (AgentConnection agent : agents) {
+            agent.bye();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                new AgentConnection(server.accept()).start();
+            } catch (IOException e) {
+                if (!closed) {
+                    LOG.error("Can't accept an agent", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Connection of an agent: a reader thread for the agent messages and a dispatcher thread leasing the jobs.
+     */
+    private final class AgentConnection {
+        private final Socket socket;
+        private final Writer out;
+        /**
+         * Idle workers of the agent.
+         */
+        private final Semaphore credits = new Semaphore(0);
+        /**
+         * Jobs leased to the agent by job id.
+         */
+        private final Map<Integer, JobExecution> leases = new ConcurrentHashMap<Integer, JobExecution>();
+        private String name;
+        private volatile boolean alive = true;
+        private Thread dispatcher;
+
+        private AgentConnection(final Socket socket) throws IOException {
+            this.socket = socket;
+            this.socket.setSoTimeout((int) AgentProtocol.LEASE_TIMEOUT_MILLIS);
+            this.socket.setTcpNoDelay(true);
+            this.out = AgentProtocol.writer(socket);
+            this.name = socket.getRemoteSocketAddress().toString();
+        }
+
+        private void start() {
+            ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-agent-reader-", true).newThread(this::readLoop)
+                    .start();
+        }
+
+        private void readLoop() {
+            try {
+                final BufferedReader in = AgentProtocol.reader(socket);
+                final String challenge = AgentProtocol.newChallenge();
+                this.send(AgentProtocol.CHALLENGE + " " + challenge);
+                final String[] hello = String.valueOf(in.readLine()).split(" ");
+                if (hello.length != 4 || !AgentProtocol.HELLO.equals(hello[0])) {
+                    LOG.warn("Unknown agent " + name + ": " + hello[0]);
+                    return;
+                }
+                if (!AgentProtocol.verify(secret, challenge, hello[3])) {
+                    LOG.warn("Agent " + hello[1] + "@" + name + " rejected, wrong shared secret");
+                    return;
+                }
+                name = hello[1] + "@" + name;
+                agents.add(this);
+                LOG.info("Agent " + name + " connected with " + hello[2] + " workers");
+                dispatcher = ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-agent-dispatcher-", true)
+                        .newThread(this::dispatchLoop);
+                dispatcher.start();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith(AgentProtocol.DONE)) {
+                        this.done(AgentProtocol.parseDone(line));
+                    } else if (line.startsWith(AgentProtocol.READY)) {
+                        credits.release(Integer.parseInt(line.substring(AgentProtocol.READY.length()).trim()));
+                    } else if (!AgentProtocol.PING.equals(line)) {
+                        LOG.warn("Unknown message of agent " + name + ": " + line);
+                    }
+                }
+                if (!closed) {
+                    LOG.warn("Agent " + name + " disconnected");
+                }
+            } catch (SocketTimeoutException e) {
+                LOG.warn("Agent " + name + " silent for " + AgentProtocol.LEASE_TIMEOUT_MILLIS + " ms, leases expired");
+            } catch (IOException | RuntimeException e) {
+                if (alive) {
+                    LOG.warn("Agent " + name + " lost", e);
+                }
+            } finally {
+                this.lost();
+            }
+        }
+
+        /**
+         * Lease the jobs to the agent while it has idle workers, send heartbeats otherwise.
+         */
+        private void dispatchLoop() {
+            try {
+                while (alive) {
+                    if (!credits.tryAcquire(AgentProtocol.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        this.send(AgentProtocol.PING);
+                        continue;
+                    }
+                    final JobExecution job = pending.poll(AgentProtocol.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (job == null) {
+                        credits.release();
+                        this.send(AgentProtocol.PING);
+                        continue;
+                    }
+                    leases.put(job.getId(), job);
+                    final long timeoutMillis = job.leased(name);
+                    if (!alive) {
+                        // The agent was lost while leasing, its leases are already released
+                        this.release(job.getId());
+                        return;
+                    }
+                    this.send(AgentProtocol.job(job.getId(), timeoutMillis, job.getSpec().getLimits(),
+                            job.getCommandLine()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                if (alive) {
+                    LOG.warn("Can't send a job to agent " + name, e);
+                }
+                this.lost();
+            }
+        }
+
+        private void send(final String message) throws IOException {
+            synchronized (out) {
+                AgentProtocol.send(out, message);
+            }
+        }
+
+        /**
+         * Complete a job from its result.
+         *
+         * @param result Job result.
+         */
+        private void done(final AgentProtocol.Result result) {
+            final JobExecution job = leases.remove(result.jobId);
+            if (job == null) {
+                LOG.warn("Agent " + name + " sent the result of job " + result.jobId + " not leased to it");
+                return;
+            }
+            job.completeRemote(result);
+        }
+
+        /**
+         * Release the leases of a lost agent, its jobs are queued again.
+         */
+        private void lost() {
+            alive = false;
+            agents.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("Can't close the socket of agent " + name, e);
+            }
+            if (dispatcher != null) {
+                dispatcher.interrupt();
+            }
+            for (Integer jobId : leases.keySet()) {
+                this.release(jobId);
+            }
+        }
+
+        private void release(final Integer jobId) {
+            final JobExecution job = leases.remove(jobId);
+            if (job != null) {
+                LOG.warn("JobId: " + job.getId() + ":" + job.getCommandLine() + " lease of agent " + name
+                        + " expired, job queued again");
+                pending.addFirst(job);
+            }
+        }
+
+        private void bye() {
+            try {
+                this.send(AgentProtocol.BYE);
+                socket.shutdownOutput();
+            } catch (IOException e) {
+                LOG.debug("Can't say goodbye to agent " + name, e);
+            }
+        }
+    }
+}
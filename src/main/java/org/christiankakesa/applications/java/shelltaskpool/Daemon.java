@@ -0,0 +1,373 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Submission API of the daemon: batches are submitted over local HTTP to a resident process, which runs them with a
+ * warm JVM and executor.
+ * <pre>
+ * POST /batches[?name=&lt;name&gt;&amp;timeout=&lt;duration&gt;&amp;wait=true]   body: jobs file
+ * GET  /batches                                               status of the batches
+ * GET  /batches/&lt;id&gt;                                          status of a batch
+ * </pre>
+ * A submission answers with the batch:status record of the batch, or with its batch:end record once it ended when
+ * <b>wait</b> is set. Batches run as soon as they are submitted, at the same time as the running ones; each batch has
+ * its own id, counters, deadline and journal. The {@value #MAX_ENDED_BATCHES} last ended batches are kept.
+ * <p>
+ * With a shared secret, a submission must carry the HMAC-SHA256 of its body under the secret in the
+ * {@value #SIGNATURE_HEADER} header. Without secret, the daemon only listens on the loopback interface.
+ * </p>
+ */
+final class Daemon {
+    private static final Logger LOG = Logger.getLogger(Daemon.class);
+
+    /**
+     * Path of the batches.
+     */
+    static final String PATH = "/batches";
+    /**
+     * Number of ended batches kept for their status.
+     */
+    static final int MAX_ENDED_BATCHES = 1000;
+    /**
+     * Header of the signature of a submission: HMAC-SHA256 of the body under the shared secret, in hexadecimal.
+     */
+    static final String SIGNATURE_HEADER = "X-Signature";
+    private static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+
+    /**
+     * Batch submitted to the daemon.
+     */
+    static final class Submission {
+        private final String id = Util.buildUUID();
+        private final String name;
+        private final long timeoutMillis;
+        private final List<JobSpec> jobs;
+        private final CountDownLatch ended = new CountDownLatch(1);
+        /**
+         * Status of the batch, null while it is queued.
+         */
+        private volatile Batch.BatchStatus status;
+        private volatile String endRecord;
+
+        Submission(final String name, final long timeoutMillis, final List<JobSpec> jobs) {
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+            this.jobs = jobs;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Get the batch timeout.
+         *
+         * @return Timeout in milliseconds, 0 for the timeout of the daemon.
+         */
+        long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        List<JobSpec> getJobs() {
+            return jobs;
+        }
+
+        /**
+         * Record the start of the batch.
+         *
+         * @param status Status of the batch.
+         */
+        void started(final Batch.BatchStatus status) {
+            this.status = status;
+        }
+
+        /**
+         * Record the end of the batch.
+         *
+         * @param endRecord The batch:end record.
+         */
+        void ended(final String endRecord) {
+            this.endRecord = endRecord;
+            this.ended.countDown();
+        }
+
+        boolean isEnded() {
+            return ended.getCount() == 0;
+        }
+
+        /**
+         * Wait for the end of the batch.
+         *
+         * @return The batch:end record.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        String awaitEnd() throws InterruptedException {
+            ended.await();
+            return endRecord;
+        }
+
+        /**
+         * Build the batch:status record of the batch.
+         *
+         * @return Record.
+         */
+        String statusRecord() {
+            final Batch.BatchStatus s = this.status;
+            final StringBuilder sb = new StringBuilder("batch:status|id:").append(id).append("|name:")
+                    .append(name == null ? Batch.DEFAULT_NAME : name).append("|number_of_jobs:").append(jobs.size());
+            if (s == null) {
+                return sb.append("|status:QUEUED").toString();
+            }
+            final Batch.Snapshot snapshot = s.snapshot();
+            return sb.append("|total_jobs:").append(snapshot.getTotalJob())
+                    .append("|success_jobs:").append(snapshot.getSuccessJob())
+                    .append("|failed_jobs:").append(snapshot.getFailedJob())
+                    .append("|skipped_jobs:").append(snapshot.getSkippedJob())
+                    .append("|timed_out_jobs:").append(snapshot.getTimedOutJob())
+                    .append("|status:").append(snapshot.getStatus()).toString();
+        }
+    }
+
+    private final Function<String, JobSpec> jobParser;
+    /**
+     * Shared secret signing the submissions, null when not needed.
+     */
+    private final byte[] secret;
+    private final BlockingQueue<Submission> queue = new LinkedBlockingQueue<Submission>();
+    /**
+     * Submissions by id, in submission order.
+     */
+    private final Map<String, Submission> submissions = new LinkedHashMap<String, Submission>();
+    private final HttpServer server;
+    private final ExecutorService serverExecutor;
+
+    /**
+     * Daemon constructor, submissions are accepted from now on.
+     *
+     * @param address   Listening address of the HTTP server, port 0 for any free port.
+     * @param secret    Shared secret signing the submissions, null to accept unsigned submissions on the loopback
+     *                  interface.
+     * @param jobParser Parser of the job lines, returns null for an invalid line.
+     * @throws IOException              if the HTTP server can't listen on the address.
+     * @throws IllegalArgumentException if the address is not a loopback address and there is no secret.
+     */
+    Daemon(final InetSocketAddress address, final byte[] secret, final Function<String, JobSpec> jobParser)
+            throws IOException {
+        if (secret == null && !AgentProtocol.isLoopback(address)) {
+            throw new IllegalArgumentException("A shared secret is needed to accept batches on "
+                    + address.getHostString() + ", set " + AgentProtocol.SECRET_ENV + " or "
+                    + AgentProtocol.SECRET_FILE_ENV);
+        }
+        this.jobParser = jobParser;
+        this.secret = secret;
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext(PATH, this::handle);
+        // Submissions waiting for the end of their batch hold their thread
+        this.serverExecutor = Executors.newCachedThreadPool(
+                ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-daemon-", true));
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+        LOG.info("Daemon waiting for batches on http://" + address.getHostString() + ":" + this.getPort() + PATH);
+    }
+
+    /**
+     * Get the port of the HTTP server.
+     *
+     * @return Listening port.
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Wait for the next submitted batch.
+     *
+     * @return Submitted batch.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    Submission take() throws InterruptedException {
+        return queue.take();
+    }
+
+    /**
+     * Submit a batch.
+     *
+     * @param name          Batch name, null for the default name.
+     * @param timeoutMillis Batch timeout in milliseconds, 0 for the timeout of the daemon.
+     * @param jobs          Jobs of the batch.
+     * @return Submission.
+     */
+    Submission submit(final String name, final long timeoutMillis, final List<JobSpec> jobs) {
+        final Submission submission = new Submission(name, timeoutMillis, jobs);
+        synchronized (submissions) {
+            submissions.put(submission.getId(), submission);
+            int ended = 0;
+            for (Submission s : submissions.values()) {
+                if (s.isEnded()) {
+                    ++ended;
+                }
+            }
+            final Iterator<Submission> it = submissions.values().iterator();
+            while (ended > MAX_ENDED_BATCHES && it.hasNext()) {
+                if (it.next().isEnded()) {
+                    it.remove();
+                    --ended;
+                }
+            }
+        }
+        queue.add(submission);
+        LOG.info("Batch " + submission.getId() + " submitted with " + jobs.size() + " jobs");
+        return submission;
+    }
+
+    /**
+     * Stop the HTTP server, the submissions not run yet are lost.
+     */
+    void stop() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final String path = exchange.getRequestURI().getPath();
+            final String method = exchange.getRequestMethod();
+            if ("POST".equals(method) && PATH.equals(path)) {
+                this.handleSubmit(exchange);
+            } else if ("GET".equals(method) && PATH.equals(path)) {
+                final StringBuilder sb = new StringBuilder();
+                synchronized (submissions) {
+                    for (Submission submission : submissions.values()) {
+                        sb.append(submission.statusRecord()).append('\n');
+                    }
+                }
+                Daemon.respond(exchange, 200, sb.toString());
+            } else if ("GET".equals(method) && path.startsWith(PATH + "/")) {
+                final Submission submission;
+                synchronized (submissions) {
+                    submission = submissions.get(path.substring(PATH.length() + 1));
+                }
+                if (submission == null) {
+                    Daemon.respond(exchange, 404, "Unknown batch\n");
+                } else {
+                    Daemon.respond(exchange, 200, submission.statusRecord() + "\n");
+                }
+            } else {
+                Daemon.respond(exchange, 404, "Unknown request\n");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleSubmit(final HttpExchange exchange) throws IOException {
+        final Map<String, String> query = Daemon.parseQuery(exchange.getRequestURI().getRawQuery());
+        final String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        final String signature = exchange.getRequestHeaders().getFirst(SIGNATURE_HEADER);
+        if (secret != null && (signature == null || !AgentProtocol.verify(secret, body, signature.trim()))) {
+            LOG.warn("Unsigned or wrongly signed batch from " + exchange.getRemoteAddress() + " refused");
+            Daemon.respond(exchange, 401, "Wrong signature\n");
+            return;
+        }
+        long timeoutMillis = 0L;
+        final List<JobSpec> jobs = new ArrayList<JobSpec>();
+        try {
+            if (query.containsKey("timeout")) {
+                timeoutMillis = Util.parseDuration(query.get("timeout"));
+            }
+            final BufferedReader in = new BufferedReader(new StringReader(body));
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                ++lineNumber;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                final JobSpec spec = jobParser.apply(line);
+                if (spec == null) {
+                    throw new IllegalArgumentException("Invalid job at line " + lineNumber);
+                }
+                if (jobs.size() == Batch.MAX_JOBS) {
+                    throw new IllegalArgumentException("Maximum of jobs is " + Batch.MAX_JOBS);
+                }
+                jobs.add(spec);
+            }
+            if (jobs.isEmpty()) {
+                throw new IllegalArgumentException("No jobs found");
+            }
+            // Check the job dependencies before the batch is queued
+            DagScheduler.check(jobs);
+        } catch (IllegalArgumentException e) {
+            Daemon.respond(exchange, 400, e.getMessage() + "\n");
+            return;
+        }
+        final Submission submission = this.submit(query.get("name"), timeoutMillis, jobs);
+        if (!Boolean.parseBoolean(query.get("wait"))) {
+            Daemon.respond(exchange, 202, submission.statusRecord() + "\n");
+            return;
+        }
+        try {
+            Daemon.respond(exchange, 200, submission.awaitEnd() + "\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Daemon.respond(exchange, 503, submission.statusRecord() + "\n");
+        }
+    }
+
+    /**
+     * Parse a query string.
+     *
+     * @param rawQuery Raw query, may be null.
+     * @return Decoded parameters.
+     */
+    static Map<String, String> parseQuery(final String rawQuery) {
+        final Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String param : rawQuery.split("&")) {
+            final int sep = param.indexOf('=');
+            final String key = sep < 0 ? param : param.substring(0, sep);
+            final String value = sep < 0 ? "true" : param.substring(sep + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static void respond(final HttpExchange exchange, final int code, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(code, bytes.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
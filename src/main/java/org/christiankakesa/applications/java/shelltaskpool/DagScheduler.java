@@ -0,0 +1,282 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedule jobs with <b>after</b> dependencies.
+ * <p>
+ * Jobs without dependencies are submitted first. A job is submitted to the executor as soon as all the jobs it
+ * depends on are completed successfully, so workers stay busy across the stages of a pipeline. When a job does not
+ * complete successfully, all its descendants are skipped.
+ * </p>
+ * <p>
+ * With a duration history, the priority of a job is its critical path: its expected duration plus the longest
+ * expected path of the jobs depending on it. Ready jobs on the longest chains start first.
+ * </p>
+ */
+final class DagScheduler {
+    private static final Logger LOG = Logger.getLogger(DagScheduler.class);
+
+    /**
+     * Job of the graph.
+     */
+    private static final class Node {
+        private final JobSpec spec;
+        /**
+         * Position of the job in the batch.
+         */
+        private final int ordinal;
+        private final List<Node> successors = new ArrayList<Node>();
+        /**
+         * Number of predecessors not completed yet.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        /**
+         * The node is submitted or skipped, only once.
+         */
+        private final AtomicBoolean released = new AtomicBoolean();
+        /**
+         * Expected time in milliseconds from the start of the job to the end of its descendants.
+         */
+        private long criticalPath;
+
+        private Node(final JobSpec spec, final int ordinal) {
+            this.spec = spec;
+            this.ordinal = ordinal;
+        }
+    }
+
+    private final List<Node> nodes;
+    private final Batch batch;
+    private final MyThreadPoolExecutor executor;
+    /**
+     * Number of jobs not ended or skipped yet.
+     */
+    private final CountDownLatch remaining;
+
+    /**
+     * DagScheduler constructor.
+     *
+     * @param batch    Batch of the jobs.
+     * @param specs    Jobs to schedule.
+     * @param executor Executor running the jobs.
+     * @throws IllegalArgumentException if a job name is duplicated, a dependency is unknown or the graph has a cycle.
+     */
+    DagScheduler(final Batch batch, final List<JobSpec> specs, final MyThreadPoolExecutor executor) {
+        this(batch, specs, executor, Collections.<Integer>emptySet());
+    }
+
+    /**
+     * DagScheduler constructor for a resumed batch. Jobs already completed are not run again and release the jobs
+     * depending on them.
+     *
+     * @param batch     Batch of the jobs.
+     * @param specs     Jobs to schedule.
+     * @param executor  Executor running the jobs.
+     * @param completed Positions in <code>specs</code> of the jobs already completed.
+     * @throws IllegalArgumentException if a job name is duplicated, a dependency is unknown or the graph has a cycle.
+     */
+    DagScheduler(final Batch batch, final List<JobSpec> specs, final MyThreadPoolExecutor executor,
+                 final Set<Integer> completed) {
+        this.batch = batch;
+        this.executor = executor;
+        this.nodes = DagScheduler.graph(specs);
+        DagScheduler.computeCriticalPaths(DagScheduler.topologicalOrder(nodes), batch.getDurationHistory());
+        int toRun = nodes.size();
+        for (Node node : nodes) {
+            if (completed.contains(node.ordinal)) {
+                node.released.set(true);
+                --toRun;
+                for (Node successor : node.successors) {
+                    successor.pending.decrementAndGet();
+                }
+            }
+        }
+        this.remaining = new CountDownLatch(toRun);
+    }
+
+    /**
+     * Check the dependencies of jobs before they are scheduled.
+     *
+     * @param specs Jobs to schedule.
+     * @throws IllegalArgumentException if a job name is duplicated, a dependency is unknown or the graph has a cycle.
+     */
+    static void check(final List<JobSpec> specs) {
+        DagScheduler.topologicalOrder(DagScheduler.graph(specs));
+    }
+
+    /**
+     * Build the graph of the jobs, each job is linked to the jobs depending on it.
+     *
+     * @param specs Jobs to schedule.
+     * @return Jobs of the graph in the batch order.
+     * @throws IllegalArgumentException if a job name is duplicated or a dependency is unknown.
+     */
+    private static List<Node> graph(final List<JobSpec> specs) {
+        final List<Node> nodes = new ArrayList<Node>(specs.size());
+        final Map<String, Node> byName = new HashMap<String, Node>();
+        for (JobSpec spec : specs) {
+            final Node node = new Node(spec, nodes.size());
+            nodes.add(node);
+            if (spec.getName() != null && byName.put(spec.getName(), node) != null) {
+                throw new IllegalArgumentException("Duplicated job id: " + spec.getName());
+            }
+        }
+        for (Node node : nodes) {
+            for (String dependency : node.spec.getAfter()) {
+                final Node predecessor = byName.get(dependency);
+                if (predecessor == null) {
+                    throw new IllegalArgumentException("Unknown job id " + dependency + " in after of " + node.spec);
+                }
+                predecessor.successors.add(node);
+                node.pending.incrementAndGet();
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Sort the jobs so that each job comes after the jobs it depends on (Kahn's algorithm).
+     *
+     * @param nodes Jobs of the graph.
+     * @return Jobs in topological order.
+     * @throws IllegalArgumentException if the graph has a cycle.
+     */
+    private static List<Node> topologicalOrder(final List<Node> nodes) {
+        final Map<Node, Integer> inDegree = new HashMap<Node, Integer>();
+        final Deque<Node> ready = new ArrayDeque<Node>();
+        for (Node node : nodes) {
+            inDegree.put(node, node.pending.get());
+            if (node.pending.get() == 0) {
+                ready.add(node);
+            }
+        }
+        final List<Node> order = new ArrayList<Node>(nodes.size());
+        while (!ready.isEmpty()) {
+            final Node node = ready.poll();
+            order.add(node);
+            for (Node successor : node.successors) {
+                final int degree = inDegree.get(successor) - 1;
+                inDegree.put(successor, degree);
+                if (degree == 0) {
+                    ready.add(successor);
+                }
+            }
+        }
+        if (order.size() != nodes.size()) {
+            throw new IllegalArgumentException("Job dependencies have a cycle");
+        }
+        return order;
+    }
+
+    /**
+     * Compute the critical path of each job, from the last jobs to the first ones.
+     *
+     * @param order   Jobs in topological order.
+     * @param history Expected durations of the jobs or null.
+     */
+    private static void computeCriticalPaths(final List<Node> order, final DurationHistory history) {
+        for (int i = order.size() - 1; i >= 0; --i) {
+            final Node node = order.get(i);
+            long longestSuccessor = 0L;
+            for (Node successor : node.successors) {
+                longestSuccessor = Math.max(longestSuccessor, successor.criticalPath);
+            }
+            final long duration = history == null ? DurationHistory.UNKNOWN_DURATION
+                    : history.expectedDuration(node.spec.getCommandLine());
+            node.criticalPath = duration + longestSuccessor;
+        }
+    }
+
+    /**
+     * Get the critical path of a job.
+     *
+     * @param name Job name.
+     * @return Expected time in milliseconds from the start of the job to the end of its descendants.
+     */
+    long getCriticalPath(final String name) {
+        for (Node node : nodes) {
+            if (name.equals(node.spec.getName())) {
+                return node.criticalPath;
+            }
+        }
+        throw new IllegalArgumentException("Unknown job id " + name);
+    }
+
+    /**
+     * Submit the jobs without dependencies.
+     */
+    void start() {
+        final List<Node> roots = new ArrayList<Node>();
+        for (Node node : nodes) {
+            if (node.pending.get() == 0 && !node.released.get()) {
+                roots.add(node);
+            }
+        }
+        // The first jobs go straight to the idle workers, submit the longest chains first
+        roots.sort((n1, n2) -> Long.compare(n2.criticalPath, n1.criticalPath));
+        for (Node node : roots) {
+            if (node.released.compareAndSet(false, true)) {
+                this.submit(node);
+            }
+        }
+    }
+
+    /**
+     * Wait until all the jobs are ended or skipped.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void await() throws InterruptedException {
+        remaining.await();
+    }
+
+    private void submit(final Node node) {
+        executor.addTask(new ShellTaskWorker(batch, node.spec, node.ordinal, node.criticalPath,
+                job -> this.jobEnded(node, job)));
+    }
+
+    /**
+     * Release the successors of a completed job, skip the descendants of a failed job.
+     *
+     * @param node Node of the ended job.
+     * @param job  Ended job.
+     */
+    private void jobEnded(final Node node, final JobExecution job) {
+        if (job.getStatus() == JobExecution.JobStatus.COMPLETED) {
+            for (Node successor : node.successors) {
+                if (successor.pending.decrementAndGet() == 0 && successor.released.compareAndSet(false, true)) {
+                    this.submit(successor);
+                }
+            }
+        } else {
+            this.skipDescendants(node);
+        }
+        remaining.countDown();
+    }
+
+    private void skipDescendants(final Node node) {
+        final Deque<Node> toSkip = new ArrayDeque<Node>(node.successors);
+        while (!toSkip.isEmpty()) {
+            final Node descendant = toSkip.pop();
+            if (descendant.released.compareAndSet(false, true)) {
+                LOG.warn("Job " + descendant.spec + " skipped, " + node.spec + " did not complete");
+                new JobExecution(batch, descendant.spec, descendant.ordinal, null).skip();
+                remaining.countDown();
+                toSkip.addAll(descendant.successors);
+            }
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Persistent history of the job runs.
+ * <p>
+ * Each run (start date, duration, exit code, output size) is appended to a binary log, the history file. Statistics
+ * by command line are kept in an index, the history file with the <code>.idx</code> suffix: fixed size entries
+ * sorted by command line hash, memory-mapped and searched by binary search. A query reads one entry and sorts its
+ * last {@value #WINDOW} durations, it takes microseconds whatever the size of the history.
+ * </p>
+ * <p>
+ * The runs of the current batch are kept in memory on top of the index. The index is rewritten by {@link #save()};
+ * runs appended to the log after the last index write (e.g. when the JVM died) are replayed when the history is
+ * opened. Command lines are identified by a 64-bit hash of their normalized form.
+ * </p>
+ */
+final class DurationHistory {
+    private static final Logger LOG = Logger.getLogger(DurationHistory.class);
+
+    /**
+     * Expected duration of a command line not in the history.
+     */
+    static final long UNKNOWN_DURATION = 0L;
+
+    /**
+     * Number of durations of completed runs kept by command line for the percentiles.
+     */
+    static final int WINDOW = 32;
+
+    /**
+     * Suffix of the index file.
+     */
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final int INDEX_MAGIC = 0x53545049; // STPI
+    private static final int INDEX_VERSION = 1;
+    /**
+     * Index header: magic, version, length of the log covered by the index, number of entries.
+     */
+    private static final int INDEX_HEADER_SIZE = 4 + 4 + 8 + 4;
+    /**
+     * Index entry: hash, runs, failures, total output bytes, number of durations, durations oldest first.
+     */
+    private static final int INDEX_ENTRY_SIZE = 8 + 4 + 4 + 8 + 4 + WINDOW * 8;
+
+    /**
+     * Log record after its length: hash, start date, duration, exit code, output bytes, command line length.
+     */
+    private static final int RECORD_FIXED_SIZE = 8 + 8 + 8 + 4 + 8 + 2;
+
+    private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Statistics of a command line.
+     */
+    static final class Stats {
+        private int runs;
+        private int failures;
+        private long outputBytes;
+        /**
+         * Ring of the last durations of completed runs.
+         */
+        private final long[] durations = new long[WINDOW];
+        private int count;
+        private int next;
+
+        private void add(final long duration, final int exitCode, final long bytes) {
+            ++runs;
+            if (exitCode != 0) {
+                ++failures;
+                return;
+            }
+            if (bytes > 0) {
+                outputBytes += bytes;
+            }
+            durations[next] = duration;
+            next = (next + 1) % WINDOW;
+            count = Math.min(count + 1, WINDOW);
+        }
+
+        private Stats copy() {
+            final Stats stats = new Stats();
+            stats.runs = runs;
+            stats.failures = failures;
+            stats.outputBytes = outputBytes;
+            System.arraycopy(durations, 0, stats.durations, 0, WINDOW);
+            stats.count = count;
+            stats.next = next;
+            return stats;
+        }
+
+        /**
+         * Durations of the completed runs, oldest first.
+         */
+        private long[] orderedDurations() {
+            final long[] ordered = new long[count];
+            final int first = count < WINDOW ? 0 : next;
+            for (int i = 0; i < count; ++i) {
+                ordered[i] = durations[(first + i) % WINDOW];
+            }
+            return ordered;
+        }
+
+        private long percentile(final int percent) {
+            if (count == 0) {
+                return UNKNOWN_DURATION;
+            }
+            final long[] sorted = Arrays.copyOf(durations, count);
+            Arrays.sort(sorted);
+            // Nearest rank
+            final int rank = (int) Math.ceil(percent / 100.0 * count);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+
+        int getRuns() {
+            return runs;
+        }
+
+        int getFailures() {
+            return failures;
+        }
+
+        /**
+         * Get the rate of failed runs.
+         *
+         * @return Failed runs / runs.
+         */
+        double getFailureRate() {
+            return runs == 0 ? 0.0 : (double) failures / runs;
+        }
+
+        /**
+         * Get the median duration of the last completed runs.
+         *
+         * @return Duration in milliseconds or <code>UNKNOWN_DURATION</code>.
+         */
+        long getP50() {
+            return this.percentile(50);
+        }
+
+        /**
+         * Get the 95th percentile duration of the last completed runs.
+         *
+         * @return Duration in milliseconds or <code>UNKNOWN_DURATION</code>.
+         */
+        long getP95() {
+            return this.percentile(95);
+        }
+
+        /**
+         * Get the average output size of the completed runs.
+         *
+         * @return Bytes written on stdout and stderr.
+         */
+        long getAverageOutputBytes() {
+            final int completed = runs - failures;
+            return completed == 0 ? 0L : outputBytes / completed;
+        }
+    }
+
+    /**
+     * Log file.
+     */
+    private final File file;
+    /**
+     * Index file.
+     */
+    private final File indexFile;
+    private final FileChannel log;
+    /**
+     * Reused buffer of a log record.
+     */
+    private final ByteBuffer record = ByteBuffer.allocate(4 + RECORD_FIXED_SIZE + 3 * Batch.MAX_LINE_LENGTH);
+    /**
+     * Mapped index, null if none.
+     */
+    private MappedByteBuffer index;
+    private int indexEntries;
+    /**
+     * Statistics changed since the index was written, by hash.
+     */
+    private final Map<Long, Stats> overlay = new HashMap<Long, Stats>();
+
+    /**
+     * DurationHistory constructor, the history files are created if needed.
+     *
+     * @param file History file.
+     * @throws IOException if the history can't be opened.
+     */
+    DurationHistory(final File file) throws IOException {
+        this.file = file;
+        this.indexFile = new File(file.getPath() + INDEX_SUFFIX);
+        this.log = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        final long covered = this.mapIndex(this.log.size());
+        this.replay(covered);
+    }
+
+    /**
+     * Normalize a command line: trimmed, whitespaces collapsed.
+     *
+     * @param commandLine Command line.
+     * @return Key of the command line in the history.
+     */
+    static String normalize(final String commandLine) {
+        return WHITESPACES.matcher(commandLine.trim()).replaceAll(" ");
+    }
+
+    /**
+     * Hash of a normalized command line (64-bit FNV-1a).
+     *
+     * @param normalized Normalized command line.
+     * @return Hash.
+     */
+    static long hash(final String normalized) {
+        long h = FNV_OFFSET_BASIS;
+        for (int i = 0; i < normalized.length(); ++i) {
+            h ^= normalized.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Get the expected duration of a command line: the median of its last completed runs.
+     *
+     * @param commandLine Command line.
+     * @return Expected duration in milliseconds or <code>UNKNOWN_DURATION</code>.
+     */
+    long expectedDuration(final String commandLine) {
+        final Stats stats = this.getStats(commandLine);
+        return stats == null ? UNKNOWN_DURATION : stats.getP50();
+    }
+
+    /**
+     * Get the statistics of a command line.
+     *
+     * @param commandLine Command line.
+     * @return Statistics or null if the command line has never run.
+     */
+    synchronized Stats getStats(final String commandLine) {
+        final long hash = DurationHistory.hash(DurationHistory.normalize(commandLine));
+        final Stats stats = overlay.get(hash);
+        return stats != null ? stats.copy() : this.readIndex(hash);
+    }
+
+    /**
+     * Record a job run, appended to the log.
+     *
+     * @param commandLine    Command line.
+     * @param startTime      Start date of the run in milliseconds.
+     * @param durationMillis Duration of the run in milliseconds.
+     * @param exitCode       Exit code of the run.
+     * @param outputBytes    Bytes written on stdout and stderr, -1 if unknown.
+     */
+    synchronized void record(final String commandLine, final long startTime, final long durationMillis,
+                             final int exitCode, final long outputBytes) {
+        final String normalized = DurationHistory.normalize(commandLine);
+        final long hash = DurationHistory.hash(normalized);
+        final long duration = Math.max(0L, durationMillis);
+        this.update(hash, duration, exitCode, outputBytes);
+        final byte[] cmd = normalized.getBytes(StandardCharsets.UTF_8);
+        record.clear();
+        record.putInt(RECORD_FIXED_SIZE + cmd.length).putLong(hash).putLong(startTime).putLong(duration)
+                .putInt(exitCode).putLong(outputBytes).putShort((short) cmd.length).put(cmd).flip();
+        try {
+            while (record.hasRemaining()) {
+                log.write(record, log.size());
+            }
+        } catch (IOException e) {
+            LOG.error("Can't write the history " + file, e);
+        }
+    }
+
+    private void update(final long hash, final long duration, final int exitCode, final long outputBytes) {
+        Stats stats = overlay.get(hash);
+        if (stats == null) {
+            stats = this.readIndex(hash);
+            if (stats == null) {
+                stats = new Stats();
+            }
+            overlay.put(hash, stats);
+        }
+        stats.add(duration, exitCode, outputBytes);
+    }
+
+    /**
+     * Get the number of command lines in the history.
+     *
+     * @return Number of command lines.
+     */
+    synchronized int size() {
+        int size = indexEntries;
+        for (Long hash : overlay.keySet()) {
+            if (this.findIndexEntry(hash) < 0) {
+                ++size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Map the index file.
+     *
+     * @param logSize Size of the log.
+     * @return Length of the log covered by the index, 0 if there is no valid index.
+     * @throws IOException if the index can't be read.
+     */
+    private long mapIndex(final long logSize) throws IOException {
+        index = null;
+        indexEntries = 0;
+        if (!indexFile.isFile()) {
+            return 0L;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.capacity() < INDEX_HEADER_SIZE || mapped.getInt(0) != INDEX_MAGIC
+                    || mapped.getInt(4) != INDEX_VERSION) {
+                LOG.warn("Wrong history index " + indexFile + ", rebuilt from the log");
+                return 0L;
+            }
+            final long covered = mapped.getLong(8);
+            final int entries = mapped.getInt(16);
+            if (covered > logSize || mapped.capacity() < INDEX_HEADER_SIZE + (long) entries * INDEX_ENTRY_SIZE) {
+                LOG.warn("History index " + indexFile + " does not match the log, rebuilt from the log");
+                return 0L;
+            }
+            index = mapped;
+            indexEntries = entries;
+            return covered;
+        }
+    }
+
+    /**
+     * Replay the log records not covered by the index. A truncated last record, from an interrupted write, is
+     * removed.
+     *
+     * @param from Start position of the records to replay.
+     * @throws IOException if the log can't be read.
+     */
+    private void replay(final long from) throws IOException {
+        final long size = log.size();
+        if (from >= size) {
+            return;
+        }
+        final MappedByteBuffer tail = log.map(FileChannel.MapMode.READ_ONLY, from, size - from);
+        long valid = from;
+        while (tail.remaining() >= 4) {
+            final int length = tail.getInt();
+            if (length < RECORD_FIXED_SIZE || tail.remaining() < length) {
+                break;
+            }
+            final int start = tail.position();
+            final long hash = tail.getLong();
+            tail.getLong(); // start date
+            final long duration = tail.getLong();
+            final int exitCode = tail.getInt();
+            final long outputBytes = tail.getLong();
+            this.update(hash, duration, exitCode, outputBytes);
+            tail.position(start + length);
+            valid = from + tail.position();
+        }
+        if (valid < size) {
+            LOG.warn("Truncated record at the end of the history " + file + ", removed");
+            log.truncate(valid);
+        }
+    }
+
+    /**
+     * Binary search of a hash in the index.
+     *
+     * @param hash Command line hash.
+     * @return Entry number or -1.
+     */
+    private int findIndexEntry(final long hash) {
+        int low = 0;
+        int high = indexEntries - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midHash = index.getLong(INDEX_HEADER_SIZE + mid * INDEX_ENTRY_SIZE);
+            if (midHash < hash) {
+                low = mid + 1;
+            } else if (midHash > hash) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private Stats readIndex(final long hash) {
+        final int entry = this.findIndexEntry(hash);
+        if (entry < 0) {
+            return null;
+        }
+        int pos = INDEX_HEADER_SIZE + entry * INDEX_ENTRY_SIZE + 8;
+        final Stats stats = new Stats();
+        stats.runs = index.getInt(pos);
+        stats.failures = index.getInt(pos + 4);
+        stats.outputBytes = index.getLong(pos + 8);
+        stats.count = index.getInt(pos + 16);
+        pos += 20;
+        for (int i = 0; i < stats.count; ++i) {
+            stats.durations[i] = index.getLong(pos + i * 8);
+        }
+        stats.next = stats.count % WINDOW;
+        return stats;
+    }
+
+    /**
+     * Write the index of the whole log. The index file is replaced at once, an interrupted write never loses the
+     * previous index.
+     */
+    synchronized void save() {
+        final Map<Long, Stats> all = new HashMap<Long, Stats>();
+        for (int i = 0; i < indexEntries; ++i) {
+            final long hash = index.getLong(INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE);
+            all.put(hash, this.readIndex(hash));
+        }
+        all.putAll(overlay);
+        final List<Long> hashes = new ArrayList<Long>(all.keySet());
+        hashes.sort(null);
+        final File tmp = new File(indexFile.getPath() + ".tmp");
+        try {
+            log.force(false);
+            final ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER_SIZE + hashes.size() * INDEX_ENTRY_SIZE);
+            buffer.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putLong(log.size()).putInt(hashes.size());
+            for (Long hash : hashes) {
+                final Stats stats = all.get(hash);
+                final int start = buffer.position();
+                buffer.putLong(hash).putInt(stats.runs).putInt(stats.failures).putLong(stats.outputBytes)
+                        .putInt(stats.count);
+                for (long duration : stats.orderedDurations()) {
+                    buffer.putLong(duration);
+                }
+                buffer.position(start + INDEX_ENTRY_SIZE);
+            }
+            buffer.flip();
+            try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            this.mapIndex(log.size());
+            overlay.clear();
+        } catch (IOException e) {
+            LOG.error("Can't write the history index " + indexFile, e);
+        }
+    }
+
+    /**
+     * Write the index and close the log.
+     */
+    synchronized void close() {
+        this.save();
+        try {
+            log.close();
+        } catch (IOException e) {
+            LOG.warn("Can't close the history " + file, e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Kind of threads running the jobs : PLATFORM, VIRTUAL.
+ */
+enum ExecutorType {
+    /**
+     * One operating system thread per worker.
+     */
+    PLATFORM,
+    /**
+     * One virtual thread per worker.
+     */
+    VIRTUAL;
+
+    /**
+     * Get the executor type from its name, case insensitive.
+     *
+     * @param name Executor type name.
+     * @return Executor type.
+     * @throws IllegalArgumentException if the name is unknown.
+     */
+    static ExecutorType fromName(final String name) {
+        return ExecutorType.valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * Build a thread factory for this executor type.
+     *
+     * @param prefix Thread name prefix.
+     * @param daemon Platform threads are daemon threads if true. Virtual threads are always daemon threads.
+     * @return Thread factory.
+     */
+    ThreadFactory threadFactory(final String prefix, final boolean daemon) {
+        if (this == VIRTUAL) {
+            return Thread.ofVirtual().name(prefix, 1L).factory();
+        }
+        return new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, prefix + threadNumber.incrementAndGet());
+                t.setDaemon(daemon);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,446 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Work queue sharing the workers between job groups, {@link ShellTaskWorker} tasks only.
+ * <p>
+ * Each group has its own queue, in priority order; jobs without a group are grouped by batch (see {@link JobGroup}).
+ * The groups with pending tasks take turns, with a deficit round-robin: at its turn a group gets as many tasks as its
+ * weight before the next group. A group of a few jobs waits at most one turn of the groups, whatever the number of jobs
+ * of the other groups, and the groups left share the workers once the other groups are done.
+ * </p>
+ * <p>
+ * A group with a maximum of running jobs gives its turn while the maximum is reached: the run of each task handed out
+ * is counted until the job run ends, through the run listener of the worker. Tasks run by the executor without being
+ * taken from the queue are counted with {@link #started(ShellTaskWorker)}.
+ * </p>
+ * <p>
+ * With a {@link ResourceBudget}, a task is handed out only when the {@link ResourceHints} of its job fit in the
+ * resources left: a group whose next job does not fit gives its turn, so jobs of other sizes fill the host. The first
+ * job left waiting reserves its resources as they free up, the next jobs only start in the rest, so a large job is not
+ * overtaken forever by small ones. In a group, the first {@value #BACKFILL_WINDOW} pending jobs are candidates, in
+ * priority order.
+ * </p>
+ */
+final class FairShareQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    /**
+     * Tasks and running jobs of a group.
+     */
+    private static final class Group {
+        private final String key;
+        private final NavigableSet<Runnable> pending = new TreeSet<Runnable>(ShellTaskWorker.HIGHEST_PRIORITY_FIRST);
+        private int weight = 1;
+        private int maxRunning;
+        private int running;
+        /**
+         * Tasks the group may still take in its current turn.
+         */
+        private int deficit;
+
+        Group(final String key) {
+            this.key = key;
+        }
+
+        boolean isFull() {
+            return maxRunning > 0 && running >= maxRunning;
+        }
+    }
+
+    /**
+     * Number of pending tasks of a group looked at for a task fitting in the resource budget.
+     */
+    static final int BACKFILL_WINDOW = 64;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    /**
+     * Resources shared by the running jobs, null to count the jobs only.
+     */
+    private final ResourceBudget budget;
+    /**
+     * Groups with pending tasks or running jobs, by key.
+     */
+    private final Map<String, Group> groups = new HashMap<String, Group>();
+    /**
+     * Groups with pending tasks, in turn order.
+     */
+    private final Deque<Group> turns = new ArrayDeque<Group>();
+    private int count;
+
+    FairShareQueue() {
+        this(null);
+    }
+
+    /**
+     * FairShareQueue constructor.
+     *
+     * @param budget Resources shared by the running jobs, null to count the jobs only.
+     */
+    FairShareQueue(final ResourceBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Key of the group of a task: the job group, or the batch of a job without group.
+     *
+     * @param worker Task.
+     * @return Group key.
+     */
+    static String groupKey(final ShellTaskWorker worker) {
+        final String name = worker.getSpec().getGroup().getName();
+        return name != null ? JobGroup.GROUP + ":" + name : "batch:" + worker.getBatch().getId();
+    }
+
+    @Override
+    public boolean offer(final Runnable r) {
+        final ShellTaskWorker worker = (ShellTaskWorker) r;
+        final JobGroup jobGroup = worker.getSpec().getGroup();
+        lock.lock();
+        try {
+            final Group group = this.group(FairShareQueue.groupKey(worker));
+            group.weight = jobGroup.getWeight();
+            group.maxRunning = jobGroup.getMaxRunning();
+            if (group.pending.isEmpty()) {
+                turns.addLast(group);
+            }
+            group.pending.add(r);
+            ++count;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get or create a group, the caller holds the lock.
+     *
+     * @param key Group key.
+     * @return Group.
+     */
+    private Group group(final String key) {
+        Group group = groups.get(key);
+        if (group == null) {
+            group = new Group(key);
+            groups.put(key, group);
+        }
+        return group;
+    }
+
+    @Override
+    public void put(final Runnable r) {
+        this.offer(r);
+    }
+
+    @Override
+    public boolean offer(final Runnable r, final long timeout, final TimeUnit unit) {
+        return this.offer(r);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return this.dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Runnable r;
+            while ((r = this.dequeue()) == null) {
+                notEmpty.await();
+            }
+            return r;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Runnable r;
+            while ((r = this.dequeue()) == null) {
+                if (nanos <= 0L) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return r;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find the next task of the group whose turn it is, skipping the groups with their maximum of running jobs and the
+     * tasks whose job does not fit in the resource budget. The caller holds the lock.
+     *
+     * @return Task, null if no group may run a task.
+     */
+    private ShellTaskWorker next() {
+        ResourceHints reserved = null;
+        for (Group group : turns) {
+            if (group.isFull()) {
+                continue;
+            }
+            if (budget == null) {
+                return (ShellTaskWorker) group.pending.first();
+            }
+            int window = BACKFILL_WINDOW;
+            for (Runnable r : group.pending) {
+                final ShellTaskWorker worker = (ShellTaskWorker) r;
+                final ResourceHints hints = worker.getSpec().getHints();
+                if (budget.fits(hints, reserved)) {
+                    return worker;
+                }
+                if (reserved == null) {
+                    reserved = hints;
+                }
+                if (--window == 0) {
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take the next task of the group whose turn it is. The group goes to the end of the turns once it took as many
+     * tasks as its weight. The caller holds the lock.
+     *
+     * @return Task, null if no group may run a task.
+     */
+    private Runnable dequeue() {
+        final ShellTaskWorker worker = this.next();
+        if (worker == null) {
+            return null;
+        }
+        final Group group = groups.get(FairShareQueue.groupKey(worker));
+        if (group.deficit <= 0) {
+            group.deficit = group.weight;
+        }
+        group.pending.remove(worker);
+        --count;
+        if (group.pending.isEmpty()) {
+            turns.remove(group);
+            group.deficit = 0;
+        } else if (--group.deficit <= 0) {
+            turns.remove(group);
+            turns.addLast(group);
+        }
+        this.started(group, worker);
+        return worker;
+    }
+
+    /**
+     * Count a task run by the executor without being taken from the queue in the running jobs of its group.
+     *
+     * @param worker Task run.
+     */
+    void started(final ShellTaskWorker worker) {
+        lock.lock();
+        try {
+            this.started(this.group(FairShareQueue.groupKey(worker)), worker);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void started(final Group group, final ShellTaskWorker worker) {
+        final ResourceHints hints = worker.getSpec().getHints();
+        ++group.running;
+        if (budget != null) {
+            budget.acquire(hints);
+        }
+        worker.setRunListener(() -> this.runEnded(group, hints));
+    }
+
+    /**
+     * Count the end of a job run, the group may take a task again and its resources are free.
+     *
+     * @param group Group of the job.
+     * @param hints Resources of the job.
+     */
+    private void runEnded(final Group group, final ResourceHints hints) {
+        lock.lock();
+        try {
+            --group.running;
+            if (budget != null) {
+                budget.release(hints);
+            }
+            if (count > 0) {
+                // The freed resources may fit several jobs
+                notEmpty.signalAll();
+            }
+            if (group.pending.isEmpty() && group.running == 0) {
+                groups.remove(group.key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of running jobs of a group.
+     *
+     * @param key Group key, see {@link #groupKey(ShellTaskWorker)}.
+     * @return Running jobs.
+     */
+    int getRunning(final String key) {
+        lock.lock();
+        try {
+            final Group group = groups.get(key);
+            return group == null ? 0 : group.running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return this.next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        if (!(o instanceof ShellTaskWorker)) {
+            return false;
+        }
+        final String key = FairShareQueue.groupKey((ShellTaskWorker) o);
+        lock.lock();
+        try {
+            final Group group = groups.get(key);
+            if (group == null || !group.pending.remove(o)) {
+                return false;
+            }
+            --count;
+            if (group.pending.isEmpty()) {
+                this.idle(group);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a group without pending tasks from the turns, the caller holds the lock.
+     *
+     * @param group Group.
+     */
+    private void idle(final Group group) {
+        turns.remove(group);
+        group.deficit = 0;
+        if (group.running == 0) {
+            groups.remove(group.key);
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> c, final int maxElements) {
+        lock.lock();
+        try {
+            // Drained tasks are not run, whatever the maximum of running jobs of their group
+            int n = 0;
+            while (n < maxElements && count > 0) {
+                final Group group = turns.peekFirst();
+                c.add(group.pending.pollFirst());
+                --count;
+                if (group.pending.isEmpty()) {
+                    this.idle(group);
+                }
+                ++n;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterator over a snapshot of the pending tasks, in no particular order.
+     *
+     * @return Iterator, its remove operation removes the task from the queue.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<Runnable>();
+        lock.lock();
+        try {
+            for (Group group : turns) {
+                snapshot.addAll(group.pending);
+            }
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<Runnable> it = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last;
+
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public Runnable next() {
+                last = it.next();
+                return last;
+            }
+
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                FairShareQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,498 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Asynchronous log of the <b>batch:job</b> events.
+ * <p>
+ * Job completions publish their event in a ring buffer of preallocated records: a slot is claimed with an atomic
+ * sequence (many producers) and published by a volatile write. A single writer thread formats the events into a
+ * reusable buffer and writes them by batches to the output, so a job completion never waits for the console. A
+ * producer only waits when the ring is full.
+ * </p>
+ * <p>
+ * The idle writer is parked until a producer publishes an event. Producers waiting for room in the ring and threads
+ * waiting for a flush block on a monitor, notified by the writer. Events of the console go through the
+ * <code>STDOUT</code> logger, so its level applies to them like to the other batch records. Once closed, the
+ * writer drains the ring, closes the output and ends.
+ * </p>
+ */
+final class JobEventLog {
+    private static final Logger LOG = Logger.getLogger(JobEventLog.class);
+
+    /**
+     * Default number of events in the ring, a power of two.
+     */
+    static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Format of the job events : PIPE (key:value separated by pipe), JSON (JSON lines).
+     */
+    enum Format {
+        PIPE, JSON;
+
+        static Format fromName(final String name) {
+            return Format.valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Preallocated job event record.
+     */
+    private static final class Slot {
+        /**
+         * Sequence of the event in the slot, published last.
+         */
+        private volatile long sequence = -1;
+        private String batchId;
+        private int jobId;
+        private String commandLine;
+        private long startDate;
+        private long endDate;
+        private JobExecution.JobStatus status;
+        private int exitCode;
+        private long outputBytes;
+        private long cpuMillis;
+        private long peakMemoryBytes;
+        private long ioBytes;
+        private int attempt;
+        private String capturedOutput;
+        /**
+         * Durations of the job phases in nanoseconds, written when <code>phases</code> is set.
+         */
+        private final long[] phaseNanos = new long[PhaseTimer.Phase.JOB_PHASES.length];
+        private boolean phases;
+    }
+
+    private final Slot[] ring;
+    private final int mask;
+    /**
+     * Output of the events, null when they are logged.
+     */
+    private final OutputStream out;
+    /**
+     * Logger of the events, null when they are written to <code>out</code>.
+     */
+    private final Logger logger;
+    private final Format format;
+    /**
+     * Next sequence to claim by the producers.
+     */
+    private final AtomicLong claimed = new AtomicLong();
+    /**
+     * Next sequence to format by the writer.
+     */
+    private volatile long consumed;
+    /**
+     * Sequences below are written to the output.
+     */
+    private volatile long flushed;
+    /**
+     * The writer thread is parked, waiting for events.
+     */
+    private volatile boolean writerWaiting;
+    /**
+     * Number of threads waiting on <code>monitor</code> for the writer, updated under the monitor.
+     */
+    private volatile int waiters;
+    /**
+     * The log is closed: the writer ends once the ring is drained.
+     */
+    private volatile boolean closed;
+    private final Object monitor = new Object();
+    private final Thread writer;
+
+    // Writer thread state, reused for each event
+    private final StringBuilder line = new StringBuilder(Batch.MAX_LINE_LENGTH);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+
+    /**
+     * JobEventLog constructor, the writer thread is started.
+     *
+     * @param out      Output of the events.
+     * @param format   Format of the events.
+     * @param capacity Number of events in the ring, rounded up to a power of two.
+     */
+    JobEventLog(final OutputStream out, final Format format, final int capacity) {
+        this(out, null, format, capacity);
+    }
+
+    /**
+     * JobEventLog constructor logging the events, the writer thread is started.
+     *
+     * @param logger   Logger of the events, at INFO level.
+     * @param format   Format of the events.
+     * @param capacity Number of events in the ring, rounded up to a power of two.
+     */
+    JobEventLog(final Logger logger, final Format format, final int capacity) {
+        this(null, logger, format, capacity);
+    }
+
+    private JobEventLog(final OutputStream out, final Logger logger, final Format format, final int capacity) {
+        final int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new Slot[size];
+        for (int i = 0; i < size; ++i) {
+            this.ring[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.out = out;
+        this.logger = logger;
+        this.format = format;
+        this.writer = ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-eventlog-", true).newThread(
+                this::writeLoop);
+        this.writer.start();
+    }
+
+    /**
+     * Get the format of the events.
+     *
+     * @return Format of the events.
+     */
+    Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Publish the event of an ended job.
+     *
+     * @param job Ended job.
+     */
+    void publish(final JobExecution job) {
+        if (closed) {
+            LOG.warn("Job event log closed, event of the job " + job.getId() + " not written");
+            return;
+        }
+        final long seq = claimed.getAndIncrement();
+        if (seq - consumed >= ring.length) {
+            // Ring full, wait for the writer
+            this.awaitWriter(() -> seq - consumed < ring.length);
+        }
+        final Slot slot = ring[(int) (seq & mask)];
+        slot.batchId = job.getBatch().getId();
+        slot.jobId = job.getId();
+        slot.commandLine = job.getCommandLine();
+        slot.startDate = job.getStartTime();
+        slot.endDate = job.getEndTime();
+        slot.status = job.getStatus();
+        slot.exitCode = job.getExitCode();
+        slot.outputBytes = job.getOutputBytes();
+        final ResourceUsage usage = job.getResourceUsage();
+        slot.cpuMillis = usage.getCpuMillis();
+        slot.peakMemoryBytes = usage.getPeakMemoryBytes();
+        slot.ioBytes = usage.getIoBytes();
+        slot.attempt = job.getAttempt();
+        slot.capturedOutput = job.getCapturedOutput();
+        slot.phases = job.getBatch().getPhaseTimer() != null;
+        if (slot.phases) {
+            for (int i = 0; i < slot.phaseNanos.length; ++i) {
+                slot.phaseNanos[i] = job.getPhaseNanos(PhaseTimer.Phase.JOB_PHASES[i]);
+            }
+        }
+        slot.sequence = seq;
+        this.wakeUpWriter();
+    }
+
+    /**
+     * Wait until all the events published before the call are written to the output.
+     */
+    void flush() {
+        final long target = claimed.get();
+        if (flushed < target && writer.isAlive()) {
+            this.awaitWriter(() -> flushed >= target);
+        }
+    }
+
+    /**
+     * Write the events published before the call, then end the writer thread and close the output. The events
+     * published after are not written.
+     */
+    void close() {
+        this.flush();
+        closed = true;
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void wakeUpWriter() {
+        if (writerWaiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Wait for the writer until a condition holds. The wait is not interrupted: a claimed slot must be published.
+     *
+     * @param done Condition on the sequences of the writer.
+     */
+    private void awaitWriter(final BooleanSupplier done) {
+        boolean interrupted = false;
+        synchronized (monitor) {
+            ++waiters;
+            try {
+                while (!done.getAsBoolean()) {
+                    this.wakeUpWriter();
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                --waiters;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wake up the threads waiting for the writer, if any.
+     */
+    private void notifyWaiters() {
+        if (waiters > 0) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writer thread loop: format the published events in order and write them by batches, until the log is closed.
+     */
+    private void writeLoop() {
+        long next = 0;
+        while (true) {
+            final Slot slot = ring[(int) (next & mask)];
+            if (slot.sequence == next) {
+                this.format(slot);
+                slot.batchId = null;
+                slot.commandLine = null;
+                slot.capturedOutput = null;
+                consumed = ++next;
+                if (logger != null) {
+                    line.setLength(line.length() - 1);
+                    logger.log(Level.INFO, line.toString());
+                } else {
+                    this.encodeLine();
+                }
+                this.notifyWaiters();
+            } else if (output.position() > 0) {
+                // No more events for now, write the batch
+                this.writeOutput();
+                flushed = next;
+                this.notifyWaiters();
+            } else {
+                flushed = next;
+                this.notifyWaiters();
+                if (closed && claimed.get() == next) {
+                    // Drained, no slot claimed before the close is still to publish
+                    break;
+                }
+                writerWaiting = true;
+                // Published after writerWaiting is set, the producer of the slot sees it and unparks the writer
+                if (slot.sequence != next) {
+                    LockSupport.park(this);
+                }
+                writerWaiting = false;
+            }
+        }
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOG.warn("Can't close the job event log", e);
+            }
+        }
+    }
+
+    /**
+     * Format the event of the slot in <code>line</code>.
+     *
+     * @param slot Published slot.
+     */
+    private void format(final Slot slot) {
+        line.setLength(0);
+        if (format == Format.JSON) {
+            line.append("{\"batch\":\"job\",\"id\":\"").append(slot.batchId)
+                    .append("\",\"job_id\":").append(slot.jobId)
+                    .append(",\"job_command_line\":\"");
+            JobEventLog.appendJsonEscaped(line, slot.commandLine);
+            line.append("\",\"job_start_date\":").append(slot.startDate)
+                    .append(",\"job_end_date\":").append(slot.endDate)
+                    .append(",\"job_duration\":\"");
+            Util.appendDuration(line, slot.endDate - slot.startDate);
+            line.append("\",\"job_status\":\"").append(slot.status)
+                    .append("\",\"job_exit_code\":").append(slot.exitCode)
+                    .append(",\"job_output_bytes\":").append(slot.outputBytes)
+                    .append(",\"job_cpu_millis\":").append(slot.cpuMillis)
+                    .append(",\"job_peak_memory_bytes\":").append(slot.peakMemoryBytes)
+                    .append(",\"job_io_bytes\":").append(slot.ioBytes)
+                    .append(",\"job_attempt\":").append(slot.attempt);
+            if (slot.phases) {
+                for (int i = 0; i < slot.phaseNanos.length; ++i) {
+                    line.append(",\"job_").append(PhaseTimer.Phase.JOB_PHASES[i].label()).append("_micros\":")
+                            .append(JobEventLog.toMicros(slot.phaseNanos[i]));
+                }
+            }
+            if (slot.capturedOutput != null) {
+                line.append(",\"job_output\":\"");
+                JobEventLog.appendJsonEscaped(line, slot.capturedOutput);
+                line.append('"');
+            }
+            line.append("}\n");
+        } else {
+            line.append("batch:job|id:").append(slot.batchId)
+                    .append("|job_id:").append(slot.jobId)
+                    .append("|job_command_line:").append(slot.commandLine)
+                    .append("|job_start_date:").append(slot.startDate)
+                    .append("|job_end_date:").append(slot.endDate)
+                    .append("|job_duration:");
+            Util.appendDuration(line, slot.endDate - slot.startDate);
+            line.append("|job_status:").append(slot.status)
+                    .append("|job_exit_code:").append(slot.exitCode)
+                    .append("|job_output_bytes:").append(slot.outputBytes)
+                    .append("|job_cpu_millis:").append(slot.cpuMillis)
+                    .append("|job_peak_memory_bytes:").append(slot.peakMemoryBytes)
+                    .append("|job_io_bytes:").append(slot.ioBytes)
+                    .append("|job_attempt:").append(slot.attempt);
+            if (slot.phases) {
+                for (int i = 0; i < slot.phaseNanos.length; ++i) {
+                    line.append("|job_").append(PhaseTimer.Phase.JOB_PHASES[i].label()).append("_micros:")
+                            .append(JobEventLog.toMicros(slot.phaseNanos[i]));
+                }
+            }
+            if (slot.capturedOutput != null) {
+                line.append("|job_output:");
+                JobEventLog.appendPipeEscaped(line, slot.capturedOutput);
+            }
+            line.append('\n');
+        }
+    }
+
+    private static long toMicros(final long nanos) {
+        return nanos < 0 ? -1L : nanos / 1000L;
+    }
+
+    /**
+     * Encode <code>line</code> in the output buffer, writing the buffer when full.
+     */
+    private void encodeLine() {
+        final CharBuffer chars = CharBuffer.wrap(line);
+        encoder.reset();
+        while (true) {
+            final CoderResult result = encoder.encode(chars, output, true);
+            if (result.isOverflow()) {
+                this.writeOutput();
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Write the output buffer.
+     */
+    private void writeOutput() {
+        try {
+            out.write(output.array(), 0, output.position());
+            out.flush();
+        } catch (IOException e) {
+            LOG.error("Can't write job events", e);
+        }
+        output.clear();
+    }
+
+    /**
+     * Append a pipe separated value, escaping backslashes, pipes and line breaks.
+     *
+     * @param sb Destination.
+     * @param s  String to escape.
+     */
+    static void appendPipeEscaped(final StringBuilder sb, final String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '|':
+                    sb.append("\\|");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Append a JSON string content, escaping quotes, backslashes and control characters.
+     *
+     * @param sb Destination.
+     * @param s  String to escape.
+     */
+    static void appendJsonEscaped(final StringBuilder sb, final String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+    }
+}
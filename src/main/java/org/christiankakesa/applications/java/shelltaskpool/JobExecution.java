@@ -1,13 +1,22 @@
 package org.christiankakesa.applications.java.shelltaskpool;
 
-import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * Representing the job to execute.
@@ -25,11 +34,27 @@ public final class JobExecution {
      * UTF-8 encoding string constant.
      */
     private static final String UTF8_ENCODING = "utf-8";
+    /**
+     * Output capture of the current worker, reused for each job.
+     */
+    private static final ThreadLocal<OutputCapture> CAPTURE = new ThreadLocal<OutputCapture>();
+    /**
+     * Time given to the processes of a timed out job to exit after SIGTERM, before SIGKILL.
+     */
+    static final long KILL_GRACE_MILLIS = 5000L;
 
     /**
      * Job command line.
      */
     private final String commandLine;
+    /**
+     * Batch of the job.
+     */
+    private final Batch batch;
+    /**
+     * Job specification.
+     */
+    private final JobSpec spec;
     /**
      * Job id.
      */
@@ -50,82 +75,647 @@ public final class JobExecution {
      * Job exit status code.
      */
     private int exitCode = MINUS_FORTY_TWO;
+    /**
+     * Number of bytes written by the job on stdout and stderr.
+     */
+    private long outputBytes;
+    /**
+     * Beginning and end of the output of the job in debug mode, null when not captured.
+     */
+    private String capturedOutput;
+    /**
+     * Resources used by the job process.
+     */
+    private ResourceUsage resourceUsage = ResourceUsage.UNKNOWN;
     /**
      * Job process.
      */
-    private Process process;
+    private volatile Process process;
+    /**
+     * The job was killed by the watchdog.
+     */
+    private volatile boolean timedOut;
+    /**
+     * Number of the current run of the job, from 1.
+     */
+    private int attempt = 1;
+    /**
+     * Duration of the phases of the current run in nanoseconds by phase, -1 if not measured, null when the phases
+     * are not timed.
+     */
+    private long[] phaseNanos;
+    /**
+     * Called when the job is ended, whatever its status, may be null.
+     */
+    private final Consumer<JobExecution> endListener;
+    /**
+     * Called once when the current run of the job ends, retried or not, may be null.
+     */
+    private volatile Runnable runListener;
+    /**
+     * Position of the job in the batch, -1 if the job is not journaled.
+     */
+    private final int ordinal;
 
     /**
      * JobExecution constructor.
      *
+     * @param batch       Batch of the job.
      * @param commandLine Command line to execute.
      */
-    public JobExecution(final String commandLine) {
-        this.commandLine = commandLine;
-        this.id = Batch.getInstance().getBatchStatus().incrementAndGetTotalJOb();
+    public JobExecution(final Batch batch, final String commandLine) {
+        this(batch, new JobSpec(commandLine), -1, null);
+    }
+
+    /**
+     * JobExecution constructor.
+     *
+     * @param batch       Batch of the job.
+     * @param spec        Job to execute.
+     * @param ordinal     Position of the job in the batch, -1 if the job is not journaled.
+     * @param endListener Called when the job is ended, whatever its status, may be null.
+     */
+    JobExecution(final Batch batch, final JobSpec spec, final int ordinal,
+                 final Consumer<JobExecution> endListener) {
+        this.batch = batch;
+        this.spec = spec;
+        this.commandLine = spec.getCommandLine();
+        this.ordinal = ordinal;
+        this.endListener = endListener;
+        this.id = batch.getBatchStatus().incrementAndGetTotalJOb();
+        if (batch.getMetrics() != null) {
+            batch.getMetrics().recordJobStarted();
+        }
     }
 
     public void start() {
         // Run the job only if job status is NONE (no state)
         if (this.getStatus().equals(JobStatus.NONE)) {
-            this.run();
+            final long deadline = this.batch.getDeadline();
+            if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+                LOG.warn("JobId: " + this.getId() + ":" + this.getCommandLine() + " not started, batch timeout");
+                this.skip();
+                return;
+            }
+            final ResultCache cache = this.batch.getResultCache();
+            String cacheKey = null;
+            if (cache != null && spec.hasInputs()) {
+                cacheKey = cache.key(this.commandLine, spec.getInputs());
+                if (cacheKey != null && this.completeFromCache(cache.lookup(cacheKey))) {
+                    return;
+                }
+            }
+            final Coordinator coordinator = this.batch.getCoordinator();
+            final ProcessSupervisor supervisor = this.batch.getProcessSupervisor();
+            if (coordinator != null) {
+                // The job is run by an agent, its result is not cached
+                coordinator.submit(this);
+            } else if (cacheKey != null) {
+                // The output of a cached job is captured by the worker, even in asynchronous mode
+                this.run(cache.newEntry(cacheKey));
+            } else if (supervisor != null) {
+                this.runAsync(supervisor);
+            } else {
+                this.run(null);
+            }
         } else {
             LOG.warn("JobId: " + this.getId() + ":" + this.getCommandLine() + " with status: "
                     + this.getStatus() + " couldn't be started");
         }
     }
 
-    private void run() {
+    /**
+     * Spawn the job process and wait for its end.
+     *
+     * @param cacheEntry New cache entry of the job output, null if the job is not cached.
+     */
+    private void run(final ResultCache.EntryWriter cacheEntry) {
         this.setStartDate(Calendar.getInstance().getTime());
-        ProcessBuilder processBuilder = new ProcessBuilder(
-                Util.parseCommandLineToStringArray(this.commandLine));
+        final JobResources.Tracker tracker = this.trackResources();
+        ProcessBuilder processBuilder = new ProcessBuilder(this.buildCommand(tracker));
+        Watchdog.Timeout timeout = null;
+        final int exitValue;
         try {
+            final long spawnStart = System.nanoTime();
             process = processBuilder.start();
+            final long spawned = this.spawned(spawnStart);
             this.setStatus(JobStatus.RUNNING);
-            if (Batch.getInstance().getLogDirectory() != null) {
-                this.getProcessOutput(process, true);
-            } else if (LOG.isDebugEnabled()) {
-                LOG.debug(this.getProcessOutput(process));
+            this.journal();
+            if (tracker != null) {
+                tracker.started(process);
             }
-            this.setExitCode(process.waitFor());
-            this.setEndDate(Calendar.getInstance().getTime());
-            if (this.getExitCode() == 0) {
-                this.setStatus(JobStatus.COMPLETED);
-                Batch.getInstance().getBatchStatus().incrementSuccessJob();
-            } else {
-                this.setStatus(JobStatus.FAILED);
-                Batch.getInstance().getBatchStatus().incrementFailedJob();
-            }
-            // We need synchronized here because "+" operator is not thread safe
-            synchronized (JobExecution.class) {
-                Logger.getLogger("STDOUT").log(Level.INFO, "batch:job|id:" + Batch.getInstance().getId()
-                        + "|job_id:" + this.getId()
-                        + "|job_command_line:" + this.getCommandLine()
-                        + "|job_start_date:" + this.getStartDate().getTime()
-                        + "|job_end_date:" + this.getEndDate().getTime()
-                        + "|job_duration:" + Util.buildDurationFromDates(this.getStartDate(), this.getEndDate())
-                        + "|job_status:" + this.getStatus()
-                        + "|job_exit_code:" + this.getExitCode());
+            timeout = this.watch();
+            this.drainProcessOutput(process, cacheEntry);
+            final long drained = System.nanoTime();
+            this.recordPhase(PhaseTimer.Phase.RUN, drained - spawned);
+            if (tracker != null) {
+                // The process closed its output, it is ending
+                tracker.sample();
             }
+            exitValue = process.waitFor();
+            this.recordPhase(PhaseTimer.Phase.EXIT, System.nanoTime() - drained);
         } catch (IOException e) {
             LOG.error(e);
+            this.abort(tracker, cacheEntry);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error(e);
+            this.abort(tracker, cacheEntry);
+            return;
+        } finally {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+        this.stopTracking(tracker);
+        if (cacheEntry != null) {
+            cacheEntry.commit(exitValue);
+        }
+        this.complete(exitValue);
+    }
+
+    /**
+     * End a run that failed to spawn or to wait for its process: the process tree, if spawned, is killed so that it
+     * doesn't outlive the job.
+     *
+     * @param tracker    Resource tracker of the job, null if none.
+     * @param cacheEntry New cache entry of the job output, null if the job is not cached.
+     */
+    private void abort(final JobResources.Tracker tracker, final ResultCache.EntryWriter cacheEntry) {
+        this.destroy();
+        this.stopTracking(tracker);
+        this.abortCacheEntry(cacheEntry);
+        this.ended();
+    }
+
+    /**
+     * Schedule the kill of the job process at the job timeout or at the batch deadline, whichever comes first.
+     *
+     * @return Deadline of the job or null without timeout.
+     */
+    private Watchdog.Timeout watch() {
+        final long deadline = this.deadline();
+        if (deadline == 0) {
+            return null;
+        }
+        return this.batch.getWatchdog().schedule(deadline, () -> {
+            LOG.warn("JobId: " + this.getId() + ":" + this.getCommandLine() + " timed out, killed");
+            this.timedOut = true;
+            this.destroy();
+        });
+    }
+
+    /**
+     * Compute the time at which the started job is killed: its timeout or the batch deadline, whichever comes first.
+     *
+     * @return Deadline in milliseconds since the epoch, 0 without timeout.
+     */
+    private long deadline() {
+        final long timeoutMillis = spec.getTimeoutMillis() > 0 ? spec.getTimeoutMillis()
+                : this.batch.getJobTimeoutMillis();
+        long deadline = timeoutMillis > 0 ? this.getStartTime() + timeoutMillis : 0L;
+        final long batchDeadline = this.batch.getDeadline();
+        if (batchDeadline > 0 && (deadline == 0 || batchDeadline < deadline)) {
+            deadline = batchDeadline;
+        }
+        return deadline;
+    }
+
+    /**
+     * Record the lease of the job to an agent of the coordinator, the job is running from now on.
+     *
+     * @param agent Agent name.
+     * @return Timeout of the job on the agent in milliseconds, 0 without timeout.
+     */
+    long leased(final String agent) {
+        this.setStartDate(Calendar.getInstance().getTime());
+        this.setStatus(JobStatus.RUNNING);
+        this.journal();
+        LOG.debug("JobId: " + this.getId() + " leased to agent " + agent);
+        final long deadline = this.deadline();
+        return deadline == 0 ? 0L : Math.max(1L, deadline - this.getStartTime());
+    }
+
+    /**
+     * Complete the job from the result sent by its agent.
+     *
+     * @param result Result of the job run by the agent.
+     */
+    void completeRemote(final AgentProtocol.Result result) {
+        // The run on the agent is the run of the job, not the time spent in the lease
+        this.setStartDate(new Date(System.currentTimeMillis() - result.durationMillis));
+        this.setOutputBytes(result.outputBytes);
+        this.setResourceUsage(result.usage);
+        this.timedOut = result.timedOut;
+        this.complete(result.exitCode);
+    }
+
+    /**
+     * Record the spawn latency of the job process.
+     *
+     * @param spawnStart Time before the spawn in nanoseconds.
+     * @return Time after the spawn in nanoseconds.
+     */
+    private long spawned(final long spawnStart) {
+        final long now = System.nanoTime();
+        final Metrics metrics = this.batch.getMetrics();
+        if (metrics != null) {
+            metrics.recordSpawnLatency(now - spawnStart);
+        }
+        this.recordPhase(PhaseTimer.Phase.SPAWN, now - spawnStart);
+        return now;
+    }
+
+    /**
+     * Record the duration of a phase of the job when the phases are timed.
+     *
+     * @param phase Phase.
+     * @param nanos Duration in nanoseconds.
+     */
+    void recordPhase(final PhaseTimer.Phase phase, final long nanos) {
+        final PhaseTimer timer = this.batch.getPhaseTimer();
+        if (timer == null) {
+            return;
+        }
+        if (this.phaseNanos == null) {
+            this.phaseNanos = new long[PhaseTimer.Phase.values().length];
+            Arrays.fill(this.phaseNanos, -1L);
+        }
+        this.phaseNanos[phase.ordinal()] = nanos;
+        timer.record(phase, nanos);
+    }
+
+    /**
+     * Start the tracking of the job resources when they are measured.
+     *
+     * @return Tracker of the job resources or null.
+     */
+    private JobResources.Tracker trackResources() {
+        final JobResources resources = this.batch.getJobResources();
+        return resources == null ? null : resources.track(this.spec, this.batch.getId(), this.getId());
+    }
+
+    /**
+     * Build the command spawning the job process.
+     *
+     * @param tracker Tracker of the job resources or null.
+     * @return Command to spawn.
+     */
+    private String[] buildCommand(final JobResources.Tracker tracker) {
+        final String[] args = Util.parseCommandLineToStringArray(this.commandLine);
+        return tracker == null ? args : tracker.command(args);
+    }
+
+    private void stopTracking(final JobResources.Tracker tracker) {
+        if (tracker != null) {
+            this.setResourceUsage(tracker.stop());
+        }
+    }
+
+    private void abortCacheEntry(final ResultCache.EntryWriter cacheEntry) {
+        if (cacheEntry != null) {
+            cacheEntry.abort();
+        }
+    }
+
+    /**
+     * Complete the job from its cached result, the cached output is replayed like the output of a process.
+     *
+     * @param entry Cached result or null.
+     * @return true if the job is completed from the cache.
+     */
+    private boolean completeFromCache(final ResultCache.Entry entry) {
+        if (entry == null) {
+            this.batch.getBatchStatus().incrementCacheMisses();
+            return false;
+        }
+        this.batch.getBatchStatus().incrementCacheHits();
+        this.setStartDate(Calendar.getInstance().getTime());
+        this.setStatus(JobStatus.RUNNING);
+        this.journal();
+        FileChannel logChannel = this.openLogChannel();
+        OutputCapture capture = null;
+        if (logChannel == null && LOG.isDebugEnabled()) {
+            capture = JobExecution.getCapture(this.batch.getCaptureSize());
+        }
+        try {
+            entry.replayOutput(logChannel, capture);
+        } catch (IOException e) {
+            LOG.warn("JobId: " + this.getId() + " cached output can't be replayed", e);
+        } finally {
+            this.closeLogChannel(logChannel);
+        }
+        if (capture != null) {
+            this.keepCapture(capture);
+        }
+        LOG.debug("JobId: " + this.getId() + " completed from the result cache");
+        this.setOutputBytes(entry.getOutputBytes());
+        this.complete(entry.getExitCode());
+        return true;
+    }
+
+    /**
+     * Spawn the job process and return without waiting for its end. The job is completed by a callback on
+     * <code>Process.onExit()</code> in the supervisor completion thread.
+     * <p>
+     * The process output is redirected by the operating system to the job log file when a log directory is set.
+     * Otherwise the output is discarded, except in debug mode where stdout and stderr are captured by a pump.
+     * </p>
+     *
+     * @param supervisor Supervisor of the asynchronous processes.
+     */
+    private void runAsync(final ProcessSupervisor supervisor) {
+        final JobResources.Tracker tracker = this.trackResources();
+        final ProcessBuilder processBuilder = new ProcessBuilder(this.buildCommand(tracker));
+        processBuilder.redirectErrorStream(true);
+        File logFile = null;
+        OutputCapture capture = null;
+        if (this.batch.getLogDirectory() != null) {
+            logFile = new File(JobExecution.buildLogFilename(this.batch.getId(), this.getId(), this.getCommandLine(),
+                    this.batch.getLogDirectory()));
+            LOG.debug("log directory is : " + logFile);
+            processBuilder.redirectOutput(logFile);
+        } else if (LOG.isDebugEnabled()) {
+            capture = new OutputCapture(this.batch.getCaptureSize());
+        } else {
+            processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        }
+        try {
+            supervisor.acquire();
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error(e);
+            this.stopTracking(tracker);
+            this.ended();
+            return;
+        }
+        this.setStartDate(Calendar.getInstance().getTime());
+        final long spawned;
+        try {
+            final long spawnStart = System.nanoTime();
+            process = processBuilder.start();
+            spawned = this.spawned(spawnStart);
+        } catch (IOException e) {
+            supervisor.release();
             LOG.error(e);
+            this.stopTracking(tracker);
+            this.ended();
+            return;
+        }
+        this.setStatus(JobStatus.RUNNING);
+        this.journal();
+        if (tracker != null) {
+            tracker.started(process);
+        }
+        final Watchdog.Timeout timeout = this.watch();
+        final CompletableFuture<Long> output;
+        if (capture != null) {
+            output = OutputPump.pumpAsync(this.batch.getPumps(), process.getInputStream(), capture);
+        } else {
+            output = CompletableFuture.completedFuture(-1L);
+        }
+        final File outputFile = logFile;
+        final OutputCapture outputCapture = capture;
+        process.onExit().thenCombine(output, (p, bytes) -> outputFile != null ? outputFile.length() : bytes)
+                .whenCompleteAsync((bytes, t) -> {
+                    try {
+                        this.recordPhase(PhaseTimer.Phase.RUN, System.nanoTime() - spawned);
+                        if (timeout != null) {
+                            timeout.cancel();
+                        }
+                        if (t != null) {
+                            LOG.error("JobId: " + this.getId() + " output can't be read", t);
+                        }
+                        this.setOutputBytes(bytes != null ? bytes : -1L);
+                        this.stopTracking(tracker);
+                        if (outputCapture != null) {
+                            this.keepCapture(outputCapture);
+                        }
+                        this.complete(process.exitValue());
+                    } finally {
+                        supervisor.release();
+                    }
+                }, supervisor.getCompletionExecutor());
+    }
+
+    /**
+     * Record the end of the job process, update the batch status and log the job information.
+     *
+     * @param exitCode Exit code of the job process.
+     */
+    private void complete(final int exitCode) {
+        final long completeStart = System.nanoTime();
+        this.setExitCode(exitCode);
+        this.setEndDate(Calendar.getInstance().getTime());
+        if (this.getOutputBytes() > 0) {
+            this.batch.getBatchStatus().addOutputBytes(this.getOutputBytes());
+        }
+        long retryDelay = -1L;
+        if (this.timedOut) {
+            this.setStatus(JobStatus.TIMED_OUT);
+            this.batch.getBatchStatus().incrementTimedOutJob();
+        } else if (this.getExitCode() == 0) {
+            this.setStatus(JobStatus.COMPLETED);
+            this.batch.getBatchStatus().incrementSuccessJob();
+        } else if ((retryDelay = this.retryDelay()) >= 0) {
+            // Only the last run of the job counts in the batch status
+            this.setStatus(JobStatus.RETRIED);
+            LOG.warn("JobId: " + this.getId() + ":" + this.getCommandLine() + " failed with exit code "
+                    + this.getExitCode() + " at attempt " + this.getAttempt() + ", retry in " + retryDelay + " ms");
+        } else {
+            this.setStatus(JobStatus.FAILED);
+            this.batch.getBatchStatus().incrementFailedJob();
+        }
+        final Metrics metrics = this.batch.getMetrics();
+        if (metrics != null) {
+            metrics.recordJobEnded(this.getStatus(), this.getOutputBytes());
+            metrics.recordJobDuration(this.getEndTime() - this.getStartTime());
+        }
+        final DurationHistory history = this.batch.getDurationHistory();
+        if (history != null) {
+            history.record(this.getCommandLine(), this.getStartTime(), this.getEndTime() - this.getStartTime(),
+                    this.getExitCode(), this.getOutputBytes());
+        }
+        this.journal();
+        final long published = System.nanoTime();
+        this.recordPhase(PhaseTimer.Phase.COMPLETE, published - completeStart);
+        this.batch.getJobEventLog().publish(this);
+        this.capturedOutput = null;
+        this.recordPhase(PhaseTimer.Phase.PUBLISH, System.nanoTime() - published);
+        this.runEnded();
+        if (retryDelay >= 0) {
+            this.retry(retryDelay);
+        } else {
+            this.ended();
         }
     }
 
-    @SuppressWarnings(value = "unused")
+    /**
+     * Compute the delay before the next run of the failed job, according to its retry policy.
+     *
+     * @return Delay in milliseconds, -1 if the job is not retried.
+     */
+    private long retryDelay() {
+        if (this.batch.getRetryQueue() == null) {
+            return -1L;
+        }
+        final RetryPolicy policy = spec.getRetryPolicy().withDefaults(this.batch.getRetryPolicy());
+        if (!policy.shouldRetry(this.getAttempt(), this.getExitCode())) {
+            return -1L;
+        }
+        final long delay = policy.delayMillis(this.getAttempt());
+        final long deadline = this.batch.getDeadline();
+        if (deadline > 0 && System.currentTimeMillis() + delay >= deadline) {
+            // The retry would not start before the batch deadline
+            return -1L;
+        }
+        return delay;
+    }
+
+    /**
+     * Reset the failed job and put it in the retry queue, the job keeps its id.
+     *
+     * @param delayMillis Delay before the next run.
+     */
+    private void retry(final long delayMillis) {
+        this.process = null;
+        this.setExitCode(MINUS_FORTY_TWO);
+        this.setOutputBytes(0L);
+        this.setResourceUsage(ResourceUsage.UNKNOWN);
+        this.phaseNanos = null;
+        ++this.attempt;
+        this.setStatus(JobStatus.NONE);
+        this.batch.getRetryQueue().schedule(this, delayMillis);
+    }
+
+    /**
+     * Record a job not run because a job it depends on did not complete.
+     */
+    void skip() {
+        final Date now = Calendar.getInstance().getTime();
+        this.setStartDate(now);
+        this.setEndDate(now);
+        this.setStatus(JobStatus.SKIPPED);
+        this.batch.getBatchStatus().incrementSkippedJob();
+        if (this.batch.getMetrics() != null) {
+            this.batch.getMetrics().recordJobEnded(JobStatus.SKIPPED, 0L);
+        }
+        this.journal();
+        this.batch.getJobEventLog().publish(this);
+        this.ended();
+    }
+
+    /**
+     * Append the status of the job to the batch journal.
+     */
+    private void journal() {
+        final JobJournal journal = this.batch.getJobJournal();
+        if (journal != null) {
+            journal.append(this);
+        }
+    }
+
+    /**
+     * Set the listener of the end of the next run of the job.
+     *
+     * @param runListener Called once when the run ends, may be null.
+     */
+    void setRunListener(final Runnable runListener) {
+        this.runListener = runListener;
+    }
+
+    /**
+     * Notify the run listener, once per run.
+     */
+    private void runEnded() {
+        final Runnable listener = this.runListener;
+        this.runListener = null;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Notify the end listener.
+     */
+    private void ended() {
+        this.runEnded();
+        if (this.endListener != null) {
+            this.endListener.accept(this);
+        }
+    }
+
+    /**
+     * Kill the process tree of the job: SIGTERM to the job process and all its descendants, then SIGKILL to the
+     * processes still alive after {@value #KILL_GRACE_MILLIS} ms. Descendants detached from the tree before the kill
+     * (daemons) are not reached.
+     */
     public void destroy() {
-        // Destroy JobExecution.process if not destroyed
-        if (null != this.process) {
-            this.process.destroy();
+        final Process p = this.process;
+        if (p == null) {
+            return;
         }
+        // Descendants are listed first: once their parent exits they leave the tree
+        final List<ProcessHandle> tree = JobExecution.processTree(p.toHandle());
+        for (ProcessHandle handle : tree) {
+            handle.destroy();
+        }
+        this.batch.getWatchdog().schedule(System.currentTimeMillis() + KILL_GRACE_MILLIS, () -> {
+            final Set<ProcessHandle> alive = new LinkedHashSet<ProcessHandle>(tree);
+            alive.addAll(JobExecution.processTree(p.toHandle()));
+            for (ProcessHandle handle : alive) {
+                if (handle.isAlive()) {
+                    LOG.debug("JobId: " + this.getId() + " process " + handle.pid() + " killed");
+                    handle.destroyForcibly();
+                }
+            }
+        });
+    }
+
+    /**
+     * List a process and its descendants.
+     *
+     * @param root Process.
+     * @return Process and its live descendants.
+     */
+    private static List<ProcessHandle> processTree(final ProcessHandle root) {
+        final List<ProcessHandle> tree = new ArrayList<ProcessHandle>();
+        tree.add(root);
+        root.descendants().forEach(tree::add);
+        return tree;
     }
 
     String getCommandLine() {
         return commandLine;
     }
 
+    JobSpec getSpec() {
+        return spec;
+    }
+
+    Batch getBatch() {
+        return batch;
+    }
+
+    int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * Get the duration of a phase of the current run.
+     *
+     * @param phase Phase.
+     * @return Duration in nanoseconds, -1 if not measured.
+     */
+    long getPhaseNanos(final PhaseTimer.Phase phase) {
+        return phaseNanos == null ? -1L : phaseNanos[phase.ordinal()];
+    }
+
+    int getOrdinal() {
+        return ordinal;
+    }
+
     int getId() {
         return id;
     }
@@ -134,6 +724,10 @@ public final class JobExecution {
         return new Date(startDate.getTime());
     }
 
+    long getStartTime() {
+        return startDate.getTime();
+    }
+
     private void setStartDate(final Date startDate) {
         this.startDate = startDate;
     }
@@ -142,6 +736,10 @@ public final class JobExecution {
         return new Date(endDate.getTime());
     }
 
+    long getEndTime() {
+        return endDate.getTime();
+    }
+
     private void setEndDate(final Date endDate) {
         this.endDate = endDate;
     }
@@ -162,11 +760,37 @@ public final class JobExecution {
         this.exitCode = exitCode;
     }
 
+    long getOutputBytes() {
+        return outputBytes;
+    }
+
+    private void setOutputBytes(final long outputBytes) {
+        this.outputBytes = outputBytes;
+    }
+
+    /**
+     * Get the beginning and the end of the output of the job, captured in debug mode without log directory.
+     *
+     * @return Captured output, null when not captured.
+     */
+    String getCapturedOutput() {
+        return capturedOutput;
+    }
+
+    ResourceUsage getResourceUsage() {
+        return resourceUsage;
+    }
+
+    private void setResourceUsage(final ResourceUsage resourceUsage) {
+        this.resourceUsage = resourceUsage;
+    }
+
     /**
-     * Job status enumeration : NONE, RUNNING, FAILED, COMPLETED.
+     * Job status enumeration : NONE, RUNNING, FAILED, COMPLETED, SKIPPED, TIMED_OUT, RETRIED (failed run followed by
+     * another run).
      */
     public static enum JobStatus {
-        NONE, RUNNING, FAILED, COMPLETED
+        NONE, RUNNING, FAILED, COMPLETED, SKIPPED, TIMED_OUT, RETRIED
     }
 
     /**
@@ -187,82 +811,114 @@ public final class JobExecution {
     }
 
     /**
-     * Get the output of a process.
+     * Drain stdout and stderr of a process at the same time, until the process closes them.
+     * <p>
+     * Both outputs are copied to the job log file when a log directory is set. Otherwise the beginning and the end
+     * of stdout are logged in debug mode and the outputs are discarded.
+     * </p>
      *
-     * @param process The process for the output in string.
-     * @return String representation of the process output.
+     * @param process    Process to drain.
+     * @param cacheEntry New cache entry of the job output, null if the job is not cached.
      */
-    private String getProcessOutput(final Process process) {
-        return getProcessOutput(process, false);
+    private void drainProcessOutput(final Process process, final ResultCache.EntryWriter cacheEntry) {
+        final FileChannel logChannel = this.openLogChannel();
+        OutputCapture capture = null;
+        if (this.batch.getLogDirectory() == null && LOG.isDebugEnabled()) {
+            capture = JobExecution.getCapture(this.batch.getCaptureSize());
+        }
+        final Future<Long> stderr = OutputPump.pumpAsync(this.batch.getPumps(), process.getErrorStream(), logChannel,
+                cacheEntry);
+        try {
+            final long stdoutBytes = OutputPump.pump(process.getInputStream(), logChannel, capture, cacheEntry);
+            this.setOutputBytes(stdoutBytes + stderr.get());
+        } catch (IOException e) {
+            LOG.error(e);
+        } catch (ExecutionException e) {
+            LOG.error(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error(e);
+        } finally {
+            this.closeLogChannel(logChannel);
+        }
+        if (capture != null) {
+            this.keepCapture(capture);
+        }
     }
 
     /**
-     * Get the output of a process.
+     * Open the job log file when a log directory is set.
      *
-     * @param process            Process for getting logs.
-     * @param isLogPrintedToFile Print process output to log file if true.
-     * @return String representation of the process output.
-     */
-    private String getProcessOutput(final Process process, boolean isLogPrintedToFile) {
-        final StringBuilder sbResult = new StringBuilder();
-        sbResult.append("JobId: ").append(this.getId()).append(" - STDOUT: ");
-        final StringBuilder sbLine = new StringBuilder();
+     * @return Log file channel or null.
+     */
+    private FileChannel openLogChannel() {
+        if (this.batch.getLogDirectory() == null) {
+            return null;
+        }
+        final String logFile = JobExecution.buildLogFilename(this.batch.getId(), this.getId(), this.getCommandLine(),
+                this.batch.getLogDirectory());
+        LOG.debug("log directory is : " + logFile);
         try {
-            final InputStreamReader tempReader = new InputStreamReader(
-                    new BufferedInputStream(process.getInputStream()), UTF8_ENCODING);
-            final BufferedReader reader = new BufferedReader(tempReader);
-            PrintWriter writer = null;
-            if (isLogPrintedToFile) {
-                final String logFile = JobExecution.buildLogFilename(this.getId(), this.getCommandLine(), Batch.getInstance().getLogDirectory());
-                LOG.debug("log directory is : " + logFile);
-                try {
-                    writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(logFile), UTF8_ENCODING));
-                } catch (IOException e) {
-                    LOG.warn("Can't create a process output log file", e);
-                }
-            }
-            String line;
+            return new FileOutputStream(logFile).getChannel();
+        } catch (IOException e) {
+            LOG.warn("Can't create a process output log file", e);
+            return null;
+        }
+    }
+
+    private void closeLogChannel(final FileChannel logChannel) {
+        if (logChannel != null) {
             try {
-                while ((line = reader.readLine()) != null) {
-                    if (isLogPrintedToFile && writer != null) {
-                        writer.println(line);
-                    }
-                    sbLine.append(line);
-                }
+                logChannel.close();
             } catch (IOException e) {
+                LOG.warn("Can't close the job process output log file", e);
+            }
+        }
+    }
+
+    /**
+     * Keep the captured output of the job in debug mode, logged with the job information.
+     *
+     * @param capture Captured output.
+     */
+    private void keepCapture(final OutputCapture capture) {
+        if (capture.getTotalBytes() > 0) {
+            try {
+                this.capturedOutput = capture.toString(UTF8_ENCODING);
+            } catch (UnsupportedEncodingException e) {
                 LOG.error(e);
-            } finally {
-                if (writer != null) {
-                    writer.close();
-                }
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    LOG.warn("Can't close the job process output stream", e);
-                }
             }
-        } catch (UnsupportedEncodingException e) {
-            LOG.error(e);
         }
-        if (sbLine.toString().trim().length() > 0) {
-            sbResult.append(sbLine);
-            return sbResult.toString();
-        } else {
-            return "";
+    }
+
+    /**
+     * Get the output capture of the current worker, sized to the batch capture size and reset.
+     *
+     * @param size Capture size of the batch in bytes.
+     * @return Empty output capture.
+     */
+    private static OutputCapture getCapture(final int size) {
+        OutputCapture capture = CAPTURE.get();
+        if (capture == null || capture.getSize() != size) {
+            capture = new OutputCapture(size);
+            CAPTURE.set(capture);
         }
+        capture.reset();
+        return capture;
     }
 
     /**
      * Build Log filename without non desired characters.
      *
+     * @param batchId Batch identifier.
      * @param jobId   Job identifier.
      * @param cmdLine Job Command line.
      * @return Clean log filename.
      */
-    private static String buildLogFilename(int jobId, final String cmdLine, final String dirName) {
+    static String buildLogFilename(final String batchId, int jobId, final String cmdLine, final String dirName) {
         final StringBuilder res = new StringBuilder();
         res.append(dirName).append(File.separator);
-        res.append("batchid-").append(Batch.getInstance().getId()).append("_jobid-").append(String.valueOf(jobId)).append("_");
+        res.append("batchid-").append(batchId).append("_jobid-").append(String.valueOf(jobId)).append("_");
         final DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd-HHmmssSS");
         res.append(dateFormat.format(new Date().getTime())).append("_");
         final String regex = "[^a-zA-Z_-]";
@@ -0,0 +1,111 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+/**
+ * Share of the workers of a job, see {@link FairShareQueue}.
+ * <ul>
+ * <li><b>group</b>: Name of the group of the job, a tenant or a team. Jobs without a group are grouped by batch.</li>
+ * <li><b>weight</b>: Number of jobs of the group started at each turn of the groups, 1 by default.</li>
+ * <li><b>max_running</b>: Maximum number of jobs of the group running at the same time, no maximum by default.</li>
+ * </ul>
+ * The weight and the maximum belong to the group: the last job submitted with a group sets them for the group.
+ */
+final class JobGroup {
+    /**
+     * No group.
+     */
+    static final JobGroup NONE = new JobGroup(null, 0, 0);
+
+    static final String GROUP = "group";
+    static final String WEIGHT = "weight";
+    static final String MAX_RUNNING = "max_running";
+
+    /**
+     * Group name, null when not set.
+     */
+    private final String name;
+    /**
+     * Weight of the group, 0 when not set.
+     */
+    private final int weight;
+    /**
+     * Maximum number of running jobs, 0 when not set.
+     */
+    private final int maxRunning;
+
+    private JobGroup(final String name, final int weight, final int maxRunning) {
+        this.name = name;
+        this.weight = weight;
+        this.maxRunning = maxRunning;
+    }
+
+    /**
+     * Test if a job attribute is a group attribute.
+     *
+     * @param key Attribute name.
+     * @return true for <b>group</b>, <b>weight</b> and <b>max_running</b>.
+     */
+    static boolean isGroupAttribute(final String key) {
+        return GROUP.equals(key) || WEIGHT.equals(key) || MAX_RUNNING.equals(key);
+    }
+
+    /**
+     * Copy of this group with another attribute.
+     *
+     * @param key   Attribute name.
+     * @param value Attribute value.
+     * @return Job group.
+     * @throws IllegalArgumentException if the attribute is unknown or not valid.
+     */
+    JobGroup with(final String key, final String value) {
+        try {
+            if (GROUP.equals(key)) {
+                if (value.length() == 0) {
+                    throw new IllegalArgumentException("Empty job group");
+                }
+                return new JobGroup(value, weight, maxRunning);
+            } else if (WEIGHT.equals(key)) {
+                return new JobGroup(name, JobGroup.parsePositive(value), maxRunning);
+            } else if (MAX_RUNNING.equals(key)) {
+                return new JobGroup(name, weight, JobGroup.parsePositive(value));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong value of the group attribute " + key + ": " + value, e);
+        }
+        throw new IllegalArgumentException("Unknown group attribute " + key);
+    }
+
+    private static int parsePositive(final String value) {
+        final int n = Integer.parseInt(value);
+        if (n < 1) {
+            throw new NumberFormatException("Not a positive number");
+        }
+        return n;
+    }
+
+    /**
+     * Get the group name.
+     *
+     * @return Group name, null for the jobs grouped by batch.
+     */
+    String getName() {
+        return name;
+    }
+
+    int getWeight() {
+        return Math.max(1, weight);
+    }
+
+    /**
+     * Get the maximum number of running jobs of the group.
+     *
+     * @return Maximum, 0 for no maximum.
+     */
+    int getMaxRunning() {
+        return maxRunning;
+    }
+
+    @Override
+    public String toString() {
+        return GROUP + ":" + name + " " + WEIGHT + ":" + this.getWeight() + " " + MAX_RUNNING + ":" + maxRunning;
+    }
+}
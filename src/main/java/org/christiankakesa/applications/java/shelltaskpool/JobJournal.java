@@ -0,0 +1,238 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the job state transitions of a batch.
+ * <p>
+ * Each transition (RUNNING, then COMPLETED, FAILED, SKIPPED, TIMED_OUT or RETRIED) is appended as a fixed size
+ * record: job ordinal, status, exit code, command line hash, date and a CRC32. Records are buffered and written with
+ * a single <code>fsync</code> every {@value #SYNC_INTERVAL_MILLIS} ms, so a job transition never waits for the disk; at worst
+ * the transitions of the last interval are lost and those jobs run again on resume.
+ * </p>
+ * <p>
+ * The journal of a batch is the file <code>&lt;batch id&gt;.journal</code> of the journal directory. A resumed batch
+ * reuses the batch id and appends to the same journal.
+ * </p>
+ */
+final class JobJournal {
+    private static final Logger LOG = Logger.getLogger(JobJournal.class);
+
+    /**
+     * Suffix of the journal files.
+     */
+    static final String JOURNAL_SUFFIX = ".journal";
+
+    /**
+     * Interval between two synchronizations of the journal on disk.
+     */
+    static final long SYNC_INTERVAL_MILLIS = 100L;
+
+    /**
+     * Record: ordinal, status, exit code, command line hash, date, CRC32 of the previous fields.
+     */
+    static final int RECORD_SIZE = 4 + 1 + 4 + 8 + 8 + 4;
+
+    /**
+     * Size of the buffer of the records not written yet.
+     */
+    private static final int BUFFER_SIZE = 1024 * RECORD_SIZE;
+
+    private final File file;
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    /**
+     * Records not written yet, guarded by this.
+     */
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    /**
+     * Buffer being written, guarded by the sync lock.
+     */
+    private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Object syncLock = new Object();
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(
+            ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-journal-", true));
+
+    /**
+     * JobJournal constructor, the journal file is created if needed and opened for appending.
+     *
+     * @param directory Journal directory.
+     * @param batchId   Batch id.
+     * @throws IOException if the journal can't be opened.
+     */
+    JobJournal(final File directory, final String batchId) throws IOException {
+        this.file = JobJournal.journalFile(directory, batchId);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop a torn record from a previous run, records must stay aligned
+        final long size = channel.size();
+        if (size % RECORD_SIZE != 0) {
+            channel.truncate(size - size % RECORD_SIZE);
+        }
+        channel.position(channel.size());
+        syncer.scheduleWithFixedDelay(this::sync, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the journal file of a batch.
+     *
+     * @param directory Journal directory.
+     * @param batchId   Batch id.
+     * @return Journal file.
+     */
+    static File journalFile(final File directory, final String batchId) {
+        return new File(directory, batchId + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Append the current state of a job.
+     *
+     * @param job Job with a new status.
+     */
+    void append(final JobExecution job) {
+        if (job.getOrdinal() < 0) {
+            return;
+        }
+        final long hash = DurationHistory.hash(DurationHistory.normalize(job.getCommandLine()));
+        final long date = job.getStatus() == JobExecution.JobStatus.RUNNING ? job.getStartTime() : job.getEndTime();
+        while (!this.tryAppend(job.getOrdinal(), job.getStatus(), job.getExitCode(), hash, date)) {
+            // Buffer full, write it before the next syncer run
+            this.sync();
+        }
+    }
+
+    private synchronized boolean tryAppend(final int ordinal, final JobExecution.JobStatus status, final int exitCode,
+                                           final long hash, final long date) {
+        if (pending.remaining() < RECORD_SIZE) {
+            return false;
+        }
+        final int start = pending.position();
+        pending.putInt(ordinal).put((byte) status.ordinal()).putInt(exitCode).putLong(hash).putLong(date);
+        crc.reset();
+        crc.update(pending.array(), start, RECORD_SIZE - 4);
+        pending.putInt((int) crc.getValue());
+        return true;
+    }
+
+    /**
+     * Write the buffered records and force them on disk.
+     */
+    void sync() {
+        synchronized (syncLock) {
+            synchronized (this) {
+                final ByteBuffer swap = pending;
+                pending = writing;
+                writing = swap;
+            }
+            if (writing.position() == 0) {
+                return;
+            }
+            writing.flip();
+            try {
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                LOG.error("Can't write the journal " + file, e);
+            }
+            writing.clear();
+        }
+    }
+
+    /**
+     * Write the buffered records and close the journal.
+     */
+    void close() {
+        syncer.shutdown();
+        this.sync();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Can't close the journal " + file, e);
+        }
+    }
+
+    /**
+     * Read the last state of the jobs of a journal. Records with a wrong CRC, from an interrupted write, are ignored.
+     *
+     * @param file Journal file.
+     * @return Last state by job ordinal.
+     * @throws IOException if the journal can't be read.
+     */
+    static Map<Integer, JobState> read(final File file) throws IOException {
+        final Map<Integer, JobState> states = new HashMap<Integer, JobState>();
+        final JobExecution.JobStatus[] statuses = JobExecution.JobStatus.values();
+        final CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            boolean eof = false;
+            while (!eof) {
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    final int start = buffer.position();
+                    crc.reset();
+                    crc.update(buffer.array(), start, RECORD_SIZE - 4);
+                    final int ordinal = buffer.getInt();
+                    final int status = buffer.get();
+                    final int exitCode = buffer.getInt();
+                    final long hash = buffer.getLong();
+                    buffer.getLong(); // date
+                    if (buffer.getInt() != (int) crc.getValue() || status < 0 || status >= statuses.length) {
+                        LOG.warn("Corrupted record in the journal " + file + " at " + start + ", ignored");
+                        continue;
+                    }
+                    states.put(ordinal, new JobState(statuses[status], exitCode, hash));
+                }
+                buffer.compact();
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Last state of a job in a journal.
+     */
+    static final class JobState {
+        private final JobExecution.JobStatus status;
+        private final int exitCode;
+        private final long commandLineHash;
+
+        JobState(final JobExecution.JobStatus status, final int exitCode, final long commandLineHash) {
+            this.status = status;
+            this.exitCode = exitCode;
+            this.commandLineHash = commandLineHash;
+        }
+
+        JobExecution.JobStatus getStatus() {
+            return status;
+        }
+
+        int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * Test if the job completed with the same command line.
+         *
+         * @param commandLine Command line of the job to run.
+         * @return true if the job does not need to run again.
+         */
+        boolean isCompleted(final String commandLine) {
+            return status == JobExecution.JobStatus.COMPLETED
+                    && commandLineHash == DurationHistory.hash(DurationHistory.normalize(commandLine));
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resource limits and accounting of the jobs.
+ * <p>
+ * With a cgroup v2 directory, the batch creates its cgroup <code>&lt;app name&gt;-&lt;batch id&gt;</code> in it
+ * and each job runs in its own leaf <code>job-&lt;job id&gt;</code>, with the <b>cpu.max</b>, <b>memory.max</b> and
+ * <b>io.weight</b> limits of the job. The job process joins its leaf before <code>exec</code>, through a
+ * <code>/bin/sh</code> wrapper, so the processes it starts are limited and accounted too. When the job ends, its CPU
+ * time, peak memory and I/O bytes are read from the leaf, then the leaf is removed.
+ * </p>
+ * <p>
+ * When the cgroup directory is not writable, or without cgroup directory, limits are not applied and the job process
+ * is sampled from <code>/proc/&lt;pid&gt;</code> every {@value #SAMPLE_PERIOD_MILLIS} ms, like
+ * <code>getrusage</code>: CPU time of the process and of its waited-for children, peak resident memory of the process
+ * and storage I/O. The last interval before the end of the process is not measured.
+ * </p>
+ */
+final class JobResources {
+    private static final Logger LOG = Logger.getLogger(JobResources.class);
+
+    /**
+     * Period of the /proc samples.
+     */
+    static final long SAMPLE_PERIOD_MILLIS = 100L;
+
+    /**
+     * Period of the <code>cpu.max</code> quota.
+     */
+    private static final long CPU_PERIOD_USEC = 100000L;
+
+    /**
+     * Clock ticks per second of the /proc CPU times (USER_HZ).
+     */
+    private static final long TICKS_PER_SECOND = 100L;
+
+    private static final String[] CONTROLLERS = {"cpu", "memory", "io"};
+
+    /**
+     * Joins the cgroup given as <code>$0</code>, then runs the job command line.
+     */
+    private static final String JOIN_CGROUP_SCRIPT = "echo $$ > \"$0\" && exec \"$@\"";
+
+    /**
+     * Cgroup of the batch, null when the jobs are sampled from /proc.
+     */
+    private final File batchCgroup;
+    /**
+     * Id of the batch owning the cgroup.
+     */
+    private final String batchId;
+    private final ResourceLimits defaults;
+    /**
+     * Controllers enabled for the job leaves.
+     */
+    private final Set<String> controllers = ConcurrentHashMap.newKeySet();
+    /**
+     * Controllers already reported as missing.
+     */
+    private final Set<String> missingControllers = ConcurrentHashMap.newKeySet();
+    /**
+     * Running jobs sampled from /proc.
+     */
+    private final Set<Tracker> sampled = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService sampler;
+
+    /**
+     * JobResources constructor, the cgroup of the batch is created.
+     *
+     * @param parent   Cgroup v2 directory, null to sample the jobs from /proc.
+     * @param batchId  Batch id.
+     * @param defaults Limits of the jobs without their own limits.
+     */
+    JobResources(final File parent, final String batchId, final ResourceLimits defaults) {
+        this.batchId = batchId;
+        this.defaults = defaults;
+        this.batchCgroup = parent == null ? null : this.createBatchCgroup(parent, batchId);
+        if (batchCgroup == null && !defaults.isNone()) {
+            LOG.warn("No writable cgroup, resource limits are not applied: " + defaults);
+        }
+    }
+
+    private File createBatchCgroup(final File parent, final String batchId) {
+        if (!new File(parent, "cgroup.procs").isFile()) {
+            LOG.warn(parent + " is not a cgroup v2 directory, job resources are sampled from /proc");
+            return null;
+        }
+        final File cgroup = new File(parent, AppInfo.APP_NAME + "-" + batchId);
+        if (!cgroup.isDirectory() && !cgroup.mkdir()) {
+            LOG.warn("Can't create the cgroup " + cgroup + ", job resources are sampled from /proc");
+            return null;
+        }
+        // Controllers must be enabled from the parent down to the job leaves
+        this.enableControllers(parent);
+        this.enableControllers(cgroup);
+        try {
+            for (String controller : JobResources.read(new File(cgroup, "cgroup.subtree_control")).trim()
+                    .split("\\s+")) {
+                controllers.add(controller);
+            }
+        } catch (IOException e) {
+            LOG.warn("Can't read the controllers of " + cgroup, e);
+        }
+        LOG.debug("Jobs run in the cgroup " + cgroup + " with the controllers " + controllers);
+        return cgroup;
+    }
+
+    private void enableControllers(final File cgroup) {
+        final StringBuilder enable = new StringBuilder();
+        try {
+            final String available = " " + JobResources.read(new File(cgroup, "cgroup.controllers")).trim() + " ";
+            for (String controller : CONTROLLERS) {
+                if (available.contains(" " + controller + " ")) {
+                    enable.append('+').append(controller).append(' ');
+                }
+            }
+            if (enable.length() > 0) {
+                JobResources.write(new File(cgroup, "cgroup.subtree_control"), enable.toString().trim());
+            }
+        } catch (IOException e) {
+            LOG.warn("Can't enable the controllers " + enable + "of " + cgroup, e);
+        }
+    }
+
+    /**
+     * Start the tracking of a job, before its process is spawned. The jobs of the other batches of the daemon have
+     * their batch id in the name of their cgroup.
+     *
+     * @param spec    Job specification.
+     * @param batchId Id of the batch of the job.
+     * @param jobId   Job id.
+     * @return Tracker of the job.
+     */
+    Tracker track(final JobSpec spec, final String batchId, final int jobId) {
+        if (batchCgroup != null) {
+            final File leaf = new File(batchCgroup, this.batchId.equals(batchId) ? "job-" + jobId
+                    : "batch-" + batchId + "-job-" + jobId);
+            if (leaf.isDirectory() || leaf.mkdir()) {
+                this.applyLimits(leaf, spec.getLimits().withDefaults(defaults));
+                return new Tracker(leaf);
+            }
+            LOG.warn("Can't create the cgroup " + leaf + ", job resources are sampled from /proc");
+        }
+        return new Tracker(null);
+    }
+
+    private void applyLimits(final File leaf, final ResourceLimits limits) {
+        if (limits.getCpuMax() > 0) {
+            this.writeLimit(leaf, "cpu", ResourceLimits.CPU_MAX,
+                    Math.max(1000L, Math.round(limits.getCpuMax() * CPU_PERIOD_USEC)) + " " + CPU_PERIOD_USEC);
+        }
+        if (limits.getMemoryMax() > 0) {
+            this.writeLimit(leaf, "memory", ResourceLimits.MEMORY_MAX, Long.toString(limits.getMemoryMax()));
+        }
+        if (limits.getIoWeight() > 0) {
+            this.writeLimit(leaf, "io", ResourceLimits.IO_WEIGHT, "default " + limits.getIoWeight());
+        }
+    }
+
+    private void writeLimit(final File leaf, final String controller, final String file, final String value) {
+        if (!controllers.contains(controller)) {
+            if (missingControllers.add(controller)) {
+                LOG.warn("The " + controller + " controller is not enabled in " + batchCgroup + ", " + file
+                        + " is not applied");
+            }
+            return;
+        }
+        try {
+            JobResources.write(new File(leaf, file), value);
+        } catch (IOException e) {
+            LOG.warn("Can't set " + file + " of " + leaf + " to " + value, e);
+        }
+    }
+
+    /**
+     * Remove the cgroup of the batch and stop the sampling.
+     */
+    void close() {
+        synchronized (this) {
+            if (sampler != null) {
+                sampler.shutdownNow();
+            }
+        }
+        if (batchCgroup != null && !batchCgroup.delete()) {
+            LOG.warn("Can't remove the cgroup " + batchCgroup + ", processes left by the jobs may still run");
+        }
+    }
+
+    private synchronized void startSampler() {
+        if (sampler == null) {
+            sampler = Executors.newSingleThreadScheduledExecutor(
+                    ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-resources-", true));
+            sampler.scheduleWithFixedDelay(() -> {
+                for (Tracker tracker : sampled) {
+                    tracker.sample();
+                }
+            }, SAMPLE_PERIOD_MILLIS, SAMPLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Resources of a job, from its cgroup leaf or sampled from /proc.
+     */
+    final class Tracker {
+        /**
+         * Cgroup leaf of the job, null when the job is sampled from /proc.
+         */
+        private final File leaf;
+        private volatile long pid = -1;
+        // Last /proc sample, guarded by this
+        private long cpuMillis = -1;
+        private long peakMemoryBytes = -1;
+        private long ioBytes = -1;
+
+        private Tracker(final File leaf) {
+            this.leaf = leaf;
+        }
+
+        /**
+         * Build the command spawning the job in its cgroup leaf.
+         *
+         * @param args Job command line arguments.
+         * @return Command to spawn.
+         */
+        String[] command(final String[] args) {
+            if (leaf == null) {
+                return args;
+            }
+            final String[] command = new String[args.length + 4];
+            command[0] = "/bin/sh";
+            command[1] = "-c";
+            command[2] = JOIN_CGROUP_SCRIPT;
+            command[3] = new File(leaf, "cgroup.procs").getPath();
+            System.arraycopy(args, 0, command, 4, args.length);
+            return command;
+        }
+
+        /**
+         * Start sampling the job process from /proc, when the job has no cgroup leaf.
+         *
+         * @param process Job process.
+         */
+        void started(final Process process) {
+            if (leaf == null) {
+                this.pid = process.pid();
+                this.sample();
+                sampled.add(this);
+                JobResources.this.startSampler();
+            }
+        }
+
+        /**
+         * Sample the job process from /proc, the process may have ended.
+         */
+        synchronized void sample() {
+            if (pid < 0) {
+                return;
+            }
+            final File proc = new File("/proc", Long.toString(pid));
+            try {
+                cpuMillis = Math.max(cpuMillis, JobResources.parseProcStatCpuMillis(
+                        JobResources.read(new File(proc, "stat"))));
+                peakMemoryBytes = Math.max(peakMemoryBytes, JobResources.parseStatusKilobytes(
+                        JobResources.read(new File(proc, "status")), "VmHWM:") * 1024L);
+                ioBytes = Math.max(ioBytes, JobResources.parseProcIoBytes(JobResources.read(new File(proc, "io"))));
+            } catch (IOException | RuntimeException e) {
+                LOG.trace("Can't sample the process " + pid, e);
+            }
+        }
+
+        /**
+         * Stop the tracking of the ended job and get its resources, the cgroup leaf is removed.
+         *
+         * @return Resources used by the job.
+         */
+        ResourceUsage stop() {
+            if (leaf == null) {
+                sampled.remove(this);
+                synchronized (this) {
+                    pid = -1;
+                    return new ResourceUsage(cpuMillis, peakMemoryBytes, ioBytes);
+                }
+            }
+            final ResourceUsage usage = new ResourceUsage(
+                    JobResources.readCgroupValue(new File(leaf, "cpu.stat"), "usage_usec") / 1000L,
+                    JobResources.readCgroupValue(new File(leaf, "memory.peak"), null),
+                    JobResources.readCgroupValue(new File(leaf, "io.stat"), "io"));
+            if (!leaf.delete()) {
+                LOG.warn("Can't remove the cgroup " + leaf + ", processes left by the job may still run");
+            }
+            return usage;
+        }
+    }
+
+    /**
+     * Read a value of a cgroup file.
+     *
+     * @param file Cgroup file.
+     * @param key  Key of a flat keyed file, <code>io</code> for the I/O bytes of <code>io.stat</code>, null for a
+     *             single value file.
+     * @return Value, -1 if the file can't be read (controller not enabled).
+     */
+    private static long readCgroupValue(final File file, final String key) {
+        if (!file.isFile()) {
+            return -1L;
+        }
+        try {
+            final String content = JobResources.read(file);
+            if (key == null) {
+                return Long.parseLong(content.trim());
+            } else if ("io".equals(key)) {
+                return JobResources.parseIoStatBytes(content);
+            }
+            for (String line : content.split("\n")) {
+                if (line.startsWith(key + " ")) {
+                    return Long.parseLong(line.substring(key.length() + 1).trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Can't read " + file, e);
+        }
+        return -1L;
+    }
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+    }
+
+    private static void write(final File file, final String value) throws IOException {
+        // Cgroup files take one value per write, without truncation
+        Files.write(file.toPath(), value.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Parse the CPU time of a process and of its waited-for children in <code>/proc/&lt;pid&gt;/stat</code>.
+     *
+     * @param stat Content of <code>/proc/&lt;pid&gt;/stat</code>.
+     * @return utime + stime + cutime + cstime in milliseconds.
+     */
+    static long parseProcStatCpuMillis(final String stat) {
+        // The command name may contain spaces and parentheses, fields are counted after its end
+        final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split("\\s+");
+        // fields[0] is the field 3 (state), utime is the field 14
+        long ticks = 0;
+        for (int i = 11; i <= 14; ++i) {
+            ticks += Long.parseLong(fields[i]);
+        }
+        return ticks * 1000L / TICKS_PER_SECOND;
+    }
+
+    /**
+     * Parse a kilobytes value of <code>/proc/&lt;pid&gt;/status</code>.
+     *
+     * @param status Content of <code>/proc/&lt;pid&gt;/status</code>.
+     * @param key    Field name with its colon, like <code>VmHWM:</code>.
+     * @return Value in kilobytes.
+     * @throws IllegalArgumentException if the field is missing.
+     */
+    static long parseStatusKilobytes(final String status, final String key) {
+        for (String line : status.split("\n")) {
+            if (line.startsWith(key)) {
+                return Long.parseLong(line.substring(key.length()).trim().split("\\s+")[0]);
+            }
+        }
+        throw new IllegalArgumentException("No " + key + " field");
+    }
+
+    /**
+     * Parse the storage bytes of <code>/proc/&lt;pid&gt;/io</code>.
+     *
+     * @param io Content of <code>/proc/&lt;pid&gt;/io</code>.
+     * @return read_bytes + write_bytes.
+     */
+    static long parseProcIoBytes(final String io) {
+        long bytes = 0;
+        for (String line : io.split("\n")) {
+            if (line.startsWith("read_bytes:") || line.startsWith("write_bytes:")) {
+                bytes += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Parse the bytes of all the devices of a cgroup <code>io.stat</code>.
+     *
+     * @param ioStat Content of <code>io.stat</code>, like <code>8:0 rbytes=1024 wbytes=0 rios=1 ...</code>.
+     * @return Sum of rbytes and wbytes.
+     */
+    static long parseIoStatBytes(final String ioStat) {
+        long bytes = 0;
+        for (String field : ioStat.split("\\s+")) {
+            if (field.startsWith("rbytes=") || field.startsWith("wbytes=")) {
+                bytes += Long.parseLong(field.substring(field.indexOf('=') + 1));
+            }
+        }
+        return bytes;
+    }
+}
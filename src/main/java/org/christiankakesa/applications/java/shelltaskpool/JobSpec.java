@@ -0,0 +1,268 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A job line of the jobs file or of the jobs list.
+ * <p>
+ * A job line may start with a header of <code>key:value</code> (or <code>key=value</code>) attributes between
+ * brackets, followed by the command line; brackets holding anything else belong to the command line:
+ * </p>
+ * <pre>
+ * [id:extract_p1] ./extract.sh p1
+ * [id:load_p1 after:extract_p1,extract_p2] ./load.sh p1
+ * </pre>
+ * <ul>
+ * <li><b>id</b>: Job name, referenced by other jobs.</li>
+ * <li><b>after</b>: Comma separated names of the jobs to complete successfully before this job.</li>
+ * <li><b>inputs</b>: Comma separated files read by the job, the result of the job is cached when a result cache is
+ * set.</li>
+ * <li><b>timeout</b>: Duration after which the job is killed, with an optional unit ms, s, m, h (seconds by
+ * default).</li>
+ * <li><b>cpu.max</b>, <b>memory.max</b>, <b>io.weight</b>: Resource limits of the job cgroup, see
+ * {@link ResourceLimits}.</li>
+ * <li><b>attempts</b>, <b>retry_on</b>, <b>backoff</b>: Retry policy of the job when it fails, see
+ * {@link RetryPolicy}.</li>
+ * <li><b>group</b>, <b>weight</b>, <b>max_running</b>: Share of the workers of the job group, see
+ * {@link JobGroup}.</li>
+ * <li><b>cpu</b>, <b>mem</b>, <b>io</b>: Resources the job is expected to use, admitted against the resource budget,
+ * see {@link ResourceHints}.</li>
+ * </ul>
+ */
+final class JobSpec {
+    /**
+     * Job line header start.
+     */
+    static final char HEADER_START = '[';
+    /**
+     * Job line header end.
+     */
+    static final char HEADER_END = ']';
+
+    private final String commandLine;
+    private final String name;
+    private final List<String> after;
+    private final List<String> inputs;
+    private final ResourceLimits limits;
+    private final long timeoutMillis;
+    private final RetryPolicy retryPolicy;
+    private final JobGroup group;
+    private final ResourceHints hints;
+
+    /**
+     * JobSpec constructor.
+     *
+     * @param commandLine   Job command line.
+     * @param name          Job name or null.
+     * @param after         Names of the jobs to complete before this job.
+     * @param inputs        Files read by the job.
+     * @param limits        Resource limits of the job.
+     * @param timeoutMillis Timeout of the job in milliseconds, 0 for the batch job timeout.
+     * @param retryPolicy   Retry policy of the job, merged with the batch retry policy.
+     * @param group         Group of the job.
+     * @param hints         Resources the job is expected to use.
+     */
+    JobSpec(final String commandLine, final String name, final List<String> after, final List<String> inputs,
+            final ResourceLimits limits, final long timeoutMillis, final RetryPolicy retryPolicy,
+            final JobGroup group, final ResourceHints hints) {
+        this.commandLine = commandLine;
+        this.name = name;
+        this.after = Collections.unmodifiableList(new ArrayList<String>(after));
+        this.inputs = Collections.unmodifiableList(new ArrayList<String>(inputs));
+        this.limits = limits;
+        this.timeoutMillis = timeoutMillis;
+        this.retryPolicy = retryPolicy;
+        this.group = group;
+        this.hints = hints;
+    }
+
+    /**
+     * Build a job without header attributes.
+     *
+     * @param commandLine Job command line.
+     */
+    JobSpec(final String commandLine) {
+        this(commandLine, null, Collections.<String>emptyList(), Collections.<String>emptyList(), ResourceLimits.NONE,
+                0L, RetryPolicy.NONE, JobGroup.NONE, ResourceHints.NONE);
+    }
+
+    /**
+     * Parse a job line. The line starts with a header only if all the words between its first brackets are known
+     * <code>key:value</code> attributes, so shell tests like <code>[ -f done ] || ./run.sh</code> are command lines.
+     *
+     * @param line Job line, trimmed.
+     * @return Job specification.
+     * @throws IllegalArgumentException if a resource limit, the timeout, a retry, a group attribute or a resource hint
+     *                                  is not valid.
+     */
+    static JobSpec parse(final String line) {
+        final int end = line.indexOf(HEADER_END);
+        if (line.length() == 0 || line.charAt(0) != HEADER_START || end < 0
+                || !JobSpec.isHeader(line.substring(1, end))) {
+            return new JobSpec(line);
+        }
+        String name = null;
+        final List<String> after = new ArrayList<String>();
+        final List<String> inputs = new ArrayList<String>();
+        ResourceLimits limits = ResourceLimits.NONE;
+        long timeoutMillis = 0L;
+        RetryPolicy retryPolicy = RetryPolicy.NONE;
+        JobGroup group = JobGroup.NONE;
+        ResourceHints hints = ResourceHints.NONE;
+        for (String attribute : line.substring(1, end).trim().split("\\s+")) {
+            if (attribute.length() == 0) {
+                continue;
+            }
+            int sep = attribute.indexOf(':');
+            if (sep < 0) {
+                sep = attribute.indexOf('=');
+            }
+            final String key = sep < 0 ? attribute : attribute.substring(0, sep);
+            final String value = sep < 0 ? "" : attribute.substring(sep + 1);
+            if ("id".equals(key)) {
+                name = value;
+            } else if ("after".equals(key)) {
+                JobSpec.addValues(value, after);
+            } else if ("inputs".equals(key)) {
+                JobSpec.addValues(value, inputs);
+            } else if ("timeout".equals(key)) {
+                try {
+                    timeoutMillis = Util.parseDuration(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Wrong timeout " + value + " in: " + line, e);
+                }
+            } else if (ResourceLimits.isLimit(key)) {
+                limits = limits.with(key, value);
+            } else if (RetryPolicy.isRetryAttribute(key)) {
+                retryPolicy = retryPolicy.with(key, value);
+            } else if (JobGroup.isGroupAttribute(key)) {
+                group = group.with(key, value);
+            } else {
+                hints = hints.with(key, value);
+            }
+        }
+        return new JobSpec(line.substring(end + 1).trim(), name, after, inputs, limits, timeoutMillis,
+                retryPolicy, group, hints);
+    }
+
+    /**
+     * Test if the text between brackets is a job header.
+     *
+     * @param header Text between the brackets.
+     * @return true if it has at least one attribute and only known <code>key:value</code> attributes.
+     */
+    private static boolean isHeader(final String header) {
+        final String trimmed = header.trim();
+        if (trimmed.length() == 0) {
+            return false;
+        }
+        for (String attribute : trimmed.split("\\s+")) {
+            int sep = attribute.indexOf(':');
+            if (sep < 0) {
+                sep = attribute.indexOf('=');
+            }
+            if (sep <= 0 || !JobSpec.isAttribute(attribute.substring(0, sep))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test if a name is a job attribute.
+     *
+     * @param key Attribute name.
+     * @return true for a known attribute.
+     */
+    private static boolean isAttribute(final String key) {
+        return "id".equals(key) || "after".equals(key) || "inputs".equals(key) || "timeout".equals(key)
+                || ResourceLimits.isLimit(key) || RetryPolicy.isRetryAttribute(key) || JobGroup.isGroupAttribute(key)
+                || ResourceHints.isHint(key);
+    }
+
+    /**
+     * Add the values of a comma separated list.
+     *
+     * @param value  Comma separated values.
+     * @param values Destination list.
+     */
+    private static void addValues(final String value, final List<String> values) {
+        for (String v : value.split(",")) {
+            if (v.length() > 0) {
+                values.add(v);
+            }
+        }
+    }
+
+    /**
+     * Copy of this job with another command line.
+     *
+     * @param newCommandLine Job command line.
+     * @return Job specification.
+     */
+    JobSpec withCommandLine(final String newCommandLine) {
+        return new JobSpec(newCommandLine, this.name, this.after, this.inputs, this.limits,
+                this.timeoutMillis, this.retryPolicy, this.group, this.hints);
+    }
+
+    String getCommandLine() {
+        return commandLine;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    List<String> getAfter() {
+        return after;
+    }
+
+    List<String> getInputs() {
+        return inputs;
+    }
+
+    ResourceLimits getLimits() {
+        return limits;
+    }
+
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    JobGroup getGroup() {
+        return group;
+    }
+
+    ResourceHints getHints() {
+        return hints;
+    }
+
+    /**
+     * Does this job declare the files it reads.
+     *
+     * @return true if the job has <b>inputs</b>.
+     */
+    boolean hasInputs() {
+        return !inputs.isEmpty();
+    }
+
+    /**
+     * Does this job depend on other jobs.
+     *
+     * @return true if the job has <b>after</b> dependencies.
+     */
+    boolean hasDependencies() {
+        return !after.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? commandLine : name + ":" + commandLine;
+    }
+}
@@ -0,0 +1,91 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with logarithmic buckets split in linear sub-buckets, recorded without lock.
+ * <p>
+ * Like HdrHistogram, each power of two range <code>]2<sup>e</sup>, 2<sup>e+1</sup>]</code> is split in
+ * {@value #SUB_BUCKETS} buckets of the same width, and the bucket of a value is found from its number of leading
+ * zeros and its next {@value #SUB_BUCKET_BITS} bits, without search. The values up to {@value #SUB_BUCKETS} have a
+ * bucket each. The relative error is at most 25%, with {@value #BUCKETS} counters covering all the long values.
+ * Recording is an atomic increment of a counter and an adder, so many workers record at the same time without
+ * contention.
+ * </p>
+ */
+final class LatencyHistogram {
+    /**
+     * Number of bits of a value after its highest bit giving its sub-bucket.
+     */
+    static final int SUB_BUCKET_BITS = 2;
+    /**
+     * Number of buckets of a power of two range.
+     */
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Number of buckets, enough for any positive long.
+     */
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Get the bucket of a value.
+     *
+     * @param value Value, negative values count as 0.
+     * @return Bucket index.
+     */
+    static int bucket(final long value) {
+        // Bounds are inclusive: bucket the value - 1 with exclusive bounds
+        final long v = value <= 1 ? 0L : value - 1;
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(v);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Get the upper bound of a bucket.
+     *
+     * @param bucket Bucket index.
+     * @return Greatest value of the bucket.
+     */
+    static long upperBound(final int bucket) {
+        if (bucket >= BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << shift;
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value Duration, in the unit of the histogram.
+     */
+    void record(final long value) {
+        counts.incrementAndGet(LatencyHistogram.bucket(value));
+        sum.add(Math.max(0L, value));
+    }
+
+    /**
+     * Get the number of values of a bucket.
+     *
+     * @param bucket Bucket index.
+     * @return Number of values.
+     */
+    long getCount(final int bucket) {
+        return counts.get(bucket);
+    }
+
+    long getSum() {
+        return sum.sum();
+    }
+}
@@ -6,7 +6,17 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <b>Shell Task Pool</b>.
@@ -36,6 +46,79 @@ public final class Main {
      * Additional params added to each jobs from command line.
      */
     private static String jobsParam;
+    /**
+     * File of the job events, standard output if null.
+     */
+    private static String eventLogFile;
+    /**
+     * Format of the job events.
+     */
+    private static JobEventLog.Format eventFormat = JobEventLog.Format.PIPE;
+    /**
+     * File of the job durations history, jobs run in file order if null.
+     */
+    private static String historyFile;
+    /**
+     * Directory of the job journals, batches can't be resumed if null.
+     */
+    private static String journalDirectory;
+    /**
+     * Id of the batch to resume, null to start a new batch.
+     */
+    private static String resumeBatchId;
+    /**
+     * Last state of the jobs of the resumed batch by job ordinal, empty for a new batch.
+     */
+    private static Map<Integer, JobJournal.JobState> resumedStates = Collections.emptyMap();
+    /**
+     * Directory of the result cache, jobs always run if null.
+     */
+    private static String cacheDirectory;
+    /**
+     * Maximum size of the result cache in bytes.
+     */
+    private static long cacheMaxSize = ResultCache.DEFAULT_MAX_SIZE;
+    /**
+     * Maximum number of concurrent jobs of the adaptive concurrency, 0 if the concurrency is fixed.
+     */
+    private static int adaptiveMaxWorkers;
+    /**
+     * Resources shared by the running jobs according to their hints, null to count the jobs only.
+     */
+    private static ResourceBudget resourceBudget;
+    /**
+     * The resources used by the jobs are measured.
+     */
+    private static boolean measureResources;
+    /**
+     * Cgroup v2 directory of the job cgroups, the jobs are sampled from /proc if null.
+     */
+    private static String cgroupDirectory;
+    /**
+     * Resource limits of the jobs without their own limits.
+     */
+    private static ResourceLimits defaultLimits = ResourceLimits.NONE;
+    /**
+     * Listening address of the metrics endpoint, <code>port</code> or <code>host:port</code>, no endpoint if null.
+     */
+    private static String metricsAddress;
+    /**
+     * Listening address of the coordinator, <code>port</code> or <code>host:port</code>, jobs run locally if null.
+     */
+    private static String coordinatorAddress;
+    /**
+     * Address of the coordinator whose jobs are run by this agent, <code>host:port</code>, null if not an agent.
+     */
+    private static String agentAddress;
+    /**
+     * Listening address of the daemon, <code>port</code> on the loopback interface or <code>host:port</code>, null if
+     * not a daemon.
+     */
+    private static String daemonAddress;
+    /**
+     * Timeout of the batch in milliseconds, 0 for no timeout.
+     */
+    private static long batchTimeoutMillis;
 
     /**
      * Private constructor.
@@ -52,92 +135,772 @@ public final class Main {
         Batch.getInstance().setParameters(args);
         Main.CmdLineParser clp = new Main.CmdLineParser(args);
         clp.parse();
-        // Populate JOBS_STORE for jobs list.
+        Main.prepareJobEventLog();
+        Main.prepareDurationHistory();
+        Main.prepareJobJournal();
+        Main.prepareResultCache();
+        Main.prepareJobResources();
+        Main.prepareMetrics();
+        if (Main.agentAddress != null) {
+            Main.runAgent();
+            return;
+        }
+        Main.prepareCoordinator();
+        if (Main.daemonAddress != null) {
+            Main.runDaemon();
+            return;
+        }
+        if (Batch.getInstance().isStreaming()) {
+            Main.streamJobsToExecute();
+            return;
+        }
+        // Populate the jobs of the batch for jobs list.
         Main.prepareJobListToExecute();
-        if (Batch.JOBS_STORE.isEmpty()) {
+        final Batch batch = Batch.getInstance();
+        if (batch.getJobs().isEmpty()) {
             LOG.error("No jobs found.");
             Util.printHelpAndExit();
         }
-        MyThreadPoolExecutor mtpe = new MyThreadPoolExecutor(Batch.getInstance().getNumberOfWorkers(),
-                Batch.getInstance().getNumberOfWorkers());
-        for (String cmd : Batch.JOBS_STORE) {
-            mtpe.addTask(new ShellTaskWorker(cmd));
+        MyThreadPoolExecutor mtpe = Main.newExecutor(Integer.MAX_VALUE);
+        if (Main.hasDependencies(batch.getJobs())) {
+            Main.scheduleAndWait(batch, mtpe);
+        } else {
+            Main.submitLongestFirst(batch, mtpe);
+        }
+        Main.shutdownAndWait(mtpe);
+        Main.closeCoordinator();
+        Main.closeDurationHistory();
+        Main.closeJobJournal(batch);
+        Main.closeJobResources();
+        Main.closeJobEventLog();
+        Main.closeMetrics();
+    }
+
+    /**
+     * Test if a job of the resumed batch is already completed.
+     *
+     * @param ordinal     Position of the job in the batch.
+     * @param commandLine Command line of the job.
+     * @return true if the job completed in a previous run of the batch with the same command line.
+     */
+    private static boolean isAlreadyCompleted(final int ordinal, final String commandLine) {
+        final JobJournal.JobState state = Main.resumedStates.get(ordinal);
+        return state != null && state.isCompleted(commandLine);
+    }
+
+    /**
+     * Get the positions of the jobs already completed in the resumed batch.
+     *
+     * @param jobs Jobs of the batch.
+     * @return Ordinals of the completed jobs.
+     */
+    private static Set<Integer> alreadyCompletedJobs(final List<JobSpec> jobs) {
+        final Set<Integer> completed = new HashSet<Integer>();
+        for (int i = 0; i < jobs.size(); ++i) {
+            if (Main.isAlreadyCompleted(i, jobs.get(i).getCommandLine())) {
+                completed.add(i);
+            }
+        }
+        if (Main.resumeBatchId != null) {
+            LOG.info("Resume batch " + Main.resumeBatchId + ": " + completed.size() + " jobs already completed");
+        }
+        return completed;
+    }
+
+    /**
+     * Submit the jobs, the jobs expected to run longer first. Without duration history, jobs are submitted in file
+     * order.
+     *
+     * @param batch Batch.
+     * @param mtpe  Batch executor.
+     */
+    private static void submitLongestFirst(final Batch batch, final MyThreadPoolExecutor mtpe) {
+        final DurationHistory history = batch.getDurationHistory();
+        final List<JobSpec> jobs = batch.getJobs();
+        final Set<Integer> completed = Main.alreadyCompletedJobs(jobs);
+        final List<ShellTaskWorker> workers = new ArrayList<ShellTaskWorker>(jobs.size());
+        for (int i = 0; i < jobs.size(); ++i) {
+            if (completed.contains(i)) {
+                continue;
+            }
+            final JobSpec spec = jobs.get(i);
+            final long expected = history == null ? DurationHistory.UNKNOWN_DURATION
+                    : history.expectedDuration(spec.getCommandLine());
+            workers.add(new ShellTaskWorker(batch, spec, i, expected, null));
+        }
+        // The first jobs go straight to the idle workers, the queue only orders the following ones
+        workers.sort(ShellTaskWorker.HIGHEST_PRIORITY_FIRST);
+        for (ShellTaskWorker worker : workers) {
+            mtpe.addTask(worker);
+        }
+    }
+
+    /**
+     * Test if at least one job depends on other jobs.
+     *
+     * @param specs Jobs of the batch.
+     * @return true if a job has <b>after</b> dependencies.
+     */
+    private static boolean hasDependencies(final Iterable<JobSpec> specs) {
+        for (JobSpec spec : specs) {
+            if (spec.hasDependencies()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Test if a job belongs to a job group.
+     *
+     * @param specs Jobs of the batch.
+     * @return true if a job has a <b>group</b>.
+     */
+    private static boolean hasGroups(final Iterable<JobSpec> specs) {
+        for (JobSpec spec : specs) {
+            if (spec.getGroup().getName() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run the jobs in the order of their dependencies and wait for the last one.
+     *
+     * @param batch Batch.
+     * @param mtpe  Batch executor.
+     */
+    private static void scheduleAndWait(final Batch batch, final MyThreadPoolExecutor mtpe) {
+        DagScheduler scheduler = null;
+        try {
+            scheduler = new DagScheduler(batch, batch.getJobs(), mtpe, Main.alreadyCompletedJobs(batch.getJobs()));
+        } catch (IllegalArgumentException e) {
+            LOG.error(e.getMessage());
+            Util.printHelpAndExit();
+        }
+        scheduler.start();
+        try {
+            scheduler.await();
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted while waiting for the jobs dependencies", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Build the batch executor. In asynchronous mode, <b>corepoolsize</b> limits the number of running processes and
+     * the pool only needs one spawning thread per core. With adaptive concurrency, <b>corepoolsize</b> is the initial
+     * number of concurrent jobs. With a coordinator, the jobs run on the agents and the pool only needs one leasing
+     * thread per core.
+     *
+     * @param queueCapacity Maximum number of pending tasks.
+     * @return Batch executor.
+     */
+    private static MyThreadPoolExecutor newExecutor(final int queueCapacity) {
+        final Batch batch = Batch.getInstance();
+        int poolSize = batch.getNumberOfWorkers();
+        if (batch.getCoordinator() != null) {
+            poolSize = Math.min(poolSize, Util.defaultCorePoolSize());
+        } else if (batch.isAsync()) {
+            batch.setProcessSupervisor(new ProcessSupervisor(poolSize));
+            poolSize = Math.min(poolSize, Util.defaultCorePoolSize());
+        }
+        final MyThreadPoolExecutor mtpe;
+        if (Main.daemonAddress != null) {
+            mtpe = MyThreadPoolExecutor.newDaemonExecutor(batch.getExecutorType(), poolSize, Main.resourceBudget);
+        } else if (!batch.isStreaming() && (Main.resourceBudget != null || Main.hasGroups(batch.getJobs()))) {
+            mtpe = MyThreadPoolExecutor.newFairShareExecutor(batch, poolSize, Main.resourceBudget);
+        } else if (batch.getDurationHistory() != null && !batch.isStreaming()) {
+            mtpe = MyThreadPoolExecutor.newPriorityExecutor(batch, poolSize, poolSize);
+        } else {
+            mtpe = new MyThreadPoolExecutor(batch, poolSize, poolSize, queueCapacity);
+        }
+        batch.setRetryQueue(new RetryQueue(mtpe));
+        if (batch.getMetrics() != null) {
+            batch.getMetrics().setExecutor(mtpe);
+        }
+        if (Main.adaptiveMaxWorkers > 0) {
+            final ProcessSupervisor supervisor = batch.getProcessSupervisor();
+            final ConcurrencyController controller = new ConcurrencyController(supervisor == null
+                    ? ConcurrencyController.executorPool(mtpe) : ConcurrencyController.supervisorPool(supervisor),
+                    1, Math.max(Main.adaptiveMaxWorkers, batch.getNumberOfWorkers()));
+            mtpe.setConcurrencyController(controller);
+            controller.start();
+        }
+        return mtpe;
+    }
+
+    /**
+     * Wait for the end of the jobs, shutdown the executor and wait for the end of the batch. Virtual worker threads
+     * are daemon threads, the JVM would exit before the end of the jobs without waiting.
+     *
+     * @param mtpe Batch executor.
+     */
+    private static void shutdownAndWait(final MyThreadPoolExecutor mtpe) {
+        try {
+            // Failed jobs may be submitted again until their last retry
+            Batch.getInstance().awaitJobs();
+            mtpe.shutdown();
+            while (!mtpe.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.debug("Waiting for the end of the batch");
+            }
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted while waiting for the end of the batch", e);
+            mtpe.shutdown();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Set the job event log of the batch from the <b>eventlog</b> and <b>eventformat</b> parameters.
+     */
+    private static void prepareJobEventLog() {
+        if (Main.eventLogFile == null || Batch.STDIN_JOBS_FILE.equals(Main.eventLogFile)) {
+            Batch.getInstance().setJobEventLog(new JobEventLog(Logger.getLogger("STDOUT"), Main.eventFormat,
+                    JobEventLog.DEFAULT_CAPACITY));
+            return;
+        }
+        try {
+            Batch.getInstance().setJobEventLog(new JobEventLog(new FileOutputStream(Main.eventLogFile, true),
+                    Main.eventFormat, JobEventLog.DEFAULT_CAPACITY));
+        } catch (FileNotFoundException e) {
+            LOG.error("Can't open the event log file " + Main.eventLogFile, e);
+            Util.printHelpAndExit();
+        }
+    }
+
+    /**
+     * Load the job durations history from the <b>history</b> parameter.
+     */
+    private static void prepareDurationHistory() {
+        if (Main.historyFile != null) {
+            try {
+                final DurationHistory history = new DurationHistory(new File(Main.historyFile));
+                LOG.debug("Duration history loaded: " + history.size() + " command lines");
+                Batch.getInstance().setDurationHistory(history);
+            } catch (IOException e) {
+                LOG.error("Can't open the history file " + Main.historyFile, e);
+                Util.printHelpAndExit();
+            }
+        }
+    }
+
+    /**
+     * Write the index of the job durations history updated by the batch.
+     */
+    private static void closeDurationHistory() {
+        final DurationHistory history = Batch.getInstance().getDurationHistory();
+        if (history != null) {
+            history.close();
+        }
+    }
+
+    /**
+     * Open the journal of the batch from the <b>journaldir</b> parameter. When a batch is resumed with the
+     * <b>resume</b> parameter, the last state of its jobs is read and the batch id is reused.
+     */
+    private static void prepareJobJournal() {
+        if (Main.journalDirectory == null) {
+            if (Main.resumeBatchId != null) {
+                LOG.error("The journal directory is needed to resume a batch");
+                Util.printHelpAndExit();
+            }
+            return;
+        }
+        if (Main.daemonAddress != null) {
+            if (Main.resumeBatchId != null) {
+                LOG.error("A batch can't be resumed by the daemon");
+                Util.printHelpAndExit();
+            }
+            // The daemon opens a journal for each batch
+            return;
+        }
+        final File directory = new File(Main.journalDirectory);
+        if (Main.resumeBatchId != null) {
+            final File journalFile = JobJournal.journalFile(directory, Main.resumeBatchId);
+            try {
+                Main.resumedStates = JobJournal.read(journalFile);
+            } catch (IOException e) {
+                LOG.error("Can't read the journal of the batch to resume " + journalFile, e);
+                Util.printHelpAndExit();
+            }
+            Batch.getInstance().setId(Main.resumeBatchId);
+        }
+        try {
+            Batch.getInstance().setJobJournal(new JobJournal(directory, Batch.getInstance().getId()));
+        } catch (IOException e) {
+            LOG.error("Can't open the journal in " + Main.journalDirectory, e);
+            Util.printHelpAndExit();
+        }
+    }
+
+    /**
+     * Open the result cache from the <b>cachedir</b> and <b>cachesize</b> parameters.
+     */
+    private static void prepareResultCache() {
+        if (Main.cacheDirectory != null) {
+            Batch.getInstance().setResultCache(new ResultCache(new File(Main.cacheDirectory), Main.cacheMaxSize));
+        }
+    }
+
+    /**
+     * Start the metrics endpoint from the <b>metrics-port</b> parameter.
+     */
+    private static void prepareMetrics() {
+        if (Main.metricsAddress != null) {
+            try {
+                Batch.getInstance().setMetrics(new Metrics(Batch.getInstance(),
+                        Util.parseSocketAddress(Main.metricsAddress)));
+            } catch (IOException e) {
+                LOG.error("Can't start the metrics endpoint on " + Main.metricsAddress, e);
+                Util.printHelpAndExit();
+            }
+        }
+    }
+
+    /**
+     * Start the coordinator from the <b>coordinator</b> parameter, the jobs are run by its agents.
+     */
+    private static void prepareCoordinator() {
+        if (Main.coordinatorAddress != null) {
+            try {
+                Batch.getInstance().setCoordinator(new Coordinator(Main.localAddress(Main.coordinatorAddress),
+                        AgentProtocol.loadSecret()));
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.error("Can't start the coordinator on " + Main.coordinatorAddress, e);
+                Util.printHelpAndExit();
+            }
+        }
+    }
+
+    /**
+     * Parse a listening address, a port alone is on the loopback interface.
+     *
+     * @param address <code>port</code> or <code>host:port</code>.
+     * @return Socket address.
+     */
+    private static InetSocketAddress localAddress(final String address) {
+        return address.indexOf(':') < 0
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address))
+                : Util.parseSocketAddress(address);
+    }
+
+    /**
+     * Run the batches submitted to the daemon on the <b>daemon</b> address as soon as they are submitted, each in its
+     * own thread, with the same JVM and executor, until the process is stopped. The batches share the workers, see
+     * {@link FairShareQueue}. The daemon is stopped by a shutdown hook, on <code>SIGTERM</code>.
+     */
+    private static void runDaemon() {
+        final String address = Main.daemonAddress;
+        Daemon daemon = null;
+        try {
+            daemon = new Daemon(Main.localAddress(address), AgentProtocol.loadSecret(), Main::buildJobSpec);
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Can't start the daemon on " + address, e);
+            Util.printHelpAndExit();
+        }
+        final MyThreadPoolExecutor mtpe = Main.newExecutor(Integer.MAX_VALUE);
+        final Daemon started = daemon;
+        final Thread shutdownHook = new Thread(() -> Main.stopDaemon(started, mtpe), AppInfo.APP_NAME + "-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        final ThreadFactory batchThreads = ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-batch-", true);
+        try {
+            while (true) {
+                final Daemon.Submission submission = daemon.take();
+                batchThreads.newThread(() -> {
+                    try {
+                        Main.runSubmission(mtpe, submission);
+                    } catch (InterruptedException e) {
+                        LOG.error("Batch " + submission.getId() + " interrupted", e);
+                        Thread.currentThread().interrupt();
+                    }
+                }).start();
+            }
+        } catch (InterruptedException e) {
+            LOG.error("Daemon interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+        // Stopped without the shutdown of the JVM
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        shutdownHook.run();
+    }
+
+    /**
+     * Stop accepting batches, wait for the running jobs and release the resources of the daemon: the duration
+     * history index is written and the batch cgroup removed.
+     *
+     * @param daemon Daemon.
+     * @param mtpe   Daemon executor.
+     */
+    private static void stopDaemon(final Daemon daemon, final MyThreadPoolExecutor mtpe) {
+        LOG.info("Stopping the daemon");
+        daemon.stop();
+        Main.shutdownAndWait(mtpe);
+        Main.closeCoordinator();
+        Main.closeDurationHistory();
+        Main.closeJobResources();
+        Main.closeJobEventLog();
+        Main.closeMetrics();
+    }
+
+    /**
+     * Run a batch submitted to the daemon and wait for its end.
+     *
+     * @param mtpe       Daemon executor.
+     * @param submission Submitted batch.
+     * @throws InterruptedException if interrupted while waiting for the jobs.
+     */
+    private static void runSubmission(final MyThreadPoolExecutor mtpe, final Daemon.Submission submission)
+            throws InterruptedException {
+        final long timeoutMillis = submission.getTimeoutMillis() > 0 ? submission.getTimeoutMillis()
+                : Main.batchTimeoutMillis;
+        final Batch batch = Batch.getInstance().newBatch(submission.getId(), submission.getName(),
+                timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0L);
+        batch.getJobs().addAll(submission.getJobs());
+        if (batch.getLogDirectory() != null) {
+            final File logDirectory = new File(batch.getLogDirectory(), batch.getId());
+            if (logDirectory.isDirectory() || logDirectory.mkdir()) {
+                batch.setLogDirectory(logDirectory.getPath());
+            } else {
+                LOG.warn("Can't create the log directory " + logDirectory + ", job logs written to "
+                        + batch.getLogDirectory());
+            }
+        }
+        if (Main.journalDirectory != null) {
+            try {
+                batch.setJobJournal(new JobJournal(new File(Main.journalDirectory), batch.getId()));
+            } catch (IOException e) {
+                LOG.error("Can't open the journal in " + Main.journalDirectory, e);
+            }
+        }
+        submission.started(batch.getBatchStatus());
+        mtpe.startBatch(batch);
+        try {
+            if (Main.hasDependencies(batch.getJobs())) {
+                Main.scheduleAndWait(batch, mtpe);
+            } else {
+                Main.submitLongestFirst(batch, mtpe);
+            }
+            batch.awaitJobs();
+        } finally {
+            submission.ended(mtpe.endBatch(batch));
+            Main.closeJobJournal(batch);
+            if (batch.getDurationHistory() != null) {
+                // The daemon runs until killed, index the runs of each batch
+                batch.getDurationHistory().save();
+            }
+        }
+    }
+
+    /**
+     * Release the agents once the batch ended.
+     */
+    private static void closeCoordinator() {
+        final Coordinator coordinator = Batch.getInstance().getCoordinator();
+        if (coordinator != null) {
+            coordinator.close();
+        }
+    }
+
+    /**
+     * Run the jobs of the coordinator set by the <b>agent</b> parameter, with <b>corepoolsize</b> workers, until the
+     * coordinator ends its batch.
+     */
+    private static void runAgent() {
+        byte[] secret = null;
+        try {
+            secret = AgentProtocol.loadSecret();
+        } catch (IOException e) {
+            LOG.error("Can't read the shared secret of the coordinator", e);
+            Util.printHelpAndExit();
+        }
+        final MyThreadPoolExecutor mtpe = Main.newExecutor(Integer.MAX_VALUE);
+        try {
+            new Agent(Util.parseSocketAddress(Main.agentAddress), Batch.getInstance(), mtpe,
+                    Batch.getInstance().getNumberOfWorkers(), secret).run();
+        } catch (IOException e) {
+            LOG.error("Can't reach the coordinator on " + Main.agentAddress, e);
+        }
+        Main.shutdownAndWait(mtpe);
+        Main.closeDurationHistory();
+        Main.closeJobJournal(Batch.getInstance());
+        Main.closeJobResources();
+        Main.closeJobEventLog();
+        Main.closeMetrics();
+    }
+
+    private static void closeMetrics() {
+        final Metrics metrics = Batch.getInstance().getMetrics();
+        if (metrics != null) {
+            metrics.stop();
+        }
+    }
+
+    /**
+     * Prepare the resource limits and accounting of the jobs from the <b>cgroup</b> and <b>limits</b> parameters.
+     */
+    private static void prepareJobResources() {
+        if (Main.measureResources) {
+            Batch.getInstance().setJobResources(new JobResources(
+                    Main.cgroupDirectory == null ? null : new File(Main.cgroupDirectory),
+                    Batch.getInstance().getId(), Main.defaultLimits));
+        } else if (!Main.defaultLimits.isNone()) {
+            LOG.warn("Resource limits need a cgroup directory, not applied: " + Main.defaultLimits);
+        }
+    }
+
+    /**
+     * Remove the cgroup of the batch.
+     */
+    private static void closeJobResources() {
+        final JobResources resources = Batch.getInstance().getJobResources();
+        if (resources != null) {
+            resources.close();
+        }
+    }
+
+    /**
+     * Write the last job events and end the writer of the job event log.
+     */
+    private static void closeJobEventLog() {
+        Batch.getInstance().getJobEventLog().close();
+    }
+
+    /**
+     * Write the last job transitions and close the journal of a batch.
+     *
+     * @param batch Batch.
+     */
+    private static void closeJobJournal(final Batch batch) {
+        final JobJournal journal = batch.getJobJournal();
+        if (journal != null) {
+            journal.close();
         }
-        mtpe.shutdown();
     }
 
     private static void prepareJobListToExecute() {
-        if (Main.jobsList != null) {
-            String[] jl = StringUtils.split(Main.jobsList, Batch.JOB_SEPARATOR);
-            for (String s : jl) {
-                Main.addJob(s.trim());
+        Main.prepareJobsListFromCommandLine();
+        if (Batch.getInstance().getJobsFile() != null) {
+            final BufferedReader br = Main.openJobsFile();
+            try {
+                String jobsFileLine;
+                while ((jobsFileLine = br.readLine()) != null) {
+                    // Test if line is not a comment (starting with "#") or not empty
+                    if (Main.isJobLine(jobsFileLine)) {
+                        Main.addJob(jobsFileLine.trim());
+                    }
+                }
+            } catch (IOException e) {
+                LOG.error("Problem with the jobs file : " + Batch.getInstance().getJobsFile(), e);
+            } finally {
+                Main.closeJobsFile(br);
             }
         }
+    }
+
+    /**
+     * Stream jobs to the executor while the jobs file is read.
+     * <p>
+     * Jobs from the command line are stored first, then each line of the jobs file (or stdin) is handed to the
+     * executor as soon as it is read. The executor queue is bounded, so reading blocks while all the workers are
+     * busy and the queue is full: memory stays flat and there is no limit on the number of jobs.
+     * </p>
+     */
+    private static void streamJobsToExecute() {
+        Main.prepareJobsListFromCommandLine();
+        MyThreadPoolExecutor mtpe = Main.newExecutor(
+                Batch.getInstance().getNumberOfWorkers() * MyThreadPoolExecutor.STREAMING_QUEUE_CAPACITY_PER_WORKER);
+        long submittedJobs = 0;
+        long completedJobs = 0;
+        int ordinal = 0;
+        for (JobSpec spec : Batch.getInstance().getJobs()) {
+            if (Main.isAlreadyCompleted(ordinal, spec.getCommandLine())) {
+                ++completedJobs;
+            } else if (Main.isStreamable(spec)) {
+                mtpe.addTask(new ShellTaskWorker(Batch.getInstance(), spec, ordinal, 0L, null));
+                ++submittedJobs;
+            }
+            ++ordinal;
+        }
         if (Batch.getInstance().getJobsFile() != null) {
+            final BufferedReader br = Main.openJobsFile();
             try {
-                BufferedReader br = new BufferedReader(
-                        new InputStreamReader(
-                                new FileInputStream(Batch.getInstance().getJobsFile()), Charset.forName(Main.UTF8_ENCODING)
-                        )
-                );
-                try {
-                    String jobsFileLine;
-                    while ((jobsFileLine = br.readLine()) != null) {
-                        // Test if line is not a comment (starting with "#") or not empty
-                        if ((jobsFileLine.trim().length() > 0)
-                                && !jobsFileLine.trim().startsWith("#")) {
-                            Main.addJob(jobsFileLine.trim());
+                String jobsFileLine;
+                while ((jobsFileLine = br.readLine()) != null) {
+                    if (Main.isJobLine(jobsFileLine)) {
+                        final JobSpec spec = Main.buildJobSpec(jobsFileLine.trim());
+                        if (spec == null) {
+                            continue;
                         }
-                    }
-                } catch (IOException e) {
-                    LOG.error("Problem with the jobs file : " + Batch.getInstance().getJobsFile(), e);
-                } finally {
-                    try {
-                        br.close();
-                    } catch (IOException e) {
-                        LOG.warn("Can't close jobsFile resource", e);
+                        if (Main.isAlreadyCompleted(ordinal, spec.getCommandLine())) {
+                            ++completedJobs;
+                        } else if (Main.isStreamable(spec)) {
+                            mtpe.addTask(new ShellTaskWorker(Batch.getInstance(), spec, ordinal, 0L, null));
+                            ++submittedJobs;
+                        }
+                        ++ordinal;
                     }
                 }
+            } catch (IOException e) {
+                LOG.error("Problem with the jobs file : " + Batch.getInstance().getJobsFile(), e);
+            } finally {
+                Main.closeJobsFile(br);
+            }
+        }
+        if (submittedJobs == 0 && completedJobs == 0) {
+            LOG.error("No jobs found.");
+        }
+        if (Main.resumeBatchId != null) {
+            LOG.info("Resume batch " + Main.resumeBatchId + ": " + completedJobs + " jobs already completed");
+        }
+        LOG.debug("Jobs streamed to the executor: " + submittedJobs);
+        Main.shutdownAndWait(mtpe);
+        Main.closeCoordinator();
+        Main.closeDurationHistory();
+        Main.closeJobJournal(Batch.getInstance());
+        Main.closeJobResources();
+        Main.closeJobEventLog();
+        Main.closeMetrics();
+    }
+
+    /**
+     * Test if the job can be streamed: the jobs it depends on may not be read yet.
+     *
+     * @param spec Job to stream.
+     * @return true if the job has no <b>after</b> dependencies.
+     */
+    private static boolean isStreamable(final JobSpec spec) {
+        if (spec.hasDependencies()) {
+            LOG.error("Job dependencies are not supported in streaming mode, job not run: " + spec);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Store the jobs passed through the <b>jobslist</b> parameter.
+     */
+    private static void prepareJobsListFromCommandLine() {
+        if (Main.jobsList != null) {
+            String[] jl = StringUtils.split(Main.jobsList, Batch.JOB_SEPARATOR);
+            for (String s : jl) {
+                Main.addJob(s.trim());
+            }
+        }
+    }
+
+    /**
+     * Open the jobs file for reading. The standard input is used when the jobs file is <b>-</b>.
+     *
+     * @return Reader of the jobs file.
+     */
+    private static BufferedReader openJobsFile() {
+        final String jobsFile = Batch.getInstance().getJobsFile();
+        InputStream in = null;
+        if (Batch.STDIN_JOBS_FILE.equals(jobsFile)) {
+            in = System.in;
+        } else {
+            try {
+                in = new FileInputStream(jobsFile);
             } catch (FileNotFoundException fne) {
-                LOG.error("jobsFile " + Batch.getInstance().getJobsFile() + " not exists", fne);
+                LOG.error("jobsFile " + jobsFile + " not exists", fne);
                 Util.printHelpAndExit();
             }
         }
+        return new BufferedReader(new InputStreamReader(in, Charset.forName(Main.UTF8_ENCODING)));
+    }
+
+    /**
+     * Close the jobs file reader.
+     *
+     * @param br Reader of the jobs file.
+     */
+    private static void closeJobsFile(final BufferedReader br) {
+        try {
+            br.close();
+        } catch (IOException e) {
+            LOG.warn("Can't close jobsFile resource", e);
+        }
+    }
+
+    /**
+     * Test if the jobs file line is a job: not empty and not a comment (starting with "#").
+     *
+     * @param jobsFileLine Line of the jobs file.
+     * @return true if the line holds a job.
+     */
+    private static boolean isJobLine(final String jobsFileLine) {
+        final String line = jobsFileLine.trim();
+        return line.length() > 0 && !line.startsWith("#");
     }
 
     /**
      * Add job in the list of the jobs <b>Main.allJobs</b>. If jobsParam is set,
      * jobsParam is added to the jobCommandLine.
      *
+     * @param jobLine The job line, with an optional header.
+     */
+    private static void addJob(final String jobLine) {
+        final JobSpec spec = Main.buildJobSpec(jobLine);
+        // Exit the method if jobLine is not valid
+        if (spec == null) {
+            return;
+        }
+        final List<JobSpec> jobs = Batch.getInstance().getJobs();
+        if (jobs.size() < Batch.MAX_JOBS) {
+            jobs.add(spec);
+        } else {
+            LOG.error("Maximum of jobs is " + Batch.MAX_JOBS);
+            LOG.error("Reduce the number of jobs or use the streaming mode");
+            Util.printHelpAndExit();
+        }
+    }
+
+    /**
+     * Parse the job line and build its command line to execute.
+     *
+     * @param jobLine The job line, with an optional header.
+     * @return The job or null if the job line is not valid.
+     */
+    private static JobSpec buildJobSpec(final String jobLine) {
+        final JobSpec spec;
+        try {
+            spec = JobSpec.parse(jobLine);
+        } catch (IllegalArgumentException e) {
+            LOG.error(e.getMessage());
+            return null;
+        }
+        final String jcl = Main.buildJobCommandLine(spec.getCommandLine());
+        return jcl == null ? null : spec.withCommandLine(jcl);
+    }
+
+    /**
+     * Build the job command line to execute. If jobsParam is set, jobsParam is added to the jobCommandLine.
+     *
      * @param jobCommandLine The job command line.
+     * @return The command line to execute or null if the job command line is not valid.
      */
-    private static void addJob(final String jobCommandLine) {
+    private static String buildJobCommandLine(final String jobCommandLine) {
         String jcl = jobCommandLine;
-        // Exit the method if jobCommandLine is empty
         if (jcl.length() == 0) {
             LOG.warn("Can't add empty job");
-            return;
+            return null;
         }
         if (Main.jobsParam != null && Main.jobsParam.length() > 0) {
             // Add global job parameter if <code>jobsParam</code> is not null
             // and <code>jobsParam</code> contains parameter.
             jcl = jcl + " " + Main.jobsParam;
         }
-        if (Batch.JOBS_STORE.size() < Batch.MAX_JOBS) {
-            if (jcl.length() < Batch.MAX_LINE_LENGTH) {
-                Batch.JOBS_STORE.add(jcl);
-            } else {
-                LOG.warn("Length of the jobs command line is too long: \n"
-                        + "           Command line: " + jcl + "\n"
-                        + "    Command line length: " + jcl.length() + "\n"
-                        + "             Maximum is: " + Batch.MAX_LINE_LENGTH
-                        + " !!!");
-            }
-        } else {
-            LOG.error("Maximum of jobs is " + Batch.MAX_JOBS);
-            LOG.error("Reduce the number of jobs");
-            Util.printHelpAndExit();
+        if (jcl.length() >= Batch.MAX_LINE_LENGTH) {
+            LOG.warn("Length of the jobs command line is too long: \n"
+                    + "           Command line: " + jcl + "\n"
+                    + "    Command line length: " + jcl.length() + "\n"
+                    + "             Maximum is: " + Batch.MAX_LINE_LENGTH
+                    + " !!!");
+            return null;
         }
+        return jcl;
     }
 
     private static class CmdLineParser {
@@ -162,19 +925,55 @@ public final class Main {
             String arg;
             final LongOpt[] opts = {
                     new LongOpt("help", LongOpt.NO_ARGUMENT, null, 'h'),
+                    new LongOpt("streaming", LongOpt.NO_ARGUMENT, null, 's'),
+                    new LongOpt("async", LongOpt.NO_ARGUMENT, null, 'a'),
                     new LongOpt("batchname", LongOpt.OPTIONAL_ARGUMENT, null, 'n'),
                     new LongOpt("jobslist", LongOpt.OPTIONAL_ARGUMENT, null, 'j'),
                     new LongOpt("jobsfile", LongOpt.OPTIONAL_ARGUMENT, null, 'f'),
                     new LongOpt("jobsparam", LongOpt.OPTIONAL_ARGUMENT, null, 'p'),
                     new LongOpt("corepoolsize", LongOpt.OPTIONAL_ARGUMENT, null, 'c'),
-                    new LongOpt("jobslogdir", LongOpt.OPTIONAL_ARGUMENT, null, 'l')};
-            Getopt g = new Getopt(AppInfo.APP_NAME, params, "hn::j::f::p::c::l::", opts, false);
+                    new LongOpt("jobslogdir", LongOpt.OPTIONAL_ARGUMENT, null, 'l'),
+                    new LongOpt("capturesize", LongOpt.OPTIONAL_ARGUMENT, null, 'o'),
+                    new LongOpt("executor", LongOpt.OPTIONAL_ARGUMENT, null, 'e'),
+                    new LongOpt("eventlog", LongOpt.OPTIONAL_ARGUMENT, null, 'g'),
+                    new LongOpt("eventformat", LongOpt.OPTIONAL_ARGUMENT, null, 't'),
+                    new LongOpt("history", LongOpt.OPTIONAL_ARGUMENT, null, 'y'),
+                    new LongOpt("journaldir", LongOpt.OPTIONAL_ARGUMENT, null, 'w'),
+                    new LongOpt("resume", LongOpt.OPTIONAL_ARGUMENT, null, 'r'),
+                    new LongOpt("cachedir", LongOpt.OPTIONAL_ARGUMENT, null, 'k'),
+                    new LongOpt("cachesize", LongOpt.OPTIONAL_ARGUMENT, null, 'm'),
+                    new LongOpt("adaptive", LongOpt.OPTIONAL_ARGUMENT, null, 'd'),
+                    new LongOpt("budget", LongOpt.OPTIONAL_ARGUMENT, null, 'B'),
+                    new LongOpt("cgroup", LongOpt.OPTIONAL_ARGUMENT, null, 'u'),
+                    new LongOpt("limits", LongOpt.OPTIONAL_ARGUMENT, null, 'b'),
+                    new LongOpt("timeout", LongOpt.OPTIONAL_ARGUMENT, null, 'x'),
+                    new LongOpt("batchtimeout", LongOpt.OPTIONAL_ARGUMENT, null, 'z'),
+                    new LongOpt("retry", LongOpt.OPTIONAL_ARGUMENT, null, 'i'),
+                    new LongOpt("metrics-port", LongOpt.OPTIONAL_ARGUMENT, null, 'q'),
+                    new LongOpt("phases", LongOpt.NO_ARGUMENT, null, 'v'),
+                    new LongOpt("coordinator", LongOpt.OPTIONAL_ARGUMENT, null, 'C'),
+                    new LongOpt("agent", LongOpt.OPTIONAL_ARGUMENT, null, 'A'),
+                    new LongOpt("daemon", LongOpt.OPTIONAL_ARGUMENT, null, 'D')};
+            Getopt g = new Getopt(AppInfo.APP_NAME, params,
+                    "hsan::j::f::p::c::l::o::e::g::t::y::w::r::k::m::d::u::b::x::z::i::q::vC::A::D::B::", opts, false);
             g.setOpterr(true);
             while ((opt = g.getopt()) != -1) {
                 switch (opt) {
                     case 'h':
                         Util.printHelpAndExit();
                         break;
+                    case 's':
+                        Batch.getInstance().setStreaming(true);
+                        LOG.debug("Param [streaming]: " + Batch.getInstance().isStreaming());
+                        break;
+                    case 'a':
+                        Batch.getInstance().setAsync(true);
+                        LOG.debug("Param [async]: " + Batch.getInstance().isAsync());
+                        break;
+                    case 'v':
+                        Batch.getInstance().setPhaseTimer(new PhaseTimer());
+                        LOG.debug("Param [phases]: true");
+                        break;
                     case 'n':
                         arg = g.getOptarg();
                         Batch.getInstance().setName(arg);
@@ -220,6 +1019,218 @@ public final class Main {
                         }
                         LOG.debug("Param [jobslogdir]: " + Batch.getInstance().getLogDirectory());
                         break;
+                    case 'o':
+                        arg = g.getOptarg();
+                        try {
+                            final int captureSize = Integer.valueOf(arg);
+                            if (captureSize < 0) {
+                                throw new NumberFormatException("Negative capture size");
+                            }
+                            Batch.getInstance().setCaptureSize(captureSize);
+                        } catch (NumberFormatException e) {
+                            LOG.warn("Wrong captureSize set: " + arg);
+                            LOG.warn("Default captureSize set: captureSize=" + Batch.getInstance().getCaptureSize());
+                        }
+                        LOG.debug("Param [capturesize]: " + Batch.getInstance().getCaptureSize());
+                        break;
+                    case 'e':
+                        arg = g.getOptarg();
+                        try {
+                            Batch.getInstance().setExecutorType(ExecutorType.fromName(arg));
+                        } catch (RuntimeException e) {
+                            LOG.error("Unknown executor: " + arg);
+                            Util.printHelpAndExit();
+                        }
+                        LOG.debug("Param [executor]: " + Batch.getInstance().getExecutorType());
+                        break;
+                    case 'g':
+                        arg = g.getOptarg();
+                        Main.eventLogFile = arg;
+                        LOG.debug("Param [eventlog]: " + Main.eventLogFile);
+                        break;
+                    case 't':
+                        arg = g.getOptarg();
+                        try {
+                            Main.eventFormat = JobEventLog.Format.fromName(arg);
+                        } catch (RuntimeException e) {
+                            LOG.error("Unknown event format: " + arg);
+                            Util.printHelpAndExit();
+                        }
+                        LOG.debug("Param [eventformat]: " + Main.eventFormat);
+                        break;
+                    case 'y':
+                        arg = g.getOptarg();
+                        if (arg == null || arg.trim().length() == 0) {
+                            LOG.error("History file is not valid");
+                            Util.printHelpAndExit();
+                        }
+                        Main.historyFile = arg;
+                        LOG.debug("Param [history]: " + Main.historyFile);
+                        break;
+                    case 'w':
+                        arg = g.getOptarg();
+                        if (arg == null || !new File(arg).isDirectory()) {
+                            LOG.error(arg + " is not a directory.");
+                            Util.printHelpAndExit();
+                        }
+                        Main.journalDirectory = arg;
+                        LOG.debug("Param [journaldir]: " + Main.journalDirectory);
+                        break;
+                    case 'r':
+                        arg = g.getOptarg();
+                        if (arg == null || arg.trim().length() == 0) {
+                            LOG.error("Batch id to resume is not valid");
+                            Util.printHelpAndExit();
+                        }
+                        Main.resumeBatchId = arg.trim();
+                        LOG.debug("Param [resume]: " + Main.resumeBatchId);
+                        break;
+                    case 'k':
+                        arg = g.getOptarg();
+                        if (arg == null || !new File(arg).isDirectory()) {
+                            LOG.error(arg + " is not a directory.");
+                            Util.printHelpAndExit();
+                        }
+                        Main.cacheDirectory = arg;
+                        LOG.debug("Param [cachedir]: " + Main.cacheDirectory);
+                        break;
+                    case 'm':
+                        arg = g.getOptarg();
+                        try {
+                            Main.cacheMaxSize = Util.parseByteSize(arg);
+                        } catch (RuntimeException e) {
+                            LOG.warn("Wrong cacheSize set: " + arg);
+                            LOG.warn("Default cacheSize set: cacheSize=" + Main.cacheMaxSize);
+                        }
+                        LOG.debug("Param [cachesize]: " + Main.cacheMaxSize);
+                        break;
+                    case 'd':
+                        arg = g.getOptarg();
+                        Main.adaptiveMaxWorkers = Util.defaultCorePoolSize()
+                                * ConcurrencyController.DEFAULT_MAX_WORKERS_PER_CORE;
+                        if (arg != null) {
+                            try {
+                                final int maxWorkers = Integer.valueOf(arg);
+                                if (maxWorkers < 1) {
+                                    throw new NumberFormatException("Not a positive number of workers");
+                                }
+                                Main.adaptiveMaxWorkers = maxWorkers;
+                            } catch (NumberFormatException e) {
+                                LOG.warn("Wrong adaptive maximum set: " + arg);
+                                LOG.warn("Default adaptive maximum set: adaptive=" + Main.adaptiveMaxWorkers);
+                            }
+                        }
+                        LOG.debug("Param [adaptive]: " + Main.adaptiveMaxWorkers);
+                        break;
+                    case 'B':
+                        arg = g.getOptarg();
+                        try {
+                            Main.resourceBudget = ResourceBudget.parse(arg == null ? "" : arg);
+                        } catch (IllegalArgumentException e) {
+                            LOG.error(e.getMessage());
+                            Util.printHelpAndExit();
+                        }
+                        LOG.debug("Param [budget]: " + Main.resourceBudget);
+                        break;
+                    case 'u':
+                        arg = g.getOptarg();
+                        Main.measureResources = true;
+                        if (arg != null) {
+                            if (!new File(arg).isDirectory()) {
+                                LOG.error(arg + " is not a directory.");
+                                Util.printHelpAndExit();
+                            }
+                            Main.cgroupDirectory = arg;
+                        }
+                        LOG.debug("Param [cgroup]: " + Main.cgroupDirectory);
+                        break;
+                    case 'b':
+                        arg = g.getOptarg();
+                        try {
+                            Main.defaultLimits = ResourceLimits.parse(arg == null ? "" : arg);
+                        } catch (IllegalArgumentException e) {
+                            LOG.error(e.getMessage());
+                            Util.printHelpAndExit();
+                        }
+                        LOG.debug("Param [limits]: " + Main.defaultLimits);
+                        break;
+                    case 'x':
+                        arg = g.getOptarg();
+                        try {
+                            Batch.getInstance().setJobTimeoutMillis(Util.parseDuration(arg));
+                        } catch (RuntimeException e) {
+                            LOG.error("Wrong timeout: " + arg);
+                            Util.printHelpAndExit();
+                        }
+                        LOG.debug("Param [timeout]: " + Batch.getInstance().getJobTimeoutMillis());
+                        break;
+                    case 'z':
+                        arg = g.getOptarg();
+                        try {
+                            Main.batchTimeoutMillis = Util.parseDuration(arg);
+                            if (Main.batchTimeoutMillis > 0) {
+                                Batch.getInstance().setDeadline(System.currentTimeMillis() + Main.batchTimeoutMillis);
+                            }
+                        } catch (RuntimeException e) {
+                            LOG.error("Wrong batch timeout: " + arg);
+                            Util.printHelpAndExit();
+                        }
+                        LOG.debug("Param [batchtimeout]: " + Batch.getInstance().getDeadline());
+                        break;
+                    case 'i':
+                        arg = g.getOptarg();
+                        try {
+                            Batch.getInstance().setRetryPolicy(RetryPolicy.parse(arg == null ? "" : arg));
+                        } catch (IllegalArgumentException e) {
+                            LOG.error(e.getMessage());
+                            Util.printHelpAndExit();
+                        }
+                        LOG.debug("Param [retry]: " + Batch.getInstance().getRetryPolicy());
+                        break;
+                    case 'q':
+                        arg = g.getOptarg();
+                        try {
+                            Util.parseSocketAddress(arg);
+                        } catch (RuntimeException e) {
+                            LOG.error("Wrong metrics port: " + arg);
+                            Util.printHelpAndExit();
+                        }
+                        Main.metricsAddress = arg;
+                        LOG.debug("Param [metrics-port]: " + Main.metricsAddress);
+                        break;
+                    case 'C':
+                        arg = g.getOptarg();
+                        try {
+                            Util.parseSocketAddress(arg);
+                        } catch (RuntimeException e) {
+                            LOG.error("Wrong coordinator address: " + arg);
+                            Util.printHelpAndExit();
+                        }
+                        Main.coordinatorAddress = arg;
+                        LOG.debug("Param [coordinator]: " + Main.coordinatorAddress);
+                        break;
+                    case 'A':
+                        arg = g.getOptarg();
+                        try {
+                            Util.parseSocketAddress(arg);
+                        } catch (RuntimeException e) {
+                            LOG.error("Wrong agent coordinator address: " + arg);
+                            Util.printHelpAndExit();
+                        }
+                        Main.agentAddress = arg;
+                        LOG.debug("Param [agent]: " + Main.agentAddress);
+                        break;
+                    case 'D':
+                        arg = g.getOptarg();
+                        try {
+                            Util.parseSocketAddress(arg);
+                        } catch (RuntimeException e) {
+                            LOG.error("Wrong daemon address: " + arg);
+                            Util.printHelpAndExit();
+                        }
+                        Main.daemonAddress = arg;
+                        LOG.debug("Param [daemon]: " + Main.daemonAddress);
+                        break;
                     default:
                         LOG.error("Unknown parameter : " + Character.toString((char) opt));
                         break;
@@ -0,0 +1,264 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live metrics of the batch, exported in the Prometheus text format on <code>http://&lt;host&gt;:&lt;port&gt;/metrics
+ * </code>.
+ * <p>
+ * Pool counters are read when the endpoint is scraped. Job counters, durations and process spawn latencies are
+ * recorded by the jobs of all the batches, the batches of the daemon included: counters in striped adders and latencies
+ * in {@link LatencyHistogram} histograms, without lock. Requests are served by a single daemon thread.
+ * </p>
+ */
+final class Metrics {
+    private static final Logger LOG = Logger.getLogger(Metrics.class);
+
+    /**
+     * Prefix of the metric names.
+     */
+    static final String PREFIX = "shell_task_pool_";
+    /**
+     * Path of the metrics.
+     */
+    static final String PATH = "/metrics";
+    /**
+     * Content type of the Prometheus text format.
+     */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    /**
+     * Greatest bucket of the job durations exported, ending at 2^22 ms (about 70 minutes).
+     */
+    private static final int JOB_DURATION_BUCKETS = LatencyHistogram.bucket(1L << 22);
+    /**
+     * Greatest bucket of the spawn latencies exported, ending at 2^20 us (about 1 second).
+     */
+    private static final int SPAWN_LATENCY_BUCKETS = LatencyHistogram.bucket(1L << 20);
+
+    /**
+     * Job durations in milliseconds.
+     */
+    private final LatencyHistogram jobDurations = new LatencyHistogram();
+    /**
+     * Process spawn latencies in microseconds.
+     */
+    private final LatencyHistogram spawnLatencies = new LatencyHistogram();
+    private final LongAdder jobsStarted = new LongAdder();
+    /**
+     * Ended jobs by status.
+     */
+    private final LongAdder[] jobsEnded = new LongAdder[JobExecution.JobStatus.values().length];
+    private final LongAdder outputBytes = new LongAdder();
+    /**
+     * Batch of the process: the batch run, or the daemon or agent batch.
+     */
+    private final Batch batch;
+    private final HttpServer server;
+    private final ExecutorService serverExecutor;
+    private volatile MyThreadPoolExecutor executor;
+
+    /**
+     * Metrics constructor, the HTTP server is started.
+     *
+     * @param batch   Batch of the process, exported with its status and its process slots.
+     * @param address Listening address of the HTTP server, port 0 for any free port.
+     * @throws IOException if the HTTP server can't listen on the address.
+     */
+    Metrics(final Batch batch, final InetSocketAddress address) throws IOException {
+        this.batch = batch;
+        for (int i = 0; i < jobsEnded.length; ++i) {
+            jobsEnded[i] = new LongAdder();
+        }
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext(PATH, this::handle);
+        this.serverExecutor = Executors.newSingleThreadExecutor(
+                ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-metrics-", true));
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+        LOG.info("Metrics on http://" + address.getHostString() + ":" + this.getPort() + PATH);
+    }
+
+    /**
+     * Get the port of the HTTP server.
+     *
+     * @return Listening port.
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Set the batch executor whose pool is exported.
+     *
+     * @param executor Batch executor.
+     */
+    void setExecutor(final MyThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Record the creation of a job.
+     */
+    void recordJobStarted() {
+        jobsStarted.increment();
+    }
+
+    /**
+     * Record the end of a job run.
+     *
+     * @param status      Status of the run, the RETRIED runs are not exported as ended jobs.
+     * @param outputBytes Number of bytes written by the run.
+     */
+    void recordJobEnded(final JobExecution.JobStatus status, final long outputBytes) {
+        jobsEnded[status.ordinal()].increment();
+        if (outputBytes > 0) {
+            this.outputBytes.add(outputBytes);
+        }
+    }
+
+    /**
+     * Record the duration of a job run.
+     *
+     * @param millis Duration in milliseconds.
+     */
+    void recordJobDuration(final long millis) {
+        jobDurations.record(millis);
+    }
+
+    /**
+     * Record the time taken to spawn a job process.
+     *
+     * @param nanos Latency in nanoseconds.
+     */
+    void recordSpawnLatency(final long nanos) {
+        spawnLatencies.record(nanos / 1000L);
+    }
+
+    /**
+     * Stop the HTTP server.
+     */
+    void stop() {
+        server.stop(0);
+        serverExecutor.shutdown();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final byte[] body = this.render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Render the metrics in the Prometheus text format.
+     *
+     * @return Metrics.
+     */
+    String render() {
+        final StringBuilder sb = new StringBuilder(4096);
+        final Batch batch = this.batch;
+        sb.append("# TYPE ").append(PREFIX).append("batch_info gauge\n");
+        sb.append(PREFIX).append("batch_info{id=\"");
+        Metrics.appendLabelValue(sb, batch.getId());
+        sb.append("\",name=\"");
+        Metrics.appendLabelValue(sb, String.valueOf(batch.getName()));
+        sb.append("\",status=\"").append(batch.getBatchStatus().getStatus()).append("\"} 1\n");
+        final MyThreadPoolExecutor mtpe = this.executor;
+        if (mtpe != null) {
+            Metrics.appendSample(sb, "workers", "gauge", mtpe.getMaximumPoolSize());
+            Metrics.appendSample(sb, "workers_active", "gauge", mtpe.getActiveCount());
+            Metrics.appendSample(sb, "queue_depth", "gauge", mtpe.getQueue().size());
+            Metrics.appendSample(sb, "tasks_completed_total", "counter", mtpe.getCompletedTaskCount());
+        }
+        final ProcessSupervisor supervisor = batch.getProcessSupervisor();
+        if (supervisor != null) {
+            Metrics.appendSample(sb, "processes_max", "gauge", supervisor.getMaxProcesses());
+            Metrics.appendSample(sb, "processes_running", "gauge", supervisor.getRunningProcesses());
+        }
+        Metrics.appendSample(sb, "jobs_started_total", "counter", jobsStarted.sum());
+        sb.append("# TYPE ").append(PREFIX).append("jobs_ended_total counter\n");
+        Metrics.appendJobsEnded(sb, "completed", this.getJobsEnded(JobExecution.JobStatus.COMPLETED));
+        Metrics.appendJobsEnded(sb, "failed", this.getJobsEnded(JobExecution.JobStatus.FAILED));
+        Metrics.appendJobsEnded(sb, "skipped", this.getJobsEnded(JobExecution.JobStatus.SKIPPED));
+        Metrics.appendJobsEnded(sb, "timed_out", this.getJobsEnded(JobExecution.JobStatus.TIMED_OUT));
+        Metrics.appendSample(sb, "output_bytes_total", "counter", outputBytes.sum());
+        Metrics.appendHistogram(sb, "job_duration_seconds", jobDurations, JOB_DURATION_BUCKETS, 1e3);
+        Metrics.appendHistogram(sb, "spawn_latency_seconds", spawnLatencies, SPAWN_LATENCY_BUCKETS, 1e6);
+        return sb.toString();
+    }
+
+    private long getJobsEnded(final JobExecution.JobStatus status) {
+        return jobsEnded[status.ordinal()].sum();
+    }
+
+    private static void appendSample(final StringBuilder sb, final String name, final String type, final long value) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        sb.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendJobsEnded(final StringBuilder sb, final String status, final long value) {
+        sb.append(PREFIX).append("jobs_ended_total{status=\"").append(status).append("\"} ").append(value)
+                .append('\n');
+    }
+
+    /**
+     * Append a histogram, with the bounds of the buckets up to <code>maxBucket</code>.
+     *
+     * @param sb        Destination.
+     * @param name      Metric name.
+     * @param histogram Recorded values.
+     * @param maxBucket Greatest bucket exported, the greater values only count in the +Inf bucket.
+     * @param perSecond Number of histogram units in a second.
+     */
+    private static void appendHistogram(final StringBuilder sb, final String name, final LatencyHistogram histogram,
+                                        final int maxBucket, final double perSecond) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" histogram\n");
+        long cumulative = 0L;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; ++i) {
+            cumulative += histogram.getCount(i);
+            if (i <= maxBucket) {
+                sb.append(PREFIX).append(name).append("_bucket{le=\"")
+                        .append(LatencyHistogram.upperBound(i) / perSecond).append("\"} ").append(cumulative)
+                        .append('\n');
+            }
+        }
+        sb.append(PREFIX).append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        sb.append(PREFIX).append(name).append("_sum ").append(histogram.getSum() / perSecond).append('\n');
+        sb.append(PREFIX).append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    /**
+     * Append a label value, escaping backslashes, quotes and new lines.
+     *
+     * @param sb    Destination.
+     * @param value Label value.
+     */
+    static void appendLabelValue(final StringBuilder sb, final String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+}
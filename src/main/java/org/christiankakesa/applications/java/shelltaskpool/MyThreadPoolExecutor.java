@@ -4,7 +4,11 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import java.util.Calendar;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -14,61 +18,265 @@ import java.util.concurrent.TimeUnit;
 class MyThreadPoolExecutor extends ThreadPoolExecutor {
     private static final Logger LOG = Logger.getLogger(MyThreadPoolExecutor.class);
 
-    public MyThreadPoolExecutor(int poolSize, int maxPoolSize) {
-        super(poolSize, maxPoolSize, 0L, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>(Integer.MAX_VALUE));
-        this.myInit();
+    /**
+     * Number of pending tasks per worker allowed in the queue when jobs are streamed.
+     */
+    static final int STREAMING_QUEUE_CAPACITY_PER_WORKER = 4;
+
+    /**
+     * Name prefix of the worker threads.
+     */
+    private static final String WORKER_THREAD_PREFIX = AppInfo.APP_NAME + "-worker-";
+
+    /**
+     * Controller of the number of concurrent jobs, null if the concurrency is fixed.
+     */
+    private volatile ConcurrencyController concurrencyController;
+    /**
+     * Batch started by the executor and ended when it terminates, null for the executor of the daemon shared by the
+     * batches.
+     */
+    private final Batch batch;
+
+    /**
+     * Build an executor with an unbounded queue.
+     *
+     * @param batch       Batch started by the executor and ended when it terminates.
+     * @param poolSize    Core pool size.
+     * @param maxPoolSize Maximum pool size.
+     */
+    public MyThreadPoolExecutor(Batch batch, int poolSize, int maxPoolSize) {
+        this(batch, poolSize, maxPoolSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Build an executor with a bounded queue. When the queue is full, <code>addTask</code> blocks until a worker
+     * takes a pending task. Worker threads are platform or virtual threads according to the batch executor type.
+     *
+     * @param batch         Batch started by the executor and ended when it terminates.
+     * @param poolSize      Core pool size.
+     * @param maxPoolSize   Maximum pool size.
+     * @param queueCapacity Maximum number of pending tasks.
+     */
+    public MyThreadPoolExecutor(Batch batch, int poolSize, int maxPoolSize, int queueCapacity) {
+        this(poolSize, maxPoolSize, new LinkedBlockingQueue<Runnable>(queueCapacity), batch.getExecutorType(), batch);
+    }
+
+    /**
+     * Build an executor running the pending tasks in priority order, {@link ShellTaskWorker} tasks only.
+     *
+     * @param batch       Batch started by the executor and ended when it terminates.
+     * @param poolSize    Core pool size.
+     * @param maxPoolSize Maximum pool size.
+     * @return Priority executor.
+     */
+    static MyThreadPoolExecutor newPriorityExecutor(Batch batch, int poolSize, int maxPoolSize) {
+        return new MyThreadPoolExecutor(poolSize, maxPoolSize,
+                new PriorityBlockingQueue<Runnable>(Batch.MAX_JOBS, ShellTaskWorker.HIGHEST_PRIORITY_FIRST),
+                batch.getExecutorType(), batch);
+    }
+
+    /**
+     * Build an executor sharing the workers between the job groups, see {@link FairShareQueue}; {@link ShellTaskWorker}
+     * tasks only.
+     *
+     * @param batch    Batch started by the executor and ended when it terminates.
+     * @param poolSize Core and maximum pool size.
+     * @param budget   Resources shared by the running jobs, null to count the jobs only.
+     * @return Fair share executor.
+     */
+    static MyThreadPoolExecutor newFairShareExecutor(Batch batch, int poolSize, ResourceBudget budget) {
+        return MyThreadPoolExecutor.prestarted(new MyThreadPoolExecutor(poolSize, poolSize,
+                new FairShareQueue(budget), batch.getExecutorType(), batch));
+    }
+
+    /**
+     * Build the executor of the daemon, shared by the batches run at the same time: batches are started and ended
+     * with {@link #startBatch(Batch)} and {@link #endBatch(Batch)}. The batches and job groups take turns on the
+     * workers, see {@link FairShareQueue}; {@link ShellTaskWorker} tasks only.
+     *
+     * @param executorType Type of the worker threads.
+     * @param poolSize     Core and maximum pool size.
+     * @param budget       Resources shared by the running jobs, null to count the jobs only.
+     * @return Daemon executor.
+     */
+    static MyThreadPoolExecutor newDaemonExecutor(ExecutorType executorType, int poolSize, ResourceBudget budget) {
+        return MyThreadPoolExecutor.prestarted(new MyThreadPoolExecutor(poolSize, poolSize,
+                new FairShareQueue(budget), executorType, null));
+    }
+
+    /**
+     * Start the core workers, so that the tasks go through the queue instead of being handed to new workers.
+     *
+     * @param executor Executor.
+     * @return The executor.
+     */
+    private static MyThreadPoolExecutor prestarted(final MyThreadPoolExecutor executor) {
+        executor.prestartAllCoreThreads();
+        return executor;
+    }
+
+    private MyThreadPoolExecutor(int poolSize, int maxPoolSize, BlockingQueue<Runnable> queue,
+                                 ExecutorType executorType, Batch batch) {
+        super(poolSize, maxPoolSize, 0L, TimeUnit.SECONDS, queue,
+                executorType.threadFactory(WORKER_THREAD_PREFIX, false), new BlockingSubmitPolicy());
+        this.batch = batch;
+        if (batch != null) {
+            this.startBatch(batch);
+        }
     }
-    
+
     /**
-     * Global initialization.
+     * Start a batch: set its start date and log the batch:start record.
+     *
+     * @param batch Batch.
      */
-    private void myInit() {
-        Batch.getInstance().getBatchStatus().setStatus(Batch.Status.STARTED);
-        Batch.getInstance().setStartDate(Calendar.getInstance().getTime());
+    void startBatch(final Batch batch) {
+        batch.getBatchStatus().setStatus(Batch.Status.STARTED);
+        batch.setStartDate(Calendar.getInstance().getTime());
         // We need synchronized here because "+" operator is not thread safe
         synchronized (MyThreadPoolExecutor.class) {
-            Logger.getLogger("STDOUT").log(Level.INFO, "batch:start|id:" + Batch.getInstance().getId()
-                    + "|name:" + Batch.getInstance().getName()
-                    + "|parameters:" + Batch.getInstance().getStringParameters()
-                    + "|workers:" + Batch.getInstance().getNumberOfWorkers()
-                    + "|number_of_jobs:" + Batch.JOBS_STORE.size()
-                    + "|jobs_file:" + Batch.getInstance().getJobsFile()
-                    + "|log_dir:" + Batch.getInstance().getLogDirectory()
-                    + "|start_date:" + Batch.getInstance().getStartDate().getTime()
-                    + "|status:" + Batch.getInstance().getBatchStatus().getStatus());
+            Logger.getLogger("STDOUT").log(Level.INFO, "batch:start|id:" + batch.getId()
+                    + "|name:" + batch.getName()
+                    + "|parameters:" + batch.getStringParameters()
+                    + "|workers:" + batch.getNumberOfWorkers()
+                    + "|executor:" + batch.getExecutorType()
+                    + "|number_of_jobs:" + (batch.isStreaming() ? -1 : batch.getJobs().size())
+                    + "|jobs_file:" + batch.getJobsFile()
+                    + "|log_dir:" + batch.getLogDirectory()
+                    + "|start_date:" + batch.getStartDate().getTime()
+                    + "|status:" + batch.getBatchStatus().getStatus());
         }
     }
 
+    /**
+     * Set the controller of the number of concurrent jobs, stopped when the executor terminates.
+     *
+     * @param concurrencyController Started controller.
+     */
+    void setConcurrencyController(ConcurrencyController concurrencyController) {
+        this.concurrencyController = concurrencyController;
+    }
+
     public void addTask(Runnable r) {
-        super.execute(r);
+        final ShellTaskWorker worker = r instanceof ShellTaskWorker ? (ShellTaskWorker) r : null;
+        if (worker != null && worker.getBatch().getPhaseTimer() != null) {
+            worker.submitted(System.nanoTime());
+        }
+        final boolean newJob = worker != null && !worker.isRetry();
+        if (newJob) {
+            worker.setInFlight(true);
+            worker.getBatch().jobSubmitted();
+        }
+        try {
+            super.execute(r);
+        } catch (RejectedExecutionException e) {
+            if (newJob) {
+                worker.setInFlight(false);
+                worker.getBatch().jobEnded();
+            }
+            throw e;
+        }
         LOG.debug("Task " + r.toString() + " added");
     }
 
     @Override
     public void terminated() {
-        Batch.getInstance().setEndDate(Calendar.getInstance().getTime());
-        Batch.getInstance().getBatchStatus().doEndStatus();
+        if (concurrencyController != null) {
+            concurrencyController.stop();
+        }
+        if (batch != null) {
+            this.endBatch(batch);
+        }
+        super.terminated();
+    }
+
+    /**
+     * End a batch once its jobs ended: set its end status and log the batch:end record.
+     *
+     * @param batch Batch.
+     * @return The batch:end record.
+     */
+    String endBatch(final Batch batch) {
+        final ProcessSupervisor supervisor = batch.getProcessSupervisor();
+        if (supervisor != null && batch == this.batch) {
+            // Workers only spawned the processes, wait for the asynchronous completions
+            supervisor.awaitAll();
+        }
+        // All the job events are written before the end of the batch
+        batch.getJobEventLog().flush();
+        batch.setEndDate(Calendar.getInstance().getTime());
+        batch.getBatchStatus().doEndStatus();
+        final PhaseTimer timer = batch.getPhaseTimer();
+        final String end;
         // We need synchronized here because "+" operator is not thread safe
         synchronized (MyThreadPoolExecutor.class) {
-            Logger.getLogger("STDOUT").log(Level.INFO, "batch:end|id:" + Batch.getInstance().getId()
-                    + "|name:" + Batch.getInstance().getName()
-                    + "|start_date:" + Batch.getInstance().getStartDate().getTime()
-                    + "|end_date:" + Batch.getInstance().getEndDate().getTime()
-                    + "|duration:" + Util.buildDurationFromDates(Batch.getInstance().getStartDate(),
-                    Batch.getInstance().getEndDate())
-                    + "|status:" + Batch.getInstance().getBatchStatus().getStatus());
+            if (timer != null) {
+                final StringBuilder phases = new StringBuilder("batch:phases|id:").append(batch.getId());
+                timer.appendPercentiles(phases);
+                Logger.getLogger("STDOUT").log(Level.INFO, phases.toString());
+            }
+            end = "batch:end|id:" + batch.getId()
+                    + "|name:" + batch.getName()
+                    + "|start_date:" + batch.getStartDate().getTime()
+                    + "|end_date:" + batch.getEndDate().getTime()
+                    + "|duration:" + Util.buildDurationFromDates(batch.getStartDate(),
+                    batch.getEndDate())
+                    + "|number_of_jobs:" + batch.getBatchStatus().getEndedJob()
+                    + "|output_bytes:" + batch.getBatchStatus().getOutputBytes()
+                    + "|cache_hits:" + batch.getBatchStatus().getCacheHits()
+                    + "|cache_misses:" + batch.getBatchStatus().getCacheMisses()
+                    + "|status:" + batch.getBatchStatus().getStatus();
+            Logger.getLogger("STDOUT").log(Level.INFO, end);
         }
-        super.terminated();
+        return end;
     }
 
     @Override
     protected void beforeExecute(Thread t, Runnable r) {
         super.beforeExecute(t, r);
+        final ShellTaskWorker worker = r instanceof ShellTaskWorker ? (ShellTaskWorker) r : null;
+        final Batch b = worker != null ? worker.getBatch() : this.batch;
+        if (b == null) {
+            return;
+        }
+        if (worker != null && b.getPhaseTimer() != null) {
+            worker.started(System.nanoTime());
+        }
+        if (worker != null && !worker.hasRunListener() && this.getQueue() instanceof FairShareQueue) {
+            // Handed to a new worker thread when the pool grew, the job still counts in its group
+            ((FairShareQueue) this.getQueue()).started(worker);
+        }
         // Ensure that Batch state is set to Batch.RUNNING
-        if (Batch.getInstance().getBatchStatus().getStatus() != Batch.Status.RUNNING) {
-            Batch.getInstance().getBatchStatus().setStatus(Batch.Status.RUNNING);
+        if (b.getBatchStatus().getStatus() != Batch.Status.RUNNING) {
+            b.getBatchStatus().setStatus(Batch.Status.RUNNING);
         }
     }
 
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        final PhaseTimer timer = r instanceof ShellTaskWorker ? ((ShellTaskWorker) r).getBatch().getPhaseTimer()
+                : null;
+        if (timer != null && r instanceof ShellTaskWorker && ((ShellTaskWorker) r).getStartNanos() != 0) {
+            timer.record(PhaseTimer.Phase.WORKER, System.nanoTime() - ((ShellTaskWorker) r).getStartNanos());
+        }
+        super.afterExecute(r, t);
+    }
+
+    /**
+     * Rejection policy waiting for room in the queue instead of rejecting the task.
+     */
+    private static class BlockingSubmitPolicy implements RejectedExecutionHandler {
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Task " + r.toString() + " rejected, executor is shut down");
+            }
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while adding task " + r.toString(), e);
+            }
+        }
+    }
 }
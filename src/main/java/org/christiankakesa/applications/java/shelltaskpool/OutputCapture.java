@@ -0,0 +1,133 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Bounded capture of a job output.
+ * <p>
+ * The first <code>size</code> bytes are kept in a head buffer and the last <code>size</code> bytes in a tail ring
+ * buffer, whatever the amount of bytes written. An instance is reset and reused for each job of a worker.
+ * </p>
+ */
+final class OutputCapture implements WritableByteChannel {
+    /**
+     * First bytes written.
+     */
+    private final byte[] head;
+    /**
+     * Ring buffer of the last bytes written.
+     */
+    private final byte[] tail;
+    /**
+     * Number of bytes stored in head.
+     */
+    private int headCount;
+    /**
+     * Next write position in tail.
+     */
+    private int tailPosition;
+    /**
+     * Number of bytes stored in tail.
+     */
+    private int tailCount;
+    /**
+     * Total number of bytes written.
+     */
+    private long totalBytes;
+
+    /**
+     * OutputCapture constructor.
+     *
+     * @param size Number of bytes kept at the beginning and at the end of the output.
+     */
+    OutputCapture(final int size) {
+        this.head = new byte[size];
+        this.tail = new byte[size];
+    }
+
+    /**
+     * Get the number of bytes kept at the beginning and at the end of the output.
+     *
+     * @return Capture size.
+     */
+    int getSize() {
+        return this.head.length;
+    }
+
+    /**
+     * Get the total number of bytes written since the last reset.
+     *
+     * @return Total number of bytes written.
+     */
+    long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    /**
+     * Forget the captured bytes.
+     */
+    void reset() {
+        this.headCount = 0;
+        this.tailPosition = 0;
+        this.tailCount = 0;
+        this.totalBytes = 0;
+    }
+
+    public int write(final ByteBuffer src) {
+        final int written = src.remaining();
+        int n = written;
+        final int h = Math.min(n, this.head.length - this.headCount);
+        src.get(this.head, this.headCount, h);
+        this.headCount += h;
+        n -= h;
+        if (n > this.tail.length) {
+            // Only the last bytes fit in the tail
+            src.position(src.position() + n - this.tail.length);
+            n = this.tail.length;
+        }
+        while (n > 0) {
+            final int chunk = Math.min(n, this.tail.length - this.tailPosition);
+            src.get(this.tail, this.tailPosition, chunk);
+            this.tailPosition = (this.tailPosition + chunk) % this.tail.length;
+            this.tailCount = Math.min(this.tailCount + chunk, this.tail.length);
+            n -= chunk;
+        }
+        this.totalBytes += written;
+        return written;
+    }
+
+    public boolean isOpen() {
+        return true;
+    }
+
+    public void close() {
+        // Nothing to release, the buffers are reused.
+    }
+
+    /**
+     * String representation of the captured bytes. Skipped bytes between head and tail are reported.
+     *
+     * @param charsetName Charset of the output.
+     * @return Captured output.
+     * @throws UnsupportedEncodingException if the charset is not supported.
+     */
+    String toString(final String charsetName) throws UnsupportedEncodingException {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(new String(this.head, 0, this.headCount, charsetName));
+        final long skipped = this.totalBytes - this.headCount - this.tailCount;
+        if (skipped > 0) {
+            sb.append("[... ").append(skipped).append(" bytes skipped ...]");
+        }
+        if (this.tailCount > 0) {
+            final byte[] ordered = new byte[this.tailCount];
+            final int start = (this.tailPosition - this.tailCount + this.tail.length) % this.tail.length;
+            final int firstPart = Math.min(this.tailCount, this.tail.length - start);
+            System.arraycopy(this.tail, start, ordered, 0, firstPart);
+            System.arraycopy(this.tail, 0, ordered, firstPart, this.tailCount - firstPart);
+            sb.append(new String(ordered, charsetName));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,108 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Copy process output streams to channels.
+ * <p>
+ * Bytes are copied as is, without charset decoding, through a direct byte buffer reused by each thread.
+ * Asynchronous pumps run in the pump threads of the batch (see {@link #newPumps(ExecutorType)}), so stdout and stderr
+ * of a process are drained at the same time and the process never blocks on a full pipe.
+ * </p>
+ */
+final class OutputPump {
+    /**
+     * Size of the pump buffer.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Pump buffer of the current thread.
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Private constructor.
+     */
+    private OutputPump() {
+    }
+
+    /**
+     * Build the pool of daemon threads running the asynchronous pumps.
+     *
+     * @param executorType Kind of the pump threads.
+     * @return Pump threads.
+     */
+    static ExecutorService newPumps(final ExecutorType executorType) {
+        return Executors.newCachedThreadPool(executorType.threadFactory(AppInfo.APP_NAME + "-pump-", true));
+    }
+
+    /**
+     * Copy the input stream to all the sinks until the end of the stream. The input stream is closed.
+     *
+     * @param in    Stream to drain.
+     * @param sinks Channels receiving the bytes, null sinks are ignored.
+     * @return Number of bytes read.
+     * @throws IOException if the stream can't be read or a sink can't be written.
+     */
+    static long pump(final InputStream in, final WritableByteChannel... sinks) throws IOException {
+        final ReadableByteChannel source = Channels.newChannel(in);
+        final ByteBuffer buffer = BUFFER.get();
+        long total = 0;
+        try {
+            buffer.clear();
+            int read;
+            while ((read = source.read(buffer)) != -1) {
+                total += read;
+                buffer.flip();
+                for (WritableByteChannel sink : sinks) {
+                    if (sink != null) {
+                        buffer.rewind();
+                        while (buffer.hasRemaining()) {
+                            sink.write(buffer);
+                        }
+                    }
+                }
+                buffer.clear();
+            }
+        } finally {
+            buffer.clear();
+            source.close();
+        }
+        return total;
+    }
+
+    /**
+     * Copy the input stream to all the sinks in a pump thread.
+     *
+     * @param pumps Pump threads.
+     * @param in    Stream to drain.
+     * @param sinks Channels receiving the bytes, null sinks are ignored.
+     * @return Future number of bytes read.
+     */
+    static CompletableFuture<Long> pumpAsync(final Executor pumps, final InputStream in,
+                                             final WritableByteChannel... sinks) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return OutputPump.pump(in, sinks);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, pumps);
+    }
+}
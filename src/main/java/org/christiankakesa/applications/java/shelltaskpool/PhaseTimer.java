@@ -0,0 +1,215 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Latency breakdown of the jobs by phase.
+ * <p>
+ * Each thread records the phase durations in its own preallocated buffer of log-linear buckets (16 sub-buckets per
+ * power of two, like HdrHistogram), without lock nor allocation. Buckets count microseconds, the unit of the logs,
+ * up to 2<sup>{@value #HIGHEST_BITS}</sup> (19 hours), so a buffer holds about 30 KB. Buffers are merged when the
+ * batch ends to compute the percentiles of each phase, with a relative error below 1/16, then released.
+ * </p>
+ */
+final class PhaseTimer {
+    /**
+     * Phases of a job.
+     * <ul>
+     * <li><b>QUEUE</b>: from the submission of the job to the executor to the start of its worker.</li>
+     * <li><b>SPAWN</b>: <code>ProcessBuilder.start()</code> (fork/exec).</li>
+     * <li><b>RUN</b>: from the spawn to the end of the process output, to the process exit in asynchronous mode.</li>
+     * <li><b>EXIT</b>: from the end of the process output to the process exit, not measured in asynchronous mode.</li>
+     * <li><b>COMPLETE</b>: job status, history and journal updates.</li>
+     * <li><b>PUBLISH</b>: publication of the job event, only in the batch percentiles.</li>
+     * <li><b>WORKER</b>: time the job holds its worker, only in the batch percentiles.</li>
+     * </ul>
+     */
+    enum Phase {
+        QUEUE, SPAWN, RUN, EXIT, COMPLETE, PUBLISH, WORKER;
+
+        /**
+         * Phases logged for each job.
+         */
+        static final Phase[] JOB_PHASES = {QUEUE, SPAWN, RUN, EXIT, COMPLETE};
+
+        /**
+         * Name of the phase in the logs.
+         *
+         * @return Lower case name.
+         */
+        String label() {
+            return this.name().toLowerCase();
+        }
+    }
+
+    /**
+     * Phase percentiles logged at the end of the batch.
+     */
+    static final double[] PERCENTILES = {50.0, 90.0, 99.0};
+
+    /**
+     * Bits of the sub-buckets of a power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Bits of the greatest value with its own bucket, greater values share the last bucket.
+     */
+    static final int HIGHEST_BITS = 36;
+    /**
+     * Number of buckets, up to 2^HIGHEST_BITS and the last one above.
+     */
+    static final int BUCKETS = (HIGHEST_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + 1;
+
+    /**
+     * Phase durations recorded by a thread, only written by this thread. The counts are dropped on release, the
+     * thread locals of the workers then only keep the empty buffer.
+     */
+    private static final class Buffer {
+        private volatile long[][] counts = new long[Phase.values().length][BUCKETS];
+        private final long[] max = new long[Phase.values().length];
+    }
+
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(this::newBuffer);
+    private final Queue<Buffer> allBuffers = new ConcurrentLinkedQueue<Buffer>();
+    private volatile boolean released;
+
+    private Buffer newBuffer() {
+        final Buffer buffer = new Buffer();
+        allBuffers.add(buffer);
+        if (released) {
+            // Released meanwhile
+            allBuffers.remove(buffer);
+            buffer.counts = null;
+        }
+        return buffer;
+    }
+
+    /**
+     * Get the bucket of a value.
+     *
+     * @param value Value in microseconds, negative values count as 0.
+     * @return Bucket index.
+     */
+    static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        if (value >= 1L << HIGHEST_BITS) {
+            return BUCKETS - 1;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Get the greatest value of a bucket.
+     *
+     * @param bucket Bucket index.
+     * @return Greatest value of the bucket.
+     */
+    static long highestValue(final int bucket) {
+        if (bucket >= BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lowest = ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Record a phase duration in the buffer of the current thread, dropped once the timer is released.
+     *
+     * @param phase Phase.
+     * @param nanos Duration in nanoseconds.
+     */
+    void record(final Phase phase, final long nanos) {
+        if (released) {
+            return;
+        }
+        final Buffer buffer = buffers.get();
+        final long[][] counts = buffer.counts;
+        if (counts == null) {
+            return;
+        }
+        ++counts[phase.ordinal()][PhaseTimer.bucket(nanos / 1000L)];
+        if (nanos > buffer.max[phase.ordinal()]) {
+            buffer.max[phase.ordinal()] = nanos;
+        }
+    }
+
+    /**
+     * Append the percentiles of each phase in microseconds, as <code>|&lt;phase&gt;_p50_micros:value</code> fields.
+     * The buffers are read without synchronization: call it once the jobs ended. The buffers are released afterwards,
+     * the next calls find no run.
+     *
+     * @param sb Destination.
+     */
+    void appendPercentiles(final StringBuilder sb) {
+        released = true;
+        final long[] merged = new long[BUCKETS];
+        for (Phase phase : Phase.values()) {
+            Arrays.fill(merged, 0L);
+            long total = 0L;
+            long max = 0L;
+            for (Buffer buffer : allBuffers) {
+                final long[][] phases = buffer.counts;
+                if (phases == null) {
+                    continue;
+                }
+                final long[] counts = phases[phase.ordinal()];
+                for (int i = 0; i < BUCKETS; ++i) {
+                    merged[i] += counts[i];
+                    total += counts[i];
+                }
+                max = Math.max(max, buffer.max[phase.ordinal()]);
+            }
+            sb.append('|').append(phase.label()).append("_count:").append(total);
+            for (double percentile : PERCENTILES) {
+                sb.append('|').append(phase.label()).append("_p").append((int) percentile).append("_micros:")
+                        .append(total == 0 ? -1L : Math.min(max / 1000L, PhaseTimer.valueAt(merged, total,
+                                percentile)));
+            }
+            sb.append('|').append(phase.label()).append("_max_micros:").append(total == 0 ? -1L : max / 1000L);
+        }
+        Buffer buffer;
+        while ((buffer = allBuffers.poll()) != null) {
+            buffer.counts = null;
+        }
+    }
+
+    /**
+     * Get the number of buffers not released.
+     *
+     * @return Number of buffers.
+     */
+    int getBufferCount() {
+        return allBuffers.size();
+    }
+
+    /**
+     * Get the value at a percentile.
+     *
+     * @param counts     Bucket counts.
+     * @param total      Sum of the bucket counts, not 0.
+     * @param percentile Percentile, from 0 to 100.
+     * @return Greatest value of the bucket of the percentile.
+     */
+    static long valueAt(final long[] counts, final long total, final double percentile) {
+        final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0L;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return PhaseTimer.highestValue(i);
+            }
+        }
+        return PhaseTimer.highestValue(counts.length - 1);
+    }
+}
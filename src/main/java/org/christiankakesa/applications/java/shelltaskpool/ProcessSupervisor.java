@@ -0,0 +1,124 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Supervise processes completed asynchronously.
+ * <p>
+ * In asynchronous mode a worker only spawns the process of a job: the completion of the job is handled by a callback
+ * on <code>Process.onExit()</code>, run by the single completion thread. A semaphore limits the number of running
+ * processes, the worker blocks until a running process ends when the limit is reached. The limit can change while
+ * processes are running.
+ * </p>
+ */
+final class ProcessSupervisor {
+    /**
+     * Maximum number of running processes.
+     */
+    private volatile int maxProcesses;
+    /**
+     * Permits of running processes.
+     */
+    private final ResizableSemaphore permits;
+    /**
+     * Thread running the job completions.
+     */
+    private final ExecutorService completions = Executors.newSingleThreadExecutor(
+            ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-completion-", true));
+
+    /**
+     * ProcessSupervisor constructor.
+     *
+     * @param maxProcesses Maximum number of running processes.
+     */
+    ProcessSupervisor(final int maxProcesses) {
+        this.maxProcesses = maxProcesses;
+        this.permits = new ResizableSemaphore(maxProcesses);
+    }
+
+    /**
+     * Get the maximum number of running processes.
+     *
+     * @return Maximum number of running processes.
+     */
+    int getMaxProcesses() {
+        return maxProcesses;
+    }
+
+    /**
+     * Change the maximum number of running processes. When the limit decreases, running processes are not stopped:
+     * new processes wait until the number of running processes is below the new limit.
+     *
+     * @param maxProcesses New maximum number of running processes.
+     */
+    synchronized void setMaxProcesses(final int maxProcesses) {
+        final int delta = maxProcesses - this.maxProcesses;
+        if (delta > 0) {
+            permits.release(delta);
+        } else if (delta < 0) {
+            permits.reducePermits(-delta);
+        }
+        this.maxProcesses = maxProcesses;
+    }
+
+    /**
+     * Get the number of running processes.
+     *
+     * @return Number of running processes.
+     */
+    int getRunningProcesses() {
+        return maxProcesses - permits.availablePermits();
+    }
+
+    /**
+     * Wait for a free slot before starting a process.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void acquire() throws InterruptedException {
+        permits.acquire();
+    }
+
+    /**
+     * Free the slot of an ended process.
+     */
+    void release() {
+        permits.release();
+    }
+
+    /**
+     * Get the executor of the job completions.
+     *
+     * @return Completion executor.
+     */
+    Executor getCompletionExecutor() {
+        return completions;
+    }
+
+    /**
+     * Wait for the end of all the running processes.
+     */
+    synchronized void awaitAll() {
+        permits.acquireUninterruptibly(maxProcesses);
+        permits.release(maxProcesses);
+    }
+
+    /**
+     * Semaphore whose number of permits can decrease.
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private ResizableSemaphore(final int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(final int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
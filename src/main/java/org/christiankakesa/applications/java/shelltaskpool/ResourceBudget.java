@@ -0,0 +1,146 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+/**
+ * Resources of the host shared by the running jobs, according to their {@link ResourceHints}.
+ * <ul>
+ * <li><b>cpu</b>: Number of CPUs, may be decimal, the available processors by default.</li>
+ * <li><b>mem</b>: Memory size with an optional unit K, M, G, the physical memory by default.</li>
+ * <li><b>io</b>: Number of <code>io:heavy</code> jobs running at the same time, no maximum by default.</li>
+ * </ul>
+ * A zero value is no maximum. A job asking more than the budget gets the whole budget: it runs alone on that resource.
+ * Not thread safe, see {@link FairShareQueue}.
+ */
+final class ResourceBudget {
+    private final long milliCpus;
+    private final long memory;
+    private final int ioSlots;
+    private long usedMilliCpus;
+    private long usedMemory;
+    private int usedIoSlots;
+
+    ResourceBudget(final long milliCpus, final long memory, final int ioSlots) {
+        this.milliCpus = milliCpus;
+        this.memory = memory;
+        this.ioSlots = ioSlots;
+    }
+
+    /**
+     * Parse a comma separated list of <code>key:value</code> resources, the resources not set are the ones of the
+     * host.
+     *
+     * @param budget Resources, for example <code>cpu:16,mem:64G,io:4</code>.
+     * @return Resource budget.
+     * @throws IllegalArgumentException if a resource is unknown or not valid.
+     */
+    static ResourceBudget parse(final String budget) {
+        long cpus = Util.defaultCorePoolSize() * 1000L;
+        long mem = ResourceBudget.hostMemory();
+        int io = 0;
+        for (String resource : budget.split(",")) {
+            if (resource.trim().length() == 0) {
+                continue;
+            }
+            int sep = resource.indexOf(':');
+            if (sep < 0) {
+                sep = resource.indexOf('=');
+            }
+            if (sep < 0) {
+                throw new IllegalArgumentException("No value for the budget " + resource);
+            }
+            final String key = resource.substring(0, sep).trim();
+            final String value = resource.substring(sep + 1).trim();
+            try {
+                if (ResourceHints.CPU.equals(key)) {
+                    cpus = ResourceHints.parseMilliCpus(value);
+                } else if (ResourceHints.MEM.equals(key)) {
+                    mem = Util.parseByteSize(value);
+                } else if (ResourceHints.IO.equals(key)) {
+                    io = Integer.parseInt(value);
+                    if (io < 0) {
+                        throw new NumberFormatException("Negative number of I/O heavy jobs");
+                    }
+                } else {
+                    throw new IllegalArgumentException("Unknown budget " + key);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Wrong value of the budget " + key + ": " + value, e);
+            }
+        }
+        return new ResourceBudget(cpus, mem, io);
+    }
+
+    /**
+     * Get the physical memory of the host, or of its container.
+     *
+     * @return Memory size, 0 if unknown.
+     */
+    private static long hostMemory() {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        return os instanceof com.sun.management.OperatingSystemMXBean
+                ? ((com.sun.management.OperatingSystemMXBean) os).getTotalMemorySize() : 0L;
+    }
+
+    /**
+     * Test if a job fits in the resources left, once the resources of a waiting job are reserved.
+     *
+     * @param hints    Resources of the job.
+     * @param reserved Resources of the job waiting for the resources to free, null if none.
+     * @return true if the job may start.
+     */
+    boolean fits(final ResourceHints hints, final ResourceHints reserved) {
+        return ResourceBudget.fits(milliCpus, usedMilliCpus, hints.getMilliCpus(),
+                reserved == null ? 0L : reserved.getMilliCpus())
+                && ResourceBudget.fits(memory, usedMemory, hints.getMemory(),
+                reserved == null ? 0L : reserved.getMemory())
+                && ResourceBudget.fits(ioSlots, usedIoSlots, hints.isIoHeavy() ? 1 : 0,
+                reserved != null && reserved.isIoHeavy() ? 1 : 0);
+    }
+
+    private static boolean fits(final long capacity, final long used, final long demand, final long reserved) {
+        return capacity == 0 || demand == 0 || used + Math.min(demand, capacity) + Math.min(reserved, capacity)
+                <= capacity;
+    }
+
+    /**
+     * Count the resources of a started job.
+     *
+     * @param hints Resources of the job.
+     */
+    void acquire(final ResourceHints hints) {
+        usedMilliCpus += hints.getMilliCpus();
+        usedMemory += hints.getMemory();
+        usedIoSlots += hints.isIoHeavy() ? 1 : 0;
+    }
+
+    /**
+     * Give back the resources of an ended job.
+     *
+     * @param hints Resources of the job.
+     */
+    void release(final ResourceHints hints) {
+        usedMilliCpus -= hints.getMilliCpus();
+        usedMemory -= hints.getMemory();
+        usedIoSlots -= hints.isIoHeavy() ? 1 : 0;
+    }
+
+    long getUsedMilliCpus() {
+        return usedMilliCpus;
+    }
+
+    long getUsedMemory() {
+        return usedMemory;
+    }
+
+    int getUsedIoSlots() {
+        return usedIoSlots;
+    }
+
+    @Override
+    public String toString() {
+        return ResourceHints.CPU + ":" + milliCpus / 1000.0 + "," + ResourceHints.MEM + ":" + memory + ","
+                + ResourceHints.IO + ":" + ioSlots;
+    }
+}
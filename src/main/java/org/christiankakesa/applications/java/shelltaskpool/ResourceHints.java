@@ -0,0 +1,110 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+/**
+ * Resources a job is expected to use, admitted against the {@link ResourceBudget} of the batch.
+ * <ul>
+ * <li><b>cpu</b>: Number of CPUs kept busy by the job, may be decimal, 1 by default.</li>
+ * <li><b>mem</b>: Memory size used by the job with an optional unit K, M, G, 0 by default.</li>
+ * <li><b>io</b>: <code>heavy</code> for a job keeping a disk busy, <code>light</code> by default.</li>
+ * </ul>
+ * Unlike the {@link ResourceLimits}, hints are not enforced: they only decide when the job starts.
+ */
+final class ResourceHints {
+    /**
+     * Hints of a job without hint attributes.
+     */
+    static final ResourceHints NONE = new ResourceHints(-1L, 0L, false);
+
+    static final String CPU = "cpu";
+    static final String MEM = "mem";
+    static final String IO = "io";
+    static final String IO_LIGHT = "light";
+    static final String IO_HEAVY = "heavy";
+
+    /**
+     * CPUs of a job without <b>cpu</b> hint, in thousandths of CPU.
+     */
+    static final long DEFAULT_MILLI_CPUS = 1000L;
+
+    /**
+     * Thousandths of CPU, -1 when not set.
+     */
+    private final long milliCpus;
+    private final long memory;
+    private final boolean ioHeavy;
+
+    private ResourceHints(final long milliCpus, final long memory, final boolean ioHeavy) {
+        this.milliCpus = milliCpus;
+        this.memory = memory;
+        this.ioHeavy = ioHeavy;
+    }
+
+    /**
+     * Test if a job attribute is a resource hint.
+     *
+     * @param key Attribute name.
+     * @return true for <b>cpu</b>, <b>mem</b> and <b>io</b>.
+     */
+    static boolean isHint(final String key) {
+        return CPU.equals(key) || MEM.equals(key) || IO.equals(key);
+    }
+
+    /**
+     * Copy of these hints with another hint.
+     *
+     * @param key   Hint name.
+     * @param value Hint value.
+     * @return Resource hints.
+     * @throws IllegalArgumentException if the hint is unknown or not valid.
+     */
+    ResourceHints with(final String key, final String value) {
+        try {
+            if (CPU.equals(key)) {
+                return new ResourceHints(ResourceHints.parseMilliCpus(value), memory, ioHeavy);
+            } else if (MEM.equals(key)) {
+                return new ResourceHints(milliCpus, Util.parseByteSize(value), ioHeavy);
+            } else if (IO.equals(key)) {
+                if (!IO_LIGHT.equals(value) && !IO_HEAVY.equals(value)) {
+                    throw new NumberFormatException("Not " + IO_LIGHT + " or " + IO_HEAVY);
+                }
+                return new ResourceHints(milliCpus, memory, IO_HEAVY.equals(value));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong value of the hint " + key + ": " + value, e);
+        }
+        throw new IllegalArgumentException("Unknown hint " + key);
+    }
+
+    /**
+     * Parse a number of CPUs.
+     *
+     * @param cpus Number of CPUs, may be decimal.
+     * @return Thousandths of CPU.
+     * @throws NumberFormatException if the number is negative or not valid.
+     */
+    static long parseMilliCpus(final String cpus) {
+        final double n = Double.parseDouble(cpus);
+        if (n < 0 || Double.isNaN(n) || Double.isInfinite(n)) {
+            throw new NumberFormatException("Negative number of CPUs");
+        }
+        return Math.round(n * 1000);
+    }
+
+    long getMilliCpus() {
+        return milliCpus < 0 ? DEFAULT_MILLI_CPUS : milliCpus;
+    }
+
+    long getMemory() {
+        return memory;
+    }
+
+    boolean isIoHeavy() {
+        return ioHeavy;
+    }
+
+    @Override
+    public String toString() {
+        return CPU + ":" + this.getMilliCpus() / 1000.0 + " " + MEM + ":" + memory + " " + IO + ":"
+                + (ioHeavy ? IO_HEAVY : IO_LIGHT);
+    }
+}
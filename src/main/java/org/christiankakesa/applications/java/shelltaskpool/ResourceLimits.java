@@ -0,0 +1,132 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+/**
+ * Resource limits of a job, applied to its cgroup.
+ * <ul>
+ * <li><b>cpu.max</b>: Number of CPUs, may be decimal (<code>cpu.max</code> quota over a 100 ms period).</li>
+ * <li><b>memory.max</b>: Memory size with an optional unit K, M, G (<code>memory.max</code>).</li>
+ * <li><b>io.weight</b>: Proportional I/O weight from 1 to 10000, 100 by default (<code>io.weight</code>).</li>
+ * </ul>
+ * A zero value is no limit.
+ */
+final class ResourceLimits {
+    /**
+     * No limit.
+     */
+    static final ResourceLimits NONE = new ResourceLimits(0.0, 0L, 0);
+
+    static final String CPU_MAX = "cpu.max";
+    static final String MEMORY_MAX = "memory.max";
+    static final String IO_WEIGHT = "io.weight";
+
+    private static final int MAX_IO_WEIGHT = 10000;
+
+    private final double cpuMax;
+    private final long memoryMax;
+    private final int ioWeight;
+
+    private ResourceLimits(final double cpuMax, final long memoryMax, final int ioWeight) {
+        this.cpuMax = cpuMax;
+        this.memoryMax = memoryMax;
+        this.ioWeight = ioWeight;
+    }
+
+    /**
+     * Parse a comma separated list of <code>key:value</code> limits.
+     *
+     * @param limits Limits, for example <code>cpu.max:2,memory.max:4G</code>.
+     * @return Resource limits.
+     * @throws IllegalArgumentException if a limit is unknown or not valid.
+     */
+    static ResourceLimits parse(final String limits) {
+        ResourceLimits res = NONE;
+        for (String limit : limits.split(",")) {
+            if (limit.trim().length() == 0) {
+                continue;
+            }
+            int sep = limit.indexOf(':');
+            if (sep < 0) {
+                sep = limit.indexOf('=');
+            }
+            if (sep < 0) {
+                throw new IllegalArgumentException("No value for the limit " + limit);
+            }
+            res = res.with(limit.substring(0, sep).trim(), limit.substring(sep + 1).trim());
+        }
+        return res;
+    }
+
+    /**
+     * Test if a job attribute is a resource limit.
+     *
+     * @param key Attribute name.
+     * @return true for <b>cpu.max</b>, <b>memory.max</b> and <b>io.weight</b>.
+     */
+    static boolean isLimit(final String key) {
+        return CPU_MAX.equals(key) || MEMORY_MAX.equals(key) || IO_WEIGHT.equals(key);
+    }
+
+    /**
+     * Copy of these limits with another limit.
+     *
+     * @param key   Limit name.
+     * @param value Limit value.
+     * @return Resource limits.
+     * @throws IllegalArgumentException if the limit is unknown or not valid.
+     */
+    ResourceLimits with(final String key, final String value) {
+        try {
+            if (CPU_MAX.equals(key)) {
+                final double cpus = Double.parseDouble(value);
+                if (cpus < 0 || Double.isNaN(cpus) || Double.isInfinite(cpus)) {
+                    throw new NumberFormatException("Negative number of CPUs");
+                }
+                return new ResourceLimits(cpus, memoryMax, ioWeight);
+            } else if (MEMORY_MAX.equals(key)) {
+                return new ResourceLimits(cpuMax, Util.parseByteSize(value), ioWeight);
+            } else if (IO_WEIGHT.equals(key)) {
+                final int weight = Integer.parseInt(value);
+                if (weight < 0 || weight > MAX_IO_WEIGHT) {
+                    throw new NumberFormatException("I/O weight out of 1-" + MAX_IO_WEIGHT);
+                }
+                return new ResourceLimits(cpuMax, memoryMax, weight);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong value of the limit " + key + ": " + value, e);
+        }
+        throw new IllegalArgumentException("Unknown limit " + key);
+    }
+
+    /**
+     * Merge these limits with default limits, the limits set here win.
+     *
+     * @param defaults Default limits.
+     * @return Resource limits.
+     */
+    ResourceLimits withDefaults(final ResourceLimits defaults) {
+        return new ResourceLimits(cpuMax > 0 ? cpuMax : defaults.cpuMax,
+                memoryMax > 0 ? memoryMax : defaults.memoryMax,
+                ioWeight > 0 ? ioWeight : defaults.ioWeight);
+    }
+
+    double getCpuMax() {
+        return cpuMax;
+    }
+
+    long getMemoryMax() {
+        return memoryMax;
+    }
+
+    int getIoWeight() {
+        return ioWeight;
+    }
+
+    boolean isNone() {
+        return cpuMax == 0 && memoryMax == 0 && ioWeight == 0;
+    }
+
+    @Override
+    public String toString() {
+        return CPU_MAX + ":" + cpuMax + "," + MEMORY_MAX + ":" + memoryMax + "," + IO_WEIGHT + ":" + ioWeight;
+    }
+}
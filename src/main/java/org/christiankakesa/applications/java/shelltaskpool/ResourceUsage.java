@@ -0,0 +1,40 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+/**
+ * Resources used by a job: CPU time, peak memory and I/O bytes. A value is -1 when it is not measured.
+ */
+final class ResourceUsage {
+    /**
+     * Nothing measured.
+     */
+    static final ResourceUsage UNKNOWN = new ResourceUsage(-1L, -1L, -1L);
+
+    private final long cpuMillis;
+    private final long peakMemoryBytes;
+    private final long ioBytes;
+
+    /**
+     * ResourceUsage constructor.
+     *
+     * @param cpuMillis       User and system CPU time in milliseconds.
+     * @param peakMemoryBytes Peak memory in bytes.
+     * @param ioBytes         Bytes read from and written to the storage.
+     */
+    ResourceUsage(final long cpuMillis, final long peakMemoryBytes, final long ioBytes) {
+        this.cpuMillis = cpuMillis;
+        this.peakMemoryBytes = peakMemoryBytes;
+        this.ioBytes = ioBytes;
+    }
+
+    long getCpuMillis() {
+        return cpuMillis;
+    }
+
+    long getPeakMemoryBytes() {
+        return peakMemoryBytes;
+    }
+
+    long getIoBytes() {
+        return ioBytes;
+    }
+}
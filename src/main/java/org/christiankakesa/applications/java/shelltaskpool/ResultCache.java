@@ -0,0 +1,410 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content-addressed cache of the job results.
+ * <p>
+ * A job declaring its input files (<b>inputs</b> job attribute) is cached: its key is the SHA-256 of the normalized
+ * command line and of the path, size, modification time and content SHA-256 of each input file. A cache entry is a
+ * file of the cache directory holding the exit code and the output (stdout and stderr) of a successful run. When the
+ * key of a job matches an entry, the cached output is replayed instead of spawning a process.
+ * </p>
+ * <p>
+ * The total size of the entries is bounded, least recently used entries are evicted first. The last use of an entry
+ * is its modification time, so the order survives between batches.
+ * </p>
+ */
+final class ResultCache {
+    private static final Logger LOG = Logger.getLogger(ResultCache.class);
+
+    /**
+     * Default maximum size of the cache in bytes.
+     */
+    static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * Suffix of the cache entries.
+     */
+    static final String ENTRY_SUFFIX = ".result";
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final long STALE_TMP_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final int ENTRY_MAGIC = 0x53545052; // STPR
+    /**
+     * Entry header: magic, exit code.
+     */
+    static final int ENTRY_HEADER_SIZE = 4 + 4;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Maximum number of input file hashes kept in memory.
+     */
+    static final int INPUT_HASHES_SIZE = 4096;
+
+    /**
+     * Cached result of a job.
+     */
+    static final class Entry {
+        private final File file;
+        private final int exitCode;
+        private final long outputBytes;
+
+        private Entry(final File file, final int exitCode, final long outputBytes) {
+            this.file = file;
+            this.exitCode = exitCode;
+            this.outputBytes = outputBytes;
+        }
+
+        int getExitCode() {
+            return exitCode;
+        }
+
+        long getOutputBytes() {
+            return outputBytes;
+        }
+
+        /**
+         * Copy the cached output to the sinks.
+         *
+         * @param sinks Channels receiving the output, null sinks are ignored.
+         * @throws IOException if the entry can't be read or a sink can't be written.
+         */
+        void replayOutput(final WritableByteChannel... sinks) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                channel.position(ENTRY_HEADER_SIZE);
+                OutputPump.pump(Channels.newInputStream(channel), sinks);
+            }
+        }
+    }
+
+    /**
+     * Output of a running job written to a new cache entry. Stdout and stderr pumps write to it at the same time.
+     */
+    final class EntryWriter implements WritableByteChannel {
+        private final String key;
+        private final File tmp;
+        private final FileChannel channel;
+        private final long maxBytes;
+        private long written;
+        private boolean overflow;
+
+        private EntryWriter(final String key) throws IOException {
+            this.key = key;
+            this.tmp = File.createTempFile(key, TMP_SUFFIX, directory);
+            this.channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE);
+            this.channel.position(ENTRY_HEADER_SIZE);
+            this.maxBytes = maxSize / 4;
+        }
+
+        public synchronized int write(final ByteBuffer src) throws IOException {
+            final int length = src.remaining();
+            written += length;
+            if (overflow || written > maxBytes) {
+                // Too big to be cached, the output is only counted
+                overflow = true;
+                src.position(src.limit());
+                return length;
+            }
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+            return length;
+        }
+
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /**
+         * Store the entry if the run is cacheable, delete it otherwise.
+         *
+         * @param exitCode Exit code of the run, only successful runs are cached.
+         */
+        synchronized void commit(final int exitCode) {
+            try {
+                if (exitCode != 0 || overflow) {
+                    this.abort();
+                    return;
+                }
+                final ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+                header.putInt(ENTRY_MAGIC).putInt(exitCode).flip();
+                channel.write(header, 0);
+                channel.close();
+                final File entry = ResultCache.this.entryFile(key);
+                Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                ResultCache.this.added(key, entry.length());
+            } catch (IOException e) {
+                LOG.warn("Can't store the cache entry " + key, e);
+                this.abort();
+            }
+        }
+
+        /**
+         * Delete the entry.
+         */
+        synchronized void abort() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Can't close the cache entry " + key, e);
+            }
+            if (tmp.exists() && !tmp.delete()) {
+                LOG.warn("Can't delete " + tmp);
+            }
+        }
+    }
+
+    private final File directory;
+    private final long maxSize;
+    /**
+     * Size of the entries by key, least recently used first, guarded by this.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalSize;
+    /**
+     * Content hash of the input files by path, size and modification time, cleared when full.
+     */
+    private final Map<String, byte[]> inputHashes = new ConcurrentHashMap<String, byte[]>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * ResultCache constructor, the entries of the directory are loaded.
+     *
+     * @param directory Cache directory.
+     * @param maxSize   Maximum size of the entries in bytes.
+     */
+    ResultCache(final File directory, final long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        // Entries of jobs interrupted more than a day ago
+        final File[] stale = directory.listFiles((dir, name) -> name.endsWith(TMP_SUFFIX));
+        if (stale != null) {
+            for (File file : stale) {
+                if (file.lastModified() < System.currentTimeMillis() - STALE_TMP_MILLIS && !file.delete()) {
+                    LOG.warn("Can't delete " + file);
+                }
+            }
+        }
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                final String name = file.getName();
+                entries.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), file.length());
+                totalSize += file.length();
+            }
+        }
+        this.evict();
+    }
+
+    /**
+     * Compute the cache key of a job.
+     *
+     * @param commandLine Command line of the job.
+     * @param inputs      Input files of the job.
+     * @return Key or null if an input file can't be read.
+     */
+    String key(final String commandLine, final List<String> inputs) {
+        final MessageDigest digest = ResultCache.sha256();
+        digest.update(DurationHistory.normalize(commandLine).getBytes(StandardCharsets.UTF_8));
+        for (String input : inputs) {
+            final File file = new File(input).getAbsoluteFile();
+            if (!file.isFile()) {
+                LOG.warn("Input file " + file + " not found, job not cached: " + commandLine);
+                return null;
+            }
+            final String stat = file.getPath() + '\0' + file.length() + '\0' + file.lastModified();
+            byte[] contentHash = inputHashes.get(stat);
+            if (contentHash == null) {
+                try {
+                    contentHash = ResultCache.hashContent(file);
+                } catch (IOException e) {
+                    LOG.warn("Can't read input file " + file + ", job not cached: " + commandLine, e);
+                    return null;
+                }
+                if (inputHashes.size() >= INPUT_HASHES_SIZE) {
+                    // Modified inputs leave stale hashes behind, keep them bounded in a long running daemon
+                    inputHashes.clear();
+                }
+                inputHashes.put(stat, contentHash);
+            }
+            digest.update((byte) 0);
+            digest.update(stat.getBytes(StandardCharsets.UTF_8));
+            digest.update(contentHash);
+        }
+        final byte[] hash = digest.digest();
+        final char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static byte[] hashContent(final File file) throws IOException {
+        final MessageDigest digest = ResultCache.sha256();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(OutputPump.BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    private File entryFile(final String key) {
+        return new File(directory, key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Get the cached result of a job, counted as a hit or a miss.
+     *
+     * @param key Cache key of the job.
+     * @return Cached result or null.
+     */
+    Entry lookup(final String key) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                misses.increment();
+                return null;
+            }
+        }
+        final File file = this.entryFile(key);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) != -1) {
+                continue;
+            }
+            header.flip();
+            if (header.remaining() < ENTRY_HEADER_SIZE || header.getInt() != ENTRY_MAGIC) {
+                throw new IOException("Wrong cache entry");
+            }
+            final Entry entry = new Entry(file, header.getInt(), channel.size() - ENTRY_HEADER_SIZE);
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                LOG.debug("Can't touch the cache entry " + file);
+            }
+            hits.increment();
+            return entry;
+        } catch (IOException e) {
+            LOG.warn("Can't read the cache entry " + file + ", removed", e);
+            this.remove(key);
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Start a new cache entry for a running job.
+     *
+     * @param key Cache key of the job.
+     * @return Entry writer or null if the entry can't be created.
+     */
+    EntryWriter newEntry(final String key) {
+        try {
+            return new EntryWriter(key);
+        } catch (IOException e) {
+            LOG.warn("Can't create the cache entry " + key, e);
+            return null;
+        }
+    }
+
+    private synchronized void added(final String key, final long size) {
+        final Long previous = entries.put(key, size);
+        totalSize += size - (previous == null ? 0L : previous);
+        this.evict();
+    }
+
+    private synchronized void remove(final String key) {
+        final Long size = entries.remove(key);
+        if (size != null) {
+            totalSize -= size;
+        }
+        final File file = this.entryFile(key);
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Can't delete the cache entry " + file);
+        }
+    }
+
+    /**
+     * Remove the least recently used entries until the cache fits its maximum size.
+     */
+    private synchronized void evict() {
+        final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalSize > maxSize && it.hasNext()) {
+            final Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalSize -= eldest.getValue();
+            final File file = this.entryFile(eldest.getKey());
+            if (!file.delete()) {
+                LOG.warn("Can't delete the cache entry " + file);
+            }
+            LOG.debug("Cache entry evicted: " + eldest.getKey());
+        }
+    }
+
+    /**
+     * Get the size of the entries.
+     *
+     * @return Size in bytes.
+     */
+    synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Get the number of input file hashes kept in memory.
+     *
+     * @return Number of hashes.
+     */
+    int getInputHashCount() {
+        return inputHashes.size();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+}
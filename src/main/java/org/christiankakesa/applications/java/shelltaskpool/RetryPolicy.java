@@ -0,0 +1,171 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy of a failed job.
+ * <ul>
+ * <li><b>attempts</b>: Maximum number of runs of the job, 1 by default (no retry).</li>
+ * <li><b>retry_on</b>: Comma separated exit codes to retry on, any non zero exit code by default.</li>
+ * <li><b>backoff</b>: Delay before the first retry, with an optional unit ms, s, m, h (1 second by default).</li>
+ * </ul>
+ * The delay doubles at each retry, up to {@value #MAX_BACKOFF_MILLIS} ms, with a random jitter: the delay of a retry
+ * is drawn between half and all of its exponential value, so jobs failing together don't retry together.
+ */
+final class RetryPolicy {
+    /**
+     * No retry.
+     */
+    static final RetryPolicy NONE = new RetryPolicy(0, Collections.<Integer>emptySet(), 0L);
+
+    static final String ATTEMPTS = "attempts";
+    static final String RETRY_ON = "retry_on";
+    static final String BACKOFF = "backoff";
+
+    /**
+     * Default delay before the first retry.
+     */
+    static final long DEFAULT_BACKOFF_MILLIS = 1000L;
+    /**
+     * Maximum delay before a retry.
+     */
+    static final long MAX_BACKOFF_MILLIS = 5L * 60 * 1000;
+
+    /**
+     * Maximum number of runs, 0 when not set.
+     */
+    private final int attempts;
+    private final Set<Integer> retryOn;
+    /**
+     * Delay before the first retry, 0 when not set.
+     */
+    private final long backoffMillis;
+
+    private RetryPolicy(final int attempts, final Set<Integer> retryOn, final long backoffMillis) {
+        this.attempts = attempts;
+        this.retryOn = retryOn;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * Parse space separated <code>key:value</code> attributes, like a job header.
+     *
+     * @param policy Retry policy, for example <code>attempts:3 retry_on:75,111 backoff:2s</code>.
+     * @return Retry policy.
+     * @throws IllegalArgumentException if an attribute is unknown or not valid.
+     */
+    static RetryPolicy parse(final String policy) {
+        RetryPolicy res = NONE;
+        for (String attribute : policy.trim().split("\\s+")) {
+            if (attribute.length() == 0) {
+                continue;
+            }
+            int sep = attribute.indexOf(':');
+            if (sep < 0) {
+                sep = attribute.indexOf('=');
+            }
+            if (sep < 0) {
+                throw new IllegalArgumentException("No value for the retry attribute " + attribute);
+            }
+            res = res.with(attribute.substring(0, sep), attribute.substring(sep + 1));
+        }
+        return res;
+    }
+
+    /**
+     * Test if a job attribute is a retry attribute.
+     *
+     * @param key Attribute name.
+     * @return true for <b>attempts</b>, <b>retry_on</b> and <b>backoff</b>.
+     */
+    static boolean isRetryAttribute(final String key) {
+        return ATTEMPTS.equals(key) || RETRY_ON.equals(key) || BACKOFF.equals(key);
+    }
+
+    /**
+     * Copy of this policy with another attribute.
+     *
+     * @param key   Attribute name.
+     * @param value Attribute value.
+     * @return Retry policy.
+     * @throws IllegalArgumentException if the attribute is unknown or not valid.
+     */
+    RetryPolicy with(final String key, final String value) {
+        try {
+            if (ATTEMPTS.equals(key)) {
+                final int n = Integer.parseInt(value);
+                if (n < 1) {
+                    throw new NumberFormatException("Not a positive number of attempts");
+                }
+                return new RetryPolicy(n, retryOn, backoffMillis);
+            } else if (RETRY_ON.equals(key)) {
+                final Set<Integer> codes = new TreeSet<Integer>();
+                for (String code : value.split(",")) {
+                    if (code.length() > 0) {
+                        codes.add(Integer.valueOf(code));
+                    }
+                }
+                return new RetryPolicy(attempts, Collections.unmodifiableSet(codes), backoffMillis);
+            } else if (BACKOFF.equals(key)) {
+                return new RetryPolicy(attempts, retryOn, Util.parseDuration(value));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong value of the retry attribute " + key + ": " + value, e);
+        }
+        throw new IllegalArgumentException("Unknown retry attribute " + key);
+    }
+
+    /**
+     * Merge this policy with a default policy, the attributes set here win.
+     *
+     * @param defaults Default policy.
+     * @return Retry policy.
+     */
+    RetryPolicy withDefaults(final RetryPolicy defaults) {
+        return new RetryPolicy(attempts > 0 ? attempts : defaults.attempts,
+                retryOn.isEmpty() ? defaults.retryOn : retryOn,
+                backoffMillis > 0 ? backoffMillis : defaults.backoffMillis);
+    }
+
+    /**
+     * Test if a failed run is retried.
+     *
+     * @param attempt  Number of the failed run, from 1.
+     * @param exitCode Exit code of the failed run.
+     * @return true if the job runs again.
+     */
+    boolean shouldRetry(final int attempt, final int exitCode) {
+        return attempt < attempts && (retryOn.isEmpty() || retryOn.contains(exitCode));
+    }
+
+    /**
+     * Draw the delay before a retry: the backoff doubled at each retry, capped, with an equal jitter.
+     *
+     * @param attempt Number of the failed run, from 1.
+     * @return Delay in milliseconds.
+     */
+    long delayMillis(final int attempt) {
+        final long backoff = backoffMillis > 0 ? backoffMillis : DEFAULT_BACKOFF_MILLIS;
+        final long exponential = attempt > 32 ? MAX_BACKOFF_MILLIS
+                : Math.min(MAX_BACKOFF_MILLIS, backoff << (attempt - 1));
+        final long half = exponential / 2;
+        return half + ThreadLocalRandom.current().nextLong(exponential - half + 1);
+    }
+
+    int getAttempts() {
+        return Math.max(1, attempts);
+    }
+
+    Set<Integer> getRetryOn() {
+        return retryOn;
+    }
+
+    @Override
+    public String toString() {
+        return ATTEMPTS + ":" + this.getAttempts() + " " + RETRY_ON + ":" + retryOn + " " + BACKOFF + ":"
+                + backoffMillis;
+    }
+}
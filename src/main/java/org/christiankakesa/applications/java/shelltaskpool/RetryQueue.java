@@ -0,0 +1,92 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Failed jobs waiting for their retry.
+ * <p>
+ * A failed job waits its backoff delay in a delay queue, not in a worker: a single thread takes the jobs whose delay
+ * expired and submits them back to the batch executor, ahead of the pending jobs in a priority executor. The thread
+ * is started on the first retry.
+ * </p>
+ */
+final class RetryQueue {
+    private static final Logger LOG = Logger.getLogger(RetryQueue.class);
+
+    /**
+     * Job waiting for its retry.
+     */
+    private static final class Retry implements Delayed {
+        private final JobExecution job;
+        private final long dueNanos;
+
+        private Retry(final JobExecution job, final long delayMillis) {
+            this.job = job;
+            this.dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(final Delayed o) {
+            return Long.compare(dueNanos, ((Retry) o).dueNanos);
+        }
+    }
+
+    private final MyThreadPoolExecutor executor;
+    private final DelayQueue<Retry> queue = new DelayQueue<Retry>();
+    private Thread thread;
+
+    /**
+     * RetryQueue constructor.
+     *
+     * @param executor Batch executor running the retries.
+     */
+    RetryQueue(final MyThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Run a failed job again after a delay.
+     *
+     * @param job         Failed job, ready to start again.
+     * @param delayMillis Delay before the retry.
+     */
+    void schedule(final JobExecution job, final long delayMillis) {
+        synchronized (this) {
+            if (thread == null) {
+                thread = ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-retry-", true).newThread(
+                        this::submitLoop);
+                thread.start();
+            }
+        }
+        queue.add(new Retry(job, delayMillis));
+    }
+
+    /**
+     * Retry thread loop: submit the jobs whose delay expired. The submission may block on a bounded executor queue.
+     */
+    private void submitLoop() {
+        while (true) {
+            final Retry retry;
+            try {
+                retry = queue.take();
+            } catch (InterruptedException e) {
+                LOG.error("Retry thread interrupted", e);
+                return;
+            }
+            try {
+                executor.addTask(new ShellTaskWorker(retry.job));
+            } catch (RejectedExecutionException e) {
+                LOG.error("JobId: " + retry.job.getId() + ":" + retry.job.getCommandLine() + " retry rejected", e);
+                retry.job.skip();
+            }
+        }
+    }
+}
@@ -2,21 +2,194 @@ package org.christiankakesa.applications.java.shelltaskpool;
 
 import org.apache.log4j.Logger;
 
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
 /**
  * A runnable worker for command line JobExecution.
  */
 class ShellTaskWorker implements Runnable {
     private static final Logger LOG = Logger.getLogger(ShellTaskWorker.class);
-    private final String commandLine;
 
-    public ShellTaskWorker(final String commandLine) {
-        this.commandLine = commandLine;
+    /**
+     * Order of the pending workers: highest priority first, then creation order.
+     */
+    static final Comparator<Runnable> HIGHEST_PRIORITY_FIRST = new Comparator<Runnable>() {
+        public int compare(final Runnable r1, final Runnable r2) {
+            final ShellTaskWorker w1 = (ShellTaskWorker) r1;
+            final ShellTaskWorker w2 = (ShellTaskWorker) r2;
+            final int byPriority = Long.compare(w2.priority, w1.priority);
+            return byPriority != 0 ? byPriority : Long.compare(w1.sequence, w2.sequence);
+        }
+    };
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final Batch batch;
+    private final JobSpec spec;
+    private final Consumer<JobExecution> endListener;
+    /**
+     * Position of the job in the batch, -1 if the job is not journaled.
+     */
+    private final int ordinal;
+    /**
+     * Expected time in milliseconds from the start of the job to the end of the jobs depending on it.
+     */
+    private final long priority;
+    private final long sequence = SEQUENCE.getAndIncrement();
+    /**
+     * Failed job to run again, null for the first run of a job.
+     */
+    private final JobExecution retried;
+    /**
+     * The job is counted in the jobs in flight of its batch until it ends, false if the worker is not submitted to an
+     * executor.
+     */
+    private volatile boolean inFlight;
+    /**
+     * Submission time to the executor in nanoseconds, 0 when the phases are not timed.
+     */
+    private volatile long submitNanos;
+    /**
+     * Called once when the run of the job ends, set by the queue handing out the worker, may be null.
+     */
+    private volatile Runnable runListener;
+    /**
+     * Start time of the worker in nanoseconds, 0 when the phases are not timed.
+     */
+    private long startNanos;
+
+    /**
+     * ShellTaskWorker constructor.
+     *
+     * @param batch       Batch of the job.
+     * @param commandLine Command line to execute.
+     */
+    public ShellTaskWorker(final Batch batch, final String commandLine) {
+        this(batch, new JobSpec(commandLine), -1, 0L, null);
+    }
+
+    /**
+     * ShellTaskWorker constructor.
+     *
+     * @param batch       Batch of the job.
+     * @param spec        Job to run.
+     * @param ordinal     Position of the job in the batch, -1 if the job is not journaled.
+     * @param priority    Workers with the highest priority run first in a priority executor.
+     * @param endListener Called when the job is ended, whatever its status, may be null.
+     */
+    ShellTaskWorker(final Batch batch, final JobSpec spec, final int ordinal, final long priority,
+                    final Consumer<JobExecution> endListener) {
+        this.batch = batch;
+        this.spec = spec;
+        this.ordinal = ordinal;
+        this.priority = priority;
+        this.endListener = endListener;
+        this.retried = null;
+    }
+
+    /**
+     * Build the worker of a retry, run before the pending jobs in a priority executor.
+     *
+     * @param retried Failed job, ready to start again.
+     */
+    ShellTaskWorker(final JobExecution retried) {
+        this.batch = retried.getBatch();
+        this.spec = retried.getSpec();
+        this.ordinal = retried.getOrdinal();
+        this.priority = Long.MAX_VALUE;
+        this.endListener = null;
+        this.retried = retried;
+    }
+
+    Batch getBatch() {
+        return batch;
+    }
+
+    long getPriority() {
+        return priority;
+    }
+
+    /**
+     * Test if the worker runs a failed job again.
+     *
+     * @return true for a retry.
+     */
+    boolean isRetry() {
+        return retried != null;
+    }
+
+    /**
+     * Count the job in the jobs in flight of its batch until it ends.
+     *
+     * @param inFlight true once the worker is submitted to an executor.
+     */
+    void setInFlight(final boolean inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * Record the submission time of the worker to the executor.
+     *
+     * @param nanos Time in nanoseconds.
+     */
+    void submitted(final long nanos) {
+        this.submitNanos = nanos;
+    }
+
+    /**
+     * Record the start time of the worker, in the worker thread.
+     *
+     * @param nanos Time in nanoseconds.
+     */
+    void started(final long nanos) {
+        this.startNanos = nanos;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    JobSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Set the listener of the end of the run of the job, the job of a retry is run again by another worker.
+     *
+     * @param runListener Called once when the run ends.
+     */
+    void setRunListener(final Runnable runListener) {
+        this.runListener = runListener;
+    }
+
+    boolean hasRunListener() {
+        return runListener != null;
     }
 
     public void run() {
-        final JobExecution job = new JobExecution(this.commandLine);
+        final JobExecution job = retried != null ? retried
+                : new JobExecution(this.batch, this.spec, this.ordinal, this::ended);
+        if (this.submitNanos != 0 && this.startNanos != 0) {
+            job.recordPhase(PhaseTimer.Phase.QUEUE, this.startNanos - this.submitNanos);
+        }
+        job.setRunListener(this.runListener);
         job.start();
-        LOG.debug("Starting job command line: " + this.commandLine);
+        LOG.debug("Starting job command line: " + this.spec.getCommandLine());
     }
 
+    /**
+     * Notify the end of the job, after its last run.
+     *
+     * @param job Ended job.
+     */
+    private void ended(final JobExecution job) {
+        if (this.endListener != null) {
+            this.endListener.accept(job);
+        }
+        if (this.inFlight) {
+            this.batch.jobEnded();
+        }
+    }
 }
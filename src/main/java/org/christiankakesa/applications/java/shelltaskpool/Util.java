@@ -3,12 +3,13 @@ package org.christiankakesa.applications.java.shelltaskpool;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Shell Task Pool utility class.
@@ -20,6 +21,17 @@ final class Util {
      */
     private static final Logger LOG = Logger.getLogger(Util.class);
 
+    /**
+     * Maximum number of parsed command lines kept in cache.
+     */
+    static final int COMMAND_LINE_CACHE_SIZE = 1024;
+
+    /**
+     * Cache of parsed command lines, read without lock by the workers and cleared when full.
+     */
+    private static final Map<String, String[]> COMMAND_LINE_CACHE =
+            new ConcurrentHashMap<String, String[]>(COMMAND_LINE_CACHE_SIZE);
+
     /**
      * Util private constructor.
      */
@@ -60,16 +72,104 @@ final class Util {
                 + "        example : -j'nslookup google.fr; /path/script2.sh > /tmp/script2.log'\n\n"
                 + "    [-f,--jobsfile=]\n"
                 + "        Path to the jobs plain text file. Jobs are separated by new line (can be omitted if \"jobslist\"  contains jobs)\n"
+                + "        Use '-' to read jobs from the standard input\n"
+                + "        A job line may start with [id:name after:name1,name2] to run the job after the named jobs\n"
                 + "        example : -f/home/me/test.job\n\n"
+                + "    [-s,--streaming]\n"
+                + "        Run jobs while the jobs file is read (no limit on the number of jobs)\n"
+                + "        example : -s -f/home/me/huge.job\n\n"
+                + "    [-a,--async]\n"
+                + "        Complete jobs asynchronously: workers only spawn processes, corepoolsize limits running processes\n"
+                + "        example : -a -c2000\n\n"
+                + "    [-v,--phases]\n"
+                + "        Time the phases of the jobs (queue, spawn, run, exit, complete): per job fields in batch:job\n"
+                + "        and percentiles by phase in batch:phases at the end of the batch\n"
+                + "        example : -v\n\n"
                 + "    [-p,--jobsparam=]\n"
                 + "        Set global params to add for all jobs\n"
                 + "        example : -p'-x 2011/05/05 -m 1024'\n\n"
                 + "    [-c,--corepoolsize=]\n"
                 + "        Set number of thread processor\n"
                 + "        example : -c5\n\n"
+                + "    [-d,--adaptive[=]]\n"
+                + "        Adapt the number of concurrent jobs to the host load, from corepoolsize up to the given maximum\n"
+                + "        (default: 4 per core): grow while the CPU is idle, shrink on high load, steal or low memory\n"
+                + "        example : -d16\n\n"
+                + "    [-B,--budget[=]]\n"
+                + "        Start the jobs only when their [cpu:2 mem:4G io:heavy] hints fit in the resources left: CPUs, memory\n"
+                + "        and number of io:heavy jobs (default: the CPUs and memory of the host, no I/O maximum)\n"
+                + "        example : -Bcpu:16,mem:64G,io:4 -c64\n\n"
+                + "    [-e,--executor=]\n"
+                + "        Kind of threads running the jobs: platform or virtual (default: platform)\n"
+                + "        Virtual threads allow a large corepoolsize for I/O-bound jobs\n"
+                + "        example : -evirtual -c2000\n\n"
                 + "    [-l,--jobslogdir=]\n"
                 + "        Path to the jobs logs directory.\n"
                 + "        example : -l/home/me/var/log\n\n"
+                + "    [-g,--eventlog=]\n"
+                + "        File of the batch:job events, appended (default: standard output)\n"
+                + "        example : -g/home/me/var/log/jobs.log\n\n"
+                + "    [-t,--eventformat=]\n"
+                + "        Format of the batch:job events: pipe or json (JSON lines) (default: pipe)\n"
+                + "        example : -tjson\n\n"
+                + "    [-y,--history=]\n"
+                + "        File of the job runs history, created if needed, with its index in <file>.idx\n"
+                + "        Jobs expected to run longer start first\n"
+                + "        example : -y/home/me/var/lib/jobs.history\n\n"
+                + "    [-k,--cachedir=]\n"
+                + "        Directory of the result cache: jobs declaring [inputs:file1,file2] are not run again while their\n"
+                + "        command line and input files are unchanged\n"
+                + "        example : -k/home/me/var/cache/jobs\n\n"
+                + "    [-m,--cachesize=]\n"
+                + "        Maximum size of the result cache, with an optional unit K, M, G (default: 256M)\n"
+                + "        example : -m2G\n\n"
+                + "    [-x,--timeout=]\n"
+                + "        Timeout of the jobs without their own [timeout:30s] header, with an optional unit ms, s, m, h\n"
+                + "        (default: seconds): the job process tree gets SIGTERM, then SIGKILL 5 seconds later (TIMED_OUT)\n"
+                + "        example : -x10m\n\n"
+                + "    [-z,--batchtimeout=]\n"
+                + "        Timeout of the whole batch: running jobs are killed (TIMED_OUT) and jobs not started are SKIPPED\n"
+                + "        example : -z2h\n\n"
+                + "    [-i,--retry=]\n"
+                + "        Retry policy of the jobs without their own [attempts:3 retry_on:75,111 backoff:2s] header: maximum\n"
+                + "        number of runs, exit codes to retry on (default: any) and first delay, doubled at each retry with jitter\n"
+                + "        example : -i\"attempts:3 backoff:10s\"\n\n"
+                + "    [-q,--metrics-port=]\n"
+                + "        Export live pool and job metrics in the Prometheus format on http://<host>:<port>/metrics, on all the\n"
+                + "        interfaces or on [host:]port\n"
+                + "        example : --metrics-port=9464\n\n"
+                + "    [-C,--coordinator=]\n"
+                + "        Run the jobs on the agents connected to port (loopback interface) or host:port instead of running\n"
+                + "        them locally. Agents need the shared secret of SHELL_TASK_POOL_SECRET or SHELL_TASK_POOL_SECRET_FILE,\n"
+                + "        required out of the loopback interface\n"
+                + "        example : -C7070 -f/home/me/test.job\n\n"
+                + "    [-A,--agent=]\n"
+                + "        Run corepoolsize jobs at a time for the coordinator on host:port, until its batch ends\n"
+                + "        example : -Abatch-host:7070 -c8\n\n"
+                + "    [-D,--daemon=]\n"
+                + "        Stay resident and run the batches submitted over HTTP on port (loopback interface) or host:port:\n"
+                + "        POST the jobs file to /batches[?name=&timeout=&wait], GET /batches/<id> for the batch status\n"
+                + "        With the shared secret of SHELL_TASK_POOL_SECRET or SHELL_TASK_POOL_SECRET_FILE, needed out of the\n"
+                + "        loopback interface, the jobs file is signed by its HMAC-SHA256 in the X-Signature header\n"
+                + "        example : -D7080 -c8\n\n"
+                + "    [-u,--cgroup[=]]\n"
+                + "        Measure the CPU time, peak memory and I/O bytes of the jobs (batch:job record). With a cgroup v2\n"
+                + "        directory, each job runs in its own cgroup with its resource limits, otherwise jobs are sampled from /proc\n"
+                + "        example : -u/sys/fs/cgroup/user.slice/user-1000.slice/user@1000.service/app.slice\n\n"
+                + "    [-b,--limits=]\n"
+                + "        Resource limits of the jobs without their own [cpu.max:2 memory.max:4G io.weight:50] header\n"
+                + "        (cpu.max: number of CPUs, memory.max: size with an optional unit K, M, G, io.weight: 1 to 10000)\n"
+                + "        example : -bcpu.max:1.5,memory.max:2G\n\n"
+                + "    [-w,--journaldir=]\n"
+                + "        Directory of the job journals: the state of the jobs is journaled to resume the batch\n"
+                + "        example : -w/home/me/var/lib/journal\n\n"
+                + "    [-r,--resume=]\n"
+                + "        Id of the batch to resume from its journal: only failed and unfinished jobs run again\n"
+                + "        example : -w/home/me/var/lib/journal -rbbab79e96aa64becb1587774cf28acf8\n\n"
+                + "    [-o,--capturesize=]\n"
+                + "        Number of bytes of job output kept at the beginning and at the end in debug mode (default: "
+                + Batch.DEFAULT_CAPTURE_SIZE + ")\n"
+                + "        example : -o1024\n\n"
                 + "[Credits]\n"
                 + "Author name  : " + AppInfo.AUTHOR_NAME + "\n"
                 + "Author email : " + AppInfo.AUTHOR_EMAIL + "\n"
@@ -106,35 +206,141 @@ final class Util {
     public static String buildDurationFromDates(final Date start, final Date end) {
         // Build the duration only if both parameters are not null
         if (end != null && start != null) {
-            final long milliInSecond = 1000;
-            final long secondsInHour = 3600;
-            final long secondsInMinute = 60;
-            final long tmTime = end.getTime() - start.getTime();
-            final long tsTime = tmTime / milliInSecond;
-            //tsTime / 3600, (tsTime % 3600) / 60, (tsTime % 60)
-            final int hours = (int) (tsTime / secondsInHour);
-            final int minutes = (int) ((tsTime % secondsInHour) / secondsInMinute);
-            final int seconds = (int) (tsTime % secondsInMinute);
-            final int millis = (int) (tmTime % milliInSecond);
-            return String.format("%02d:%02d:%02d.%03d", hours, minutes, seconds, millis);
+            final StringBuilder sb = new StringBuilder(12);
+            Util.appendDuration(sb, end.getTime() - start.getTime());
+            return sb.toString();
         }
         LOG.warn("Can't determine duration : endDate = " + end
                 + " - startDate = " + start);
         return "00:00:00.000";
     }
 
+    /**
+     * Append a duration in format HH:mm:ss.SSS, without intermediate allocation.
+     *
+     * @param sb     Destination.
+     * @param tmTime Duration in milliseconds.
+     */
+    public static void appendDuration(final StringBuilder sb, final long tmTime) {
+        final long milliInSecond = 1000;
+        final long secondsInHour = 3600;
+        final long secondsInMinute = 60;
+        final long tsTime = tmTime / milliInSecond;
+        //tsTime / 3600, (tsTime % 3600) / 60, (tsTime % 60)
+        final long hours = tsTime / secondsInHour;
+        final int minutes = (int) ((tsTime % secondsInHour) / secondsInMinute);
+        final int seconds = (int) (tsTime % secondsInMinute);
+        final int millis = (int) (tmTime % milliInSecond);
+        if (hours < 10) {
+            sb.append('0');
+        }
+        sb.append(hours).append(':');
+        Util.appendPadded(sb, minutes, 2).append(':');
+        Util.appendPadded(sb, seconds, 2).append('.');
+        Util.appendPadded(sb, millis, 3);
+    }
+
+    /**
+     * Append a positive number left padded with zeros.
+     *
+     * @param sb     Destination.
+     * @param value  Positive number.
+     * @param digits Minimum number of digits.
+     * @return The destination.
+     */
+    private static StringBuilder appendPadded(final StringBuilder sb, final int value, final int digits) {
+        for (int limit = 10, d = 1; d < digits; limit *= 10, ++d) {
+            if (value < limit) {
+                sb.append('0');
+            }
+        }
+        return sb.append(value);
+    }
+
     /**
      * Build String Array of command line.
+     * <p>
+     * The command line is split on blanks with the quoting rules of a POSIX shell: single quotes keep every
+     * character, double quotes keep every character except <code>\</code> escaping <code>$ ` " \</code> and
+     * newline, and outside quotes <code>\</code> escapes any character. Quotes are removed, adjacent quoted parts
+     * are joined. There is no expansion of variables, globs or redirections. Parsed command lines are cached.
+     * </p>
      *
      * @param commandLine The command line passed to parse.
      * @return String array of the command line string
      */
     public static String[] parseCommandLineToStringArray(final String commandLine) {
-        final Pattern p = Pattern.compile("(\"[^\"]*?\"|'[^']*?'|\\S+)");
-        final Matcher m = p.matcher(commandLine);
+        String[] tokens = COMMAND_LINE_CACHE.get(commandLine);
+        if (tokens == null) {
+            tokens = Util.tokenizeCommandLine(commandLine);
+            if (COMMAND_LINE_CACHE.size() >= COMMAND_LINE_CACHE_SIZE) {
+                // Batches of distinct command lines don't benefit from the cache, keep it bounded
+                COMMAND_LINE_CACHE.clear();
+            }
+            COMMAND_LINE_CACHE.put(commandLine, tokens);
+        }
+        return tokens.clone();
+    }
+
+    /**
+     * Split a command line in a single pass, see <code>parseCommandLineToStringArray</code>.
+     *
+     * @param commandLine The command line to split.
+     * @return Tokens of the command line.
+     */
+    static String[] tokenizeCommandLine(final String commandLine) {
         final List<String> tokens = new ArrayList<String>();
-        while (m.find()) {
-            tokens.add(m.group(1));
+        final StringBuilder token = new StringBuilder(commandLine.length());
+        // A token exists even if empty, as with ""
+        boolean inToken = false;
+        char quote = 0;
+        final int length = commandLine.length();
+        for (int i = 0; i < length; ++i) {
+            final char c = commandLine.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    token.append(c);
+                }
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else if (c == '\\' && i + 1 < length && "$`\"\\\n".indexOf(commandLine.charAt(i + 1)) >= 0) {
+                    final char next = commandLine.charAt(++i);
+                    if (next != '\n') {
+                        token.append(next);
+                    }
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                inToken = true;
+            } else if (c == '\\') {
+                inToken = true;
+                if (i + 1 < length) {
+                    final char next = commandLine.charAt(++i);
+                    if (next != '\n') {
+                        token.append(next);
+                    }
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (quote != 0) {
+            LOG.warn("Unterminated quote " + quote + " in command line: " + commandLine);
+        }
+        if (inToken) {
+            tokens.add(token.toString());
         }
         return tokens.toArray(new String[tokens.size()]);
     }
@@ -148,6 +354,73 @@ final class Util {
         return Runtime.getRuntime().availableProcessors();
     }
 
+    /**
+     * Parse a size in bytes with an optional unit: K, M, G or T (powers of 1024), e.g. <code>256M</code>.
+     *
+     * @param size Size to parse.
+     * @return Size in bytes.
+     * @throws NumberFormatException if the size is not valid.
+     */
+    public static long parseByteSize(final String size) {
+        final String s = size.trim().toUpperCase();
+        if (s.length() == 0) {
+            throw new NumberFormatException("Empty size");
+        }
+        final int unit = "KMGT".indexOf(s.charAt(s.length() - 1));
+        final long value = Long.parseLong(unit < 0 ? s : s.substring(0, s.length() - 1));
+        if (value < 0) {
+            throw new NumberFormatException("Negative size: " + size);
+        }
+        return unit < 0 ? value : value << (10 * (unit + 1));
+    }
+
+    /**
+     * Parse a duration with an optional unit: ms, s, m or h, seconds by default, e.g. <code>90s</code>.
+     *
+     * @param duration Duration to parse.
+     * @return Duration in milliseconds.
+     * @throws NumberFormatException if the duration is not valid.
+     */
+    public static long parseDuration(final String duration) {
+        final String s = duration.trim().toLowerCase();
+        long unitMillis = 1000L;
+        int end = s.length();
+        if (s.endsWith("ms")) {
+            unitMillis = 1L;
+            end -= 2;
+        } else if (s.endsWith("s")) {
+            end -= 1;
+        } else if (s.endsWith("m")) {
+            unitMillis = 60L * 1000;
+            end -= 1;
+        } else if (s.endsWith("h")) {
+            unitMillis = 60L * 60 * 1000;
+            end -= 1;
+        }
+        if (end == 0) {
+            throw new NumberFormatException("Empty duration");
+        }
+        final long value = Long.parseLong(s.substring(0, end));
+        if (value < 0) {
+            throw new NumberFormatException("Negative duration: " + duration);
+        }
+        return value * unitMillis;
+    }
+
+    /**
+     * Parse a socket address.
+     *
+     * @param address <code>port</code> for all the interfaces or <code>host:port</code>.
+     * @return Socket address, unresolved host names are resolved.
+     * @throws NumberFormatException if the port is not a number.
+     * @throws IllegalArgumentException if the port is not valid.
+     */
+    public static InetSocketAddress parseSocketAddress(final String address) {
+        final int sep = address.lastIndexOf(':');
+        final int port = Integer.parseInt(address.substring(sep + 1));
+        return sep < 0 ? new InetSocketAddress(port) : new InetSocketAddress(address.substring(0, sep), port);
+    }
+
     /**
      * Generate UUID string without all '-' characters.
      *
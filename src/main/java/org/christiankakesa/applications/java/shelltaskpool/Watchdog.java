@@ -0,0 +1,171 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deadlines of the running jobs, checked by a single thread.
+ * <p>
+ * Deadlines are kept in a hashed timer wheel: a ring of {@value #WHEEL_SIZE} buckets, one per tick of
+ * {@value #TICK_MILLIS} ms. A deadline goes to the bucket of its tick, with the number of wheel rounds left before
+ * it expires. At each tick, the watchdog thread only visits the bucket of the tick, so scheduling and cancelling a
+ * deadline cost O(1) whatever the number of running jobs. Deadlines fire at most one tick late.
+ * </p>
+ * <p>
+ * Producers only add deadlines to a lock-free queue, moved to the wheel by the watchdog thread. A cancelled deadline
+ * is removed from its bucket when the wheel comes back to it.
+ * </p>
+ */
+final class Watchdog {
+    private static final Logger LOG = Logger.getLogger(Watchdog.class);
+
+    /**
+     * Duration of a tick.
+     */
+    static final long TICK_MILLIS = 100L;
+    /**
+     * Number of buckets of the wheel, a power of two.
+     */
+    static final int WHEEL_SIZE = 512;
+
+    /**
+     * Deadline of a task.
+     */
+    static final class Timeout {
+        private final long deadline;
+        private final Runnable task;
+        /**
+         * Wheel rounds left, only used by the watchdog thread.
+         */
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(final long deadline, final Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * Cancel the task if it did not run yet.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private final long tickMillis;
+    private final List<Timeout>[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+    private final long startMillis;
+    /**
+     * Ticks elapsed since the start, only used by the watchdog thread.
+     */
+    private long tick;
+    private final Thread thread;
+
+    /**
+     * Watchdog constructor, the watchdog thread is started.
+     */
+    Watchdog() {
+        this(TICK_MILLIS, WHEEL_SIZE);
+    }
+
+    /**
+     * Watchdog constructor, the watchdog thread is started.
+     *
+     * @param tickMillis Duration of a tick.
+     * @param wheelSize  Number of buckets of the wheel, a power of two.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Watchdog(final long tickMillis, final int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size is not a power of two: " + wheelSize);
+        }
+        this.tickMillis = tickMillis;
+        this.wheel = new List[wheelSize];
+        for (int i = 0; i < wheelSize; ++i) {
+            this.wheel[i] = new ArrayList<Timeout>();
+        }
+        this.mask = wheelSize - 1;
+        this.startMillis = System.currentTimeMillis();
+        this.thread = ExecutorType.PLATFORM.threadFactory(AppInfo.APP_NAME + "-watchdog-", true).newThread(
+                this::tickLoop);
+        this.thread.start();
+    }
+
+    /**
+     * Run a task at a deadline.
+     *
+     * @param deadline Date of the deadline in milliseconds (Unix timestamp).
+     * @param task     Task run by the watchdog thread, it must not block.
+     * @return Deadline, to cancel the task.
+     */
+    Timeout schedule(final long deadline, final Runnable task) {
+        final Timeout timeout = new Timeout(deadline, task);
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Watchdog thread loop: wait for the next tick, then expire the deadlines of its bucket.
+     */
+    private void tickLoop() {
+        while (true) {
+            final long next = startMillis + (tick + 1) * tickMillis;
+            long wait;
+            while ((wait = next - System.currentTimeMillis()) > 0) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wait));
+            }
+            ++tick;
+            this.transferAdded();
+            this.expire(wheel[(int) (tick & mask)]);
+        }
+    }
+
+    /**
+     * Move the new deadlines to their bucket.
+     */
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // Deadlines already passed expire at this tick
+            final long ticks = Math.max(tick, (timeout.deadline - startMillis + tickMillis - 1) / tickMillis);
+            timeout.rounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void expire(final List<Timeout> bucket) {
+        final Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            final Timeout timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.rounds <= 0) {
+                it.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Watchdog task failed", e);
+                }
+            } else {
+                --timeout.rounds;
+            }
+        }
+    }
+}
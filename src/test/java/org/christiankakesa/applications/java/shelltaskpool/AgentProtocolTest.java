@@ -0,0 +1,79 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class AgentProtocolTest {
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testJob() {
+        final String message = AgentProtocol.job(7, 1500L, ResourceLimits.parse("memory.max:1G"), "sh -c 'exit 3'");
+        final String[] fields = message.split(" ", 5);
+        assertEquals(AgentProtocol.JOB, fields[0]);
+        assertEquals("7", fields[1]);
+        assertEquals("1500", fields[2]);
+        assertEquals(1L << 30, ResourceLimits.parse(fields[3]).getMemoryMax());
+        assertEquals("sh -c 'exit 3'", fields[4]);
+    }
+
+    @Test
+    public void testDone() {
+        final AgentProtocol.Result result = AgentProtocol.parseDone(AgentProtocol.done(new AgentProtocol.Result(
+                7, 3, true, 250L, 42L, new ResourceUsage(10L, 2048L, -1L))));
+        assertEquals(7, result.jobId);
+        assertEquals(3, result.exitCode);
+        assertTrue(result.timedOut);
+        assertEquals(250L, result.durationMillis);
+        assertEquals(42L, result.outputBytes);
+        assertEquals(10L, result.usage.getCpuMillis());
+        assertEquals(2048L, result.usage.getPeakMemoryBytes());
+        assertEquals(-1L, result.usage.getIoBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedDone() {
+        AgentProtocol.parseDone("DONE 7 x 0 250 42 10 2048 -1");
+    }
+
+    @Test
+    public void testProof() {
+        final byte[] secret = "s3cret".getBytes(StandardCharsets.UTF_8);
+        final String challenge = AgentProtocol.newChallenge();
+        assertEquals(32, challenge.length());
+        assertNotEquals(challenge, AgentProtocol.newChallenge());
+        final String proof = AgentProtocol.proof(secret, challenge);
+        assertEquals(64, proof.length());
+        assertTrue(AgentProtocol.verify(secret, challenge, proof));
+        assertFalse(AgentProtocol.verify(secret, AgentProtocol.newChallenge(), proof));
+        assertFalse(AgentProtocol.verify(secret, challenge, AgentProtocol.NO_PROOF));
+        assertFalse(AgentProtocol.verify("other".getBytes(StandardCharsets.UTF_8), challenge, proof));
+        assertEquals(AgentProtocol.NO_PROOF, AgentProtocol.proof(null, challenge));
+        assertTrue(AgentProtocol.verify(null, challenge, AgentProtocol.NO_PROOF));
+    }
+
+    @Test
+    public void testLoadSecret() throws Exception {
+        assertNull(AgentProtocol.loadSecret(null, null));
+        assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8),
+                AgentProtocol.loadSecret(" abc\n", "/nonexistent"));
+        final File file = tmp.newFile("secret");
+        Files.write(file.toPath(), "from file\n".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals("from file".getBytes(StandardCharsets.UTF_8),
+                AgentProtocol.loadSecret(null, file.getPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testEmptySecret() throws Exception {
+        AgentProtocol.loadSecret(" \n", null);
+    }
+}
@@ -2,7 +2,10 @@ package org.christiankakesa.applications.java.shelltaskpool;
 
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.Assert.*;
 
@@ -70,6 +73,42 @@ public class BatchTest {
         Batch.getInstance().setNumberOfWorkers(workersBackup);
     }
 
+    @Test
+    public void testStreaming() {
+        final boolean streamingBackup = Batch.getInstance().isStreaming();
+        Batch.getInstance().setStreaming(true);
+        assertTrue(Batch.getInstance().isStreaming());
+        Batch.getInstance().setStreaming(false);
+        assertFalse(Batch.getInstance().isStreaming());
+        Batch.getInstance().setStreaming(streamingBackup);
+    }
+
+    @Test
+    public void testAsync() {
+        assertFalse(Batch.getInstance().isAsync());
+        Batch.getInstance().setAsync(true);
+        assertTrue(Batch.getInstance().isAsync());
+        Batch.getInstance().setAsync(false);
+        assertNull(Batch.getInstance().getProcessSupervisor());
+    }
+
+    @Test
+    public void testCaptureSize() {
+        assertEquals(Batch.DEFAULT_CAPTURE_SIZE, Batch.getInstance().getCaptureSize());
+        final int captureSize = 1024;
+        Batch.getInstance().setCaptureSize(captureSize);
+        assertEquals(captureSize, Batch.getInstance().getCaptureSize());
+        Batch.getInstance().setCaptureSize(Batch.DEFAULT_CAPTURE_SIZE);
+    }
+
+    @Test
+    public void testExecutorType() {
+        assertEquals(ExecutorType.PLATFORM, Batch.getInstance().getExecutorType());
+        Batch.getInstance().setExecutorType(ExecutorType.VIRTUAL);
+        assertEquals(ExecutorType.VIRTUAL, Batch.getInstance().getExecutorType());
+        Batch.getInstance().setExecutorType(ExecutorType.PLATFORM);
+    }
+
     @Test
     public void testStartDate() {
         final Date startDate = new Date();
@@ -124,6 +163,10 @@ public class BatchTest {
         totalCounter += 2;
         assertEquals(b.getTotalJob(), totalCounter);
         assertEquals(b.incrementAndGetTotalJOb(), ++totalCounter);
+        assertEquals(0L, b.getOutputBytes());
+        b.addOutputBytes(42L);
+        b.addOutputBytes(8L);
+        assertEquals(50L, b.getOutputBytes());
         b.doEndStatus();
         assertNotNull(b.getStatus());
 
@@ -142,4 +185,82 @@ public class BatchTest {
         assertEquals(c.getStatus(), Batch.Status.COMPLETED_WITH_ERROR);
         assertEquals(c.getTotalJob(), 3);
     }
+
+    @Test
+    public void testUniqueJobIdsUnderConcurrency() throws InterruptedException {
+        final int nbThreads = 8;
+        final int idsPerThread = 10000;
+        final Batch.BatchStatus b = new Batch.BatchStatus();
+        final Set<Integer> ids = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final Thread[] threads = new Thread[nbThreads];
+        for (int i = 0; i < nbThreads; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < idsPerThread; ++j) {
+                        ids.add(b.incrementAndGetTotalJOb());
+                        b.incrementSuccessJob();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(nbThreads * idsPerThread, ids.size());
+        assertEquals(nbThreads * idsPerThread, b.getTotalJob());
+        assertEquals(nbThreads * idsPerThread, b.getSuccessJob());
+    }
+
+    @Test
+    public void testSnapshot() {
+        final Batch.BatchStatus b = new Batch.BatchStatus();
+        b.incrementAndGetTotalJOb();
+        b.incrementAndGetTotalJOb();
+        b.incrementAndGetTotalJOb();
+        b.incrementSuccessJob();
+        b.incrementFailedJob();
+        b.addOutputBytes(42L);
+        final Batch.Snapshot snapshot = b.snapshot();
+        assertEquals(1, snapshot.getSuccessJob());
+        assertEquals(1, snapshot.getFailedJob());
+        assertEquals(3, snapshot.getTotalJob());
+        assertEquals(1, snapshot.getUnfinishedJob());
+        assertEquals(42L, snapshot.getOutputBytes());
+        assertEquals(Batch.Status.NONE, snapshot.getStatus());
+    }
+
+    @Test
+    public void testNewBatch() {
+        final Batch parent = Batch.getInstance();
+        parent.getBatchStatus().incrementAndGetTotalJOb();
+        final Batch batch = parent.newBatch("next", null, 42L);
+        assertEquals("next", batch.getId());
+        assertEquals(Batch.DEFAULT_NAME, batch.getName());
+        assertEquals(42L, batch.getDeadline());
+        assertEquals(parent.getNumberOfWorkers(), batch.getNumberOfWorkers());
+        assertSame(parent.getJobEventLog(), batch.getJobEventLog());
+        assertSame(parent.getWatchdog(), batch.getWatchdog());
+        assertNotSame(parent.getBatchStatus(), batch.getBatchStatus());
+        assertEquals(0, batch.getBatchStatus().getTotalJob());
+        assertTrue(batch.getJobs().isEmpty());
+        assertNull(batch.getJobJournal());
+        assertTrue(parent.getBatchStatus().getTotalJob() > 0);
+    }
+
+    @Test
+    public void testAwaitJobs() throws InterruptedException {
+        final Batch batch = Batch.getInstance().newBatch("jobs", null, 0L);
+        batch.jobSubmitted();
+        batch.jobSubmitted();
+        final Thread ender = new Thread(() -> {
+            batch.jobEnded();
+            batch.jobEnded();
+        });
+        ender.start();
+        batch.awaitJobs();
+        ender.join();
+        // No job in flight, returns at once
+        batch.awaitJobs();
+    }
 }
@@ -0,0 +1,160 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyControllerTest {
+    /**
+     * Pool of a given size, saturated or not.
+     */
+    private static final class FixedPool implements ConcurrencyController.Pool {
+        private int size;
+        private final boolean saturated;
+
+        private FixedPool(final int size, final boolean saturated) {
+            this.size = size;
+            this.saturated = saturated;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(final int size) {
+            this.size = size;
+        }
+
+        public boolean isSaturated() {
+            return saturated;
+        }
+    }
+
+    private static ConcurrencyController.Sample idle() {
+        return new ConcurrencyController.Sample(0.2, 0.2, 0.3, 0.0, 0.0, 0.8);
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        final FixedPool pool = new FixedPool(4, true);
+        final ConcurrencyController controller = new ConcurrencyController(pool, 1, 6);
+        assertEquals(5, controller.adjust(idle()));
+        assertEquals(6, controller.adjust(idle()));
+        assertEquals(6, controller.adjust(idle()));
+        assertEquals(6, pool.getSize());
+    }
+
+    @Test
+    public void testNoIncreaseWithoutWaitingJobs() {
+        final FixedPool pool = new FixedPool(4, false);
+        assertEquals(4, new ConcurrencyController(pool, 1, 16).adjust(idle()));
+    }
+
+    @Test
+    public void testNoIncreaseAtTargetUtilization() {
+        final FixedPool pool = new FixedPool(4, true);
+        assertEquals(4, new ConcurrencyController(pool, 1, 16).adjust(
+                new ConcurrencyController.Sample(0.9, 0.9, 0.95, 0.0, 0.0, 0.8)));
+    }
+
+    /**
+     * Adjust the pool once the cooldown of a decrease is over.
+     */
+    private static int adjustAfterCooldown(final ConcurrencyController controller,
+                                           final ConcurrencyController.Sample sample) {
+        for (int i = 0; i < ConcurrencyController.COOLDOWN_SAMPLES; ++i) {
+            controller.adjust(sample);
+        }
+        return controller.adjust(sample);
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() {
+        final FixedPool pool = new FixedPool(8, true);
+        final ConcurrencyController controller = new ConcurrencyController(pool, 2, 16);
+        assertEquals(6, controller.adjust(new ConcurrencyController.Sample(2.0, 2.0, 1.0, 0.0, 0.0, 0.8)));
+        assertEquals(4, adjustAfterCooldown(controller,
+                new ConcurrencyController.Sample(0.5, 0.5, 0.5, 0.0, 0.2, 0.8)));
+        assertEquals(3, adjustAfterCooldown(controller,
+                new ConcurrencyController.Sample(0.5, 0.5, 0.5, 0.0, 0.0, 0.05)));
+        assertEquals(2, adjustAfterCooldown(controller,
+                new ConcurrencyController.Sample(2.0, 2.0, 1.0, 0.0, 0.0, 0.8)));
+        assertEquals(2, adjustAfterCooldown(controller,
+                new ConcurrencyController.Sample(2.0, 2.0, 1.0, 0.0, 0.0, 0.8)));
+    }
+
+    @Test
+    public void testCooldownAfterDecrease() {
+        final FixedPool pool = new FixedPool(8, true);
+        final ConcurrencyController controller = new ConcurrencyController(pool, 1, 16);
+        assertEquals(6, controller.adjust(new ConcurrencyController.Sample(2.0, 2.0, 1.0, 0.0, 0.0, 0.8)));
+        // The load average still shows the jobs cut off, the idle CPU does not bring them back either
+        for (int i = 0; i < ConcurrencyController.COOLDOWN_SAMPLES; ++i) {
+            assertEquals(6, controller.adjust(new ConcurrencyController.Sample(2.0, 2.0, 1.0, 0.0, 0.0, 0.8)));
+        }
+        assertEquals(7, controller.adjust(idle()));
+    }
+
+    @Test
+    public void testLoadAverageCooldown() {
+        final FixedPool pool = new FixedPool(8, true);
+        final ConcurrencyController controller = new ConcurrencyController(pool, 1, 16);
+        final ConcurrencyController.Sample loaded = new ConcurrencyController.Sample(2.0, -1.0, 1.0, 0.0, 0.0, 0.8);
+        assertEquals(6, controller.adjust(loaded));
+        for (int i = 0; i < ConcurrencyController.LOAD_AVERAGE_COOLDOWN_SAMPLES; ++i) {
+            assertEquals(6, controller.adjust(loaded));
+        }
+        assertEquals(4, controller.adjust(loaded));
+    }
+
+    @Test
+    public void testRunnableProcesses() {
+        final FixedPool pool = new FixedPool(8, false);
+        final ConcurrencyController controller = new ConcurrencyController(pool, 1, 16);
+        // High load average of processes blocked on I/O, few runnable processes
+        assertEquals(8, controller.adjust(new ConcurrencyController.Sample(3.0, 0.5, 0.4, 0.5, 0.0, 0.8)));
+        assertEquals(6, controller.adjust(new ConcurrencyController.Sample(0.5, 2.0, 1.0, 0.0, 0.0, 0.8)));
+    }
+
+    @Test
+    public void testIoBoundLoadAverage() {
+        final FixedPool pool = new FixedPool(8, false);
+        final ConcurrencyController controller = new ConcurrencyController(pool, 1, 16);
+        assertEquals(8, controller.adjust(new ConcurrencyController.Sample(3.0, -1.0, 0.4, 0.5, 0.0, 0.8)));
+        assertEquals(6, controller.adjust(new ConcurrencyController.Sample(3.0, -1.0, 1.0, 0.05, 0.0, 0.8)));
+    }
+
+    @Test
+    public void testParseLoadAverage() {
+        assertEquals(1.25, ConcurrencyController.parseLoadAverage("1.25 0.80 0.50 2/345 6789\n"), 0.0);
+    }
+
+    @Test
+    public void testParseCpuTimes() {
+        final long[] times = ConcurrencyController.parseCpuTimes(
+                "cpu  100 10 50 800 20 5 5 10 0 0\ncpu0 50 5 25 400 10 2 3 5 0 0\n");
+        assertArrayEquals(new long[]{1000, 800, 20, 10}, times);
+    }
+
+    @Test
+    public void testParseProcsRunning() {
+        assertEquals(3, ConcurrencyController.parseProcsRunning(
+                "cpu  100 10 50 800 20 5 5 10 0 0\nctxt 1234\nprocs_running 3\nprocs_blocked 1\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseProcsRunningMissing() {
+        ConcurrencyController.parseProcsRunning("cpu  100 10 50 800 20 5 5 10 0 0\n");
+    }
+
+    @Test
+    public void testParseAvailableMemory() {
+        assertEquals(0.25, ConcurrencyController.parseAvailableMemory(
+                "MemTotal:       16000 kB\nMemFree:         1000 kB\nMemAvailable:    4000 kB\n"), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseAvailableMemoryMissing() {
+        ConcurrencyController.parseAvailableMemory("MemTotal:       16000 kB\n");
+    }
+}
@@ -0,0 +1,193 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CoordinatorTest {
+    /**
+     * Agent driven by the test.
+     */
+    private static final class FakeAgent implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        FakeAgent(final Coordinator coordinator, final int workers) throws IOException {
+            this(coordinator, workers, SECRET);
+        }
+
+        FakeAgent(final Coordinator coordinator, final int workers, final byte[] secret) throws IOException {
+            socket = new Socket("127.0.0.1", coordinator.getPort());
+            socket.setSoTimeout(10000);
+            in = AgentProtocol.reader(socket);
+            out = AgentProtocol.writer(socket);
+            final String challenge = in.readLine();
+            assertTrue(challenge.startsWith(AgentProtocol.CHALLENGE + " "));
+            AgentProtocol.send(out, AgentProtocol.HELLO + " fake " + workers + " "
+                    + AgentProtocol.proof(secret, challenge.substring(AgentProtocol.CHALLENGE.length() + 1)));
+            AgentProtocol.send(out, AgentProtocol.READY + " " + workers);
+        }
+
+        /**
+         * Test if the coordinator closed the connection.
+         *
+         * @return true if the connection is closed without message.
+         * @throws IOException if the connection failed.
+         */
+        boolean isRejected() throws IOException {
+            return in.readLine() == null;
+        }
+
+        String[] nextJob() throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(AgentProtocol.JOB)) {
+                    return line.split(" ", 5);
+                }
+            }
+            throw new IOException("No job");
+        }
+
+        void done(final int jobId, final int exitCode) throws IOException {
+            AgentProtocol.send(out, AgentProtocol.done(new AgentProtocol.Result(jobId, exitCode, false, 20L, 3L,
+                    ResourceUsage.UNKNOWN)));
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static final byte[] SECRET = "s3cret".getBytes(StandardCharsets.UTF_8);
+
+    private static Coordinator newCoordinator() throws IOException {
+        return new Coordinator(new InetSocketAddress("127.0.0.1", 0), SECRET);
+    }
+
+    @Test
+    public void testLease() throws IOException, InterruptedException {
+        final Coordinator coordinator = CoordinatorTest.newCoordinator();
+        final CountDownLatch ended = new CountDownLatch(1);
+        final JobExecution job = new JobExecution(Batch.getInstance(), new JobSpec("echo abc"), -1,
+                j -> ended.countDown());
+        try (FakeAgent agent = new FakeAgent(coordinator, 1)) {
+            coordinator.submit(job);
+            final String[] fields = agent.nextJob();
+            assertEquals(String.valueOf(job.getId()), fields[1]);
+            assertEquals("echo abc", fields[4]);
+            assertEquals(JobExecution.JobStatus.RUNNING, job.getStatus());
+            agent.done(job.getId(), 0);
+            assertTrue(ended.await(10, TimeUnit.SECONDS));
+        } finally {
+            coordinator.close();
+        }
+        assertEquals(JobExecution.JobStatus.COMPLETED, job.getStatus());
+        assertEquals(3L, job.getOutputBytes());
+        assertEquals(20L, job.getEndTime() - job.getStartTime(), 20L);
+    }
+
+    @Test
+    public void testLeaseExpiry() throws IOException, InterruptedException {
+        final Coordinator coordinator = CoordinatorTest.newCoordinator();
+        final CountDownLatch ended = new CountDownLatch(1);
+        final JobExecution job = new JobExecution(Batch.getInstance(), new JobSpec("false"), -1,
+                j -> ended.countDown());
+        try {
+            coordinator.submit(job);
+            try (FakeAgent lost = new FakeAgent(coordinator, 1)) {
+                assertEquals(String.valueOf(job.getId()), lost.nextJob()[1]);
+            }
+            try (FakeAgent agent = new FakeAgent(coordinator, 1)) {
+                assertEquals(String.valueOf(job.getId()), agent.nextJob()[1]);
+                agent.done(job.getId(), 1);
+                assertTrue(ended.await(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            coordinator.close();
+        }
+        assertEquals(JobExecution.JobStatus.FAILED, job.getStatus());
+        assertEquals(1, job.getExitCode());
+    }
+
+    @Test
+    public void testAgents() throws IOException, InterruptedException {
+        final Coordinator coordinator = CoordinatorTest.newCoordinator();
+        final String[] commandLines = {"true", "false", "sh -c 'exit 3'", "sleep 0.1", "true", "true"};
+        final CountDownLatch ended = new CountDownLatch(commandLines.length);
+        final Map<String, JobExecution> jobs = new ConcurrentHashMap<String, JobExecution>();
+        final MyThreadPoolExecutor[] executors = new MyThreadPoolExecutor[2];
+        final Thread[] agents = new Thread[executors.length];
+        try {
+            for (int i = 0; i < agents.length; ++i) {
+                final MyThreadPoolExecutor mtpe = new MyThreadPoolExecutor(Batch.getInstance(), 2, 2);
+                final Agent agent = new Agent(new InetSocketAddress("127.0.0.1", coordinator.getPort()),
+                        Batch.getInstance(), mtpe, 2, SECRET);
+                executors[i] = mtpe;
+                agents[i] = new Thread(() -> {
+                    try {
+                        agent.run();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                agents[i].start();
+            }
+            for (String commandLine : commandLines) {
+                final JobExecution job = new JobExecution(Batch.getInstance(), new JobSpec(commandLine), -1,
+                        j -> ended.countDown());
+                jobs.put(commandLine, job);
+                coordinator.submit(job);
+            }
+            assertTrue(ended.await(30, TimeUnit.SECONDS));
+        } finally {
+            coordinator.close();
+        }
+        for (int i = 0; i < agents.length; ++i) {
+            agents[i].join(10000);
+            assertFalse(agents[i].isAlive());
+            executors[i].shutdown();
+            assertTrue(executors[i].awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(JobExecution.JobStatus.COMPLETED, jobs.get("true").getStatus());
+        assertEquals(JobExecution.JobStatus.FAILED, jobs.get("false").getStatus());
+        assertEquals(3, jobs.get("sh -c 'exit 3'").getExitCode());
+        assertTrue(jobs.get("sleep 0.1").getEndTime() - jobs.get("sleep 0.1").getStartTime() >= 100L);
+        assertEquals(0, coordinator.getPendingJobs());
+    }
+
+    @Test
+    public void testWrongSecret() throws IOException {
+        final Coordinator coordinator = CoordinatorTest.newCoordinator();
+        final JobExecution job = new JobExecution(Batch.getInstance(), new JobSpec("true"), -1, null);
+        try {
+            coordinator.submit(job);
+            try (FakeAgent agent = new FakeAgent(coordinator, 1, "wrong".getBytes(StandardCharsets.UTF_8))) {
+                assertTrue(agent.isRejected());
+            }
+            try (FakeAgent agent = new FakeAgent(coordinator, 1, null)) {
+                assertTrue(agent.isRejected());
+            }
+            assertEquals(1, coordinator.getPendingJobs());
+        } finally {
+            coordinator.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSecretNeededOutOfLoopback() throws IOException {
+        new Coordinator(new InetSocketAddress(0), null);
+    }
+}
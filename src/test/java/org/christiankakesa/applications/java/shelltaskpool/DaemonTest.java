@@ -0,0 +1,118 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DaemonTest {
+    private static final byte[] SECRET = "s3cr3t".getBytes(StandardCharsets.UTF_8);
+
+    private static HttpURLConnection request(final Daemon daemon, final String path, final String body)
+            throws IOException {
+        return DaemonTest.request(daemon, path, body, null);
+    }
+
+    private static HttpURLConnection request(final Daemon daemon, final String path, final String body,
+                                             final String signature) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + daemon.getPort()
+                + path).openConnection();
+        if (signature != null) {
+            connection.setRequestProperty(Daemon.SIGNATURE_HEADER, signature);
+        }
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return connection;
+    }
+
+    private static String read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream is = in) {
+            is.transferTo(body);
+        }
+        return body.toString(StandardCharsets.UTF_8.name());
+    }
+
+    @Test
+    public void testSubmit() throws IOException, InterruptedException {
+        final Daemon daemon = new Daemon(new InetSocketAddress("127.0.0.1", 0), null, JobSpec::parse);
+        try {
+            final HttpURLConnection submit = DaemonTest.request(daemon, Daemon.PATH + "?name=my%20batch&timeout=1m",
+                    "# comment\n[id:a] echo a\n\n[after:a] echo b\n");
+            assertEquals(202, submit.getResponseCode());
+            assertTrue(DaemonTest.read(submit.getInputStream())
+                    .contains("|name:my batch|number_of_jobs:2|status:QUEUED"));
+            final Daemon.Submission submission = daemon.take();
+            assertEquals("my batch", submission.getName());
+            assertEquals(60000L, submission.getTimeoutMillis());
+            assertEquals(2, submission.getJobs().size());
+            assertEquals("echo b", submission.getJobs().get(1).getCommandLine());
+
+            submission.started(new Batch.BatchStatus());
+            submission.ended("batch:end|id:" + submission.getId());
+            final HttpURLConnection status = DaemonTest.request(daemon, Daemon.PATH + "/" + submission.getId(), null);
+            assertEquals(200, status.getResponseCode());
+            assertTrue(DaemonTest.read(status.getInputStream()).startsWith("batch:status|id:" + submission.getId()));
+            assertTrue(DaemonTest.read(DaemonTest.request(daemon, Daemon.PATH, null).getInputStream())
+                    .contains(submission.getId()));
+            assertEquals(404, DaemonTest.request(daemon, Daemon.PATH + "/unknown", null).getResponseCode());
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void testInvalidBatch() throws IOException {
+        final Daemon daemon = new Daemon(new InetSocketAddress("127.0.0.1", 0), null, JobSpec::parse);
+        try {
+            assertEquals(400, DaemonTest.request(daemon, Daemon.PATH, "[after:x] true\n").getResponseCode());
+            assertEquals(400, DaemonTest.request(daemon, Daemon.PATH, "# no job\n").getResponseCode());
+            assertEquals(400, DaemonTest.request(daemon, Daemon.PATH + "?timeout=soon", "true\n")
+                    .getResponseCode());
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void testSignedSubmit() throws IOException {
+        final Daemon daemon = new Daemon(new InetSocketAddress("127.0.0.1", 0), SECRET, JobSpec::parse);
+        try {
+            final String body = "echo a\n";
+            assertEquals(401, DaemonTest.request(daemon, Daemon.PATH, body).getResponseCode());
+            assertEquals(401, DaemonTest.request(daemon, Daemon.PATH, body,
+                    AgentProtocol.proof("other".getBytes(StandardCharsets.UTF_8), body)).getResponseCode());
+            assertEquals(202, DaemonTest.request(daemon, Daemon.PATH, body, AgentProtocol.proof(SECRET, body))
+                    .getResponseCode());
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSecretNeededOutOfLoopback() throws IOException {
+        new Daemon(new InetSocketAddress(0), null, JobSpec::parse);
+    }
+
+    @Test
+    public void testParseQuery() {
+        final Map<String, String> query = Daemon.parseQuery("name=a%20b&wait");
+        assertEquals("a b", query.get("name"));
+        assertEquals("true", query.get("wait"));
+        assertTrue(Daemon.parseQuery(null).isEmpty());
+    }
+}
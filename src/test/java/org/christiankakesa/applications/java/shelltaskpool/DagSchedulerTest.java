@@ -0,0 +1,112 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DagSchedulerTest {
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private static Batch newBatch() {
+        return Batch.getInstance().newBatch(Util.buildUUID(), null, 0L);
+    }
+
+    /**
+     * Run jobs in a batch of their own.
+     *
+     * @return Batch of the jobs.
+     */
+    private static Batch runAll(final List<JobSpec> specs) throws Exception {
+        final Batch batch = newBatch();
+        final MyThreadPoolExecutor mtpe = new MyThreadPoolExecutor(batch, 4, 4);
+        final DagScheduler scheduler = new DagScheduler(batch, specs, mtpe);
+        scheduler.start();
+        scheduler.await();
+        mtpe.shutdown();
+        return batch;
+    }
+
+    @Test
+    public void testDependenciesOrder() throws Exception {
+        final File out = tmp.newFile("dag.txt");
+        final String path = out.getAbsolutePath();
+        runAll(Arrays.asList(
+                JobSpec.parse("[id:c after:a,b] sh -c 'echo c >> " + path + "'"),
+                JobSpec.parse("[id:a] sh -c 'sleep 0.2; echo a >> " + path + "'"),
+                JobSpec.parse("[id:b after:a] sh -c 'echo b >> " + path + "'")));
+        assertEquals(Arrays.asList("a", "b", "c"), Files.readAllLines(out.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFailureSkipsDescendants() throws Exception {
+        final Batch batch = runAll(Arrays.asList(
+                JobSpec.parse("[id:a] false"),
+                JobSpec.parse("[id:b after:a] true"),
+                JobSpec.parse("[id:c after:b] true"),
+                JobSpec.parse("[id:d] true")));
+        assertEquals(2, batch.getBatchStatus().getSkippedJob());
+        assertEquals(1, batch.getBatchStatus().getSuccessJob());
+        assertEquals(1, batch.getBatchStatus().getFailedJob());
+    }
+
+    @Test
+    public void testResumeReleasesCompletedJobs() throws Exception {
+        final Batch batch = newBatch();
+        final MyThreadPoolExecutor mtpe = new MyThreadPoolExecutor(batch, 2, 2);
+        final DagScheduler scheduler = new DagScheduler(batch, Arrays.asList(
+                JobSpec.parse("[id:a] false"),
+                JobSpec.parse("[id:b after:a] true")), mtpe, Collections.singleton(0));
+        scheduler.start();
+        scheduler.await();
+        mtpe.shutdown();
+        assertEquals(0, batch.getBatchStatus().getSkippedJob());
+        assertEquals(1, batch.getBatchStatus().getSuccessJob());
+    }
+
+    @Test
+    public void testCriticalPath() throws Exception {
+        final DurationHistory history = new DurationHistory(new File(tmp.getRoot(), "dag.history"));
+        history.record("sleep 1", 0L, 1000L, 0, 0L);
+        history.record("sleep 5", 0L, 5000L, 0, 0L);
+        final Batch batch = newBatch();
+        batch.setDurationHistory(history);
+        final DagScheduler scheduler = new DagScheduler(batch, Arrays.asList(
+                JobSpec.parse("[id:a] sleep 1"),
+                JobSpec.parse("[id:b after:a] sleep 5"),
+                JobSpec.parse("[id:c after:a] sleep 1"),
+                JobSpec.parse("[id:d] sleep 5")), new MyThreadPoolExecutor(batch, 1, 1));
+        assertEquals(6000L, scheduler.getCriticalPath("a"));
+        assertEquals(5000L, scheduler.getCriticalPath("b"));
+        assertEquals(1000L, scheduler.getCriticalPath("c"));
+        assertEquals(5000L, scheduler.getCriticalPath("d"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCycle() {
+        new DagScheduler(Batch.getInstance(),
+                Arrays.asList(JobSpec.parse("[id:a after:b] true"), JobSpec.parse("[id:b after:a] true")),
+                new MyThreadPoolExecutor(Batch.getInstance(), 1, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDependency() {
+        new DagScheduler(Batch.getInstance(), Arrays.asList(JobSpec.parse("[id:a after:z] true")),
+                new MyThreadPoolExecutor(Batch.getInstance(), 1, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicatedId() {
+        new DagScheduler(Batch.getInstance(), Arrays.asList(JobSpec.parse("[id:a] true"), JobSpec.parse("[id:a] true")),
+                new MyThreadPoolExecutor(Batch.getInstance(), 1, 1));
+    }
+}
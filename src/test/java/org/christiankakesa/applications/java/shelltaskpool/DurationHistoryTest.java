@@ -0,0 +1,94 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class DurationHistoryTest {
+    private static File newHistoryFile() throws Exception {
+        final File file = File.createTempFile("duration", ".history");
+        file.deleteOnExit();
+        new File(file.getPath() + DurationHistory.INDEX_SUFFIX).deleteOnExit();
+        return file;
+    }
+
+    private static void recordRuns(final DurationHistory history, final String cmd, final int runs) {
+        for (int i = 1; i <= runs; ++i) {
+            history.record(cmd, 0L, i * 10L, 0, 100L);
+        }
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("sleep 1 2", DurationHistory.normalize("  sleep \t1   2 "));
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        final DurationHistory history = new DurationHistory(newHistoryFile());
+        assertNull(history.getStats("sleep 1"));
+        assertEquals(DurationHistory.UNKNOWN_DURATION, history.expectedDuration("sleep 1"));
+        recordRuns(history, "sleep 1", 20);
+        history.record("sleep  1", 0L, 5000L, 1, -1L);
+        final DurationHistory.Stats stats = history.getStats("sleep 1");
+        assertEquals(21, stats.getRuns());
+        assertEquals(1, stats.getFailures());
+        assertEquals(1.0 / 21, stats.getFailureRate(), 1e-9);
+        assertEquals(100L, stats.getP50());
+        assertEquals(190L, stats.getP95());
+        assertEquals(100L, stats.getAverageOutputBytes());
+        assertEquals(100L, history.expectedDuration("sleep 1"));
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        final DurationHistory history = new DurationHistory(newHistoryFile());
+        recordRuns(history, "sleep 1", DurationHistory.WINDOW + 8);
+        final DurationHistory.Stats stats = history.getStats("sleep 1");
+        assertEquals(DurationHistory.WINDOW + 8, stats.getRuns());
+        // Only the last durations are kept: 90 to 400
+        assertEquals(240L, stats.getP50());
+    }
+
+    @Test
+    public void testReopenWithIndex() throws Exception {
+        final File file = newHistoryFile();
+        DurationHistory history = new DurationHistory(file);
+        recordRuns(history, "sleep 1", 3);
+        recordRuns(history, "sleep 2", 5);
+        history.close();
+        assertTrue(new File(file.getPath() + DurationHistory.INDEX_SUFFIX).isFile());
+        history = new DurationHistory(file);
+        assertEquals(2, history.size());
+        assertEquals(20L, history.expectedDuration("sleep 1"));
+        // Runs after the index are added to the indexed statistics
+        recordRuns(history, "sleep 1", 3);
+        assertEquals(6, history.getStats("sleep 1").getRuns());
+        history.close();
+        history = new DurationHistory(file);
+        assertEquals(6, history.getStats("sleep 1").getRuns());
+        assertEquals(5, history.getStats("sleep 2").getRuns());
+        history.close();
+    }
+
+    @Test
+    public void testReplayLogWithoutIndex() throws Exception {
+        final File file = newHistoryFile();
+        DurationHistory history = new DurationHistory(file);
+        recordRuns(history, "sleep 1", 4);
+        // JVM died: no index, a record partially written
+        final long length = file.length();
+        recordRuns(history, "sleep 2", 1);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 3);
+        }
+        history = new DurationHistory(file);
+        assertEquals(4, history.getStats("sleep 1").getRuns());
+        assertNull(history.getStats("sleep 2"));
+        assertEquals(length, file.length());
+        history.close();
+    }
+}
@@ -0,0 +1,43 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadFactory;
+
+import static org.junit.Assert.*;
+
+public class ExecutorTypeTest {
+    private static final Runnable NOOP = new Runnable() {
+        public void run() {
+        }
+    };
+
+    @Test
+    public void testFromName() {
+        assertEquals(ExecutorType.PLATFORM, ExecutorType.fromName("platform"));
+        assertEquals(ExecutorType.VIRTUAL, ExecutorType.fromName(" Virtual "));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromUnknownName() {
+        ExecutorType.fromName("green");
+    }
+
+    @Test
+    public void testPlatformThreadFactory() {
+        final ThreadFactory tf = ExecutorType.PLATFORM.threadFactory("test-", true);
+        final Thread t = tf.newThread(NOOP);
+        assertEquals("test-1", t.getName());
+        assertTrue(t.isDaemon());
+        assertFalse(ExecutorType.PLATFORM.threadFactory("test-", false).newThread(NOOP).isDaemon());
+    }
+
+    @Test
+    public void testVirtualThreadFactory() throws InterruptedException {
+        final Thread t = ExecutorType.VIRTUAL.threadFactory("test-virtual-", false).newThread(NOOP);
+        assertTrue(t.isVirtual());
+        assertEquals("test-virtual-1", t.getName());
+        t.start();
+        t.join();
+    }
+}
@@ -0,0 +1,151 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FairShareQueueTest {
+    private static ShellTaskWorker worker(final Batch batch, final long priority) {
+        return new ShellTaskWorker(batch, new JobSpec("true"), -1, priority, null);
+    }
+
+    private static ShellTaskWorker worker(final Batch batch, final String line) {
+        return new ShellTaskWorker(batch, JobSpec.parse(line), -1, 0L, null);
+    }
+
+    @Test
+    public void testBatchesTakeTurns() throws InterruptedException {
+        final Batch large = Batch.getInstance().newBatch("large", null, 0L);
+        final Batch small = Batch.getInstance().newBatch("small", null, 0L);
+        final FairShareQueue queue = new FairShareQueue();
+        final ShellTaskWorker l1 = worker(large, 0L);
+        final ShellTaskWorker l2 = worker(large, 0L);
+        final ShellTaskWorker l3 = worker(large, 5L);
+        final ShellTaskWorker s1 = worker(small, 0L);
+        final ShellTaskWorker s2 = worker(small, 0L);
+        queue.offer(l1);
+        queue.offer(l2);
+        queue.offer(l3);
+        queue.offer(s1);
+        queue.offer(s2);
+        assertEquals(5, queue.size());
+        // Highest priority first in a batch, the batches alternate
+        assertSame(l3, queue.peek());
+        assertSame(l3, queue.take());
+        assertSame(s1, queue.take());
+        assertSame(l1, queue.poll());
+        assertSame(s2, queue.poll(1, TimeUnit.MILLISECONDS));
+        assertSame(l2, queue.poll());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testWeightedGroups() {
+        final FairShareQueue queue = new FairShareQueue();
+        final List<ShellTaskWorker> bulk = new ArrayList<ShellTaskWorker>();
+        for (int i = 0; i < 6; ++i) {
+            bulk.add(worker(Batch.getInstance(), "[group:bulk weight:2] true"));
+            queue.offer(bulk.get(i));
+        }
+        final ShellTaskWorker small1 = worker(Batch.getInstance(), "[group:small] true");
+        final ShellTaskWorker small2 = worker(Batch.getInstance(), "[group:small] true");
+        queue.offer(small1);
+        queue.offer(small2);
+        // Two bulk jobs for one small job at each turn
+        assertSame(bulk.get(0), queue.poll());
+        assertSame(bulk.get(1), queue.poll());
+        assertSame(small1, queue.poll());
+        assertSame(bulk.get(2), queue.poll());
+        assertSame(bulk.get(3), queue.poll());
+        assertSame(small2, queue.poll());
+        assertSame(bulk.get(4), queue.poll());
+        assertSame(bulk.get(5), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testMaxRunning() throws InterruptedException {
+        final FairShareQueue queue = new FairShareQueue();
+        final ShellTaskWorker c1 = worker(Batch.getInstance(), "[group:capped max_running:1] true");
+        final ShellTaskWorker c2 = worker(Batch.getInstance(), "[group:capped max_running:1] true");
+        final ShellTaskWorker other = worker(Batch.getInstance(), "[group:other] true");
+        queue.offer(c1);
+        queue.offer(c2);
+        queue.offer(other);
+        assertSame(c1, queue.poll());
+        assertEquals(1, queue.getRunning("group:capped"));
+        // The capped group gives its turn while its job runs
+        assertSame(other, queue.poll());
+        assertNull(queue.poll());
+        assertNull(queue.peek());
+        assertEquals(1, queue.size());
+        // The run of the first job ends
+        final Thread runner = new Thread(c1);
+        runner.start();
+        assertSame(c2, queue.poll(10, TimeUnit.SECONDS));
+        runner.join();
+    }
+
+    @Test
+    public void testBudget() {
+        final FairShareQueue queue = new FairShareQueue(ResourceBudget.parse("cpu:4,mem:8G,io:1"));
+        final ShellTaskWorker cpu1 = worker(Batch.getInstance(), "[group:cpu cpu:2] true");
+        final ShellTaskWorker cpu2 = worker(Batch.getInstance(), "[group:cpu cpu:2] true");
+        final ShellTaskWorker cpu3 = worker(Batch.getInstance(), "[group:cpu cpu:2] true");
+        final ShellTaskWorker io1 = worker(Batch.getInstance(), "[group:io cpu:0.2 io:heavy] true");
+        final ShellTaskWorker io2 = worker(Batch.getInstance(), "[group:io cpu:0.2 io:heavy] true");
+        final ShellTaskWorker mem = worker(Batch.getInstance(), "[group:mem cpu:0 mem:6G] true");
+        for (ShellTaskWorker w : new ShellTaskWorker[]{cpu1, cpu2, cpu3, io1, io2, mem}) {
+            queue.offer(w);
+        }
+        assertSame(cpu1, queue.poll());
+        assertSame(io1, queue.poll());
+        assertSame(mem, queue.poll());
+        // 2.2 CPUs and the I/O slot are taken: cpu2 waits and reserves its CPUs, io2 waits for the I/O slot
+        assertNull(queue.poll());
+        assertEquals(3, queue.size());
+        cpu1.run();
+        assertSame(cpu2, queue.poll());
+        assertNull(queue.poll());
+        io1.run();
+        assertSame(io2, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testRemoveAndDrain() {
+        final Batch first = Batch.getInstance().newBatch("first", null, 0L);
+        final Batch second = Batch.getInstance().newBatch("second", null, 0L);
+        final FairShareQueue queue = new FairShareQueue();
+        final ShellTaskWorker f1 = worker(first, 0L);
+        final ShellTaskWorker s1 = worker(second, 0L);
+        final ShellTaskWorker s2 = worker(second, 0L);
+        queue.offer(f1);
+        queue.offer(s1);
+        queue.offer(s2);
+        assertTrue(queue.remove(f1));
+        assertFalse(queue.remove(f1));
+        assertEquals(2, queue.size());
+        final List<Runnable> drained = new ArrayList<Runnable>();
+        assertEquals(2, queue.drainTo(drained));
+        assertSame(s1, drained.get(0));
+        assertSame(s2, drained.get(1));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testTakeWaits() throws InterruptedException {
+        final FairShareQueue queue = new FairShareQueue();
+        final ShellTaskWorker w = worker(Batch.getInstance(), 0L);
+        final Thread producer = new Thread(() -> queue.offer(w));
+        producer.start();
+        assertSame(w, queue.take());
+        producer.join();
+    }
+}
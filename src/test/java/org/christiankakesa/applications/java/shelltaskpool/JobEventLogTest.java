@@ -0,0 +1,154 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.WriterAppender;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class JobEventLogTest {
+    private static Batch newBatch() {
+        return Batch.getInstance().newBatch(Util.buildUUID(), null, 0L);
+    }
+
+    /**
+     * Run jobs with an event log of their own.
+     *
+     * @return Events logged.
+     */
+    private static String runJobs(final Batch batch, final JobEventLog.Format format, final int capacity,
+                                  final String... cmds) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final JobEventLog eventLog = new JobEventLog(out, format, capacity);
+        batch.setJobEventLog(eventLog);
+        for (String cmd : cmds) {
+            new JobExecution(batch, cmd).start();
+        }
+        eventLog.flush();
+        return out.toString("utf-8");
+    }
+
+    @Test
+    public void testPipeFormat() throws Exception {
+        final Batch batch = newBatch();
+        final String res = runJobs(batch, JobEventLog.Format.PIPE, JobEventLog.DEFAULT_CAPACITY, "true");
+        assertTrue(res.startsWith("batch:job|id:" + batch.getId() + "|job_id:"));
+        assertTrue(res.contains("|job_command_line:true|"));
+        assertTrue(res.endsWith("|job_status:COMPLETED|job_exit_code:0|job_output_bytes:0"
+                + "|job_cpu_millis:-1|job_peak_memory_bytes:-1|job_io_bytes:-1|job_attempt:1\n"));
+    }
+
+    @Test
+    public void testJsonFormat() throws Exception {
+        final Batch batch = newBatch();
+        final String res = runJobs(batch, JobEventLog.Format.JSON, JobEventLog.DEFAULT_CAPACITY, "false");
+        assertTrue(res.startsWith("{\"batch\":\"job\",\"id\":\"" + batch.getId() + "\",\"job_id\":"));
+        assertTrue(res.contains(",\"job_command_line\":\"false\","));
+        assertTrue(res.endsWith(",\"job_status\":\"FAILED\",\"job_exit_code\":1,\"job_output_bytes\":0"
+                + ",\"job_cpu_millis\":-1,\"job_peak_memory_bytes\":-1,\"job_io_bytes\":-1,\"job_attempt\":1}\n"));
+    }
+
+    @Test
+    public void testPhases() throws Exception {
+        final Batch batch = newBatch();
+        batch.setPhaseTimer(new PhaseTimer());
+        final String res = runJobs(batch, JobEventLog.Format.PIPE, JobEventLog.DEFAULT_CAPACITY, "true");
+        assertTrue(res.contains("|job_attempt:1|job_queue_micros:-1|job_spawn_micros:"));
+        assertTrue(res.contains("|job_complete_micros:"));
+        assertFalse(res.contains("|job_exit_micros:-1|"));
+    }
+
+    @Test
+    public void testCapturedOutput() throws Exception {
+        final Logger jobLogger = Logger.getLogger(JobExecution.class);
+        final Level level = jobLogger.getLevel();
+        jobLogger.setLevel(Level.DEBUG);
+        final String pipe;
+        final String json;
+        try {
+            pipe = runJobs(newBatch(), JobEventLog.Format.PIPE, JobEventLog.DEFAULT_CAPACITY, "printf 'a|b\\n'");
+            json = runJobs(newBatch(), JobEventLog.Format.JSON, JobEventLog.DEFAULT_CAPACITY, "printf 'a|b\\n'");
+        } finally {
+            jobLogger.setLevel(level);
+        }
+        assertTrue(pipe.endsWith("|job_output_bytes:4|job_cpu_millis:-1|job_peak_memory_bytes:-1|job_io_bytes:-1"
+                + "|job_attempt:1|job_output:a\\|b\\n\n"));
+        assertTrue(json.endsWith(",\"job_attempt\":1,\"job_output\":\"a|b\\n\"}\n"));
+        // Not captured out of debug mode
+        assertFalse(runJobs(newBatch(), JobEventLog.Format.PIPE, JobEventLog.DEFAULT_CAPACITY, "echo a")
+                .contains("|job_output:"));
+    }
+
+    @Test
+    public void testPipeEscape() {
+        final StringBuilder sb = new StringBuilder();
+        JobEventLog.appendPipeEscaped(sb, "a|b\\c\r\n");
+        assertEquals("a\\|b\\\\c\\r\\n", sb.toString());
+    }
+
+    @Test
+    public void testRingWrapsAround() throws Exception {
+        final int nbJobs = 10;
+        final String[] cmds = new String[nbJobs];
+        for (int i = 0; i < nbJobs; ++i) {
+            cmds[i] = "true";
+        }
+        final String res = runJobs(newBatch(), JobEventLog.Format.PIPE, 2, cmds);
+        assertEquals(nbJobs, res.split("\n").length);
+    }
+
+    @Test
+    public void testLogger() throws Exception {
+        final StringWriter logged = new StringWriter();
+        final Logger logger = Logger.getLogger(JobEventLogTest.class.getName() + ".events");
+        logger.setAdditivity(false);
+        logger.addAppender(new WriterAppender(new PatternLayout("%m%n"), logged));
+        final JobEventLog eventLog = new JobEventLog(logger, JobEventLog.Format.PIPE, JobEventLog.DEFAULT_CAPACITY);
+        final Batch batch = newBatch();
+        batch.setJobEventLog(eventLog);
+        final JobExecution job = new JobExecution(batch, "true");
+        job.start();
+        eventLog.flush();
+        assertTrue(logged.toString().startsWith("batch:job|id:"));
+        assertTrue(logged.toString().endsWith("|job_attempt:1" + System.lineSeparator()));
+        // The level of the logger applies to the events
+        logger.setLevel(Level.WARN);
+        eventLog.publish(job);
+        eventLog.flush();
+        assertEquals(1, logged.toString().split(System.lineSeparator()).length);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final JobEventLog eventLog = new JobEventLog(out, JobEventLog.Format.PIPE, JobEventLog.DEFAULT_CAPACITY);
+        final Batch batch = newBatch();
+        batch.setJobEventLog(eventLog);
+        final JobExecution job = new JobExecution(batch, "true");
+        job.start();
+        eventLog.close();
+        assertEquals(1, out.toString("utf-8").split("\n").length);
+        // Not written once closed
+        eventLog.publish(job);
+        eventLog.flush();
+        assertEquals(1, out.toString("utf-8").split("\n").length);
+    }
+
+    @Test
+    public void testJsonEscape() {
+        final StringBuilder sb = new StringBuilder();
+        JobEventLog.appendJsonEscaped(sb, "echo \"a\\b\"\t\u0001");
+        assertEquals("echo \\\"a\\\\b\\\"\\t\\u0001", sb.toString());
+    }
+
+    @Test
+    public void testFormatFromName() {
+        assertEquals(JobEventLog.Format.JSON, JobEventLog.Format.fromName("json"));
+        assertEquals(JobEventLog.Format.PIPE, JobEventLog.Format.fromName(" PIPE"));
+    }
+}
@@ -2,13 +2,15 @@ package org.christiankakesa.applications.java.shelltaskpool;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class JobExecutionTest {
 
     private final String cmd = "sudo aptitude full-upgrade";
-    private final JobExecution jobExecution = new JobExecution(cmd);
+    private final JobExecution jobExecution = new JobExecution(Batch.getInstance(), cmd);
 
     @Test
     public void testCommandLine() {
@@ -21,4 +23,62 @@ public class JobExecutionTest {
     public void testId() {
         assertTrue(0 < jobExecution.getId());
     }
+
+    @Test
+    public void testTimeout() {
+        final JobExecution job = new JobExecution(Batch.getInstance(), JobSpec.parse("[timeout:200ms] sleep 10"), -1,
+                null);
+        final int timedOut = Batch.getInstance().getBatchStatus().getTimedOutJob();
+        final long start = System.currentTimeMillis();
+        job.start();
+        assertEquals(JobExecution.JobStatus.TIMED_OUT, job.getStatus());
+        assertTrue(System.currentTimeMillis() - start < JobExecution.KILL_GRACE_MILLIS);
+        assertEquals(timedOut + 1, Batch.getInstance().getBatchStatus().getTimedOutJob());
+    }
+
+    @Test
+    public void testInterruptKillsProcess() throws InterruptedException {
+        final JobExecution job = new JobExecution(Batch.getInstance().newBatch(Util.buildUUID(), null, 0L),
+                JobSpec.parse("sh -c 'exec sleep 17 > /dev/null'"), -1, null);
+        final Thread worker = new Thread(job::start);
+        worker.start();
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while (job.getStatus() != JobExecution.JobStatus.RUNNING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        worker.interrupt();
+        worker.join(5000L);
+        assertFalse(worker.isAlive());
+        // The job process is killed instead of outliving the job
+        assertFalse(JobExecutionTest.stillRunning("sleep 17", deadline));
+    }
+
+    @Test
+    public void testTimeoutKillsDescendants() throws InterruptedException {
+        final JobExecution job = new JobExecution(Batch.getInstance().newBatch(Util.buildUUID(), null, 0L),
+                JobSpec.parse("[timeout:200ms] sh -c 'sleep 19 & wait'"), -1, null);
+        final long start = System.currentTimeMillis();
+        job.start();
+        assertEquals(JobExecution.JobStatus.TIMED_OUT, job.getStatus());
+        // The grandchild holds the output of the job open until it is killed
+        assertTrue(System.currentTimeMillis() - start < JobExecution.KILL_GRACE_MILLIS);
+        // The grandchild is killed with the shell
+        assertFalse(JobExecutionTest.stillRunning("sleep 19", System.currentTimeMillis() + 5000L));
+    }
+
+    /**
+     * Wait until no descendant process runs a command line, or until a deadline.
+     *
+     * @return true if the command line still runs at the deadline.
+     */
+    private static boolean stillRunning(final String commandLine, final long deadline) throws InterruptedException {
+        while (ProcessHandle.current().descendants().anyMatch(p -> p.isAlive()
+                && p.info().commandLine().orElse("").endsWith(commandLine))) {
+            if (System.currentTimeMillis() >= deadline) {
+                return true;
+            }
+            Thread.sleep(10L);
+        }
+        return false;
+    }
 }
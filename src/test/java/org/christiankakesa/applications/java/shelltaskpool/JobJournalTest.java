@@ -0,0 +1,72 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JobJournalTest {
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Run jobs in a batch of their own, journaled.
+     */
+    private static void runJournaled(final JobJournal journal, final String... cmds) {
+        final Batch batch = Batch.getInstance().newBatch(Util.buildUUID(), null, 0L);
+        batch.setJobJournal(journal);
+        for (int i = 0; i < cmds.length; ++i) {
+            new JobExecution(batch, new JobSpec(cmds[i]), i, null).start();
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testLastStates() throws Exception {
+        final File directory = tmp.newFolder("journal");
+        runJournaled(new JobJournal(directory, "batch1"), "true", "false");
+        final File file = JobJournal.journalFile(directory, "batch1");
+        // RUNNING and ended record of each job
+        assertEquals(4 * JobJournal.RECORD_SIZE, file.length());
+        final Map<Integer, JobJournal.JobState> states = JobJournal.read(file);
+        assertEquals(2, states.size());
+        assertEquals(JobExecution.JobStatus.COMPLETED, states.get(0).getStatus());
+        assertTrue(states.get(0).isCompleted("true"));
+        assertFalse(states.get(0).isCompleted("echo"));
+        assertEquals(JobExecution.JobStatus.FAILED, states.get(1).getStatus());
+        assertEquals(1, states.get(1).getExitCode());
+        assertFalse(states.get(1).isCompleted("false"));
+    }
+
+    @Test
+    public void testResumeAppends() throws Exception {
+        final File directory = tmp.newFolder("journal");
+        runJournaled(new JobJournal(directory, "batch2"), "false");
+        final File file = JobJournal.journalFile(directory, "batch2");
+        // Torn record of an interrupted write
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        runJournaled(new JobJournal(directory, "batch2"), "true");
+        assertEquals(4 * JobJournal.RECORD_SIZE, file.length());
+        assertTrue(JobJournal.read(file).get(0).isCompleted("true"));
+    }
+
+    @Test
+    public void testCorruptedRecordIgnored() throws Exception {
+        final File directory = tmp.newFolder("journal");
+        runJournaled(new JobJournal(directory, "batch3"), "true");
+        final File file = JobJournal.journalFile(directory, "batch3");
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        // Flip a bit of the COMPLETED record
+        bytes[JobJournal.RECORD_SIZE + 10] ^= 1;
+        Files.write(file.toPath(), bytes);
+        assertEquals(JobExecution.JobStatus.RUNNING, JobJournal.read(file).get(0).getStatus());
+    }
+}
@@ -0,0 +1,55 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class JobResourcesTest {
+    @Test
+    public void testParseProcStat() {
+        // Command name with spaces and parentheses, then utime:300 stime:100 cutime:50 cstime:50 ticks
+        final String stat = "4242 (my (job) x) S 1 4242 4242 0 -1 4194304 100 0 0 0 300 100 50 50 20 0 1 0 123";
+        assertEquals(5000L, JobResources.parseProcStatCpuMillis(stat));
+    }
+
+    @Test
+    public void testParseProcStatus() {
+        assertEquals(2048L, JobResources.parseStatusKilobytes("Name:\tsh\nVmPeak:\t4096 kB\nVmHWM:\t2048 kB\n",
+                "VmHWM:"));
+    }
+
+    @Test
+    public void testParseIo() {
+        assertEquals(1536L, JobResources.parseProcIoBytes(
+                "rchar: 9999\nwchar: 9999\nread_bytes: 1024\nwrite_bytes: 512\ncancelled_write_bytes: 0\n"));
+        assertEquals(700L, JobResources.parseIoStatBytes(
+                "8:0 rbytes=100 wbytes=200 rios=1 wios=2 dbytes=0 dios=0\n8:16 rbytes=400 wbytes=0 rios=3 wios=0\n"));
+    }
+
+    @Test
+    public void testNotACgroup() throws Exception {
+        final File directory = Files.createTempDirectory("cgroup").toFile();
+        final JobResources resources = new JobResources(directory, "batch", ResourceLimits.NONE);
+        final JobResources.Tracker tracker = resources.track(new JobSpec("true"), "batch", 1);
+        final String[] args = {"true"};
+        assertArrayEquals(args, tracker.command(args));
+        resources.close();
+    }
+
+    @Test
+    public void testSampleProcess() throws Exception {
+        final JobResources resources = new JobResources(null, "batch", ResourceLimits.NONE);
+        final JobResources.Tracker tracker = resources.track(new JobSpec("sleep 0.3"), "batch", 1);
+        final Process process = new ProcessBuilder(tracker.command(new String[]{"sleep", "0.3"})).start();
+        tracker.started(process);
+        Thread.sleep(JobResources.SAMPLE_PERIOD_MILLIS * 2);
+        process.waitFor();
+        final ResourceUsage usage = tracker.stop();
+        resources.close();
+        assertTrue(usage.getCpuMillis() >= 0);
+        assertTrue(usage.getPeakMemoryBytes() > 0);
+    }
+}
@@ -0,0 +1,118 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class JobSpecTest {
+    @Test
+    public void testParseWithoutHeader() {
+        final JobSpec spec = JobSpec.parse("echo [a]");
+        assertEquals("echo [a]", spec.getCommandLine());
+        assertNull(spec.getName());
+        assertFalse(spec.hasDependencies());
+    }
+
+    @Test
+    public void testParseHeader() {
+        final JobSpec spec = JobSpec.parse("[id:load after=extract_1,extract_2]  ./load.sh p1");
+        assertEquals("./load.sh p1", spec.getCommandLine());
+        assertEquals("load", spec.getName());
+        assertEquals(Arrays.asList("extract_1", "extract_2"), spec.getAfter());
+        assertTrue(spec.hasDependencies());
+    }
+
+    @Test
+    public void testParseLimits() {
+        final JobSpec spec = JobSpec.parse("[id:a cpu.max:2 memory.max=512M] ./encode.sh");
+        assertEquals("./encode.sh", spec.getCommandLine());
+        assertEquals(2.0, spec.getLimits().getCpuMax(), 0.0);
+        assertEquals(512L * 1024 * 1024, spec.getLimits().getMemoryMax());
+        assertTrue(JobSpec.parse("true").getLimits().isNone());
+    }
+
+    @Test
+    public void testParseTimeout() {
+        assertEquals(90000L, JobSpec.parse("[timeout:90s] ./fetch.sh").getTimeoutMillis());
+        assertEquals(0L, JobSpec.parse("./fetch.sh").getTimeoutMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongTimeout() {
+        JobSpec.parse("[timeout:soon] ./fetch.sh");
+    }
+
+    @Test
+    public void testParseRetryPolicy() {
+        final JobSpec spec = JobSpec.parse("[attempts:3 retry_on:75] ./fetch.sh");
+        assertEquals(3, spec.getRetryPolicy().getAttempts());
+        assertTrue(spec.getRetryPolicy().shouldRetry(1, 75));
+        assertFalse(spec.getRetryPolicy().shouldRetry(1, 1));
+        assertEquals(1, JobSpec.parse("./fetch.sh").getRetryPolicy().getAttempts());
+    }
+
+    @Test
+    public void testParseGroup() {
+        final JobGroup group = JobSpec.parse("[group:reports weight:3 max_running=2] ./report.sh").getGroup();
+        assertEquals("reports", group.getName());
+        assertEquals(3, group.getWeight());
+        assertEquals(2, group.getMaxRunning());
+        final JobGroup none = JobSpec.parse("./report.sh").getGroup();
+        assertNull(none.getName());
+        assertEquals(1, none.getWeight());
+        assertEquals(0, none.getMaxRunning());
+    }
+
+    @Test
+    public void testParseHints() {
+        final ResourceHints hints = JobSpec.parse("[cpu:2 mem=4G io:heavy cpu.max:3] ./encode.sh").getHints();
+        assertEquals(2000L, hints.getMilliCpus());
+        assertEquals(4L << 30, hints.getMemory());
+        assertTrue(hints.isIoHeavy());
+        final ResourceHints none = JobSpec.parse("./encode.sh").getHints();
+        assertEquals(ResourceHints.DEFAULT_MILLI_CPUS, none.getMilliCpus());
+        assertEquals(0L, none.getMemory());
+        assertFalse(none.isIoHeavy());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongIoHint() {
+        JobSpec.parse("[io:medium] ./encode.sh");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongWeight() {
+        JobSpec.parse("[group:reports weight:0] ./report.sh");
+    }
+
+    @Test
+    public void testWithCommandLine() {
+        final JobSpec spec = JobSpec.parse("[id:a after:b] true").withCommandLine("true -x");
+        assertEquals("true -x", spec.getCommandLine());
+        assertEquals("a", spec.getName());
+        assertEquals(Arrays.asList("b"), spec.getAfter());
+    }
+
+    @Test
+    public void testHeaderNotClosed() {
+        assertEquals("[id:a true", JobSpec.parse("[id:a true").getCommandLine());
+    }
+
+    @Test
+    public void testShellTests() {
+        assertEquals("[ -f done ] || ./run.sh", JobSpec.parse("[ -f done ] || ./run.sh").getCommandLine());
+        assertEquals("[[ -d x ]] && ./run.sh", JobSpec.parse("[[ -d x ]] && ./run.sh").getCommandLine());
+        assertEquals("[ -n \"$X\" ] && echo a=b", JobSpec.parse("[ -n \"$X\" ] && echo a=b").getCommandLine());
+        assertEquals("[ x:y = x:y ]", JobSpec.parse("[ x:y = x:y ]").getCommandLine());
+        assertNull(JobSpec.parse("[ -f done ] || ./run.sh").getName());
+    }
+
+    @Test
+    public void testUnknownAttribute() {
+        final JobSpec spec = JobSpec.parse("[id:a color:red] true");
+        assertEquals("[id:a color:red] true", spec.getCommandLine());
+        assertNull(spec.getName());
+    }
+}
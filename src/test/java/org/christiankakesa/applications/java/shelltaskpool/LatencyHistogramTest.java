@@ -0,0 +1,61 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucket() {
+        assertEquals(0, LatencyHistogram.bucket(-5));
+        assertEquals(0, LatencyHistogram.bucket(Long.MIN_VALUE));
+        assertEquals(0, LatencyHistogram.bucket(1));
+        assertEquals(1, LatencyHistogram.bucket(2));
+        assertEquals(3, LatencyHistogram.bucket(4));
+        assertEquals(4, LatencyHistogram.bucket(5));
+        assertEquals(35, LatencyHistogram.bucket(1024));
+        assertEquals(36, LatencyHistogram.bucket(1025));
+        assertEquals(1024L, LatencyHistogram.upperBound(35));
+        assertEquals(1280L, LatencyHistogram.upperBound(36));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+        for (long v = 1; v < 5000; ++v) {
+            final int bucket = LatencyHistogram.bucket(v);
+            assertEquals(true, v <= LatencyHistogram.upperBound(bucket));
+            assertEquals(true, bucket == 0 || v > LatencyHistogram.upperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void testRelativeError() {
+        for (int i = 1; i < LatencyHistogram.BUCKETS; ++i) {
+            final long upper = LatencyHistogram.upperBound(i);
+            final long lower = LatencyHistogram.upperBound(i - 1);
+            assertTrue(upper > lower);
+            // Sub-buckets are a quarter of their power of two range at most
+            assertTrue(i < LatencyHistogram.SUB_BUCKETS || i == LatencyHistogram.BUCKETS - 1
+                    || (upper - lower) * LatencyHistogram.SUB_BUCKETS <= upper);
+            assertEquals(i, LatencyHistogram.bucket(upper));
+            assertEquals(i, LatencyHistogram.bucket(lower + 1));
+        }
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; ++i) {
+                    histogram.record(3);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000L, histogram.getCount(2));
+        assertEquals(120000L, histogram.getSum());
+    }
+}
@@ -0,0 +1,51 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+    @Test
+    public void testEndpoint() throws IOException {
+        final Metrics metrics = new Metrics(Batch.getInstance(), new InetSocketAddress("127.0.0.1", 0));
+        try {
+            metrics.recordJobDuration(1500L);
+            metrics.recordSpawnLatency(300000L);
+            final HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:"
+                    + metrics.getPort() + Metrics.PATH).openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain"));
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                in.transferTo(body);
+            }
+            final String text = body.toString(StandardCharsets.UTF_8.name());
+            assertTrue(text.contains("# TYPE shell_task_pool_job_duration_seconds histogram\n"));
+            assertTrue(text.contains("shell_task_pool_job_duration_seconds_bucket{le=\"1.024\"} 0\n"));
+            assertTrue(text.contains("shell_task_pool_job_duration_seconds_bucket{le=\"1.28\"} 0\n"));
+            assertTrue(text.contains("shell_task_pool_job_duration_seconds_bucket{le=\"1.536\"} 1\n"));
+            assertTrue(text.contains("shell_task_pool_job_duration_seconds_bucket{le=\"2.048\"} 1\n"));
+            assertTrue(text.contains("shell_task_pool_job_duration_seconds_sum 1.5\n"));
+            assertTrue(text.contains("shell_task_pool_spawn_latency_seconds_count 1\n"));
+            assertTrue(text.contains("shell_task_pool_jobs_ended_total{status=\"failed\"} "));
+        } finally {
+            metrics.stop();
+        }
+    }
+
+    @Test
+    public void testLabelValue() {
+        final StringBuilder sb = new StringBuilder();
+        Metrics.appendLabelValue(sb, "a \"b\"\\\n");
+        assertEquals("a \\\"b\\\"\\\\\\n", sb.toString());
+    }
+}
@@ -2,6 +2,11 @@ package org.christiankakesa.applications.java.shelltaskpool;
 
 import org.junit.Test;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class MyThreadPoolExecutorTest {
@@ -9,4 +14,57 @@ public class MyThreadPoolExecutorTest {
     public void test() {
         assertTrue(true);
     }
+
+    @Test
+    public void testBoundedQueueBlocksInsteadOfRejecting() throws InterruptedException {
+        final int nbTasks = 100;
+        final AtomicInteger counter = new AtomicInteger();
+        final MyThreadPoolExecutor mtpe = new MyThreadPoolExecutor(Batch.getInstance(), 2, 2, 1);
+        for (int i = 0; i < nbTasks; ++i) {
+            mtpe.addTask(new Runnable() {
+                public void run() {
+                    counter.incrementAndGet();
+                }
+            });
+            assertTrue(mtpe.getQueue().size() <= 1);
+        }
+        mtpe.shutdown();
+        assertTrue(mtpe.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(nbTasks, counter.get());
+    }
+
+    @Test
+    public void testEndBatchCountsJobs() throws InterruptedException {
+        final Batch batch = Batch.getInstance().newBatch(Util.buildUUID(), null, 0L);
+        final MyThreadPoolExecutor mtpe = MyThreadPoolExecutor.newDaemonExecutor(ExecutorType.PLATFORM, 2, null);
+        try {
+            mtpe.startBatch(batch);
+            mtpe.addTask(new ShellTaskWorker(batch, "true"));
+            mtpe.addTask(new ShellTaskWorker(batch, "false"));
+            batch.awaitJobs();
+            assertTrue(mtpe.endBatch(batch).contains("|number_of_jobs:2|"));
+        } finally {
+            mtpe.shutdown();
+        }
+    }
+
+    @Test
+    public void testRetry() throws InterruptedException {
+        final MyThreadPoolExecutor mtpe = new MyThreadPoolExecutor(Batch.getInstance(), 1, 1);
+        Batch.getInstance().setRetryQueue(new RetryQueue(mtpe));
+        final int failed = Batch.getInstance().getBatchStatus().getFailedJob();
+        final AtomicReference<JobExecution> ended = new AtomicReference<JobExecution>();
+        try {
+            mtpe.addTask(new ShellTaskWorker(Batch.getInstance(), JobSpec.parse("[attempts:3 backoff:10ms] false"), -1,
+                    0L, ended::set));
+            Batch.getInstance().awaitJobs();
+        } finally {
+            Batch.getInstance().setRetryQueue(null);
+        }
+        mtpe.shutdown();
+        assertTrue(mtpe.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(JobExecution.JobStatus.FAILED, ended.get().getStatus());
+        assertEquals(3, ended.get().getAttempt());
+        assertEquals(failed + 1, Batch.getInstance().getBatchStatus().getFailedJob());
+    }
 }
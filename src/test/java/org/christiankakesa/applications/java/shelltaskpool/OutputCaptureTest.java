@@ -0,0 +1,56 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class OutputCaptureTest {
+    private static final String UTF8_ENCODING = "utf-8";
+
+    private static void write(final OutputCapture capture, final String s) throws Exception {
+        final ByteBuffer direct = ByteBuffer.allocateDirect(s.length());
+        direct.put(s.getBytes(UTF8_ENCODING));
+        direct.flip();
+        assertEquals(s.length(), capture.write(direct));
+        assertEquals(0, direct.remaining());
+    }
+
+    @Test
+    public void testSmallOutput() throws Exception {
+        final OutputCapture capture = new OutputCapture(8);
+        write(capture, "hello");
+        assertEquals(5, capture.getTotalBytes());
+        assertEquals("hello", capture.toString(UTF8_ENCODING));
+    }
+
+    @Test
+    public void testHeadAndTail() throws Exception {
+        final OutputCapture capture = new OutputCapture(4);
+        write(capture, "abcdefghij");
+        write(capture, "klm");
+        write(capture, "nopqrstuvwxyz");
+        assertEquals(26, capture.getTotalBytes());
+        assertEquals("abcd[... 18 bytes skipped ...]wxyz", capture.toString(UTF8_ENCODING));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        final OutputCapture capture = new OutputCapture(4);
+        write(capture, "abcdefghij");
+        capture.reset();
+        assertEquals(0, capture.getTotalBytes());
+        assertEquals("", capture.toString(UTF8_ENCODING));
+        write(capture, "xyz");
+        assertEquals("xyz", capture.toString(UTF8_ENCODING));
+    }
+
+    @Test
+    public void testZeroSize() throws Exception {
+        final OutputCapture capture = new OutputCapture(0);
+        write(capture, "abc");
+        assertEquals(3, capture.getTotalBytes());
+        assertEquals("[... 3 bytes skipped ...]", capture.toString(UTF8_ENCODING));
+    }
+}
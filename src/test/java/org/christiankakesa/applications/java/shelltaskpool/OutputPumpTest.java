@@ -0,0 +1,43 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class OutputPumpTest {
+    @Test
+    public void testPump() throws Exception {
+        final byte[] data = new byte[OutputPump.BUFFER_SIZE * 3 + 42];
+        Arrays.fill(data, (byte) 'x');
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        final long total = OutputPump.pump(new ByteArrayInputStream(data), Channels.newChannel(first), null,
+                Channels.newChannel(second));
+        assertEquals(data.length, total);
+        assertArrayEquals(data, first.toByteArray());
+        assertArrayEquals(data, second.toByteArray());
+    }
+
+    @Test
+    public void testPumpAsync() throws Exception {
+        final byte[] data = "shell-task-pool".getBytes("utf-8");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ExecutorService pumps = OutputPump.newPumps(ExecutorType.PLATFORM);
+        try {
+            final Future<Long> f = OutputPump.pumpAsync(pumps, new ByteArrayInputStream(data),
+                    Channels.newChannel(out));
+            assertEquals(Long.valueOf(data.length), f.get());
+            assertArrayEquals(data, out.toByteArray());
+        } finally {
+            pumps.shutdown();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PhaseTimerTest {
+    @Test
+    public void testBucket() {
+        assertEquals(0, PhaseTimer.bucket(-1));
+        assertEquals(15, PhaseTimer.bucket(15));
+        assertEquals(16, PhaseTimer.bucket(16));
+        assertEquals(PhaseTimer.BUCKETS - 1, PhaseTimer.bucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, PhaseTimer.highestValue(PhaseTimer.BUCKETS - 1));
+        assertEquals(PhaseTimer.BUCKETS - 2, PhaseTimer.bucket((1L << PhaseTimer.HIGHEST_BITS) - 1));
+        assertEquals((1L << PhaseTimer.HIGHEST_BITS) - 1, PhaseTimer.highestValue(PhaseTimer.BUCKETS - 2));
+        assertEquals(PhaseTimer.BUCKETS - 1, PhaseTimer.bucket(1L << PhaseTimer.HIGHEST_BITS));
+        for (long v = 0; v < 100000; v += 7) {
+            final int bucket = PhaseTimer.bucket(v);
+            assertTrue(v <= PhaseTimer.highestValue(bucket));
+            assertTrue(bucket == 0 || v > PhaseTimer.highestValue(bucket - 1));
+            assertTrue(PhaseTimer.highestValue(bucket) - v <= v / 16);
+        }
+    }
+
+    @Test
+    public void testValueAt() {
+        final long[] counts = new long[PhaseTimer.BUCKETS];
+        for (long v = 1; v <= 100; ++v) {
+            ++counts[PhaseTimer.bucket(v * 1000)];
+        }
+        assertEquals(50000.0, PhaseTimer.valueAt(counts, 100, 50.0), 50000.0 / 16);
+        assertEquals(99000.0, PhaseTimer.valueAt(counts, 100, 99.0), 99000.0 / 16);
+    }
+
+    @Test
+    public void testAppendPercentiles() throws InterruptedException {
+        final PhaseTimer timer = new PhaseTimer();
+        final Thread other = new Thread(() -> timer.record(PhaseTimer.Phase.SPAWN, 3000000L));
+        other.start();
+        other.join();
+        timer.record(PhaseTimer.Phase.SPAWN, 1000000L);
+        final StringBuilder sb = new StringBuilder();
+        timer.appendPercentiles(sb);
+        final String res = sb.toString();
+        assertTrue(res.startsWith("|queue_count:0|queue_p50_micros:-1|"));
+        assertTrue(res.contains("|spawn_count:2|"));
+        assertTrue(res.contains("|spawn_max_micros:3000|"));
+        assertTrue(res.contains("|spawn_p99_micros:3000|"));
+        assertTrue(res.contains("|run_count:0|"));
+    }
+
+    @Test
+    public void testRelease() {
+        final PhaseTimer timer = new PhaseTimer();
+        timer.record(PhaseTimer.Phase.RUN, 50000000000000L);
+        assertEquals(1, timer.getBufferCount());
+        final StringBuilder sb = new StringBuilder();
+        timer.appendPercentiles(sb);
+        assertTrue(sb.toString().contains("|run_count:1|run_p50_micros:50000000000|"));
+        assertEquals(0, timer.getBufferCount());
+        // Records after the end of the batch are dropped
+        timer.record(PhaseTimer.Phase.RUN, 1000L);
+        assertEquals(0, timer.getBufferCount());
+        final StringBuilder again = new StringBuilder();
+        timer.appendPercentiles(again);
+        assertTrue(again.toString().contains("|run_count:0|"));
+    }
+}
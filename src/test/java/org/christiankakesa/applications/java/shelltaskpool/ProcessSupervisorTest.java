@@ -0,0 +1,61 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProcessSupervisorTest {
+    @Test
+    public void testPermits() throws InterruptedException {
+        final ProcessSupervisor supervisor = new ProcessSupervisor(2);
+        assertEquals(2, supervisor.getMaxProcesses());
+        assertEquals(0, supervisor.getRunningProcesses());
+        supervisor.acquire();
+        supervisor.acquire();
+        assertEquals(2, supervisor.getRunningProcesses());
+        supervisor.release();
+        supervisor.release();
+        assertEquals(0, supervisor.getRunningProcesses());
+    }
+
+    @Test
+    public void testSetMaxProcesses() throws InterruptedException {
+        final ProcessSupervisor supervisor = new ProcessSupervisor(2);
+        supervisor.acquire();
+        supervisor.acquire();
+        supervisor.setMaxProcesses(1);
+        assertEquals(1, supervisor.getMaxProcesses());
+        assertEquals(2, supervisor.getRunningProcesses());
+        supervisor.release();
+        assertEquals(1, supervisor.getRunningProcesses());
+        supervisor.setMaxProcesses(3);
+        supervisor.acquire();
+        supervisor.acquire();
+        assertEquals(3, supervisor.getRunningProcesses());
+    }
+
+    @Test
+    public void testAwaitAll() throws InterruptedException {
+        final ProcessSupervisor supervisor = new ProcessSupervisor(3);
+        supervisor.acquire();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                supervisor.awaitAll();
+                done.countDown();
+            }
+        });
+        waiter.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        supervisor.getCompletionExecutor().execute(new Runnable() {
+            public void run() {
+                supervisor.release();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, supervisor.getRunningProcesses());
+    }
+}
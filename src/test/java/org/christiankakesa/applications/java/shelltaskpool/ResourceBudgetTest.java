@@ -0,0 +1,55 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResourceBudgetTest {
+    private static ResourceHints hints(final String line) {
+        return JobSpec.parse(line + " true").getHints();
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals("cpu:16.0,mem:" + (64L << 30) + ",io:4", ResourceBudget.parse("cpu:16,mem:64G,io=4").toString());
+        assertTrue(ResourceBudget.parse("").toString().startsWith("cpu:" + Util.defaultCorePoolSize() + ".0,"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownResource() {
+        ResourceBudget.parse("gpu:1");
+    }
+
+    @Test
+    public void testFits() {
+        final ResourceBudget budget = ResourceBudget.parse("cpu:4,mem:8G,io:1");
+        final ResourceHints cpu = hints("[cpu:3]");
+        final ResourceHints io = hints("[cpu:0.5 io:heavy]");
+        assertTrue(budget.fits(cpu, null));
+        budget.acquire(cpu);
+        assertEquals(3000L, budget.getUsedMilliCpus());
+        assertTrue(budget.fits(io, null));
+        budget.acquire(io);
+        assertFalse(budget.fits(io, null));
+        assertFalse(budget.fits(hints("[cpu:1]"), null));
+        assertTrue(budget.fits(hints("[cpu:0.5 mem:8G]"), null));
+        budget.release(cpu);
+        assertTrue(budget.fits(hints("[cpu:1]"), null));
+        // Room is kept for a waiting job
+        assertFalse(budget.fits(hints("[cpu:1]"), hints("[cpu:3]")));
+        budget.release(io);
+        assertEquals(0, budget.getUsedIoSlots());
+        assertEquals(0L, budget.getUsedMemory());
+    }
+
+    @Test
+    public void testLargerThanBudget() {
+        final ResourceBudget budget = ResourceBudget.parse("cpu:2,mem:0");
+        final ResourceHints large = hints("[cpu:8 mem:1T]");
+        assertTrue(budget.fits(large, null));
+        budget.acquire(large);
+        // A job larger than the budget runs alone
+        assertFalse(budget.fits(hints("[cpu:0.1]"), null));
+        assertTrue(budget.fits(hints("[cpu:0 mem:1T]"), null));
+    }
+}
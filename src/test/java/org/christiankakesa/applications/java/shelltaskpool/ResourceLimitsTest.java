@@ -0,0 +1,35 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResourceLimitsTest {
+    @Test
+    public void testParse() {
+        final ResourceLimits limits = ResourceLimits.parse("cpu.max:1.5,memory.max=2G, io.weight:50");
+        assertEquals(1.5, limits.getCpuMax(), 0.0);
+        assertEquals(2L * 1024 * 1024 * 1024, limits.getMemoryMax());
+        assertEquals(50, limits.getIoWeight());
+        assertTrue(ResourceLimits.parse("").isNone());
+    }
+
+    @Test
+    public void testWithDefaults() {
+        final ResourceLimits limits = ResourceLimits.parse("memory.max:1M")
+                .withDefaults(ResourceLimits.parse("cpu.max:2,memory.max:4G"));
+        assertEquals(2.0, limits.getCpuMax(), 0.0);
+        assertEquals(1024L * 1024, limits.getMemoryMax());
+        assertEquals(0, limits.getIoWeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownLimit() {
+        ResourceLimits.parse("pids.max:10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongIoWeight() {
+        ResourceLimits.parse("io.weight:20000");
+    }
+}
@@ -0,0 +1,119 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private static File newInput(final File directory, final String content) throws Exception {
+        final File input = File.createTempFile("input", ".txt", directory);
+        Files.write(input.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return input;
+    }
+
+    /**
+     * Run jobs in a batch of their own, cached.
+     *
+     * @return Batch of the jobs.
+     */
+    private static Batch runCached(final ResultCache cache, final JobSpec... specs) {
+        final Batch batch = Batch.getInstance().newBatch(Util.buildUUID(), null, 0L);
+        batch.setResultCache(cache);
+        for (JobSpec spec : specs) {
+            new JobExecution(batch, spec, -1, null).start();
+        }
+        return batch;
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        final File directory = tmp.newFolder();
+        final ResultCache cache = new ResultCache(directory, ResultCache.DEFAULT_MAX_SIZE);
+        final File input = newInput(directory, "a");
+        final String key = cache.key("cat  x", Collections.singletonList(input.getPath()));
+        assertEquals(64, key.length());
+        assertEquals(key, cache.key("cat x", Collections.singletonList(input.getPath())));
+        assertNotEquals(key, cache.key("cat y", Collections.singletonList(input.getPath())));
+        Files.write(input.toPath(), "b".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(key, cache.key("cat x", Collections.singletonList(input.getPath())));
+        assertNull(cache.key("cat x", Collections.singletonList(new File(directory, "missing").getPath())));
+    }
+
+    @Test
+    public void testHitAfterSuccessfulRun() throws Exception {
+        final File directory = tmp.newFolder();
+        final ResultCache cache = new ResultCache(directory, ResultCache.DEFAULT_MAX_SIZE);
+        final File input = newInput(directory, "hello\n");
+        final JobSpec spec = JobSpec.parse("[inputs:" + input.getPath() + "] cat " + input.getPath());
+        final JobSpec failing = JobSpec.parse("[inputs:" + input.getPath() + "] false");
+        runCached(cache, spec, failing);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        // Header and output of the successful run only
+        assertEquals(ResultCache.ENTRY_HEADER_SIZE + 6, cache.getTotalSize());
+        final Batch batch = runCached(cache, spec, failing);
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, batch.getBatchStatus().getCacheHits());
+        assertEquals(1, batch.getBatchStatus().getCacheMisses());
+        final String key = cache.key(spec.getCommandLine(), spec.getInputs());
+        final ResultCache.Entry entry = cache.lookup(key);
+        assertEquals(0, entry.getExitCode());
+        assertEquals(6, entry.getOutputBytes());
+        // Entries are loaded by a new cache
+        assertNotNull(new ResultCache(directory, ResultCache.DEFAULT_MAX_SIZE).lookup(key));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        final File directory = tmp.newFolder();
+        final long entrySize = ResultCache.ENTRY_HEADER_SIZE + 2;
+        final ResultCache cache = new ResultCache(directory, 2 * entrySize);
+        final File input = newInput(directory, "x");
+        final JobSpec[] specs = new JobSpec[3];
+        for (int i = 0; i < specs.length; ++i) {
+            specs[i] = JobSpec.parse("[inputs:" + input.getPath() + "] echo " + i);
+        }
+        runCached(cache, specs[0], specs[1]);
+        // Use 0, then add 2: 1 is evicted
+        runCached(cache, specs[0], specs[2]);
+        assertEquals(2 * entrySize, cache.getTotalSize());
+        assertNotNull(cache.lookup(cache.key(specs[0].getCommandLine(), specs[0].getInputs())));
+        assertNull(cache.lookup(cache.key(specs[1].getCommandLine(), specs[1].getInputs())));
+        assertNotNull(cache.lookup(cache.key(specs[2].getCommandLine(), specs[2].getInputs())));
+        assertEquals(2, directory.listFiles((dir, name) -> name.endsWith(ResultCache.ENTRY_SUFFIX)).length);
+    }
+
+    @Test
+    public void testInputHashesBounded() throws Exception {
+        final File directory = tmp.newFolder();
+        final ResultCache cache = new ResultCache(directory, ResultCache.DEFAULT_MAX_SIZE);
+        final File input = newInput(directory, "x");
+        final long modified = input.lastModified();
+        for (int i = 0; i <= ResultCache.INPUT_HASHES_SIZE; ++i) {
+            // Each modification time is a new input hash
+            assertTrue(input.setLastModified(modified - i * 1000L));
+            assertNotNull(cache.key("cat x", Collections.singletonList(input.getPath())));
+        }
+        assertTrue(cache.getInputHashCount() <= ResultCache.INPUT_HASHES_SIZE);
+    }
+
+    @Test
+    public void testNotCachedWithoutInputs() throws Exception {
+        final ResultCache cache = new ResultCache(tmp.newFolder(), ResultCache.DEFAULT_MAX_SIZE);
+        runCached(cache, JobSpec.parse("true"));
+        assertEquals(0, cache.getMisses());
+        assertEquals(Arrays.asList("a", "b"), JobSpec.parse("[inputs:a,b] true").getInputs());
+    }
+}
@@ -0,0 +1,59 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+    @Test
+    public void testParse() {
+        final RetryPolicy policy = RetryPolicy.parse("attempts:3 retry_on:75,111 backoff=2s");
+        assertEquals(3, policy.getAttempts());
+        assertTrue(policy.getRetryOn().contains(75));
+        assertTrue(policy.getRetryOn().contains(111));
+        assertEquals(1, RetryPolicy.parse("").getAttempts());
+    }
+
+    @Test
+    public void testShouldRetry() {
+        final RetryPolicy policy = RetryPolicy.parse("attempts:3 retry_on:75");
+        assertTrue(policy.shouldRetry(1, 75));
+        assertTrue(policy.shouldRetry(2, 75));
+        assertFalse(policy.shouldRetry(3, 75));
+        assertFalse(policy.shouldRetry(1, 1));
+        assertTrue(RetryPolicy.parse("attempts:2").shouldRetry(1, 1));
+        assertFalse(RetryPolicy.NONE.shouldRetry(1, 1));
+    }
+
+    @Test
+    public void testWithDefaults() {
+        final RetryPolicy policy = RetryPolicy.parse("retry_on:75")
+                .withDefaults(RetryPolicy.parse("attempts:4 retry_on:1"));
+        assertEquals(4, policy.getAttempts());
+        assertFalse(policy.shouldRetry(1, 1));
+        assertTrue(policy.shouldRetry(1, 75));
+    }
+
+    @Test
+    public void testDelay() {
+        final RetryPolicy policy = RetryPolicy.parse("attempts:10 backoff:1s");
+        for (int i = 0; i < 100; ++i) {
+            final long first = policy.delayMillis(1);
+            assertTrue(first >= 500 && first <= 1000);
+            final long third = policy.delayMillis(3);
+            assertTrue(third >= 2000 && third <= 4000);
+            final long capped = policy.delayMillis(40);
+            assertTrue(capped >= RetryPolicy.MAX_BACKOFF_MILLIS / 2 && capped <= RetryPolicy.MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownAttribute() {
+        RetryPolicy.parse("retries:3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongAttempts() {
+        RetryPolicy.parse("attempts:0");
+    }
+}
@@ -2,6 +2,11 @@ package org.christiankakesa.applications.java.shelltaskpool;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 /**
@@ -11,7 +16,17 @@ import static org.junit.Assert.assertNotNull;
 public class ShellTaskWorkerTest {
     @Test
     public void test() {
-        final ShellTaskWorker stw = new ShellTaskWorker("sh do_some_stuff.sh");
+        final ShellTaskWorker stw = new ShellTaskWorker(Batch.getInstance(), "sh do_some_stuff.sh");
         assertNotNull(stw);
     }
+
+    @Test
+    public void testHighestPriorityFirst() {
+        final ShellTaskWorker first = new ShellTaskWorker(Batch.getInstance(), new JobSpec("a"), -1, 10L, null);
+        final ShellTaskWorker second = new ShellTaskWorker(Batch.getInstance(), new JobSpec("b"), -1, 40L, null);
+        final ShellTaskWorker third = new ShellTaskWorker(Batch.getInstance(), new JobSpec("c"), -1, 10L, null);
+        final List<ShellTaskWorker> workers = new ArrayList<ShellTaskWorker>(Arrays.asList(first, second, third));
+        workers.sort(ShellTaskWorker.HIGHEST_PRIORITY_FIRST);
+        assertEquals(Arrays.asList(second, first, third), workers);
+    }
 }
@@ -103,11 +103,58 @@ public class UtilTest extends TestCase {
         assertEquals(Util.buildDurationFromDates(BEGIN_DATE, END_DATE), "02:42:42.042");
     }
 
+    //@Test
+    public void testAppendDuration() {
+        final StringBuilder sb = new StringBuilder();
+        Util.appendDuration(sb, 9762042L);
+        assertEquals("02:42:42.042", sb.toString());
+        sb.setLength(0);
+        Util.appendDuration(sb, 0L);
+        assertEquals("00:00:00.000", sb.toString());
+        sb.setLength(0);
+        Util.appendDuration(sb, 360000000L + 1L);
+        assertEquals("100:00:00.001", sb.toString());
+    }
+
     //@Test
     public void testParseCommandLineToStringArray() {
         final String CMD_LINE_PARAMS = "'-p xx-xx-xx' \"-x toto\" '-42 -42' --Tester testerSize";
         final int NB_TOKEN = 5;
         assertEquals(Util.parseCommandLineToStringArray(CMD_LINE_PARAMS).length, NB_TOKEN);
+        assertTrue(java.util.Arrays.equals(new String[]{"-p xx-xx-xx", "-x toto", "-42 -42", "--Tester", "testerSize"},
+                Util.parseCommandLineToStringArray(CMD_LINE_PARAMS)));
+    }
+
+    //@Test
+    public void testTokenizeCommandLinePosixQuoting() {
+        assertTrue(java.util.Arrays.equals(new String[]{"sh", "-c", "echo 'a b' > /tmp/x"},
+                Util.tokenizeCommandLine("sh -c \"echo 'a b' > /tmp/x\"")));
+        assertTrue(java.util.Arrays.equals(new String[]{"a b", "c\"d", "$HOME", "\\n"},
+                Util.tokenizeCommandLine("a\\ b c\\\"d \"\\$HOME\" '\\n'")));
+        assertTrue(java.util.Arrays.equals(new String[]{"ab cd", ""},
+                Util.tokenizeCommandLine("  a\"b c\"d  \"\"  ")));
+        assertTrue(java.util.Arrays.equals(new String[]{"x", "unterminated quote"},
+                Util.tokenizeCommandLine("x 'unterminated quote")));
+        assertEquals(0, Util.tokenizeCommandLine("   ").length);
+    }
+
+    //@Test
+    public void testParseCommandLineCache() {
+        final String cmd = "ls -l '/tmp/my dir'";
+        final String[] first = Util.parseCommandLineToStringArray(cmd);
+        first[0] = "rm";
+        final String[] second = Util.parseCommandLineToStringArray(cmd);
+        assertEquals("ls", second[0]);
+        assertEquals("/tmp/my dir", second[2]);
+    }
+
+    //@Test
+    public void testParseCommandLineCacheOverflow() {
+        for (int i = 0; i <= 2 * Util.COMMAND_LINE_CACHE_SIZE; ++i) {
+            final String[] tokens = Util.parseCommandLineToStringArray("echo " + i);
+            assertEquals(String.valueOf(i), tokens[1]);
+        }
+        assertEquals("ls", Util.parseCommandLineToStringArray("ls -l '/tmp/my dir'")[0]);
     }
 
     //@Test
@@ -127,6 +174,48 @@ public class UtilTest extends TestCase {
         assertFalse(UUID1.equals(UUID2));
     }
 
+    //@Test
+    public void testParseByteSize() {
+        assertEquals(512L, Util.parseByteSize("512"));
+        assertEquals(4L * 1024, Util.parseByteSize("4k"));
+        assertEquals(256L * 1024 * 1024, Util.parseByteSize(" 256M"));
+        assertEquals(2L * 1024 * 1024 * 1024, Util.parseByteSize("2G"));
+        try {
+            Util.parseByteSize("2X");
+            fail("NumberFormatException expected");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    //@Test
+    public void testParseDuration() {
+        assertEquals(30000L, Util.parseDuration("30"));
+        assertEquals(500L, Util.parseDuration("500ms"));
+        assertEquals(90000L, Util.parseDuration(" 90s"));
+        assertEquals(5L * 60 * 1000, Util.parseDuration("5m"));
+        assertEquals(2L * 60 * 60 * 1000, Util.parseDuration("2H"));
+        try {
+            Util.parseDuration("ms");
+            fail("NumberFormatException expected");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    //@Test
+    public void testParseSocketAddress() {
+        assertEquals(9464, Util.parseSocketAddress("9464").getPort());
+        assertEquals("localhost", Util.parseSocketAddress("localhost:9464").getHostString());
+        assertEquals(9465, Util.parseSocketAddress("localhost:9465").getPort());
+        try {
+            Util.parseSocketAddress("localhost:");
+            fail("NumberFormatException expected");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
     //@Test
     public void testRemoveChar() {
         final String ONE_S = "-titi-toto-";
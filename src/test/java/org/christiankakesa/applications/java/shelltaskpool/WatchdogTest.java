@@ -0,0 +1,49 @@
+package org.christiankakesa.applications.java.shelltaskpool;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class WatchdogTest {
+    @Test
+    public void testSchedule() throws InterruptedException {
+        final Watchdog watchdog = new Watchdog(10L, 8);
+        final CountDownLatch fired = new CountDownLatch(1);
+        final long deadline = System.currentTimeMillis() + 50L;
+        watchdog.schedule(deadline, fired::countDown);
+        assertTrue(fired.await(1, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() >= deadline);
+    }
+
+    @Test
+    public void testSeveralRounds() throws InterruptedException {
+        // 4 buckets of 5 ms: a 100 ms deadline waits for 5 rounds of the wheel
+        final Watchdog watchdog = new Watchdog(5L, 4);
+        final CountDownLatch fired = new CountDownLatch(1);
+        final long deadline = System.currentTimeMillis() + 100L;
+        watchdog.schedule(deadline, fired::countDown);
+        assertTrue(fired.await(1, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() >= deadline);
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        final Watchdog watchdog = new Watchdog(10L, 8);
+        final AtomicBoolean cancelledFired = new AtomicBoolean();
+        final CountDownLatch fired = new CountDownLatch(1);
+        final long now = System.currentTimeMillis();
+        watchdog.schedule(now + 30L, () -> cancelledFired.set(true)).cancel();
+        watchdog.schedule(now + 60L, fired::countDown);
+        assertTrue(fired.await(1, TimeUnit.SECONDS));
+        assertFalse(cancelledFired.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWheelSize() {
+        new Watchdog(10L, 6);
+    }
+}